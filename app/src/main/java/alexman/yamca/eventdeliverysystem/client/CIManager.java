@@ -1,45 +1,95 @@
 package alexman.yamca.eventdeliverysystem.client;
 
-import static alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType.BROKER_DISCOVERY;
+import static alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType.CONSUMER_DISCOVERY;
+import static alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType.ROUTING_TABLE_DISCOVERY;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.InetAddress;
-import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
-import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.ControlResponse;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable.PlacementDelta;
+import alexman.yamca.eventdeliverysystem.util.LG;
 
 /**
- * Wrapper for a cache that communicates with the default Broker to obtain and store the
- * ConnectionInfo objects for many Topics.
+ * Wrapper for a RoutingTable obtained from the default Broker, from which the ConnectionInfo
+ * objects for any Topic are found locally. The RoutingTable is requested over a single {@link
+ * ControlChannel} to the default Broker, which then sends every newer version of it as soon as it
+ * exists.
+ * <p>
+ * Every Broker has the RoutingTable, so any of them can be the default Broker. The first one is
+ * the first of a number of seed Brokers, and if the connection to it is lost the next seed Broker
+ * or the next Broker of the RoutingTable becomes the default Broker.
+ * <p>
+ * Once the first RoutingTable has been received, finding the ConnectionInfo for a Topic requires
+ * neither communication with the default Broker nor any locking. Consumers of Topics that are
+ * copied to followers are spread over the Brokers of the Topic, and a follower that isn't in sync
+ * sends them to the actual Broker of the Topic. Until then, the default Broker sends them to the
+ * least loaded Broker of the Topic, since the Brokers know each other's load.
+ * <p>
+ * Requests for Topics don't wait for the first RoutingTable, since any Broker forwards them to
+ * the actual Broker of their Topic. Such requests are sent to the default Broker while the
+ * RoutingTable is fetched in the background, and the actual Broker in the response of a forwarded
+ * request causes the RoutingTable to be fetched again if it places the Topic elsewhere.
+ * <p>
+ * The Brokers that are no longer part of a newer RoutingTable, because they have left the server
+ * or have failed, are reported as soon as it is received, so that their connections can be
+ * dropped instead of waiting for them to time out.
  *
  * @author Alex Mandelias
  */
 final class CIManager {
 
-	private final Map<String, ConnectionInfo> cache = new HashMap<>();
+	private final List<InetSocketAddress> seeds;
+	private final Consumer<ConnectionInfo> onBrokerLeft;
 
-	private final InetAddress defaultBrokerIP;
-	private final int defaultBrokerPort;
+	// guarded by this
+	private InetSocketAddress defaultBroker;
+	private ControlChannel defaultBrokerChannel;
+	private int nextCandidateIndex = 1;
+
+	private final AtomicReference<RoutingTable> routingTable = new AtomicReference<>();
+	private final AtomicBoolean watching = new AtomicBoolean(false);
+	private final AtomicInteger failedWatches = new AtomicInteger(0);
+	private final AtomicBoolean fetching = new AtomicBoolean(false);
 
 	/**
-	 * Constructs the CIManager given the ConnectionInfo to the default Broker.
+	 * Constructs the CIManager given the addresses of the seed Brokers, the first of which is the
+	 * first default Broker.
+	 *
+	 * @param seeds the resolved addresses of the seed Brokers
+	 * @param onBrokerLeft the action to perform for each Broker that is no longer part of the
+	 * 		RoutingTable
 	 *
-	 * @param defaultBrokerIP the InetAddress of the default Broker to connect to
-	 * @param defaultBrokerPort the Port of the default Broker to connect to
+	 * @throws IllegalArgumentException if there are no seed Brokers
 	 */
-	CIManager(InetAddress defaultBrokerIP, int defaultBrokerPort) {
-		this.defaultBrokerIP = defaultBrokerIP;
-		this.defaultBrokerPort = defaultBrokerPort;
+	CIManager(List<InetSocketAddress> seeds, Consumer<ConnectionInfo> onBrokerLeft) {
+		if (seeds.isEmpty()) {
+			throw new IllegalArgumentException("At least one seed Broker is needed");
+		}
+
+		this.seeds = new ArrayList<>(seeds);
+		this.onBrokerLeft = onBrokerLeft;
+		defaultBroker = seeds.get(0);
+		defaultBrokerChannel = newControlChannel(defaultBroker);
 	}
 
 	/**
-	 * Communicates with the default Broker to fetch the ConnectionInfo associated with a Topic,
-	 * which is then cached. Future requests for it will use the ConnectionInfo found in the cache.
+	 * Finds the ConnectionInfo associated with a Topic using the RoutingTable, which is fetched
+	 * from the default Broker the first time it is needed and is kept up to date after that.
 	 *
 	 * @param topicName the Topic for which to get the ConnectionInfo
 	 *
@@ -48,29 +98,296 @@ final class CIManager {
 	 * @throws ServerException if a connection to the server fails
 	 */
 	ConnectionInfo getConnectionInfoForTopic(String topicName) throws ServerException {
-		final ConnectionInfo cachedAddress = cache.get(topicName);
-		if (cachedAddress != null) {
-			return cachedAddress;
+		RoutingTable table = routingTable.get();
+		if (table == null) {
+			update((RoutingTable) callDefaultBroker(ROUTING_TABLE_DISCOVERY,
+					RoutingTable.NO_VERSION));
+			table = routingTable.get();
+		}
+
+		if (watching.compareAndSet(false, true)) {
+			watch(table.getVersion());
+		}
+
+		return table.getBrokerForTopic(topicName);
+	}
+
+	/**
+	 * Finds the ConnectionInfo associated with a Topic using the RoutingTable, if it has been
+	 * received, without waiting for it otherwise.
+	 *
+	 * @param topicName the Topic for which to get the ConnectionInfo
+	 *
+	 * @return the ConnectionInfo for that Topic, or {@code null} if the RoutingTable hasn't been
+	 * 		received yet
+	 */
+	ConnectionInfo getKnownConnectionInfoForTopic(String topicName) {
+		final RoutingTable table = routingTable.get();
+		if (table == null) {
+			return null;
+		}
+
+		if (watching.compareAndSet(false, true)) {
+			watch(table.getVersion());
+		}
+
+		return table.getBrokerForTopic(topicName);
+	}
+
+	/**
+	 * Sends a request for a Topic without waiting for its response, either over the given
+	 * ControlChannel to its actual Broker or, if it isn't known, to the default Broker, which
+	 * forwards it. In the latter case the RoutingTable is fetched in the background.
+	 *
+	 * @param channel the ControlChannel to the actual Broker of the Topic, or {@code null} to
+	 * 		send the request to the default Broker
+	 * @param type the type of the request
+	 * @param topicName the name of the Topic
+	 *
+	 * @return a future that is completed with the value of the response, or exceptionally with a
+	 * 		ServerException if the connection to the Broker is lost before the response arrives
+	 */
+	CompletableFuture<Object> sendTopicRequest(ControlChannel channel, MessageType type,
+			String topicName) {
+		return sendTopicRequest(channel, type, topicName, topicName);
+	}
+
+	/**
+	 * Sends a request for a Topic whose value isn't the name of the Topic.
+	 *
+	 * @param channel the ControlChannel to the actual Broker of the Topic, or {@code null} to
+	 * 		send the request to the default Broker
+	 * @param type the type of the request
+	 * @param topicName the name of the Topic
+	 * @param value the value of the request
+	 *
+	 * @return a future that is completed with the value of the response, or exceptionally with a
+	 * 		ServerException if the connection to the Broker is lost before the response arrives
+	 *
+	 * @see #sendTopicRequest(ControlChannel, MessageType, String)
+	 */
+	CompletableFuture<Object> sendTopicRequest(ControlChannel channel, MessageType type,
+			String topicName, Serializable value) {
+		final ControlChannel actualChannel;
+		if (channel != null) {
+			actualChannel = channel;
+		} else {
+			actualChannel = getDefaultBrokerChannel();
+			if (routingTable.get() == null) {
+				fetch();
+			}
 		}
 
-		final ConnectionInfo newAddress = getCIForTopic(topicName);
-		cache.put(topicName, newAddress);
-		return newAddress;
+		final CompletableFuture<Object> responseValue = new CompletableFuture<>();
+		actualChannel.sendForResponse(type, value).whenComplete((response, cause) -> {
+			if (cause != null) {
+				if (channel == null) {
+					replaceDefaultBroker(actualChannel);
+				}
+				responseValue.completeExceptionally(cause);
+				return;
+			}
+
+			checkActualBroker(topicName, response);
+			responseValue.complete(response.getValue());
+		});
+
+		return responseValue;
 	}
 
-	private ConnectionInfo getCIForTopic(String topicName) throws ServerException {
-		try (Socket socket = new Socket(defaultBrokerIP, defaultBrokerPort)) {
+	/**
+	 * Finds the ConnectionInfo of the Broker from which a Consumer receives the Posts of a Topic,
+	 * which is any of the Brokers that the RoutingTable places the Topic on. If the RoutingTable
+	 * hasn't been received yet, the default Broker chooses the least loaded of them, while the
+	 * RoutingTable is fetched in the background.
+	 *
+	 * @param topicName the Topic for which to get the ConnectionInfo
+	 *
+	 * @return the ConnectionInfo for that Topic
+	 *
+	 * @throws ServerException if a connection to the server fails
+	 */
+	ConnectionInfo getConnectionInfoForConsumer(String topicName) throws ServerException {
+		final RoutingTable table = routingTable.get();
+		if (table == null) {
+			fetch();
+			return (ConnectionInfo) callDefaultBroker(CONSUMER_DISCOVERY, topicName);
+		}
+
+		if (watching.compareAndSet(false, true)) {
+			watch(table.getVersion());
+		}
+
+		final List<ConnectionInfo> replicas = table.getReplicasForTopic(topicName);
+		return replicas.get(ThreadLocalRandom.current().nextInt(replicas.size()));
+	}
+
+	/**
+	 * Fetches the current RoutingTable from the default Broker, after a Broker has redirected a
+	 * request for a Topic it no longer has, since the RoutingTable watched may not have arrived.
+	 *
+	 * @throws ServerException if a connection to the server fails
+	 */
+	void refresh() throws ServerException {
+		update((RoutingTable) callDefaultBroker(ROUTING_TABLE_DISCOVERY,
+				RoutingTable.NO_VERSION));
+	}
+
+	/** Closes the connection to the default Broker. */
+	void close() {
+		getDefaultBrokerChannel().close();
+	}
+
+	// fetches the RoutingTable again if a request was forwarded to a Broker other than the one
+	// that it places the Topic on, since a newer one must exist
+	private void checkActualBroker(String topicName, ControlResponse response) {
+		final ConnectionInfo actualBroker = response.getActualBroker();
+		if (actualBroker == null) {
+			return;
+		}
+
+		final RoutingTable table = routingTable.get();
+		if ((table == null) || !actualBroker.equals(table.getBrokerForTopic(topicName))) {
+			fetch();
+		}
+	}
+
+	// fetches the current RoutingTable from the default Broker in the background and starts
+	// watching it, unless it is already being fetched
+	private void fetch() {
+		if (!fetching.compareAndSet(false, true)) {
+			return;
+		}
+
+		final ControlChannel channel = getDefaultBrokerChannel();
+		channel.send(ROUTING_TABLE_DISCOVERY, RoutingTable.NO_VERSION)
+		       .whenComplete((newRoutingTable, cause) -> {
+			       fetching.set(false);
+			       if (cause != null) {
+				       replaceDefaultBroker(channel);
+				       return;
+			       }
+
+			       update((RoutingTable) newRoutingTable);
+			       if (watching.compareAndSet(false, true)) {
+				       watch(routingTable.get().getVersion());
+			       }
+		       });
+	}
+
+	// sends a request to the default Broker and waits for its response. if the connection is
+	// lost, the request is sent to the next default Broker, until every Broker has been tried.
+	private Object callDefaultBroker(MessageType type, Serializable value)
+			throws ServerException {
+		ServerException cause = null;
+		for (int i = 0, count = getCandidates().size(); i < count; i++) {
+			final ControlChannel channel = getDefaultBrokerChannel();
+			try {
+				return channel.call(type, value);
+			} catch (final ServerException e) {
+				cause = e;
+				replaceDefaultBroker(channel);
+			}
+		}
+
+		throw cause;
+	}
+
+	// asks the default Broker for the RoutingTable that follows the given version, which is
+	// only its PlacementDelta if it only places Topics. if the connection is lost the next
+	// default Broker is asked at once, since the Broker that was lost has most likely left the
+	// server, until every Broker has been tried. after that, the next lookup asks again.
+	private void watch(long knownVersion) {
+		final ControlChannel channel = getDefaultBrokerChannel();
+		channel.send(ROUTING_TABLE_DISCOVERY, knownVersion)
+		       .whenComplete((newRoutingTable, cause) -> {
+			       if (cause != null) {
+				       replaceDefaultBroker(channel);
+				       if (failedWatches.incrementAndGet() < getCandidates().size()) {
+					       watch(knownVersion);
+				       } else {
+					       failedWatches.set(0);
+					       watching.set(false);
+				       }
+				       return;
+			       }
+
+			       failedWatches.set(0);
+			       if (newRoutingTable instanceof PlacementDelta) {
+				       // ignored if a newer RoutingTable has been fetched in the meantime
+				       update(routingTable.get()
+				                          .withPlacementDelta((PlacementDelta) newRoutingTable));
+			       } else {
+				       update((RoutingTable) newRoutingTable);
+			       }
+			       watch(routingTable.get().getVersion());
+		       });
+	}
+
+	private synchronized ControlChannel getDefaultBrokerChannel() {
+		return defaultBrokerChannel;
+	}
+
+	// replaces the default Broker with the next seed Broker or Broker of the RoutingTable,
+	// unless it has already been replaced since the connection to it was lost. the lost channel
+	// is closed without holding the lock, since it completes its requests holding its own.
+	private void replaceDefaultBroker(ControlChannel lostChannel) {
+		synchronized (this) {
+			if (lostChannel != defaultBrokerChannel) {
+				return;
+			}
+
+			final List<InetSocketAddress> candidates = getCandidates();
+			InetSocketAddress next = candidates.get(nextCandidateIndex++ % candidates.size());
+			if (next.equals(defaultBroker) && (candidates.size() > 1)) {
+				next = candidates.get(nextCandidateIndex++ % candidates.size());
+			}
+
+			LG.sout("CIManager#replaceDefaultBroker(%s -> %s)", defaultBroker, next);
+			defaultBroker = next;
+			defaultBrokerChannel = newControlChannel(next);
+		}
+
+		lostChannel.close();
+	}
+
+	// the seed Brokers followed by the other Brokers of the RoutingTable
+	private List<InetSocketAddress> getCandidates() {
+		final Set<InetSocketAddress> candidates = new LinkedHashSet<>(seeds);
+
+		final RoutingTable table = routingTable.get();
+		if (table != null) {
+			for (final ConnectionInfo broker : table.getWeightPerBroker().keySet()) {
+				candidates.add(new InetSocketAddress(broker.getAddress(), broker.getPort()));
+			}
+		}
+
+		return new ArrayList<>(candidates);
+	}
+
+	private static ControlChannel newControlChannel(InetSocketAddress broker) {
+		return new ControlChannel(broker.getAddress(), broker.getPort());
+	}
 
-			final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-			oos.writeObject(new Message(BROKER_DISCOVERY, topicName));
-			oos.flush();
-			final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+	// keeps the newest of the current and the new RoutingTable and reports the Brokers that
+	// are no longer part of it
+	private void update(RoutingTable newRoutingTable) {
+		while (true) {
+			final RoutingTable current = routingTable.get();
+			if ((current != null) && (newRoutingTable.getVersion() <= current.getVersion())) {
+				return;
+			}
 
-			return (ConnectionInfo) ois.readObject();
-		} catch (ClassNotFoundException e) {
-			throw new RuntimeException(e);
-		} catch (final IOException e) {
-			throw new ServerException("Connection to main server failed", e);
+			if (routingTable.compareAndSet(current, newRoutingTable)) {
+				LG.sout("CIManager#update(%s)", newRoutingTable);
+				if (current != null) {
+					final Set<ConnectionInfo> leftBrokers =
+							new HashSet<>(current.getWeightPerBroker().keySet());
+					leftBrokers.removeAll(newRoutingTable.getWeightPerBroker().keySet());
+					leftBrokers.forEach(onBrokerLeft);
+				}
+				return;
+			}
 		}
 	}
 }
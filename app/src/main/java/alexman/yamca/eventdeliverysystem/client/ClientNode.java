@@ -5,8 +5,14 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import alexman.yamca.eventdeliverysystem.client.User.UserStub;
 import alexman.yamca.eventdeliverysystem.client.UserEvent.Tag;
@@ -65,6 +71,8 @@ abstract class ClientNode {
 	 */
 	protected final UserStub userStub;
 
+	private final Map<ConnectionInfo, ControlChannel> controlChannelPerBroker = new HashMap<>();
+
 	/**
 	 * Constructs a Client Node that will connect to a specific default broker.
 	 *
@@ -104,10 +112,113 @@ abstract class ClientNode {
 	 * @param userStub the UserSub object that will be notified when data arrives
 	 */
 	protected ClientNode(InetAddress ip, int port, UserStub userStub) {
-		topicCIManager = new CIManager(ip, port);
+		topicCIManager = new CIManager(Collections.singletonList(new InetSocketAddress(ip, port)),
+				this::onBrokerLeft);
+		this.userStub = userStub;
+	}
+
+	/**
+	 * Constructs a Client Node that will connect to any of a number of seed brokers, the first of
+	 * which is the first default broker.
+	 *
+	 * @param seeds the addresses of the seed brokers
+	 * @param userStub the UserSub object that will be notified when data arrives
+	 *
+	 * @throws UnknownHostException if the address of a seed broker is unresolved
+	 * @throws IllegalArgumentException if there are no seed brokers
+	 */
+	protected ClientNode(List<InetSocketAddress> seeds, UserStub userStub)
+			throws UnknownHostException {
+		for (final InetSocketAddress seed : seeds) {
+			if (seed.isUnresolved()) {
+				throw new UnknownHostException(seed.getHostString());
+			}
+		}
+
+		topicCIManager = new CIManager(seeds, this::onBrokerLeft);
 		this.userStub = userStub;
 	}
 
+	/**
+	 * Drops the connections to a Broker that has left the server, so that the requests waiting
+	 * for it fail at once and the next ones are sent to the Brokers that have taken over its
+	 * Topics.
+	 *
+	 * @param brokerCI the ConnectionInfo of the Broker
+	 */
+	protected void onBrokerLeft(ConnectionInfo brokerCI) {
+		LG.sout("ClientNode#onBrokerLeft(%s)", brokerCI);
+		final ControlChannel channel;
+		synchronized (this) {
+			channel = controlChannelPerBroker.remove(brokerCI);
+		}
+
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Returns the ControlChannel to a Broker, which is created the first time it is requested and
+	 * is then shared by all requests to that Broker.
+	 *
+	 * @param brokerCI the ConnectionInfo of the Broker
+	 *
+	 * @return the ControlChannel to that Broker
+	 */
+	protected final synchronized ControlChannel getControlChannel(ConnectionInfo brokerCI) {
+		return controlChannelPerBroker.computeIfAbsent(brokerCI,
+				ci -> new ControlChannel(ci.getAddress(), ci.getPort()));
+	}
+
+	/**
+	 * Sends a request for a Topic without waiting for its response, over the ControlChannel to
+	 * the actual Broker of the Topic or, if it isn't known yet, to the default Broker, which
+	 * forwards it.
+	 *
+	 * @param type the type of the request
+	 * @param topicName the name of the Topic
+	 * @param value the value of the request
+	 *
+	 * @return a future that is completed with the value of the response, or exceptionally with a
+	 * 		ServerException if the connection to the Broker is lost before the response arrives
+	 */
+	protected final CompletableFuture<Object> sendTopicRequest(MessageType type, String topicName,
+			Serializable value) {
+		final ConnectionInfo actualBrokerCI =
+				topicCIManager.getKnownConnectionInfoForTopic(topicName);
+		final ControlChannel channel =
+				(actualBrokerCI == null) ? null : getControlChannel(actualBrokerCI);
+
+		return topicCIManager.sendTopicRequest(channel, type, topicName, value);
+	}
+
+	/**
+	 * Asks the actual Broker of a Topic for the number of partitions of the Topic and waits for
+	 * the response.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return the number of partitions, or {@code 0} if the Topic isn't partitioned or doesn't
+	 * 		exist
+	 *
+	 * @throws ServerException if the connection to the Broker is lost or if the response does not
+	 * 		arrive in time
+	 */
+	protected final int getPartitionCount(String topicName) throws ServerException {
+		return (Integer) ControlChannel.await(
+				sendTopicRequest(MessageType.PARTITION_DISCOVERY, topicName, topicName));
+	}
+
+	/** Closes the ControlChannels to all Brokers. */
+	protected final synchronized void closeControlChannels() {
+		for (final ControlChannel channel : controlChannelPerBroker.values()) {
+			channel.close();
+		}
+		controlChannelPerBroker.clear();
+		topicCIManager.close();
+	}
+
 	/**
 	 * Abstract Thread superclass for all Threads that ClientNode subclasses use to communicate with
 	 * Brokers. This class provides a templated {@code run} method which is customized by the other
@@ -173,6 +284,7 @@ abstract class ClientNode {
 
 			try {
 				Socket socket = new Socket(actualBrokerCI.getAddress(), actualBrokerCI.getPort());
+				socket.setTcpNoDelay(true);
 				final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
 				oos.flush();
 
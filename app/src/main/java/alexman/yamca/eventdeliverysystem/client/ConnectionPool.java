@@ -0,0 +1,222 @@
+package alexman.yamca.eventdeliverysystem.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.util.LG;
+
+/**
+ * A pool of data connections to Brokers, over which a Publisher sends Posts. A connection is
+ * leased for one upload and is then returned, so that later uploads to the same Broker don't have
+ * to establish a new connection.
+ * <p>
+ * At most a fixed number of idle connections are kept for each Broker, and idle connections are
+ * closed once they haven't been used for some time.
+ *
+ * @author Alex Mandelias
+ */
+final class ConnectionPool implements AutoCloseable {
+
+	private final int maxIdlePerBroker;
+	private final long idleTimeoutMillis;
+
+	// the most recently used connection is at the head of each deque
+	private final Map<ConnectionInfo, Deque<DataConnection>> idleConnectionsPerBroker =
+			new HashMap<>();
+	private final Timer evictionTimer = new Timer("ConnectionPool-Eviction", true);
+
+	/**
+	 * Constructs a ConnectionPool.
+	 *
+	 * @param maxIdlePerBroker the maximum number of idle connections kept for each Broker
+	 * @param idleTimeoutMillis the time, in milliseconds, after which an idle connection is closed
+	 *
+	 * @throws IllegalArgumentException if any of the arguments is not positive
+	 */
+	ConnectionPool(int maxIdlePerBroker, long idleTimeoutMillis) {
+		if ((maxIdlePerBroker <= 0) || (idleTimeoutMillis <= 0)) {
+			throw new IllegalArgumentException("Pool limits must be positive");
+		}
+
+		this.maxIdlePerBroker = maxIdlePerBroker;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+
+		final long period = Math.max(idleTimeoutMillis / 2, 1L);
+		evictionTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				evictIdleConnections();
+			}
+		}, period, period);
+	}
+
+	/**
+	 * Leases a connection to a Broker, which is either an idle one or a newly established one.
+	 * The connection must be either returned with {@link #release(DataConnection)} or closed.
+	 *
+	 * @param broker the ConnectionInfo of the Broker
+	 *
+	 * @return the connection
+	 *
+	 * @throws IOException if a new connection can't be established
+	 */
+	DataConnection lease(ConnectionInfo broker) throws IOException {
+		final long now = System.currentTimeMillis();
+
+		synchronized (this) {
+			final Deque<DataConnection> idleConnections = idleConnectionsPerBroker.get(broker);
+			while ((idleConnections != null) && !idleConnections.isEmpty()) {
+				final DataConnection connection = idleConnections.pollFirst();
+				if (!connection.socket.isClosed()
+				    && ((now - connection.lastUsed) < idleTimeoutMillis)) {
+					connection.reused = true;
+					return connection;
+				}
+
+				connection.close();
+			}
+		}
+
+		LG.sout("ConnectionPool#lease: connecting to %s", broker);
+		return new DataConnection(broker);
+	}
+
+	/**
+	 * Returns a leased connection to this pool. The connection is closed instead if enough idle
+	 * connections to its Broker are already kept.
+	 *
+	 * @param connection the connection
+	 */
+	synchronized void release(DataConnection connection) {
+		final Deque<DataConnection> idleConnections =
+				idleConnectionsPerBroker.computeIfAbsent(connection.broker,
+						broker -> new ArrayDeque<>());
+
+		if (connection.socket.isClosed() || (idleConnections.size() >= maxIdlePerBroker)) {
+			connection.close();
+			return;
+		}
+
+		connection.lastUsed = System.currentTimeMillis();
+		idleConnections.offerFirst(connection);
+	}
+
+	/**
+	 * Closes the idle connections to a Broker, which won't be leased again.
+	 *
+	 * @param broker the ConnectionInfo of the Broker
+	 */
+	synchronized void closeIdleConnections(ConnectionInfo broker) {
+		final Deque<DataConnection> idleConnections = idleConnectionsPerBroker.remove(broker);
+		if (idleConnections != null) {
+			idleConnections.forEach(DataConnection::close);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		evictionTimer.cancel();
+
+		for (final Deque<DataConnection> idleConnections : idleConnectionsPerBroker.values()) {
+			idleConnections.forEach(DataConnection::close);
+		}
+		idleConnectionsPerBroker.clear();
+	}
+
+	private synchronized void evictIdleConnections() {
+		final long now = System.currentTimeMillis();
+
+		for (final Iterator<Deque<DataConnection>> iter =
+				idleConnectionsPerBroker.values().iterator(); iter.hasNext(); ) {
+			final Deque<DataConnection> idleConnections = iter.next();
+
+			// the least recently used connections are at the tail
+			while (!idleConnections.isEmpty()
+			       && ((now - idleConnections.peekLast().lastUsed) >= idleTimeoutMillis)) {
+				idleConnections.pollLast().close();
+			}
+
+			if (idleConnections.isEmpty()) {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * A connection to a Broker over which Posts for any of its Topics are sent, one request after
+	 * the other.
+	 *
+	 * @author Alex Mandelias
+	 */
+	static final class DataConnection implements Closeable {
+
+		private final ConnectionInfo broker;
+		private final Socket socket;
+
+		/** The output stream of this connection */
+		final ObjectOutputStream oos;
+
+		/** The input stream of this connection */
+		final ObjectInputStream ois;
+
+		private long lastUsed;
+		private boolean reused = false;
+
+		private DataConnection(ConnectionInfo broker) throws IOException {
+			this.broker = broker;
+			socket = new Socket(broker.getAddress(), broker.getPort());
+
+			try {
+				socket.setTcpNoDelay(true);
+				oos = new ObjectOutputStream(socket.getOutputStream());
+				oos.flush();
+
+				// don't remove the following line even if the ois isn't used
+				// https://stackoverflow.com/questions/72920493/
+				ois = new ObjectInputStream(socket.getInputStream());
+
+				oos.writeObject(new Message(MessageType.INITIALISE_DATA_CHANNEL, null));
+				oos.flush();
+
+				if (!ois.readBoolean()) {
+					throw new IOException("Broker refused to open a data channel");
+				}
+			} catch (final IOException e) {
+				socket.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Returns whether this connection was idle in the pool before it was leased, in which case
+		 * the Broker may have closed it in the meantime.
+		 *
+		 * @return {@code true} if this connection had already been used, {@code false} otherwise
+		 */
+		boolean isReused() {
+			return reused;
+		}
+
+		@Override
+		public void close() {
+			try {
+				socket.close();
+			} catch (final IOException e) {
+				LG.exception(e);
+			}
+		}
+	}
+}
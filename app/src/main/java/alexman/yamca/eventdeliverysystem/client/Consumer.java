@@ -1,34 +1,59 @@
 package alexman.yamca.eventdeliverysystem.client;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import alexman.yamca.eventdeliverysystem.client.User.UserStub;
 import alexman.yamca.eventdeliverysystem.client.UserEvent.Tag;
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
 import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
 import alexman.yamca.eventdeliverysystem.datastructures.Packet;
 import alexman.yamca.eventdeliverysystem.datastructures.Post;
 import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.PostRequest;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame.Kind;
 import alexman.yamca.eventdeliverysystem.datastructures.Subscriber;
+import alexman.yamca.eventdeliverysystem.datastructures.TopicPartitions;
 import alexman.yamca.eventdeliverysystem.server.Broker;
 import alexman.yamca.eventdeliverysystem.thread.PullThread;
+import alexman.yamca.eventdeliverysystem.thread.SyncMode;
 import alexman.yamca.eventdeliverysystem.util.LG;
 
 /**
  * A client-side process which is responsible for listening for a set of Topics and pulling Posts
  * from them by connecting to a remote server.
+ * <p>
+ * The Consumer keeps a single subscription session with each Broker, over which it listens for
+ * all the Topics of that Broker. Each session is opened when the Consumer first listens for one of
+ * the Broker's Topics. A Topic that is copied to followers may be listened for on any of them, in
+ * which case the Consumer is sent to the actual Broker of the Topic if the follower falls behind.
+ * <p>
+ * If a session ends because its Broker has failed, or because the Broker is no longer part of the
+ * RoutingTable, its Topics are listened for again on the Brokers that have taken them over.
+ * <p>
+ * A partitioned Topic is listened for by listening for each of its partitions separately, over
+ * the session with the Broker of each one. Its Posts are pulled from all of its partitions at
+ * once, one partition after the other, so they are in the order in which they were posted only
+ * within each partition. The user events of its partitions are merged into user events of the
+ * Topic itself.
  *
  * @author Alex Mandelias
  * @author Dimitris Tsirmpas
@@ -36,8 +61,18 @@ import alexman.yamca.eventdeliverysystem.util.LG;
  */
 final class Consumer extends ClientNode implements AutoCloseable, Subscriber {
 
+	private static final Packet[] ZERO_LENGTH_PACKET_ARRAY = new Packet[0];
+
 	private final TopicManager topicManager = new TopicManager();
 
+	// guarded by itself
+	private final Map<ConnectionInfo, Session> sessionPerBroker = new HashMap<>();
+
+	// the merger of the user events of each partition, shared by the partitions of a Topic
+	private final Map<String, PartitionEvents> eventsPerPartition = new ConcurrentHashMap<>();
+
+	private volatile SyncMode syncMode = SyncMode.FULL;
+
 	/**
 	 * Constructs a Consumer that will connect to a specific default broker.
 	 *
@@ -67,9 +102,50 @@ final class Consumer extends ClientNode implements AutoCloseable, Subscriber {
 		super(serverIP, serverPort, userStub);
 	}
 
+	/**
+	 * Constructs a Consumer that will connect to any of a number of seed brokers.
+	 *
+	 * @param seeds the addresses of the seed brokers, the first of which is the default broker
+	 * @param userStub the UserSub object that will be notified when data arrives
+	 *
+	 * @throws UnknownHostException if the address of a seed broker is unresolved
+	 */
+	Consumer(List<InetSocketAddress> seeds, UserStub userStub) throws UnknownHostException {
+		super(seeds, userStub);
+	}
+
 	@Override
 	public void close() throws ServerException {
-		topicManager.close();
+		IOException cause = null;
+
+		synchronized (sessionPerBroker) {
+			for (final Session session : sessionPerBroker.values()) {
+				try {
+					session.close();
+				} catch (IOException e) {
+					cause = e;
+				}
+			}
+
+			sessionPerBroker.clear();
+		}
+
+		topicManager.clear();
+		closeControlChannels();
+
+		if (cause != null) {
+			throw new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING, cause);
+		}
+	}
+
+	/**
+	 * Changes the parts of the Posts this Consumer receives. This change only affects sessions
+	 * that are opened after this call.
+	 *
+	 * @param syncMode the parts of the Posts to receive
+	 */
+	void setSyncMode(SyncMode syncMode) {
+		this.syncMode = syncMode;
 	}
 
 	/**
@@ -81,7 +157,7 @@ final class Consumer extends ClientNode implements AutoCloseable, Subscriber {
 	 * @throws ServerException if an I/O error occurs while closing existing connections
 	 */
 	void setTopics(Set<UserTopic> newUserTopics) throws ServerException {
-		topicManager.close();
+		close();
 
 		for (final UserTopic userTopic : newUserTopics) {
 			listenForTopic(new UserTopic(userTopic), true);
@@ -101,9 +177,53 @@ final class Consumer extends ClientNode implements AutoCloseable, Subscriber {
 		return topicManager.fetch(topicName);
 	}
 
+	/**
+	 * Fetches the data of a Post by creating a new Thread that requests it from the actual Broker.
+	 * The Post, along with its data, is then returned by the next {@code pull} from its Topic.
+	 *
+	 * @param topicName the name of the Topic of the Post
+	 * @param postId the ID of the Post
+	 */
+	void fetchPost(String topicName, long postId) {
+		LG.sout("Consumer#fetchPost(%s, %d)", topicName, postId);
+		final String fetchTopicName = topicManager.getTopicNameOfPost(topicName, postId);
+		Thread thread = new FetchPostThread(new PostRequest(fetchTopicName, postId));
+		thread.start();
+	}
+
+	/**
+	 * Fetches a range of bytes of the data of a Post from the actual Broker. This method blocks
+	 * until the bytes have been received.
+	 *
+	 * @param topicName the name of the Topic of the Post
+	 * @param postId the ID of the Post
+	 * @param offset the index of the first byte of the range
+	 * @param length the number of bytes in the range
+	 *
+	 * @return the bytes of the range. If the range extends past the end of the data, only the
+	 * 		bytes up to the end are returned.
+	 *
+	 * @throws ServerException if the bytes could not be fetched
+	 */
+	byte[] fetchPostRange(String topicName, long postId, long offset, long length)
+			throws ServerException {
+		LG.sout("Consumer#fetchPostRange(%s, %d, %d, %d)", topicName, postId, offset, length);
+		final String fetchTopicName = topicManager.getTopicNameOfPost(topicName, postId);
+		FetchPostThread thread =
+				new FetchPostThread(new PostRequest(fetchTopicName, postId, offset, length));
+		thread.run();
+
+		if (thread.fetchedPost == null) {
+			throw new ServerException(String.format("Could not fetch range [%d, %d) of Post %d",
+					offset, offset + length, postId));
+		}
+
+		return thread.fetchedPost.getData();
+	}
+
 	/**
 	 * Registers a new Topic for this Consumer to continuously fetch new Posts from by creating a
-	 * new Thread that initialises that connection.
+	 * new Thread that subscribes to it over the session with its Broker.
 	 *
 	 * @param topicName the name of the Topic to fetch from
 	 */
@@ -113,20 +233,37 @@ final class Consumer extends ClientNode implements AutoCloseable, Subscriber {
 	}
 
 	/**
-	 * Closes this Consumer's connection for a Topic by creating a new Thread that closes that
-	 * connection.
+	 * Stops this Consumer from listening for a Topic by creating a new Thread that unsubscribes
+	 * from it over the session with its Broker.
 	 *
 	 * @param topicName the name of the Topic this Consumer already listens to
 	 */
 	void stopListeningForTopic(String topicName) {
 		LG.sout("Consumer#stopListeningForTopic(%s)", topicName);
-		Thread thread = new StopListeningForTopicThread(topicName);
+		Thread thread = new StopListeningForTopicThread(topicName, null);
 		thread.start();
 	}
 
+	/**
+	 * Merges a user event of a partition of a Topic into the user events of the Topic itself.
+	 * Events about the Posts of a partition are events about the Posts of the Topic. The events
+	 * that report whether a partition is listened for are merged into a single event once every
+	 * partition has reported, which fails as soon as any of them fails. Any other event of a
+	 * partition ends the listening for the whole Topic.
+	 *
+	 * @param event the user event
+	 *
+	 * @return the user event of the Topic, the same event if it isn't about a partition, or
+	 * 		{@code null} if no user event should be fired
+	 */
+	UserEvent mergePartitionEvent(UserEvent event) {
+		final PartitionEvents events = eventsPerPartition.get(event.topicName);
+		return events == null ? event : events.merge(event);
+	}
+
 	/**
 	 * Registers an existing Topic for this Consumer to continuously fetch new Posts from by
-	 * creating a new Thread that initialises that connection.
+	 * creating a new Thread that subscribes to it over the session with its Broker.
 	 *
 	 * @param userTopic the Topic to fetch from
 	 * @param existing {@code true} is the Topic already exists, {@code false} if it has just been
@@ -135,8 +272,8 @@ final class Consumer extends ClientNode implements AutoCloseable, Subscriber {
 	private void listenForTopic(UserTopic userTopic, boolean existing) {
 		LG.sout("Consumer#listenForTopic(%s)", userTopic);
 		userTopic.subscribe(this);
-		Thread thread = existing ? new ListenForExistingTopicThread(userTopic)
-		                         : new ListenForNewTopicThread(userTopic);
+		Thread thread = new ListenForTopicThread(userTopic,
+				existing ? Tag.TOPIC_LOADED : Tag.TOPIC_LISTENED);
 		thread.start();
 	}
 
@@ -154,209 +291,886 @@ final class Consumer extends ClientNode implements AutoCloseable, Subscriber {
 		}
 	}
 
+	@Override
+	protected void onBrokerLeft(ConnectionInfo brokerCI) {
+		super.onBrokerLeft(brokerCI);
+
+		final Session session;
+		synchronized (sessionPerBroker) {
+			session = sessionPerBroker.remove(brokerCI);
+		}
+
+		// the Topics of the session are followed once it ends
+		if (session != null) {
+			session.closeQuietly();
+		}
+	}
+
+	// returns the session with the Broker of a Topic, opening it if there isn't one
+	private Session getSession(String topicName) throws ServerException {
+		return getSession(topicCIManager.getConnectionInfoForConsumer(topicName));
+	}
+
+	// returns the session with a Broker, opening it if there isn't one
+	private Session getSession(ConnectionInfo broker) throws ServerException {
+		synchronized (sessionPerBroker) {
+			final Session session = sessionPerBroker.get(broker);
+			if (session != null) {
+				return session;
+			}
+		}
+
+		// the sessions with the other Brokers are used while connecting to this one
+		final Session newSession = new Session(broker, syncMode);
+
+		synchronized (sessionPerBroker) {
+			final Session session = sessionPerBroker.get(broker);
+			if (session != null) {
+				// another session with the Broker was opened in the meantime
+				newSession.closeQuietly();
+				return session;
+			}
+
+			sessionPerBroker.put(broker, newSession);
+			newSession.start();
+			return newSession;
+		}
+	}
+
 	// @SuppressWarnings("AccessingNonPublicFieldOfAnotherObject")
-	private static final class TopicManager implements AutoCloseable {
+	private static final class TopicManager {
 
 		private final Map<String, TopicData> tdMap = new HashMap<>();
+		private final Map<String, PartitionedTopicData> ptdMap = new HashMap<>();
 
 		private TopicManager() {}
 
 		/**
-		 * Returns all Posts from a Topic which have not been previously fetched.
+		 * Returns all Posts from a Topic which have not been previously fetched. The Posts of a
+		 * partitioned Topic are in order only within each of its partitions, since Posts carry no
+		 * time at which they were posted by which those of different partitions could be merged.
 		 *
 		 * @param topicName the name of the Topic
 		 *
-		 * @return a List with all the Posts not yet fetched, sorted from earliest to latest
+		 * @return a List with all the Posts not yet fetched, sorted from earliest to latest, or,
+		 * 		for a partitioned Topic, those of each partition in turn, each sorted from
+		 * 		earliest to latest
 		 *
 		 * @throws NoSuchElementException if no Topic with the given name exists
 		 */
-		private List<Post> fetch(String topicName) {
+		private synchronized List<Post> fetch(String topicName) {
 			LG.sout("Consumer#fetch(%s)", topicName);
 			LG.in();
-			if (!tdMap.containsKey(topicName)) {
+			final PartitionedTopicData ptd = getPartitionedTopicData(topicName);
+			if ((ptd == null) && !tdMap.containsKey(topicName)) {
 				throw new NoSuchElementException(ClientNode.getTopicDNEString(topicName));
 			}
 
-			final TopicData td = tdMap.get(topicName);
+			if (ptd == null) {
+				final List<Post> newPosts = TopicManager.fetch(tdMap.get(topicName));
+				LG.out();
+				return newPosts;
+			}
+
+			// the Posts of each poster are in a single partition, so they remain in order, while
+			// the Posts of different posters are in the order of their partitions
+			final List<Post> newPosts = new LinkedList<>();
+			for (final String partitionName : ptd.partitions.getPartitionNames()) {
+				final TopicData td = tdMap.get(partitionName);
+				if (td != null) {
+					final List<Post> newPartitionPosts = TopicManager.fetch(td);
+					for (final Post post : newPartitionPosts) {
+						ptd.partitionNamePerPostId.put(post.getPostInfo().getId(), partitionName);
+					}
+					newPosts.addAll(newPartitionPosts);
+				}
+			}
+
+			LG.out();
+			return newPosts;
+		}
 
+		private static List<Post> fetch(TopicData td) {
 			LG.sout("td.pointer=%d", td.pointer);
-			final List<Post> newPosts = td.userTopic.getPostsSince(td.pointer);
-			LG.sout("newPosts.size()=%d", newPosts.size());
 
-			td.userTopic.clear();
-			td.pointer = td.userTopic.getLastPostId();
+			// the Session may add a Post between getting the new Posts and clearing the Topic
+			final List<Post> newPosts;
+			synchronized (td.userTopic) {
+				newPosts = td.userTopic.getPostsSince(td.pointer);
+				td.userTopic.clear();
+				td.pointer = td.userTopic.getLastPostId();
+			}
 
-			LG.out();
+			LG.sout("newPosts.size()=%d", newPosts.size());
 			return newPosts;
 		}
 
 		/**
-		 * Adds a Topic to this Manager and registers its socket from where to fetch.
+		 * Returns the name of the Topic from which a Post of a Topic of this Manager is fetched,
+		 * which is the partition of the Post if the Topic is partitioned.
+		 *
+		 * @param topicName the name of the Topic
+		 * @param postId the ID of the Post
+		 *
+		 * @return the name of the partition of the Post, or the name of the Topic if it isn't
+		 * 		partitioned or if the Post hasn't been pulled
+		 */
+		synchronized String getTopicNameOfPost(String topicName, long postId) {
+			final PartitionedTopicData ptd = ptdMap.get(topicName);
+			if (ptd == null) {
+				return topicName;
+			}
+
+			final String partitionName = ptd.partitionNamePerPostId.get(postId);
+			return partitionName == null ? topicName : partitionName;
+		}
+
+		/**
+		 * Adds a Post, whose data was fetched separately, to a Topic of this Manager.
+		 *
+		 * @param topicName the name of the Topic
+		 * @param post the Post
+		 *
+		 * @throws NoSuchElementException if no Topic with the given name exists
+		 */
+		private synchronized void postFetched(String topicName, Post post) {
+			LG.sout("TopicManager#postFetched(%s, %s)", topicName, post);
+			if (!tdMap.containsKey(topicName)) {
+				throw new NoSuchElementException(ClientNode.getTopicDNEString(topicName));
+			}
+
+			tdMap.get(topicName).userTopic.postFetched(post);
+		}
+
+		/**
+		 * Adds a Topic to this Manager along with the session over which it is listened for.
 		 *
 		 * @param userTopic the Topic
-		 * @param socket the socket from where it will fetch
+		 * @param session the session over which the Topic is listened for
 		 *
-		 * @throws IllegalArgumentException if this Manager already has a socket for a Topic with
-		 * 		the same name.
+		 * @throws IllegalArgumentException if this Manager already has a Topic with the same name
 		 */
-		void addSocket(UserTopic userTopic, Socket socket) {
-			LG.sout("TopicManager#addSocket(%s, %s)", userTopic, socket);
+		synchronized void addTopic(UserTopic userTopic, Session session) {
+			LG.sout("TopicManager#addTopic(%s, %s)", userTopic, session);
 			final String topicName = userTopic.getName();
-			if (tdMap.containsKey(topicName)) {
+			if (tdMap.containsKey(topicName) || (getPartitionedTopicData(topicName) != null)) {
 				throw new IllegalArgumentException(ClientNode.getTopicAEString(topicName));
 			}
 
-			tdMap.put(topicName, new TopicData(userTopic, socket));
+			tdMap.put(topicName, new TopicData(userTopic, session));
 		}
 
 		/**
-		 * Removes a Topic from this Manager and closes its associated socket.
+		 * Adds a partitioned Topic to this Manager along with each of its partitions and the
+		 * session over which each partition is listened for.
 		 *
-		 * @param topicName the name of the Topic to remove
+		 * @param partitions the partitions of the Topic
+		 * @param sessionPerPartition the session over which each partition is listened for
 		 *
-		 * @throws IOException if an I/O Exception occurs while closing the socket
-		 * @throws NoSuchElementException if this Manager doesn't have a Topic with the given
-		 * 		name
+		 * @throws IllegalArgumentException if this Manager already has a Topic with the same name
+		 * 		as the Topic or as any of its partitions
 		 */
-		void closeAndRemoveSocket(String topicName) throws IOException, NoSuchElementException {
-			LG.sout("TopicManager#closeAndRemoveSocket(%s)", topicName);
-			if (!tdMap.containsKey(topicName)) {
-				throw new NoSuchElementException(ClientNode.getTopicDNEString(topicName));
+		synchronized void addPartitions(TopicPartitions partitions,
+				Map<UserTopic, Session> sessionPerPartition) {
+			LG.sout("TopicManager#addPartitions(%s, %s)", partitions, sessionPerPartition);
+			final String topicName = partitions.getTopicName();
+			if (tdMap.containsKey(topicName) || (getPartitionedTopicData(topicName) != null)) {
+				throw new IllegalArgumentException(ClientNode.getTopicAEString(topicName));
 			}
 
-			tdMap.get(topicName).socket.close();
+			for (final UserTopic partitionTopic : sessionPerPartition.keySet()) {
+				if (tdMap.containsKey(partitionTopic.getName())) {
+					throw new IllegalArgumentException(
+							ClientNode.getTopicAEString(partitionTopic.getName()));
+				}
+			}
+
+			final PartitionedTopicData ptd = new PartitionedTopicData(partitions);
+			for (final Map.Entry<UserTopic, Session> e : sessionPerPartition.entrySet()) {
+				final UserTopic partitionTopic = e.getKey();
+				for (final Post post : partitionTopic.getAllPosts()) {
+					ptd.partitionNamePerPostId.put(post.getPostInfo().getId(),
+							partitionTopic.getName());
+				}
+
+				tdMap.put(partitionTopic.getName(), new TopicData(partitionTopic, e.getValue()));
+			}
 
-			tdMap.remove(topicName);
+			ptdMap.put(topicName, ptd);
 		}
 
 		/**
-		 * Removes a Topic from this Manager.
+		 * Removes a Topic from this Manager, along with its partitions if it is partitioned.
 		 *
 		 * @param topicName the name of the Topic to remove
 		 *
+		 * @return the session over which the Topic, or each of its partitions, was listened for
+		 *
 		 * @throws NoSuchElementException if this Manager doesn't have a Topic with the given
 		 * 		name
 		 */
-		void removeClosedSocket(String topicName) throws NoSuchElementException {
-			LG.sout("TopicManager#removeClosedSocket(%s)", topicName);
-			if (!tdMap.containsKey(topicName)) {
+		synchronized Map<String, Session> removeTopic(String topicName)
+				throws NoSuchElementException {
+			LG.sout("TopicManager#removeTopic(%s)", topicName);
+			final PartitionedTopicData ptd = getPartitionedTopicData(topicName);
+			if ((ptd == null) && !tdMap.containsKey(topicName)) {
 				throw new NoSuchElementException(ClientNode.getTopicDNEString(topicName));
 			}
 
-			tdMap.remove(topicName);
+			final Map<String, Session> sessionPerTopic = new HashMap<>();
+			if (ptd == null) {
+				sessionPerTopic.put(topicName, tdMap.remove(topicName).session);
+			} else {
+				removePartitions(ptd.partitions, sessionPerTopic);
+			}
+
+			return sessionPerTopic;
 		}
 
+		/**
+		 * Removes a partitioned Topic from this Manager, along with its partitions, if these are
+		 * the partitions with which it was added. Nothing happens otherwise, since the Topic has
+		 * been removed or is listened for anew.
+		 *
+		 * @param partitions the partitions of the Topic
+		 *
+		 * @return the session over which each partition was listened for
+		 */
+		synchronized Map<String, Session> removePartitions(TopicPartitions partitions) {
+			LG.sout("TopicManager#removePartitions(%s)", partitions);
+			final Map<String, Session> sessionPerPartition = new HashMap<>();
+			final PartitionedTopicData ptd = ptdMap.get(partitions.getTopicName());
+			if ((ptd != null) && (ptd.partitions == partitions)) {
+				removePartitions(partitions, sessionPerPartition);
+			}
 
-		@Override
-		public void close() throws ServerException {
-			try {
-				for (final TopicData td : tdMap.values()) {
-					td.socket.close();
+			return sessionPerPartition;
+		}
+
+		private void removePartitions(TopicPartitions partitions,
+				Map<String, Session> sessionPerPartition) {
+			ptdMap.remove(partitions.getTopicName());
+			for (final String partitionName : partitions.getPartitionNames()) {
+				final TopicData td = tdMap.remove(partitionName);
+				if (td != null) {
+					sessionPerPartition.put(partitionName, td.session);
 				}
-			} catch (IOException e) {
-				throw new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING, e);
 			}
+		}
+
+		// returns the data of a partitioned Topic, which exists while any partition is listened for
+		private PartitionedTopicData getPartitionedTopicData(String topicName) {
+			final PartitionedTopicData ptd = ptdMap.get(topicName);
+			if (ptd == null) {
+				return null;
+			}
+
+			for (final String partitionName : ptd.partitions.getPartitionNames()) {
+				if (tdMap.containsKey(partitionName)) {
+					return ptd;
+				}
+			}
+
+			ptdMap.remove(topicName);
+			return null;
+		}
+
+		/**
+		 * Removes a Topic from this Manager if it is listened for over a specific session. Nothing
+		 * happens otherwise, since the Topic has been removed or is listened for anew.
+		 *
+		 * @param topicName the name of the Topic to remove
+		 * @param session the session
+		 */
+		synchronized void removeTopicOfSession(String topicName, Session session) {
+			LG.sout("TopicManager#removeTopicOfSession(%s, %s)", topicName, session);
+			final TopicData td = tdMap.get(topicName);
+			if ((td != null) && (td.session == session)) {
+				tdMap.remove(topicName);
+			}
+		}
 
+		/**
+		 * Changes the session over which a Topic is listened for, if it is listened for over a
+		 * specific session. Nothing happens otherwise, since the Topic has been removed or is
+		 * listened for anew.
+		 *
+		 * @param topicName the name of the Topic
+		 * @param oldSession the session
+		 * @param newSession the session over which the Topic is listened for from now on
+		 *
+		 * @return {@code true} if the session was changed, {@code false} otherwise
+		 */
+		synchronized boolean moveTopic(String topicName, Session oldSession, Session newSession) {
+			LG.sout("TopicManager#moveTopic(%s, %s, %s)", topicName, oldSession, newSession);
+			final TopicData td = tdMap.get(topicName);
+			if ((td == null) || (td.session != oldSession)) {
+				return false;
+			}
+
+			td.session = newSession;
+			return true;
+		}
+
+		/** Removes all Topics from this Manager. */
+		synchronized void clear() {
 			tdMap.clear();
+			ptdMap.clear();
 		}
 
 		private static final class TopicData {
 
 			final UserTopic userTopic;
-			final Socket socket;
+			Session session;
 			long pointer;
 
-			private TopicData(UserTopic userTopic, Socket socket) {
+			private TopicData(UserTopic userTopic, Session session) {
 				this.userTopic = userTopic;
 				pointer = userTopic.getLastPostId();
-				this.socket = socket;
+				this.session = session;
+			}
+		}
+
+		private static final class PartitionedTopicData {
+
+			final TopicPartitions partitions;
+
+			// the partition of each Post that has been pulled, from which its data is fetched
+			final LongObjectMap<String> partitionNamePerPostId = new LongObjectMap<>();
+
+			private PartitionedTopicData(TopicPartitions partitions) {
+				this.partitions = partitions;
 			}
 		}
 	}
 
-	private final class ListenForNewTopicThread extends ClientThread {
+	/**
+	 * A subscription session with a Broker, over which this Consumer listens for many Topics. The
+	 * session is a Thread that reads the frames sent by the Broker and posts the data of each
+	 * Topic to the corresponding UserTopic.
+	 *
+	 * @author Alex Mandelias
+	 */
+	private final class Session extends Thread {
+
+		private final ConnectionInfo broker;
+		private final SyncMode sessionSyncMode;
+		private final Socket socket;
+		private final ObjectOutputStream oos;
+		private final ObjectInputStream ois;
+
+		// the Topics whose subscription has been requested but not yet confirmed
+		private final Map<String, UserTopic> pendingTopics = new ConcurrentHashMap<>();
+		private final Map<String, Tag> pendingEventTags = new ConcurrentHashMap<>();
+
+		// the Topics whose data is received over this session
+		private final Map<String, UserTopic> topics = new ConcurrentHashMap<>();
+
+		// the Topics that are no longer listened for because their data couldn't be received
+		private final Set<String> failedTopics = ConcurrentHashMap.newKeySet();
+
+		private volatile boolean closed = false;
+
+		/**
+		 * Opens a subscription session with a Broker.
+		 *
+		 * @param broker the Broker
+		 * @param sessionSyncMode the parts of the Posts to receive over the session
+		 *
+		 * @throws ServerException if the session could not be opened
+		 */
+		private Session(ConnectionInfo broker, SyncMode sessionSyncMode) throws ServerException {
+			super("Consumer-Session-" + broker);
+			this.broker = broker;
+			this.sessionSyncMode = sessionSyncMode;
+
+			try {
+				socket = new Socket(broker.getAddress(), broker.getPort());
+			} catch (final IOException e) {
+				throw new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING, e);
+			}
+
+			try {
+				socket.setTcpNoDelay(true);
+				oos = new ObjectOutputStream(socket.getOutputStream());
+				oos.flush();
+
+				// don't remove the following line even if the ois isn't used
+				// https://stackoverflow.com/questions/72920493/
+				ois = new ObjectInputStream(socket.getInputStream());
+
+				oos.writeObject(new Message(MessageType.INITIALISE_SESSION, sessionSyncMode));
+				oos.flush();
+
+				if (!ois.readBoolean()) {
+					throw new IOException("Broker refused to open a subscription session");
+				}
+			} catch (final IOException e) {
+				closeQuietly();
+				throw new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING, e);
+			}
+		}
+
+		/**
+		 * Requests to listen for a Topic over this session. The user event with the given tag is
+		 * fired once the Broker responds.
+		 *
+		 * @param userTopic the Topic
+		 * @param eventTag the tag of the user event to fire, or {@code null} to fire an event only
+		 * 		if the Topic can't be listened for, as when the Topic has moved to this session
+		 *
+		 * @throws IOException if an I/O error occurs while sending the request
+		 */
+		void subscribe(UserTopic userTopic, Tag eventTag) throws IOException {
+			final String topicName = userTopic.getName();
+			pendingTopics.put(topicName, userTopic);
+			if (eventTag != null) {
+				pendingEventTags.put(topicName, eventTag);
+			}
+
+			try {
+				send(new SessionFrame(Kind.SUBSCRIBE, topicName, userTopic.getToken()));
+			} catch (final IOException e) {
+				pendingTopics.remove(topicName);
+				pendingEventTags.remove(topicName);
+				throw e;
+			}
+		}
 
+		/**
+		 * Requests to stop listening for a Topic over this session. Data of the Topic that is
+		 * received afterwards is discarded.
+		 *
+		 * @param topicName the name of the Topic
+		 *
+		 * @throws IOException if an I/O error occurs while sending the request
+		 */
+		void unsubscribe(String topicName) throws IOException {
+			topics.remove(topicName);
+			pendingTopics.remove(topicName);
+			pendingEventTags.remove(topicName);
+
+			send(new SessionFrame(Kind.UNSUBSCRIBE, topicName));
+		}
+
+		private void send(SessionFrame frame) throws IOException {
+			synchronized (oos) {
+				oos.writeObject(frame);
+				oos.flush();
+			}
+		}
+
+		/**
+		 * Closes this session. The Topics listened for over it are no longer updated.
+		 *
+		 * @throws IOException if an I/O error occurs while closing the connection
+		 */
+		void close() throws IOException {
+			closed = true;
+			socket.close();
+		}
+
+		private void closeQuietly() {
+			try {
+				socket.close();
+			} catch (final IOException e) {
+				LG.exception(e);
+			}
+		}
+
+		@Override
+		public void run() {
+			LG.sout("%s#run()", getName());
+
+			try {
+				while (true) {
+					final SessionFrame frame = (SessionFrame) ois.readObject();
+					try {
+						receive(frame);
+					} catch (final RuntimeException e) {
+						failTopic(frame.getTopicName(), e);
+					}
+				}
+			} catch (final ClassNotFoundException | IOException e) {
+				if (!closed) {
+					LG.exception(e);
+				}
+			}
+
+			synchronized (sessionPerBroker) {
+				sessionPerBroker.remove(broker, this);
+			}
+
+			closeQuietly();
+			onSessionEnded();
+
+			LG.sout("#%s#run()", getName());
+		}
+
+		private void receive(SessionFrame frame) {
+			final String topicName = frame.getTopicName();
+
+			switch (frame.getKind()) {
+			case SUBSCRIBED: {
+				final UserTopic userTopic = pendingTopics.remove(topicName);
+				final Tag eventTag = pendingEventTags.remove(topicName);
+				if (userTopic != null) {
+					topics.put(topicName, userTopic);
+					if (eventTag != null) {
+						userStub.fireEvent(UserEvent.successful(eventTag, topicName));
+					}
+				}
+				break;
+			}
+
+			case SUBSCRIPTION_FAILED: {
+				final UserTopic userTopic = pendingTopics.remove(topicName);
+				final Tag eventTag = pendingEventTags.getOrDefault(topicName,
+						Tag.TOPIC_LISTEN_STOPPED);
+				pendingEventTags.remove(topicName);
+				if (userTopic != null) {
+					topicManager.removeTopicOfSession(topicName, this);
+					userStub.fireEvent(UserEvent.failed(eventTag, topicName,
+							new ServerException(ClientNode.getTopicDNEString(topicName))));
+				}
+				break;
+			}
+
+			case UNSUBSCRIBED: {
+				// the failure has already been reported
+				if (!failedTopics.remove(topicName)) {
+					userStub.fireEvent(UserEvent.successful(Tag.TOPIC_LISTEN_STOPPED, topicName));
+				}
+				break;
+			}
+
+			case TOPIC_DELETED: {
+				if (topics.remove(topicName) != null) {
+					topicManager.removeTopicOfSession(topicName, this);
+					userStub.fireEvent(UserEvent.successful(Tag.TOPIC_DELETED, topicName));
+				}
+				break;
+			}
+
+			case TOPIC_MOVED: {
+				final ConnectionInfo newBroker = (ConnectionInfo) frame.getValue();
+				final UserTopic userTopic = topics.remove(topicName);
+				if (userTopic != null) {
+					new FollowTopicThread(userTopic, this, newBroker, null).start();
+					break;
+				}
+
+				// the Topic can't be listened for on this Broker, but can on the other one
+				final UserTopic pendingTopic = pendingTopics.remove(topicName);
+				final Tag eventTag = pendingEventTags.remove(topicName);
+				if (pendingTopic != null) {
+					new FollowTopicThread(pendingTopic, this, newBroker, eventTag).start();
+				}
+				break;
+			}
+
+			case DATA: {
+				receiveData(topicName, frame.getValue());
+				break;
+			}
+
+			default: {
+				throw new IllegalArgumentException(
+						"Brokers can't send SessionFrames of kind " + frame.getKind());
+			}
+			}
+		}
+
+		private void receiveData(String topicName, Object data) {
+			final UserTopic userTopic = topics.get(topicName);
+
+			if (data instanceof PostInfo) {
+				final PostInfo postInfo = (PostInfo) data;
+				if (userTopic == null) {
+					return;
+				}
+
+				// no Packets follow over this session, the PostInfo is the whole message. the
+				// sync mode of the Consumer may have changed since the session was opened.
+				if (sessionSyncMode == SyncMode.METADATA_ONLY) {
+					userTopic.post(postInfo, Consumer.ZERO_LENGTH_PACKET_ARRAY);
+					synchronized (Consumer.this) {
+						userStub.fireEvent(UserEvent.successful(Tag.MESSAGE_RECEIVED, topicName));
+					}
+				} else {
+					userTopic.post(postInfo);
+				}
+			} else {
+				final Packet packet = (Packet) data;
+
+				// the data of a Topic that is no longer listened for is discarded
+				if (userTopic == null) {
+					packet.release();
+					return;
+				}
+
+				userTopic.post(packet);
+			}
+		}
+
+		// stops listening for a Topic whose data couldn't be received, while the other Topics of
+		// this session are still listened for
+		private void failTopic(String topicName, RuntimeException e) {
+			LG.exception(e);
+
+			final UserTopic userTopic = topics.remove(topicName);
+			final UserTopic pendingTopic = pendingTopics.remove(topicName);
+			final Tag eventTag = pendingEventTags.remove(topicName);
+			if ((userTopic == null) && (pendingTopic == null)) {
+				return;
+			}
+
+			topicManager.removeTopicOfSession(topicName, this);
+
+			try {
+				failedTopics.add(topicName);
+				send(new SessionFrame(Kind.UNSUBSCRIBE, topicName));
+			} catch (final IOException e1) {
+				// the session ends once the connection is found to be lost
+				failedTopics.remove(topicName);
+				LG.exception(e1);
+			}
+
+			try {
+				userStub.fireEvent(UserEvent.failed(
+						eventTag != null ? eventTag : Tag.TOPIC_LISTEN_STOPPED, topicName, e));
+			} catch (final RuntimeException e1) {
+				// the listener that failed to receive the data may fail again
+				LG.exception(e1);
+			}
+		}
+
+		// the Topics of this session are no longer listened for, unless the connection to the
+		// Broker was lost, in which case they are listened for on the Brokers that have them now
+		private void onSessionEnded() {
+			for (final Map.Entry<String, UserTopic> e : topics.entrySet()) {
+				if (closed) {
+					userStub.fireEvent(UserEvent.successful(Tag.TOPIC_LISTEN_STOPPED, e.getKey()));
+				} else {
+					new FollowTopicThread(e.getValue(), this, null, null).start();
+				}
+			}
+
+			for (final Map.Entry<String, UserTopic> e : pendingTopics.entrySet()) {
+				final Tag eventTag = pendingEventTags.get(e.getKey());
+				if (closed) {
+					topicManager.removeTopicOfSession(e.getKey(), this);
+					userStub.fireEvent(UserEvent.failed(
+							eventTag != null ? eventTag : Tag.TOPIC_LISTEN_STOPPED, e.getKey(),
+							new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING)));
+				} else {
+					new FollowTopicThread(e.getValue(), this, null, eventTag).start();
+				}
+			}
+
+			topics.clear();
+			pendingTopics.clear();
+			pendingEventTags.clear();
+		}
+	}
+
+	private final class ListenForTopicThread extends Thread {
+
+		private final Tag eventTag;
 		private final UserTopic userTopic;
 
-		private ListenForNewTopicThread(UserTopic userTopic) {
-			super(Tag.TOPIC_LISTENED, MessageType.INITIALISE_CONSUMER, userTopic.getName());
+		private ListenForTopicThread(UserTopic userTopic, Tag eventTag) {
+			super("ListenForTopicThread-" + userTopic.getName());
+			this.eventTag = eventTag;
 			this.userTopic = userTopic;
 		}
 
 		@Override
-		protected void doWorkAndMaybeCloseSocket(boolean success, Socket socket,
-				ObjectOutputStream oos, ObjectInputStream ois) throws IOException {
+		public void run() {
+			final String topicName = userTopic.getName();
 
-			if (!success) {
-				socket.close();
-				throw new ServerException(ClientNode.getTopicDNEString(topicName));
+			final int partitionCount;
+			try {
+				partitionCount = getPartitionCount(topicName);
+			} catch (final ServerException e) {
+				userStub.fireEvent(UserEvent.failed(eventTag, topicName, e));
+				return;
+			}
+
+			if (partitionCount == 0) {
+				listen();
+			} else {
+				listenForPartitions(new TopicPartitions(topicName, partitionCount));
 			}
+		}
+
+		private void listen() {
+			final String topicName = userTopic.getName();
 
-			topicManager.addSocket(userTopic, socket);
+			final Session session;
+			try {
+				session = getSession(topicName);
+				topicManager.addTopic(userTopic, session);
+			} catch (ServerException | IllegalArgumentException e) {
+				userStub.fireEvent(UserEvent.failed(eventTag, topicName, e));
+				return;
+			}
 
-			final Thread pullThread =
-					new PullThread(ois, userTopic, (cbSuccess, cbTopicName, cbCause) -> {
-						if (cbSuccess) {
-							if (cbCause instanceof EOFException) {
-								topicManager.removeClosedSocket(cbTopicName);
-								userStub.fireEvent(
-										UserEvent.successful(Tag.TOPIC_DELETED, cbTopicName));
-							} else if (cbCause instanceof SocketException) {
-								userStub.fireEvent(UserEvent.successful(Tag.TOPIC_LISTEN_STOPPED,
-										cbTopicName));
-							}
-						}
-					});
-			pullThread.start();
+			subscribe(userTopic, session);
 		}
 
-		@Override
-		protected Serializable getMessageValue() {
-			return userTopic.getToken();
+		private void listenForPartitions(TopicPartitions partitions) {
+			final String topicName = userTopic.getName();
+
+			// the Posts the Topic already has are split among its partitions like the new ones
+			final Map<String, List<Post>> postsPerPartition = new HashMap<>();
+			for (final Post post : userTopic.getAllPosts()) {
+				postsPerPartition.computeIfAbsent(partitions.getPartitionName(post.getPostInfo()),
+						partitionName -> new LinkedList<>()).add(post);
+			}
+
+			final Map<UserTopic, Session> sessionPerPartition = new LinkedHashMap<>();
+			try {
+				for (final String partitionName : partitions.getPartitionNames()) {
+					final UserTopic partitionTopic = new UserTopic(partitionName);
+					final List<Post> posts = postsPerPartition.get(partitionName);
+					if (posts != null) {
+						partitionTopic.postAll(posts);
+					}
+
+					sessionPerPartition.put(partitionTopic, getSession(partitionName));
+				}
+
+				topicManager.addPartitions(partitions, sessionPerPartition);
+			} catch (ServerException | IllegalArgumentException e) {
+				userStub.fireEvent(UserEvent.failed(eventTag, topicName, e));
+				return;
+			}
+
+			final PartitionEvents events = new PartitionEvents(partitions, eventTag);
+			for (final UserTopic partitionTopic : sessionPerPartition.keySet()) {
+				eventsPerPartition.put(partitionTopic.getName(), events);
+			}
+
+			for (final Map.Entry<UserTopic, Session> e : sessionPerPartition.entrySet()) {
+				e.getKey().subscribe(Consumer.this);
+				subscribe(e.getKey(), e.getValue());
+			}
 		}
-	}
 
-	private final class ListenForExistingTopicThread extends ClientThread {
+		private void subscribe(UserTopic subscribedTopic, Session session) {
+			final String topicName = subscribedTopic.getName();
+			try {
+				session.subscribe(subscribedTopic, eventTag);
+			} catch (final IOException e) {
+				topicManager.removeTopicOfSession(topicName, session);
+				Throwable e1 = new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING, e);
+				userStub.fireEvent(UserEvent.failed(eventTag, topicName, e1));
+			}
+		}
+	}
 
-		// NOTE: only tag changes between the ListenFor???TopicThreads to differentiate between
-		// events
+	private final class FollowTopicThread extends Thread {
 
 		private final UserTopic userTopic;
+		private final Session oldSession;
+		private final ConnectionInfo newBroker;
+		private final Tag eventTag;
+		private final Tag failureEventTag;
 
-		private ListenForExistingTopicThread(UserTopic userTopic) {
-			super(Tag.TOPIC_LOADED, MessageType.INITIALISE_CONSUMER, userTopic.getName());
+		/**
+		 * Constructs a FollowTopicThread that listens for a Topic over the session with the Broker
+		 * that has taken it over, or with the actual Broker of the Topic if the old Broker is a
+		 * follower that has fallen behind. The Posts the Topic already has are not received again.
+		 *
+		 * @param userTopic the Topic
+		 * @param oldSession the session with the Broker that had the Topic
+		 * @param newBroker the Broker that has taken over the Topic, or {@code null} to find it
+		 * 		in the RoutingTable, as when the connection to the old Broker has been lost
+		 * @param eventTag the tag of the user event to fire once the Topic is listened for, or
+		 *        {@code null} if it was already listened for over the old session
+		 */
+		private FollowTopicThread(UserTopic userTopic, Session oldSession,
+				ConnectionInfo newBroker, Tag eventTag) {
+			super("FollowTopicThread-" + userTopic.getName());
 			this.userTopic = userTopic;
+			this.oldSession = oldSession;
+			this.newBroker = newBroker;
+			this.eventTag = eventTag;
+			failureEventTag = eventTag != null ? eventTag : Tag.TOPIC_LISTEN_STOPPED;
+		}
+
+		@Override
+		public void run() {
+			final String topicName = userTopic.getName();
+
+			final Session newSession;
+			try {
+				topicCIManager.refresh();
+				newSession = newBroker != null ? getSession(newBroker) : getSession(topicName);
+			} catch (final ServerException e) {
+				topicManager.removeTopicOfSession(topicName, oldSession);
+				userStub.fireEvent(UserEvent.failed(failureEventTag, topicName, e));
+				return;
+			}
+
+			// the Consumer has stopped listening for the Topic in the meantime
+			if (!topicManager.moveTopic(topicName, oldSession, newSession)) {
+				return;
+			}
+
+			try {
+				newSession.subscribe(userTopic, eventTag);
+			} catch (final IOException e) {
+				topicManager.removeTopicOfSession(topicName, newSession);
+				Throwable e1 = new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING, e);
+				userStub.fireEvent(UserEvent.failed(failureEventTag, topicName, e1));
+			}
+		}
+	}
+
+	private final class FetchPostThread extends ClientThread {
+
+		private final PostRequest postRequest;
+		private Post fetchedPost = null;
+
+		private FetchPostThread(PostRequest postRequest) {
+			super(Tag.POST_FETCHED, MessageType.FETCH_POST, postRequest.getTopicName());
+			this.postRequest = postRequest;
 		}
 
 		@Override
 		protected void doWorkAndMaybeCloseSocket(boolean success, Socket socket,
 				ObjectOutputStream oos, ObjectInputStream ois) throws IOException {
-			if (!success) {
-				socket.close();
-				throw new ServerException(ClientNode.getTopicDNEString(topicName));
-			}
+			try {
+				if (!success) {
+					throw new ServerException(String.format("Post %d does not exist in Topic %s",
+							postRequest.getPostId(), topicName));
+				}
+
+				// a UserTopic assembles the Post and releases its Packets
+				final UserTopic fetchedTopic = new UserTopic(topicName);
+				new PullThread(ois, fetchedTopic).run();
 
-			topicManager.addSocket(userTopic, socket);
+				final Iterator<Post> it = fetchedTopic.iterator();
+				if (!it.hasNext()) {
+					throw new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING);
+				}
+
+				fetchedPost = it.next();
 
-			final Thread pullThread =
-					new PullThread(ois, userTopic, (cbSuccess, cbTopicName, cbCause) -> {
-						if (cbSuccess) {
-							if (cbCause instanceof EOFException) {
-								topicManager.removeClosedSocket(cbTopicName);
-								userStub.fireEvent(
-										UserEvent.successful(Tag.TOPIC_DELETED, cbTopicName));
-							} else if (cbCause instanceof SocketException) {
-								userStub.fireEvent(UserEvent.successful(Tag.TOPIC_LISTEN_STOPPED,
-										cbTopicName));
-							}
-						}
-					});
-			pullThread.start();
+				// only whole Posts replace the Posts without data
+				if (postRequest.isWholePost()) {
+					topicManager.postFetched(topicName, fetchedPost);
+				}
+			} finally {
+				socket.close();
+			}
 		}
 
 		@Override
 		protected Serializable getMessageValue() {
-			return userTopic.getToken();
+			return postRequest;
 		}
 	}
 
@@ -364,19 +1178,110 @@ final class Consumer extends ClientNode implements AutoCloseable, Subscriber {
 
 		private final Tag eventTag = Tag.TOPIC_LISTEN_STOPPED;
 		private final String topicName;
+		private final TopicPartitions partitions;
 
-		private StopListeningForTopicThread(String topicName) {
+		/**
+		 * Constructs a StopListeningForTopicThread that unsubscribes from a Topic, or from each of
+		 * its partitions if it is partitioned.
+		 *
+		 * @param topicName the name of the Topic
+		 * @param partitions the partitions of the Topic, if only the partitions with which it was
+		 * 		listened for should be unsubscribed from without firing a user event if that
+		 * 		fails, or {@code null} otherwise
+		 */
+		private StopListeningForTopicThread(String topicName, TopicPartitions partitions) {
 			super();
 			this.topicName = topicName;
+			this.partitions = partitions;
 		}
 
 		@Override
 		public void run() {
 			try {
-				topicManager.closeAndRemoveSocket(topicName);
+				final Map<String, Session> sessionPerTopic = partitions == null
+						? topicManager.removeTopic(topicName)
+						: topicManager.removePartitions(partitions);
+
+				for (final Map.Entry<String, Session> e : sessionPerTopic.entrySet()) {
+					e.getValue().unsubscribe(e.getKey());
+				}
 			} catch (NoSuchElementException | IOException e) {
-				userStub.fireEvent(UserEvent.failed(eventTag, topicName, e));
+				if (partitions == null) {
+					userStub.fireEvent(UserEvent.failed(eventTag, topicName, e));
+				} else {
+					LG.exception(e);
+				}
+			}
+		}
+	}
+
+	private final class PartitionEvents {
+
+		private final TopicPartitions partitions;
+		private final Tag listenEventTag;
+
+		// guarded by this
+		private int listenReportCount = 0;
+		private boolean listenFailed = false;
+		private boolean stopped = false;
+
+		/**
+		 * Constructs the merger of the user events of the partitions of a Topic.
+		 *
+		 * @param partitions the partitions of the Topic
+		 * @param listenEventTag the tag of the user events that report whether each partition is
+		 * 		listened for
+		 */
+		private PartitionEvents(TopicPartitions partitions, Tag listenEventTag) {
+			this.partitions = partitions;
+			this.listenEventTag = listenEventTag;
+		}
+
+		/**
+		 * Merges a user event of a partition into the user events of the Topic.
+		 *
+		 * @param event the user event of the partition
+		 *
+		 * @return the user event of the Topic, or {@code null} if no user event should be fired
+		 *
+		 * @see Consumer#mergePartitionEvent(UserEvent)
+		 */
+		private synchronized UserEvent merge(UserEvent event) {
+			final String topicName = partitions.getTopicName();
+			if (stopped) {
+				return null;
 			}
+
+			if ((event.tag == Tag.MESSAGE_RECEIVED) || (event.tag == Tag.POST_FETCHED)) {
+				return UserEvent.renamed(event, topicName);
+			}
+
+			if (event.tag != listenEventTag) {
+				stop();
+				return UserEvent.renamed(event, topicName);
+			}
+
+			UserEvent mergedEvent = null;
+			if (!event.success && !listenFailed) {
+				listenFailed = true;
+				mergedEvent = UserEvent.renamed(event, topicName);
+			}
+
+			if (++listenReportCount == partitions.getPartitionCount()) {
+				if (!listenFailed) {
+					mergedEvent = UserEvent.successful(listenEventTag, topicName);
+				} else {
+					stop();
+				}
+			}
+
+			return mergedEvent;
+		}
+
+		// the Topic is listened for either as a whole or not at all
+		private void stop() {
+			stopped = true;
+			new StopListeningForTopicThread(partitions.getTopicName(), partitions).start();
 		}
 	}
 }
@@ -0,0 +1,151 @@
+package alexman.yamca.eventdeliverysystem.client;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ControlResponse;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.thread.RequestChannel;
+
+/**
+ * A persistent connection to a Broker over which the requests for the creation and deletion of
+ * Topics and for the actual Broker of Topics are sent. The requests are sent over a
+ * {@link RequestChannel}, so many of them can be sent without waiting for the previous ones to be
+ * answered, and they fail with a ServerException if their response doesn't arrive in time.
+ *
+ * @author Alex Mandelias
+ */
+final class ControlChannel implements AutoCloseable {
+
+	private final RequestChannel channel;
+
+	/**
+	 * Constructs a ControlChannel to a Broker. No connection is established until a request is
+	 * sent.
+	 *
+	 * @param brokerIP the InetAddress of the Broker
+	 * @param brokerPort the port of the Broker
+	 */
+	ControlChannel(InetAddress brokerIP, int brokerPort) {
+		this(brokerIP, brokerPort, RequestChannel.DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Constructs a ControlChannel to a Broker whose requests fail if their response doesn't arrive
+	 * within a timeout. No connection is established until a request is sent.
+	 *
+	 * @param brokerIP the InetAddress of the Broker
+	 * @param brokerPort the port of the Broker
+	 * @param timeoutMillis the time, in milliseconds, for which a request waits for its response
+	 */
+	ControlChannel(InetAddress brokerIP, int brokerPort, long timeoutMillis) {
+		channel = new RequestChannel(brokerIP, brokerPort, null, timeoutMillis);
+	}
+
+	/**
+	 * Sends a request to the Broker without waiting for its response.
+	 *
+	 * @param type the type of the request
+	 * @param value the value of the request
+	 *
+	 * @return a future that is completed with the value of the response, or exceptionally with a
+	 * 		ServerException if the connection to the Broker is lost before the response arrives
+	 * 		or if the response does not arrive in time
+	 */
+	CompletableFuture<Object> send(MessageType type, Serializable value) {
+		final CompletableFuture<Object> responseValue = new CompletableFuture<>();
+		sendForResponse(type, value).whenComplete((response, cause) -> {
+			if (cause != null) {
+				responseValue.completeExceptionally(cause);
+			} else {
+				responseValue.complete(response.getValue());
+			}
+		});
+		return responseValue;
+	}
+
+	/**
+	 * Sends a request to the Broker without waiting for its response, which is needed as a whole
+	 * when the Broker may forward the request to another Broker.
+	 *
+	 * @param type the type of the request
+	 * @param value the value of the request
+	 *
+	 * @return a future that is completed with the response, or exceptionally with a
+	 * 		ServerException if the connection to the Broker is lost before the response arrives
+	 * 		or if the response does not arrive in time
+	 */
+	CompletableFuture<ControlResponse> sendForResponse(MessageType type, Serializable value) {
+		final CompletableFuture<ControlResponse> response = new CompletableFuture<>();
+		channel.send(new Message(type, value)).whenComplete((controlResponse, cause) -> {
+			if (cause instanceof TimeoutException) {
+				response.completeExceptionally(new ServerException(cause.getMessage(), cause));
+			} else if (cause != null) {
+				response.completeExceptionally(
+						new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING, cause));
+			} else {
+				response.complete(controlResponse);
+			}
+		});
+		return response;
+	}
+
+	/**
+	 * Returns the number of requests whose response is waited for.
+	 *
+	 * @return the number of requests
+	 */
+	int getPendingRequestCount() {
+		return channel.getPendingRequestCount();
+	}
+
+	/**
+	 * Sends a request to the Broker and waits for its response.
+	 *
+	 * @param type the type of the request
+	 * @param value the value of the request
+	 *
+	 * @return the value of the response
+	 *
+	 * @throws ServerException if the connection to the Broker is lost or if the response does not
+	 * 		arrive in time
+	 */
+	Object call(MessageType type, Serializable value) throws ServerException {
+		return ControlChannel.await(send(type, value));
+	}
+
+	/**
+	 * Waits for the response to a request that was sent without waiting for it. The request fails
+	 * by itself if its response doesn't arrive in time.
+	 *
+	 * @param response the future returned when the request was sent
+	 *
+	 * @return the value of the response
+	 *
+	 * @throws ServerException if the connection to the Broker is lost or if the response does not
+	 * 		arrive in time
+	 */
+	static Object await(CompletableFuture<Object> response) throws ServerException {
+		try {
+			return response.get();
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof ServerException) {
+				throw (ServerException) cause;
+			}
+			throw new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING, cause);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		channel.close();
+	}
+}
@@ -1,22 +1,33 @@
 package alexman.yamca.eventdeliverysystem.client;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
+import alexman.yamca.eventdeliverysystem.client.ConnectionPool.DataConnection;
 import alexman.yamca.eventdeliverysystem.client.User.UserStub;
 import alexman.yamca.eventdeliverysystem.client.UserEvent.Tag;
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
 import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
 import alexman.yamca.eventdeliverysystem.datastructures.Packet;
 import alexman.yamca.eventdeliverysystem.datastructures.Post;
 import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Priority;
+import alexman.yamca.eventdeliverysystem.datastructures.TopicPartitions;
 import alexman.yamca.eventdeliverysystem.server.Broker;
 import alexman.yamca.eventdeliverysystem.thread.PushThread.Protocol;
 import alexman.yamca.eventdeliverysystem.util.LG;
@@ -24,12 +35,57 @@ import alexman.yamca.eventdeliverysystem.util.LG;
 /**
  * A client-side process which is responsible for creating Topics and pushing Posts to them by
  * connecting to a remote server.
+ * <p>
+ * If batching is configured, plain-text messages and other small Posts pushed to the same Topic
+ * in quick succession are batched and sent in a single upload. A batch is sent once it has been
+ * open for the linger time or once it has reached the maximum batch size, whichever happens
+ * first, or before a larger Post is pushed to the same Topic. By default, every Post is sent on
+ * its own.
+ * <p>
+ * Uploads are sent over pooled connections which are kept open between uploads, so that an
+ * upload to a Broker that was recently used doesn't have to establish a new connection.
+ * <p>
+ * The Posts of a partitioned Topic are pushed to the partition of their key, which may be on a
+ * different Broker for each Post. The number of partitions of each Topic is asked for once. The
+ * Posts of each partition are uploaded separately, so that the partitions are uploaded to
+ * concurrently and the Posts of one partition are sent even if those of another one fail.
  *
  * @author Alex Mandelias
  * @author Dimitris Tsirbas
  * @see Broker
  */
-final class Publisher extends ClientNode {
+final class Publisher extends ClientNode implements AutoCloseable {
+
+	private static final int MAX_CONCURRENT_UPLOADS = 3;
+	private static final int MAX_CONCURRENT_UPLOADS_PER_BROKER = 2;
+
+	private static final long IDLE_CONNECTION_TIMEOUT_MILLIS = 30_000L;
+
+	// the time for which closing waits for the uploads that have already been submitted
+	private static final long CLOSE_TIMEOUT_MILLIS = 10_000L;
+
+	// the number of Brokers to which an upload is sent if each one redirects it to the next
+	private static final int MAX_REDIRECTS = 3;
+
+	// batching is opt-in, since it delays every small Post by the linger time
+	private static final long DEFAULT_LINGER_MILLIS = 0L;
+	private static final long DEFAULT_MAX_BATCH_SIZE = 64L * 1024L;
+
+	private final ConnectionPool connectionPool =
+			new ConnectionPool(Publisher.MAX_CONCURRENT_UPLOADS_PER_BROKER + 1,
+					Publisher.IDLE_CONNECTION_TIMEOUT_MILLIS);
+	private final UploadScheduler uploadScheduler = new UploadScheduler(topicCIManager,
+			Publisher.MAX_CONCURRENT_UPLOADS, Publisher.MAX_CONCURRENT_UPLOADS_PER_BROKER);
+
+	// created with the first batch, so that no thread is started if batching is not used
+	private Timer lingerTimer = null;
+	private boolean closed = false;
+	private final Map<String, PostBatch> openBatchPerTopic = new HashMap<>();
+	private long lingerMillis = Publisher.DEFAULT_LINGER_MILLIS;
+	private long maxBatchSize = Publisher.DEFAULT_MAX_BATCH_SIZE;
+
+	// the number of partitions of each Topic pushed to, 0 for Topics that aren't partitioned
+	private final Map<String, Integer> partitionCountPerTopic = new ConcurrentHashMap<>();
 
 	/**
 	 * Constructs a Publisher.
@@ -61,33 +117,221 @@ final class Publisher extends ClientNode {
 	}
 
 	/**
-	 * Pushes a Post by creating a new Thread that connects to the actual Broker and starts a
-	 * PushThread.
+	 * Constructs a Publisher.
+	 *
+	 * @param seeds the addresses of the seed brokers, the first of which is the default broker
+	 * @param userStub the UserStub object that will be notified if a push fails
+	 *
+	 * @throws UnknownHostException if the address of a seed broker is unresolved
+	 */
+	Publisher(List<InetSocketAddress> seeds, UserStub userStub) throws UnknownHostException {
+		super(seeds, userStub);
+	}
+
+	/**
+	 * Changes how small Posts are batched. Batches that are already open are not affected.
+	 *
+	 * @param lingerMillis the time, in milliseconds, for which a batch waits for more Posts
+	 * 		before it is sent, or {@code 0} to send every Post on its own
+	 * @param maxBatchSize the number of bytes of data after which a batch is sent immediately
+	 *
+	 * @throws IllegalArgumentException if {@code lingerMillis} is negative or if {@code
+	 * 		maxBatchSize} is not positive
+	 */
+	synchronized void configureBatching(long lingerMillis, long maxBatchSize) {
+		if (lingerMillis < 0) {
+			throw new IllegalArgumentException("lingerMillis can't be negative");
+		}
+		if (maxBatchSize <= 0) {
+			throw new IllegalArgumentException("maxBatchSize must be positive");
+		}
+
+		this.lingerMillis = lingerMillis;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	@Override
+	protected void onBrokerLeft(ConnectionInfo brokerCI) {
+		super.onBrokerLeft(brokerCI);
+		connectionPool.closeIdleConnections(brokerCI);
+	}
+
+	/**
+	 * Closes this Publisher. The Posts that have already been pushed are uploaded first, waiting
+	 * for up to a timeout, and then the connections to the Brokers are closed. No more Posts may
+	 * be pushed.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			for (final PostBatch batch : new ArrayList<>(openBatchPerTopic.values())) {
+				send(batch);
+			}
+			if (lingerTimer != null) {
+				lingerTimer.cancel();
+			}
+			uploadScheduler.shutdown();
+		}
+
+		try {
+			if (!uploadScheduler.awaitTermination(Publisher.CLOSE_TIMEOUT_MILLIS)) {
+				LG.err("Closing Publisher before its uploads have finished");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		connectionPool.close();
+		closeControlChannels();
+	}
+
+	/**
+	 * Pushes a Post by scheduling an upload that leases a connection to the actual Broker and
+	 * starts a PushThread. Plain-text messages and other small Posts are uploaded before larger
+	 * ones, and may be added to a batch with other such Posts of the same Topic. A larger Post
+	 * first sends the open batch of its Topic, so that it isn't uploaded before the Posts that were
+	 * pushed before it. If the Topic is moving to another Broker, the upload is redirected to the
+	 * Broker that accepts it.
+	 * <p>
+	 * The first time a Post is pushed to a Topic, the number of its partitions is asked for before
+	 * this method returns, so that the upload is scheduled for the partition of the Post.
 	 *
 	 * @param post the Post
 	 * @param topicName the name of the Topic to which to push the Post
+	 *
+	 * @throws IllegalStateException if this Publisher has been closed
 	 */
 	void push(Post post, String topicName) {
 		LG.sout("Publisher#push(%s, %s)", post, topicName);
-		Thread thread = new PushThread(post, topicName);
-		thread.start();
+
+		final Priority priority = Priority.of(post.getPostInfo());
+
+		checkOpen();
+		final int partitionCount;
+		try {
+			partitionCount = getCachedPartitionCount(topicName);
+		} catch (final ServerException e) {
+			userStub.fireEvent(UserEvent.failed(Tag.MESSAGE_SENT, topicName, e));
+			return;
+		}
+
+		synchronized (this) {
+			checkOpen();
+
+			PostBatch batch = openBatchPerTopic.get(topicName);
+
+			// the Topic has been created again with a different number of partitions
+			if ((batch != null) && (batch.partitionCount != partitionCount)) {
+				send(batch);
+				batch = null;
+			}
+
+			if ((priority == Priority.LOW) || (lingerMillis == 0)) {
+				if (batch != null) {
+					send(batch);
+				}
+				submit(Collections.singletonList(post), topicName, partitionCount, priority);
+				return;
+			}
+
+			if (batch == null) {
+				batch = new PostBatch(topicName, partitionCount);
+				openBatchPerTopic.put(topicName, batch);
+				if (lingerTimer == null) {
+					lingerTimer = new Timer("Publisher-Linger", true);
+				}
+				lingerTimer.schedule(batch, lingerMillis);
+			}
+
+			batch.add(post);
+
+			if (batch.size >= maxBatchSize) {
+				send(batch);
+			}
+		}
+	}
+
+	private synchronized void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("The Publisher has been closed");
+		}
+	}
+
+	// sends a batch unless it has already been sent
+	private synchronized void send(PostBatch batch) {
+		if (openBatchPerTopic.get(batch.topicName) != batch) {
+			return;
+		}
+
+		openBatchPerTopic.remove(batch.topicName);
+		batch.cancel();
+		submit(batch.posts, batch.topicName, batch.partitionCount, Priority.HIGH);
+	}
+
+	// schedules an upload for each partition of the Topic to which some of the Posts are pushed,
+	// or a single upload if the Topic isn't partitioned. the uploads to each partition run one at
+	// a time, in order, while those to different partitions run concurrently.
+	private void submit(List<Post> posts, String topicName, int partitionCount,
+			Priority priority) {
+		if (partitionCount == 0) {
+			uploadScheduler.submit(new PushThread(posts, topicName, topicName), topicName,
+					priority);
+			return;
+		}
+
+		// the Posts of each poster are pushed in order to the same partition
+		final TopicPartitions partitions = new TopicPartitions(topicName, partitionCount);
+		final Map<String, List<Post>> postsPerPartition = new LinkedHashMap<>();
+		for (final Post post : posts) {
+			postsPerPartition.computeIfAbsent(partitions.getPartitionName(post.getPostInfo()),
+					partitionName -> new ArrayList<>()).add(post);
+		}
+
+		for (final Map.Entry<String, List<Post>> e : postsPerPartition.entrySet()) {
+			uploadScheduler.submit(new PushThread(e.getValue(), topicName, e.getKey()),
+					e.getKey(), priority);
+		}
 	}
 
 	/**
 	 * Request that the remote server create a new Topic with the specified name by creating a new
-	 * Thread that connects to the actual Broker for the Topic.
+	 * Thread that sends the request over the ControlChannel to the actual Broker for the Topic.
 	 *
 	 * @param topicName the name of the new Topic
+	 *
+	 * @throws IllegalArgumentException if a Topic can't have that name
 	 */
 	void createTopic(String topicName) {
 		LG.sout("Publisher#createTopic(%s)", topicName);
-		Thread thread = new CreateTopicThread(topicName);
+		TopicPartitions.checkTopicName(topicName);
+		Thread thread = new TopicRequestThread(Tag.TOPIC_CREATED, MessageType.CREATE_TOPIC,
+				topicName, ClientNode.getTopicAEString(topicName));
+		thread.start();
+	}
+
+	/**
+	 * Request that the remote server create a new Topic with the specified name that is split
+	 * into partitions, by creating a new Thread that creates each partition over the
+	 * ControlChannel to its actual Broker and then the Topic itself.
+	 *
+	 * @param topicName the name of the new Topic
+	 * @param partitionCount the number of partitions of the new Topic
+	 *
+	 * @throws IllegalArgumentException if {@code partitionCount} is not positive or if a Topic
+	 * 		can't have that name
+	 */
+	void createTopic(String topicName, int partitionCount) {
+		LG.sout("Publisher#createTopic(%s, %d)", topicName, partitionCount);
+		Thread thread =
+				new CreatePartitionedTopicThread(new TopicPartitions(topicName, partitionCount));
 		thread.start();
 	}
 
 	/**
-	 * Request that the remote server delete the existing Topic with the specified name by creating
-	 * a new Thread that connects to the actual Broker for the Topic.
+	 * Request that the remote server delete the existing Topic with the specified name, along
+	 * with its partitions if it is partitioned, by creating a new Thread that sends the requests
+	 * over the ControlChannels to the actual Brokers.
 	 *
 	 * @param topicName the name of the new Topic
 	 */
@@ -97,91 +341,338 @@ final class Publisher extends ClientNode {
 		thread.start();
 	}
 
-	private final class PushThread extends ClientThread {
+	// returns the number of partitions of a Topic, asking its Broker the first time
+	private int getCachedPartitionCount(String topicName) throws ServerException {
+		final Integer partitionCount = partitionCountPerTopic.get(topicName);
+		if (partitionCount != null) {
+			return partitionCount;
+		}
+
+		final int newPartitionCount = getPartitionCount(topicName);
+		partitionCountPerTopic.put(topicName, newPartitionCount);
+		return newPartitionCount;
+	}
+
+	private final class PostBatch extends TimerTask {
+
+		private final String topicName;
+		private final int partitionCount;
+		private final List<Post> posts = new ArrayList<>();
+		private long size = 0;
+
+		private PostBatch(String topicName, int partitionCount) {
+			this.topicName = topicName;
+			this.partitionCount = partitionCount;
+		}
 
-		private final Post post;
+		private void add(Post post) {
+			posts.add(post);
+			size += Math.max(post.getPostInfo().getSize(), 0L);
+		}
+
+		@Override
+		public void run() {
+			send(this);
+		}
+	}
+
+	private final class PushThread extends Thread {
+
+		private final List<Post> posts;
+		private final String topicName;
+		private final String pushTopicName;
 
 		/**
-		 * Constructs a new PostThread that connects to the actual Broker and starts a PushThread to
-		 * post the Post.
+		 * Constructs a new PushThread that leases a connection to the actual Broker and starts a
+		 * PushThread to post some Posts over it.
 		 *
-		 * @param post the Post
-		 * @param topicName the name of the Topic to which to push the Post
+		 * @param posts the Posts
+		 * @param topicName the name of the Topic to which to push the Posts
+		 * @param pushTopicName the name of the Topic itself, or of the partition of the Topic to
+		 * 		which all of the Posts are pushed
 		 */
-		private PushThread(Post post, String topicName) {
-			super(Tag.MESSAGE_SENT, MessageType.DATA_PACKET_SEND, topicName);
-			this.post = post;
+		private PushThread(List<Post> posts, String topicName, String pushTopicName) {
+			super(String.format("PushThread - %d - %s", posts.size(), pushTopicName));
+			this.posts = posts;
+			this.topicName = topicName;
+			this.pushTopicName = pushTopicName;
 		}
 
 		@Override
-		protected void doWorkAndMaybeCloseSocket(boolean success, Socket socket,
-				ObjectOutputStream oos, ObjectInputStream ois) throws IOException {
+		public void run() {
 			try {
-				if (!success) {
-					throw new ServerException(ClientNode.getTopicDNEString(topicName));
-				}
+				push();
+				fireEvents(UserEvent.successful(Tag.MESSAGE_SENT, topicName));
+			} catch (final ServerException e) {
+				// the Topic may have been deleted and created again with a different layout
+				partitionCountPerTopic.remove(topicName);
+				fireEvents(UserEvent.failed(Tag.MESSAGE_SENT, topicName, e));
+			} catch (final IOException e) {
+				partitionCountPerTopic.remove(topicName);
+				Throwable e1 = new ServerException(ClientNode.CONNECTION_TO_SERVER_LOST_STRING, e);
+				fireEvents(UserEvent.failed(Tag.MESSAGE_SENT, topicName, e1));
+			}
+		}
+
+		private void push() throws IOException {
+			ConnectionInfo actualBrokerCI = topicCIManager.getConnectionInfoForTopic(pushTopicName);
 
+			final List<PostInfo> postInfoList = new LinkedList<>();
+			final LongObjectMap<Packet[]> packetMap = new LongObjectMap<>(posts.size());
+			for (final Post post : posts) {
 				final PostInfo postInfo = post.getPostInfo();
-				final List<PostInfo> postInfoList = new LinkedList<>();
 				postInfoList.add(postInfo);
-
-				final Map<Long, Packet[]> packetMap = new HashMap<>();
 				packetMap.put(postInfo.getId(), Packet.fromPost(post));
+			}
 
-				final Thread pushThread =
-						new alexman.yamca.eventdeliverysystem.thread.PushThread(oos, topicName, postInfoList,
-								packetMap, Protocol.NORMAL,
-								(callbackSuccess, callbackTopicName, callbackCause) -> {
-									if (!callbackSuccess) {
-										Exception e = new ServerException(
-												ClientNode.CONNECTION_TO_SERVER_LOST_STRING,
-												callbackCause);
-										userStub.fireEvent(
-												UserEvent.failed(eventTag, callbackTopicName, e));
-									}
-								});
-
-				pushThread.run();
+			try {
+				for (int redirects = 0; ; redirects++) {
+					final ConnectionInfo newBrokerCI =
+							pushOverPooledConnection(actualBrokerCI, postInfoList, packetMap);
+					if (newBrokerCI == null) {
+						break;
+					}
+
+					if (redirects == Publisher.MAX_REDIRECTS) {
+						throw new ServerException(ClientNode.getTopicDNEString(pushTopicName));
+					}
+
+					// the Topic is moving between Brokers
+					topicCIManager.refresh();
+					actualBrokerCI = newBrokerCI;
+				}
 			} finally {
-				socket.close();
+				packetMap.forEachValue(Packet::releaseAll);
+			}
+		}
+
+		// returns the Broker to which the upload is redirected, or null if the Posts were pushed
+		private ConnectionInfo pushOverPooledConnection(ConnectionInfo broker,
+				List<PostInfo> postInfoList, LongObjectMap<Packet[]> packetMap) throws IOException {
+
+			DataConnection connection;
+			boolean success;
+			ConnectionInfo newBroker = null;
+			while (true) {
+				connection = connectionPool.lease(broker);
+				try {
+					connection.oos.writeObject(
+							new Message(MessageType.DATA_PACKET_SEND, pushTopicName));
+					connection.oos.flush();
+					success = connection.ois.readBoolean();
+					if (!success) {
+						newBroker = (ConnectionInfo) connection.ois.readObject();
+					}
+					break;
+				} catch (final ClassNotFoundException e) {
+					connection.close();
+					throw new IOException(e);
+				} catch (final IOException e) {
+					connection.close();
+
+					// an idle connection may have been closed by the Broker, so try a new one
+					// since the Broker hasn't read any of the Posts
+					if (!connection.isReused()) {
+						throw e;
+					}
+				}
+			}
+
+			if (!success) {
+				connectionPool.release(connection);
+				if (newBroker == null) {
+					throw new ServerException(ClientNode.getTopicDNEString(pushTopicName));
+				}
+				return newBroker;
+			}
+
+			try {
+				final IOException[] cause = { null };
+				new alexman.yamca.eventdeliverysystem.thread.PushThread(connection.oos,
+						pushTopicName, postInfoList, packetMap, Protocol.NORMAL,
+						(callbackSuccess, callbackTopicName, callbackCause) -> {
+							if (!callbackSuccess) {
+								cause[0] = (IOException) callbackCause;
+							}
+						}).run();
+
+				if (cause[0] != null) {
+					throw cause[0];
+				}
+
+				// the stream would otherwise keep a reference to every Packet written
+				connection.oos.reset();
+
+				// wait for the Broker to receive the Posts before reusing the connection
+				connection.ois.readBoolean();
+				connectionPool.release(connection);
+				return null;
+			} catch (final IOException e) {
+				connection.close();
+				throw e;
+			}
+		}
+
+		private void fireEvents(UserEvent event) {
+			for (int i = 0; i < posts.size(); i++) {
+				userStub.fireEvent(event);
 			}
 		}
 	}
 
-	private final class CreateTopicThread extends ClientThread {
+	private final class TopicRequestThread extends Thread {
+
+		private final Tag eventTag;
+		private final MessageType messageType;
+		private final String topicName;
+		private final String failureMessage;
 
-		private CreateTopicThread(String topicName) {
-			super(Tag.TOPIC_CREATED, MessageType.CREATE_TOPIC, topicName);
+		/**
+		 * Constructs a TopicRequestThread that finds the actual Broker for a Topic and sends it a
+		 * request over the ControlChannel to that Broker, or to the default Broker which forwards
+		 * it if the actual Broker isn't known yet. The Thread does not wait for the response,
+		 * which fires the user event once it arrives.
+		 *
+		 * @param eventTag the tag of the user event that will be fired
+		 * @param messageType the type of the request
+		 * @param topicName the name of the Topic
+		 * @param failureMessage the message of the exception if the Broker rejects the request
+		 */
+		private TopicRequestThread(Tag eventTag, MessageType messageType, String topicName,
+				String failureMessage) {
+			super(String.format("TopicRequestThread - %s - %s - %s", eventTag, messageType,
+					topicName));
+			this.eventTag = eventTag;
+			this.messageType = messageType;
+			this.topicName = topicName;
+			this.failureMessage = failureMessage;
 		}
 
 		@Override
-		protected void doWorkAndMaybeCloseSocket(boolean success, Socket socket,
-				ObjectOutputStream oos, ObjectInputStream ois) throws IOException {
-			try {
-				if (!success) {
-					throw new ServerException(ClientNode.getTopicAEString(topicName));
+		public void run() {
+			sendTopicRequest(messageType, topicName, topicName)
+					.whenComplete((success, cause) -> {
+						if (cause != null) {
+							userStub.fireEvent(UserEvent.failed(eventTag, topicName, cause));
+						} else if (!((Boolean) success)) {
+							userStub.fireEvent(UserEvent.failed(eventTag, topicName,
+									new ServerException(failureMessage)));
+						} else {
+							userStub.fireEvent(UserEvent.successful(eventTag, topicName));
+						}
+					});
+		}
+	}
+
+	private final class CreatePartitionedTopicThread extends Thread {
+
+		private final TopicPartitions partitions;
+
+		/**
+		 * Constructs a CreatePartitionedTopicThread that creates each partition of a Topic on its
+		 * actual Broker and then marks the Topic as partitioned on its own actual Broker. If any
+		 * of the partitions can't be created, those that were created are deleted.
+		 *
+		 * @param partitions the partitions of the Topic
+		 */
+		private CreatePartitionedTopicThread(TopicPartitions partitions) {
+			super(String.format("CreatePartitionedTopicThread - %s", partitions));
+			this.partitions = partitions;
+		}
+
+		@Override
+		public void run() {
+			final String topicName = partitions.getTopicName();
+			final List<String> partitionNames = partitions.getPartitionNames();
+
+			// the partitions are on different Brokers, so they are all created at once
+			final Map<String, CompletableFuture<Object>> responses = new LinkedHashMap<>();
+			for (final String partitionName : partitionNames) {
+				responses.put(partitionName,
+						sendTopicRequest(MessageType.CREATE_TOPIC, partitionName, partitionName));
+			}
+
+			final List<String> createdPartitionNames = new LinkedList<>();
+			Throwable cause = null;
+			for (final Map.Entry<String, CompletableFuture<Object>> e : responses.entrySet()) {
+				try {
+					if ((Boolean) ControlChannel.await(e.getValue())) {
+						createdPartitionNames.add(e.getKey());
+					} else if (cause == null) {
+						cause = new ServerException(ClientNode.getTopicAEString(topicName));
+					}
+				} catch (final ServerException e1) {
+					if (cause == null) {
+						cause = e1;
+					}
+				}
+			}
+
+			if (cause == null) {
+				try {
+					if ((Boolean) ControlChannel.await(sendTopicRequest(
+							MessageType.CREATE_PARTITIONED_TOPIC, topicName, partitions))) {
+						partitionCountPerTopic.put(topicName, partitions.getPartitionCount());
+						userStub.fireEvent(UserEvent.successful(Tag.TOPIC_CREATED, topicName));
+						return;
+					}
+
+					cause = new ServerException(ClientNode.getTopicAEString(topicName));
+				} catch (final ServerException e) {
+					cause = e;
 				}
-			} finally {
-				socket.close();
 			}
+
+			for (final String partitionName : createdPartitionNames) {
+				sendTopicRequest(MessageType.DELETE_TOPIC, partitionName, partitionName);
+			}
+
+			userStub.fireEvent(UserEvent.failed(Tag.TOPIC_CREATED, topicName, cause));
 		}
 	}
 
-	private final class DeleteTopicThread extends ClientThread {
+	private final class DeleteTopicThread extends Thread {
 
+		private final String topicName;
+
+		/**
+		 * Constructs a DeleteTopicThread that deletes a Topic from its actual Broker and, if the
+		 * Topic is partitioned, then deletes each of its partitions from their actual Brokers.
+		 *
+		 * @param topicName the name of the Topic
+		 */
 		private DeleteTopicThread(String topicName) {
-			super(Tag.SERVER_TOPIC_DELETED, MessageType.DELETE_TOPIC, topicName);
+			super(String.format("DeleteTopicThread - %s", topicName));
+			this.topicName = topicName;
 		}
 
 		@Override
-		protected void doWorkAndMaybeCloseSocket(boolean success, Socket socket,
-				ObjectOutputStream oos, ObjectInputStream ois) throws IOException {
+		public void run() {
+			partitionCountPerTopic.remove(topicName);
+
 			try {
+				final int partitionCount = getPartitionCount(topicName);
+
+				final boolean success = (Boolean) ControlChannel.await(
+						sendTopicRequest(MessageType.DELETE_TOPIC, topicName, topicName));
 				if (!success) {
-					throw new ServerException(ClientNode.getTopicDNEString(topicName));
+					userStub.fireEvent(UserEvent.failed(Tag.SERVER_TOPIC_DELETED, topicName,
+							new ServerException(ClientNode.getTopicDNEString(topicName))));
+					return;
 				}
-			} finally {
-				socket.close();
+
+				// the Topic is no longer visible, so its partitions are deleted without waiting
+				if (partitionCount != 0) {
+					final TopicPartitions partitions =
+							new TopicPartitions(topicName, partitionCount);
+					for (final String partitionName : partitions.getPartitionNames()) {
+						sendTopicRequest(MessageType.DELETE_TOPIC, partitionName, partitionName);
+					}
+				}
+
+				userStub.fireEvent(UserEvent.successful(Tag.SERVER_TOPIC_DELETED, topicName));
+			} catch (final ServerException e) {
+				userStub.fireEvent(UserEvent.failed(Tag.SERVER_TOPIC_DELETED, topicName, e));
 			}
 		}
 	}
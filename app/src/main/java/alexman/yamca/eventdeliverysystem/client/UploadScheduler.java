@@ -0,0 +1,265 @@
+package alexman.yamca.eventdeliverysystem.client;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Priority;
+import alexman.yamca.eventdeliverysystem.util.LG;
+
+/**
+ * Schedules the uploads of a Publisher on a fixed pool of worker Threads. Pending uploads are
+ * started in order of {@link Priority}, and in the order in which they were submitted within the
+ * same Priority. The number of uploads running concurrently is limited both in total and for each
+ * Broker, so that the uploads do not compete for the same connection. Uploads to the same Topic,
+ * or to the same partition of a Topic, with the same Priority run one at a time, so that their
+ * Posts arrive in the order in which they were submitted, while the uploads to different
+ * partitions of a Topic run concurrently.
+ * <p>
+ * High priority uploads may exceed each limit by one, so that a message does not have to wait
+ * for large uploads to finish before it is sent.
+ * <p>
+ * The pool has one more Thread than the number of uploads that may run at the same time, and its
+ * Threads are only created when they are first needed. It is shut down along with the Publisher.
+ *
+ * @author Alex Mandelias
+ */
+final class UploadScheduler {
+
+	private static final Comparator<Upload> UPLOAD_ORDER = (u1, u2) -> {
+		final int priorityComparison = u1.priority.compareTo(u2.priority);
+		return priorityComparison != 0
+		       ? priorityComparison
+		       : Long.compare(u1.sequenceNumber, u2.sequenceNumber);
+	};
+
+	private final CIManager topicCIManager;
+	private final int maxUploads;
+	private final int maxUploadsPerBroker;
+
+	private final NavigableSet<Upload> pendingUploads =
+			new TreeSet<>(UploadScheduler.UPLOAD_ORDER);
+	private final Map<ConnectionInfo, Integer> runningUploadsPerBroker = new HashMap<>();
+	private final Map<Priority, Set<String>> runningTopicsPerPriority =
+			new EnumMap<>(Priority.class);
+	private int runningUploads = 0;
+	private int workerCount = 0;
+	private long nextSequenceNumber = 0;
+	private boolean shutdown = false;
+
+	private final ExecutorService workers;
+
+	/**
+	 * Constructs an UploadScheduler.
+	 *
+	 * @param topicCIManager the CIManager used to find the Broker of each upload's Topic
+	 * @param maxUploads the maximum number of low priority uploads running at the same time
+	 * @param maxUploadsPerBroker the maximum number of low priority uploads running at the same
+	 * 		time to the same Broker
+	 *
+	 * @throws IllegalArgumentException if any of the limits is not positive
+	 */
+	UploadScheduler(CIManager topicCIManager, int maxUploads, int maxUploadsPerBroker) {
+		if ((maxUploads <= 0) || (maxUploadsPerBroker <= 0)) {
+			throw new IllegalArgumentException("Upload limits must be positive");
+		}
+
+		this.topicCIManager = topicCIManager;
+		this.maxUploads = maxUploads;
+		this.maxUploadsPerBroker = maxUploadsPerBroker;
+
+		for (final Priority priority : Priority.values()) {
+			runningTopicsPerPriority.put(priority, new HashSet<>());
+		}
+
+		final AtomicInteger nextWorkerId = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(maxUploads + 1, work -> {
+			final Thread worker =
+					new Thread(work, "UploadScheduler-Worker-" + nextWorkerId.getAndIncrement());
+			worker.setDaemon(true);
+			return worker;
+		});
+	}
+
+	/**
+	 * Submits an upload to be run by a worker Thread once the limits allow it.
+	 *
+	 * @param upload the work of the upload
+	 * @param topicName the name of the Topic, or of the partition of a Topic, to which the upload
+	 * 		is made
+	 * @param priority the priority of the upload
+	 *
+	 * @throws IllegalStateException if this UploadScheduler has been shut down
+	 */
+	synchronized void submit(Runnable upload, String topicName, Priority priority) {
+		LG.sout("UploadScheduler#submit(%s, %s)", topicName, priority);
+
+		if (shutdown) {
+			throw new IllegalStateException("UploadScheduler has been shut down");
+		}
+
+		pendingUploads.add(new Upload(upload, topicName, priority, nextSequenceNumber++));
+
+		// the workers that are running pick up the upload if there are enough of them
+		if (workerCount < (maxUploads + 1)) {
+			workerCount++;
+			workers.execute(this::runUploads);
+		}
+	}
+
+	/**
+	 * Shuts down this UploadScheduler. The uploads that have already been submitted are run, but
+	 * no more uploads may be submitted.
+	 */
+	synchronized void shutdown() {
+		shutdown = true;
+		workers.shutdown();
+	}
+
+	/**
+	 * Blocks until the uploads submitted before a shutdown have finished, or until a timeout.
+	 *
+	 * @param timeoutMillis the maximum time to wait, in milliseconds
+	 *
+	 * @return {@code true} if the uploads have finished, {@code false} if the timeout elapsed
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+		return workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	// removes and returns the first pending upload that may run now, or null if there is none
+	private synchronized Upload takeNext() {
+		// an upload doesn't overtake an earlier one to the same Topic with the same Priority
+		Priority priority = null;
+		final Set<String> skippedTopics = new HashSet<>();
+
+		for (final Iterator<Upload> iter = pendingUploads.iterator(); iter.hasNext(); ) {
+			final Upload upload = iter.next();
+			if (upload.priority != priority) {
+				priority = upload.priority;
+				skippedTopics.clear();
+			}
+
+			if (!skippedTopics.contains(upload.topicName) && mayRun(upload)) {
+				iter.remove();
+				runningUploads++;
+				runningTopicsPerPriority.get(upload.priority).add(upload.topicName);
+				if (upload.broker != null) {
+					runningUploadsPerBroker.merge(upload.broker, 1, Integer::sum);
+				}
+				return upload;
+			}
+
+			skippedTopics.add(upload.topicName);
+		}
+
+		workerCount--;
+		return null;
+	}
+
+	private boolean mayRun(Upload upload) {
+		final int extraSlots = upload.priority == Priority.HIGH ? 1 : 0;
+
+		if (runningUploads >= (maxUploads + extraSlots)) {
+			return false;
+		}
+
+		if (runningTopicsPerPriority.get(upload.priority).contains(upload.topicName)) {
+			return false;
+		}
+
+		// the Broker of the upload is found after it is taken
+		if (upload.broker == null) {
+			return true;
+		}
+
+		final int runningForBroker = runningUploadsPerBroker.getOrDefault(upload.broker, 0);
+		return runningForBroker < (maxUploadsPerBroker + extraSlots);
+	}
+
+	// finds the Broker of an upload that was taken without one and returns whether it may run
+	private synchronized boolean assignBroker(Upload upload, ConnectionInfo broker) {
+		upload.broker = broker;
+		runningUploads--;
+		runningTopicsPerPriority.get(upload.priority).remove(upload.topicName);
+
+		if (!mayRun(upload)) {
+			pendingUploads.add(upload);
+			return false;
+		}
+
+		runningUploads++;
+		runningTopicsPerPriority.get(upload.priority).add(upload.topicName);
+		runningUploadsPerBroker.merge(broker, 1, Integer::sum);
+		return true;
+	}
+
+	private synchronized void finish(Upload upload) {
+		runningUploads--;
+		runningTopicsPerPriority.get(upload.priority).remove(upload.topicName);
+		if (upload.broker != null) {
+			runningUploadsPerBroker.computeIfPresent(upload.broker,
+					(broker, count) -> count == 1 ? null : count - 1);
+		}
+	}
+
+	// the work of a worker Thread, which runs uploads until none may run
+	private void runUploads() {
+		Upload upload;
+		while ((upload = takeNext()) != null) {
+			if ((upload.broker == null) && !resolveBroker(upload)) {
+				continue;
+			}
+
+			// a failed upload doesn't end the worker, or it would never be counted as finished
+			try {
+				upload.work.run();
+			} catch (final RuntimeException e) {
+				LG.exception(e);
+			} finally {
+				finish(upload);
+			}
+		}
+	}
+
+	private boolean resolveBroker(Upload upload) {
+		try {
+			final ConnectionInfo broker =
+					topicCIManager.getConnectionInfoForTopic(upload.topicName);
+			return assignBroker(upload, broker);
+		} catch (final ServerException e) {
+			// the upload runs anyway so that it reports the failure itself
+			LG.exception(e);
+			return true;
+		}
+	}
+
+	private static final class Upload {
+
+		private final Runnable work;
+		private final String topicName;
+		private final Priority priority;
+		private final long sequenceNumber;
+		private ConnectionInfo broker = null;
+
+		private Upload(Runnable work, String topicName, Priority priority, long sequenceNumber) {
+			this.work = work;
+			this.topicName = topicName;
+			this.priority = priority;
+			this.sequenceNumber = sequenceNumber;
+		}
+	}
+}
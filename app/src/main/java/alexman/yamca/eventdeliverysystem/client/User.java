@@ -1,6 +1,7 @@
 package alexman.yamca.eventdeliverysystem.client;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.Collection;
 import java.util.HashSet;
@@ -12,6 +13,7 @@ import alexman.yamca.eventdeliverysystem.client.UserEvent.Tag;
 import alexman.yamca.eventdeliverysystem.dao.IProfileDAO;
 import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
 import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.thread.SyncMode;
 import alexman.yamca.eventdeliverysystem.util.LG;
 
 /**
@@ -26,7 +28,7 @@ import alexman.yamca.eventdeliverysystem.util.LG;
  * @author Alex Mandelias
  * @author Dimitris Tsirmpas
  */
-public final class User {
+public final class User implements AutoCloseable {
 
 	private final CompositeListener listener = new CompositeListener();
 	private final UserStub userStub = new UserStub();
@@ -60,6 +62,29 @@ public final class User {
 		return user;
 	}
 
+	/**
+	 * Retrieves the user's data and saved posts, establishes the connection to the server through
+	 * any of a number of seed brokers, prepares to receive and send posts and returns the new User
+	 * object. The seed brokers are tried in order whenever the connection to the server is lost.
+	 *
+	 * @param seeds the addresses of the seed brokers of the server
+	 * @param profileDao the Profile Data Access Object for this User
+	 * @param profileName the name of the existing profile
+	 *
+	 * @return the new User
+	 *
+	 * @throws IOException if an I/O error occurs while interacting with the IProfileDAO object
+	 * @throws ServerException if the connection to the server could not be established
+	 * @throws UnknownHostException if the address of a seed broker is unresolved
+	 * @throws IllegalArgumentException if there are no seed brokers
+	 */
+	public static User loadExisting(List<InetSocketAddress> seeds, IProfileDAO profileDao,
+			String profileName) throws IOException {
+		final User user = new User(seeds, profileDao);
+		user.switchToExistingProfile(profileName);
+		return user;
+	}
+
 	/**
 	 * Creates a new User in the file system and returns the new User object.
 	 *
@@ -82,6 +107,29 @@ public final class User {
 		return user;
 	}
 
+	/**
+	 * Creates a new User in the file system, which connects to the server through any of a number
+	 * of seed brokers, and returns the new User object. The seed brokers are tried in order
+	 * whenever the connection to the server is lost.
+	 *
+	 * @param seeds the addresses of the seed brokers of the server
+	 * @param profileDao the Profile Data Access Object for this User
+	 * @param name the name of the new Profile
+	 *
+	 * @return the new User
+	 *
+	 * @throws IOException if an I/O error occurs while interacting with the IProfileDAO object
+	 * @throws ServerException if the connection to the server could not be established
+	 * @throws UnknownHostException if the address of a seed broker is unresolved
+	 * @throws IllegalArgumentException if there are no seed brokers
+	 */
+	public static User createNew(List<InetSocketAddress> seeds, IProfileDAO profileDao,
+			String name) throws IOException {
+		final User user = new User(seeds, profileDao);
+		user.switchToNewProfile(name);
+		return user;
+	}
+
 	private User(String serverIP, int port, IProfileDAO profileDao) throws UnknownHostException {
 		this.profileDao = profileDao;
 
@@ -91,6 +139,16 @@ public final class User {
 		addUserListener(new BasicListener());
 	}
 
+	private User(List<InetSocketAddress> seeds, IProfileDAO profileDao)
+			throws UnknownHostException {
+		this.profileDao = profileDao;
+
+		publisher = new Publisher(seeds, userStub);
+		consumer = new Consumer(seeds, userStub);
+
+		addUserListener(new BasicListener());
+	}
+
 	/**
 	 * Returns the name of this User's current Profile.
 	 *
@@ -149,6 +207,56 @@ public final class User {
 		consumer.setTopics(new HashSet<>(currentProfile.getTopics()));
 	}
 
+	/**
+	 * Changes which parts of the Posts of the Topics this User receives from the server. All
+	 * connections regarding the current Topics are closed and new ones are established.
+	 * <p>
+	 * When only the PostInfo of each Post is received, pulled Posts don't have their data loaded.
+	 * The data of such a Post can be fetched when it is needed with the {@code fetchPost} method.
+	 *
+	 * @param syncMode the parts of the Posts to receive
+	 *
+	 * @throws ServerException if an I/O error occurs while closing existing connections
+	 * @see SyncMode
+	 * @see Post#isLoaded()
+	 */
+	public void setSyncMode(SyncMode syncMode) throws IOException {
+		consumer.setSyncMode(syncMode);
+
+		if (currentProfile != null) {
+			consumer.setTopics(new HashSet<>(currentProfile.getTopics()));
+		}
+	}
+
+	/**
+	 * Changes how this User batches the plain-text messages and other small Posts that it posts
+	 * in quick succession to the same Topic. Each batch is sent over a single connection. Posts
+	 * are not batched unless this method is called with a positive linger time.
+	 *
+	 * @param lingerMillis the time, in milliseconds, for which a batch waits for more Posts
+	 * 		before it is sent, or {@code 0} to send every Post on its own
+	 * @param maxBatchSize the number of bytes of data after which a batch is sent immediately
+	 *
+	 * @throws IllegalArgumentException if {@code lingerMillis} is negative or if {@code
+	 * 		maxBatchSize} is not positive
+	 */
+	public void configureBatching(long lingerMillis, long maxBatchSize) {
+		publisher.configureBatching(lingerMillis, maxBatchSize);
+	}
+
+	/**
+	 * Closes this User. The Posts that have already been posted are sent first, and then the
+	 * connections to the server are closed. This User may not be used afterwards.
+	 *
+	 * @throws ServerException if the connection to the server is lost while closing
+	 */
+	@Override
+	public void close() throws ServerException {
+		LG.sout("User#close()");
+		publisher.close();
+		consumer.close();
+	}
+
 	/**
 	 * Sends a post to a specific topic on the server. This operation fires a user event with the
 	 * {@code MESSAGE_SENT} tag when it's completed. Every user that is subscribed to this Topic
@@ -177,6 +285,9 @@ public final class User {
 	 * TOPIC_CREATED} tag when it's completed.
 	 *
 	 * @param topicName the name of the Topic to create
+	 *
+	 * @throws IllegalArgumentException if a Topic can't have that name, which it can't if the name
+	 * 		contains the separator of the names of partitions
 	 */
 	public void createTopic(String topicName) {
 		LG.sout("User#createTopic(%s)", topicName);
@@ -187,6 +298,28 @@ public final class User {
 		LG.out();
 	}
 
+	/**
+	 * Creates a topic on the server that is split into partitions, which may be placed on
+	 * different brokers. Each Post is posted to a single partition according to its poster, so the
+	 * Posts of each poster are received in the order in which they were posted. This operation
+	 * fires a user event with the {@code TOPIC_CREATED} tag when it's completed.
+	 *
+	 * @param topicName the name of the Topic to create
+	 * @param partitionCount the number of partitions of the Topic
+	 *
+	 * @throws IllegalArgumentException if {@code partitionCount} is not positive or if a Topic
+	 * 		can't have that name, which it can't if the name contains the separator of the names
+	 * 		of partitions
+	 */
+	public void createTopic(String topicName, int partitionCount) {
+		LG.sout("User#createTopic(%s, %d)", topicName, partitionCount);
+		LG.in();
+
+		publisher.createTopic(topicName, partitionCount);
+
+		LG.out();
+	}
+
 	/**
 	 * Deletes a topic on the server. This operation fires a user event with the {@code
 	 * SERVER_TOPIC_DELETED} tag when it's completed. Every user that is subscribed to this Topic
@@ -211,7 +344,8 @@ public final class User {
 
 	/**
 	 * Pulls all new Posts from a Topic, adds them to the Profile and saves them to the file system.
-	 * Posts that have already been pulled are not pulled again.
+	 * Posts that have already been pulled are not pulled again, unless their data has been loaded
+	 * since. Posts whose data has not been loaded are not saved.
 	 *
 	 * @param topicName the name of the Topic from which to pull
 	 *
@@ -227,13 +361,70 @@ public final class User {
 		currentProfile.clearUnread(topicName);
 
 		for (final Post post : newPosts) {
-			LG.sout("Saving Post '%s'", post);
-			profileDao.savePostForCurrentProfile(post, topicName);
+			if (post.isLoaded()) {
+				LG.sout("Saving Post '%s'", post);
+				profileDao.savePostForCurrentProfile(post, topicName);
+			}
+		}
+
+		LG.out();
+	}
+
+	/**
+	 * Fetches the data of a Post that was pulled without it. This operation fires a user event with
+	 * the {@code POST_FETCHED} tag when it's completed, after which the next {@code pull} from the
+	 * Topic pulls the Post along with its data.
+	 *
+	 * @param topicName the name of the Topic of the Post
+	 * @param postId the ID of the Post
+	 */
+	public void fetchPost(String topicName, long postId) {
+		LG.sout("User#fetchPost(%s, %d)", topicName, postId);
+		LG.in();
+
+		if (userIsNotSubscribed(topicName)) {
+			userStub.fireEvent(UserEvent.failed(Tag.POST_FETCHED, topicName,
+					new NoSuchElementException("This User can't fetch from Topic " + topicName
+					                           + " because they aren't subscribed to it")));
+		} else {
+			consumer.fetchPost(topicName, postId);
 		}
 
 		LG.out();
 	}
 
+	/**
+	 * Fetches a range of bytes of the data of a Post, for example to display only part of a large
+	 * file. This method blocks until the bytes have been received and also fires a user event
+	 * with the {@code POST_FETCHED} tag, but it doesn't change the Post in the Topic.
+	 *
+	 * @param topicName the name of the Topic of the Post
+	 * @param postId the ID of the Post
+	 * @param offset the index of the first byte of the range
+	 * @param length the number of bytes in the range
+	 *
+	 * @return the bytes of the range. If the range extends past the end of the data, only the
+	 * 		bytes up to the end are returned.
+	 *
+	 * @throws ServerException if the bytes could not be fetched
+	 * @throws NoSuchElementException if this User isn't subscribed to the Topic
+	 * @throws IllegalArgumentException if {@code offset < 0} or {@code length < 0}
+	 */
+	public byte[] fetchPostRange(String topicName, long postId, long offset, long length)
+			throws IOException {
+		LG.sout("User#fetchPostRange(%s, %d, %d, %d)", topicName, postId, offset, length);
+
+		if (userIsNotSubscribed(topicName)) {
+			throw new NoSuchElementException("This User can't fetch from Topic " + topicName
+			                                 + " because they aren't subscribed to it");
+		}
+		if (length < 0) {
+			throw new IllegalArgumentException("length can't be negative");
+		}
+
+		return consumer.fetchPostRange(topicName, postId, offset, length);
+	}
+
 	/**
 	 * Registers this user to listen for posts on a Topic. THis operation fires a user event with
 	 * the {@code TOPIC_LISTENED} tag.
@@ -299,6 +490,14 @@ public final class User {
 		 * @param e the event to fire
 		 */
 		void fireEvent(UserEvent e) {
+			// the events of the partitions of a Topic are fired as events of the Topic itself
+			final UserEvent mergedEvent = consumer.mergePartitionEvent(e);
+			if (mergedEvent != null) {
+				forwardEvent(mergedEvent);
+			}
+		}
+
+		private void forwardEvent(UserEvent e) {
 			switch (e.tag) {
 			case MESSAGE_SENT:
 				listener.onMessageSent(e);
@@ -324,6 +523,9 @@ public final class User {
 			case TOPIC_LISTEN_STOPPED:
 				listener.onTopicListenStopped(e);
 				break;
+			case POST_FETCHED:
+				listener.onPostFetched(e);
+				break;
 			default:
 				throw new IllegalArgumentException(
 						"You forgot to put a case for the new UserEvent#Tag enum");
@@ -395,6 +597,13 @@ public final class User {
 			listeners.forEach(l -> l.onTopicListenStopped(e));
 		}
 
+		@Override
+		public void onPostFetched(UserEvent e) {
+			CompositeListener.log(e);
+
+			listeners.forEach(l -> l.onPostFetched(e));
+		}
+
 		private static void log(UserEvent e) {
 			LG.header("%s - %s - %s", e.tag, e.topicName, e.success);
 		}
@@ -480,6 +689,15 @@ public final class User {
 			}
 		}
 
+		@Override
+		public void onPostFetched(UserEvent e) {
+			if (e.success) {
+				// do nothing
+			} else {
+				LG.exception(e.getCause());
+			}
+		}
+
 		private void removeTopicLocally(UserEvent e) {
 			currentProfile.removeTopic(e.topicName);
 			try {
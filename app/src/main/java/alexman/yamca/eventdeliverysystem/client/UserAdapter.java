@@ -51,4 +51,9 @@ public abstract class UserAdapter implements UserListener {
 	public void onTopicListenStopped(UserEvent e) {
 		// empty so that it can be selectively implemented
 	}
+
+	@Override
+	public void onPostFetched(UserEvent e) {
+		// empty so that it can be selectively implemented
+	}
 }
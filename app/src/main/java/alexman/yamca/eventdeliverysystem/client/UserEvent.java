@@ -38,6 +38,18 @@ public final class UserEvent {
 		return new UserEvent(false, tag, topicName, cause);
 	}
 
+	/**
+	 * Creates a user event that is the same as another one but is associated with another Topic.
+	 *
+	 * @param event the event
+	 * @param topicName the name of the Topic the new event is associated with
+	 *
+	 * @return the new event
+	 */
+	static UserEvent renamed(UserEvent event, String topicName) {
+		return new UserEvent(event.success, event.tag, topicName, event.cause);
+	}
+
 	/** Represents whether the underlying operation that fired this event was successful or not */
 	public final boolean success;
 
@@ -106,5 +118,8 @@ public final class UserEvent {
 
 		/** Used with events fired when the user has stopped listening to a topic */
 		TOPIC_LISTEN_STOPPED,
+
+		/** Used with events fired when the data of a post has been fetched from the server */
+		POST_FETCHED,
 	}
 }
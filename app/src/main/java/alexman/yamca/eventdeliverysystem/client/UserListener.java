@@ -72,4 +72,11 @@ public interface UserListener {
 	 * @param e the UserEvent associated with that event
 	 */
 	void onTopicListenStopped(UserEvent e);
+
+	/**
+	 * Called when the data of a Post has been fetched.
+	 *
+	 * @param e the UserEvent associated with that event
+	 */
+	void onPostFetched(UserEvent e);
 }
@@ -1,13 +1,16 @@
 package alexman.yamca.eventdeliverysystem.client;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 
 import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.LongIntMap;
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
 import alexman.yamca.eventdeliverysystem.datastructures.Packet;
 import alexman.yamca.eventdeliverysystem.datastructures.Post;
 import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
@@ -15,7 +18,11 @@ import alexman.yamca.eventdeliverysystem.util.LG;
 
 /**
  * An extension of the Abstract Topic that stores data as required by Users. The Posts are stored
- * as-is, as Post objects.
+ * as-is, as Post objects. A Post whose PostInfo is posted on its own is added once all of its
+ * Packets have been posted, while a Post whose PostInfo is posted without Packets, when only the
+ * metadata of Posts is synchronised, is added at once without its data. The Packets of several
+ * Posts may be posted interleaved, in which case the Posts are reassembled concurrently, and each
+ * Post is added after the Posts whose PostInfo was posted before its own.
  *
  * @author Alex Mandelias
  * @author Dimitris Tsirmpas
@@ -23,6 +30,7 @@ import alexman.yamca.eventdeliverysystem.util.LG;
 final class UserTopic extends AbstractTopic {
 
 	private static final Packet[] ZERO_LENGTH_PACKET_ARRAY = new Packet[0];
+	private static final int NO_INDEX = -1;
 	private static final Post dummyPost;
 
 	static {
@@ -31,8 +39,8 @@ final class UserTopic extends AbstractTopic {
 	}
 
 	// first element is the first post added
-	private final List<Post> postList = new LinkedList<>();
-	private final Map<Long, Integer> indexPerPostId = new HashMap<>();
+	private final List<Post> postList = new ArrayList<>();
+	private final LongIntMap indexPerPostId = new LongIntMap();
 
 	/**
 	 * Constructs a Topic that contains the posts of another Topic.
@@ -56,38 +64,111 @@ final class UserTopic extends AbstractTopic {
 		post(UserTopic.dummyPost);
 	}
 
+	/**
+	 * Returns the ID of the most recent Post in this Topic. Posts that are being reassembled are
+	 * added after it, so synchronising this Topic starting from that ID does not skip Posts whose
+	 * reassembly was interrupted.
+	 *
+	 * @return the ID of the most recent Post
+	 */
 	@Override
 	public long getLastPostId() {
 		return postList.get(postList.size() - 1).getPostInfo().getId();
 	}
 
-	private final List<Packet> currPackets = new LinkedList<>();
-	private PostInfo currPI = null;
+	// the Posts whose PostInfo has been posted but which haven't been added yet, in the order in
+	// which their PostInfo was posted, along with the Packets of those whose final Packet hasn't
+	// been posted and the Posts that have been reassembled but wait for earlier ones
+	private final Deque<PostInfo> pendingPostInfos = new ArrayDeque<>();
+	private final LongObjectMap<List<Packet>> incompletePackets = new LongObjectMap<>();
+	private final LongObjectMap<Post> reassembledPosts = new LongObjectMap<>();
 
 	@Override
 	public void postHook(PostInfo postInfo) {
-		if (!currPackets.isEmpty()) {
-			throw new IllegalStateException("Received PostInfo while more Packets remain");
+		final long postId = postInfo.getId();
+
+		// the Post is streamed again from its start if its stream was interrupted
+		final List<Packet> packetsOfPost = incompletePackets.get(postId);
+		if (packetsOfPost != null) {
+			packetsOfPost.forEach(Packet::release);
+			packetsOfPost.clear();
+			return;
 		}
 
-		currPI = postInfo;
+		if (reassembledPosts.remove(postId) == null) {
+			pendingPostInfos.addLast(postInfo);
+		}
+		incompletePackets.put(postId, new LinkedList<>());
+	}
+
+	@Override
+	protected void postHook(PostInfo postInfo, Packet[] packets) {
+		// whole Posts are not reassembled, and without Packets only the PostInfo is known
+		final Post post = packets.length == 0 ? Post.withoutData(postInfo)
+		                                      : Post.fromPackets(packets, postInfo);
+
+		// the data has been copied to the Post
+		Packet.releaseAll(packets);
+
+		if (pendingPostInfos.isEmpty()) {
+			post(post);
+		} else {
+			pendingPostInfos.addLast(postInfo);
+			reassembledPosts.put(postInfo.getId(), post);
+		}
 	}
 
 	@Override
 	public void postHook(Packet packet) {
-		currPackets.add(packet);
+		final long postId = packet.getPostId();
+		final List<Packet> packetsOfPost = incompletePackets.get(postId);
+		if (packetsOfPost == null) {
+			// the Post was cleared, or its PostInfo was lost, so it can't be reassembled
+			LG.err("Dropping Packet of unknown Post %d of Topic %s", postId, getName());
+			packet.release();
+			return;
+		}
+
+		packetsOfPost.add(packet);
 
 		if (packet.isFinal()) {
-			final Packet[] data = currPackets.toArray(UserTopic.ZERO_LENGTH_PACKET_ARRAY);
-			final Post completedPost = Post.fromPackets(data, currPI);
-			post(completedPost);
+			final Packet[] data = packetsOfPost.toArray(UserTopic.ZERO_LENGTH_PACKET_ARRAY);
+			incompletePackets.remove(postId);
+			reassembledPosts.put(postId, Post.fromPackets(data, findPendingPostInfo(postId)));
+
+			// the data has been copied to the Post
+			Packet.releaseAll(data);
 
-			currPackets.clear();
+			addReassembledPosts();
+		}
+	}
+
+	private PostInfo findPendingPostInfo(long postId) {
+		for (final PostInfo postInfo : pendingPostInfos) {
+			if (postInfo.getId() == postId) {
+				return postInfo;
+			}
+		}
+
+		throw new NoSuchElementException("No pending Post with id " + postId);
+	}
+
+	// adds the reassembled Posts that no Post being reassembled precedes, in order
+	private void addReassembledPosts() {
+		while (!pendingPostInfos.isEmpty()) {
+			final Post post = reassembledPosts.remove(pendingPostInfos.getFirst().getId());
+			if (post == null) {
+				return;
+			}
+
+			pendingPostInfos.removeFirst();
+			post(post);
 		}
 	}
 
 	/**
-	 * Adds a list of Posts to this Topic.
+	 * Adds a list of Posts to this Topic. A Post that already exists in this Topic is replaced only
+	 * if the new Post's data has been loaded.
 	 *
 	 * @param posts the Posts
 	 */
@@ -97,13 +178,32 @@ final class UserTopic extends AbstractTopic {
 		}
 	}
 
+	/**
+	 * Adds a Post whose data was fetched separately from the rest of the Topic.
+	 *
+	 * @param post the Post
+	 */
+	synchronized void postFetched(Post post) {
+		post(post);
+	}
+
 	private void post(Post post) {
-		postList.add(post);
-		indexPerPostId.put(post.getPostInfo().getId(), postList.size() - 1);
+		final long postId = post.getPostInfo().getId();
+		final int index = indexPerPostId.getOrDefault(postId, UserTopic.NO_INDEX);
+
+		if (index == UserTopic.NO_INDEX) {
+			postList.add(post);
+			indexPerPostId.put(postId, postList.size() - 1);
+		} else if (post.isLoaded()) {
+			postList.set(index, post);
+		}
 	}
 
-	/** Clears this Topic by removing all Posts */
-	void clear() {
+	/**
+	 * Clears this Topic by removing all Posts that have been added. The Posts that are being
+	 * reassembled are kept, and are added once they have been reassembled.
+	 */
+	synchronized void clear() {
 		postList.clear();
 		indexPerPostId.clear();
 		post(UserTopic.dummyPost);
@@ -120,12 +220,12 @@ final class UserTopic extends AbstractTopic {
 	 *
 	 * @throws NoSuchElementException if no Post in this Topic has the given ID
 	 */
-	List<Post> getPostsSince(long lastPostId) throws NoSuchElementException {
+	synchronized List<Post> getPostsSince(long lastPostId) throws NoSuchElementException {
 		LG.sout("Topic#getPostsSince(%d)", lastPostId);
 		LG.in();
 
-		final Integer index = indexPerPostId.get(lastPostId);
-		if (index == null) {
+		final int index = indexPerPostId.getOrDefault(lastPostId, UserTopic.NO_INDEX);
+		if (index == UserTopic.NO_INDEX) {
 			throw new NoSuchElementException(
 					"No post with id " + lastPostId + " found in this Topic");
 		}
@@ -4,7 +4,9 @@ import java.io.IOException;
 import java.util.Collection;
 
 import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.Packet;
 import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
 
 /**
  * Interface for a Data Access Object responsible for Topic entities.
@@ -43,6 +45,25 @@ public interface ITopicDAO {
 	 */
 	void writePost(Post post, String topicName) throws IOException;
 
+	/**
+	 * Reads a range of bytes of the data of a {@link Post} of an {@link AbstractTopic} as an array
+	 * of {@link Packet Packets}. The Packets may refer to the stored data instead of holding a copy
+	 * of it.
+	 *
+	 * @param postInfo the PostInfo of the Post
+	 * @param topicName the topic's name
+	 * @param offset the index of the first byte of the range
+	 * @param length the number of bytes in the range. If the range extends past the end of the
+	 * 		data, only the bytes up to the end are read.
+	 *
+	 * @return the Packets that contain the range of bytes
+	 *
+	 * @throws IOException if an I/O error occurs while interacting with this DAO object
+	 * @throws IllegalArgumentException if the offset is past the end of the data
+	 */
+	Packet[] readPost(PostInfo postInfo, String topicName, long offset, long length)
+			throws IOException;
+
 	/**
 	 * Reads all Topics from the File System and returns them.
 	 *
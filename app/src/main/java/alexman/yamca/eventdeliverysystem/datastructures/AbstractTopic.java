@@ -1,19 +1,27 @@
 package alexman.yamca.eventdeliverysystem.datastructures;
 
 import java.io.Serializable;
-import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.LongPredicate;
 
 /**
  * Abstract superclass of all Topics.
+ * <p>
+ * Posting updates the Topic while holding its lock, but Subscribers are notified after the lock
+ * has been released so that slow Subscribers do not block posting. Notifications are delivered
+ * in the order the objects were posted, one at a time, by the thread that posted them. A posting
+ * thread therefore waits for the notifications of the objects posted before its own to be
+ * delivered, but never delivers them itself, and {@code post} returns once its own notifications
+ * have been delivered. Objects posted by a Subscriber while it is being notified are delivered
+ * right after the notifications of the object it is notified of.
  *
  * @author Alex Mandelias
  */
@@ -22,7 +30,7 @@ public abstract class AbstractTopic implements Iterable<Post> {
 	/** Constant to be used when no post exists and an ID is needed */
 	public static final long FETCH_ALL_POSTS = -1L;
 
-	private final Object postLock = new Object();
+	private static final long NO_TICKET = -1L;
 
 	/**
 	 * Creates a simple Topic that contains the given Posts and can be posted to. This method is
@@ -46,8 +54,18 @@ public abstract class AbstractTopic implements Iterable<Post> {
 	}
 
 	private final String name;
+
+	// the hash is computed once since Topics are often kept in hash-based collections
+	private final int hash;
+
 	private final Set<Subscriber> subscribers;
 
+	// guarded by this, each post takes a ticket and delivers its notifications when it is served
+	private long nextTicket = 0;
+	private long servedTicket = 0;
+	private Thread deliveringThread = null;
+	private Queue<Object> deliveringNotifications = null;
+
 	/**
 	 * Constructs an empty Topic with no subscribers.
 	 *
@@ -55,7 +73,8 @@ public abstract class AbstractTopic implements Iterable<Post> {
 	 */
 	protected AbstractTopic(String name) {
 		this.name = name;
-		subscribers = new HashSet<>();
+		hash = AbstractTopic.hashForTopic(name);
+		subscribers = new CopyOnWriteArraySet<>();
 	}
 
 	/**
@@ -87,7 +106,9 @@ public abstract class AbstractTopic implements Iterable<Post> {
 	protected abstract long getLastPostId();
 
 	/**
-	 * Adds a Subscriber to this Topic.
+	 * Adds a Subscriber to this Topic. This method does not block while the Topic is being posted
+	 * to. The Subscriber is notified of objects whose notifications are delivered after it has
+	 * been added.
 	 *
 	 * @param sub the Subscriber to add
 	 */
@@ -111,22 +132,231 @@ public abstract class AbstractTopic implements Iterable<Post> {
 	 *
 	 * @param postInfo the PostInfo
 	 */
-	public final synchronized void post(PostInfo postInfo) {
-		postHook(postInfo);
-		for (final Subscriber sub : subscribers) {
-			sub.notify(postInfo, name);
+	public final void post(PostInfo postInfo) {
+		postIf(postInfo, postId -> true);
+	}
+
+	/**
+	 * Posts a PostInfo to this Topic and notifies all subscribers, if a condition holds for the ID
+	 * of its Post. The condition is tested while holding the lock of this Topic, so nothing is
+	 * posted to this Topic between testing it and posting the PostInfo.
+	 *
+	 * @param postInfo the PostInfo
+	 * @param condition the condition
+	 *
+	 * @return {@code true} if the PostInfo was posted, {@code false} otherwise
+	 */
+	protected final boolean postIf(PostInfo postInfo, LongPredicate condition) {
+		final Queue<Object> notifications = new ArrayDeque<>(1);
+		final long ticket;
+		synchronized (this) {
+			if (!condition.test(postInfo.getId())) {
+				return false;
+			}
+
+			postHook(postInfo);
+			notifications.add(postInfo);
+			ticket = takeTicket(notifications);
 		}
+
+		deliverNotifications(ticket, notifications);
+		return true;
 	}
 
 	/**
-	 * Posts a Packet to this Topic and notifies all subscribers.
+	 * Posts a Packet to this Topic and notifies all subscribers. This Topic takes over the
+	 * caller's reference to the Packet, and subscribers that keep the Packet after being notified
+	 * must acquire their own.
 	 *
 	 * @param packet the Packet
+	 *
+	 * @see Packet#retain()
+	 */
+	public final void post(Packet packet) {
+		postIf(packet, postId -> true);
+	}
+
+	/**
+	 * Posts a Packet to this Topic and notifies all subscribers, if a condition holds for the ID
+	 * of its Post. The condition is tested while holding the lock of this Topic, so nothing is
+	 * posted to this Topic between testing it and posting the Packet. This Topic takes over the
+	 * caller's reference to the Packet only if it is posted.
+	 *
+	 * @param packet the Packet
+	 * @param condition the condition
+	 *
+	 * @return {@code true} if the Packet was posted, {@code false} otherwise
+	 */
+	protected final boolean postIf(Packet packet, LongPredicate condition) {
+		// the Packet must outlive its notification even if the hook releases it
+		packet.retain();
+
+		final Queue<Object> notifications = new ArrayDeque<>(1);
+		final long ticket;
+		try {
+			synchronized (this) {
+				if (!condition.test(packet.getPostId())) {
+					packet.release();
+					return false;
+				}
+
+				postHook(packet);
+				notifications.add(packet);
+				ticket = takeTicket(notifications);
+			}
+		} catch (final RuntimeException e) {
+			packet.release();
+			throw e;
+		}
+
+		deliverNotifications(ticket, notifications);
+		return true;
+	}
+
+	/**
+	 * Posts a PostInfo and all the Packets of its Post to this Topic at once, and notifies all
+	 * subscribers. The objects are posted and their notifications are delivered consecutively,
+	 * without objects posted by other threads in between. This Topic takes over the caller's
+	 * reference to each Packet, unless the Post can't be posted.
+	 *
+	 * @param postInfo the PostInfo
+	 * @param packets the Packets of the Post, or an empty array if only the PostInfo of the Post
+	 * 		is posted
+	 *
+	 * @see #post(Packet)
+	 */
+	public final void post(PostInfo postInfo, Packet[] packets) {
+		// the Packets must outlive their notifications even if the hook releases them
+		for (final Packet packet : packets) {
+			packet.retain();
+		}
+
+		final Queue<Object> notifications = new ArrayDeque<>(packets.length + 1);
+		final long ticket;
+		try {
+			synchronized (this) {
+				postHook(postInfo, packets);
+
+				notifications.add(postInfo);
+				Collections.addAll(notifications, packets);
+				ticket = takeTicket(notifications);
+			}
+		} catch (final RuntimeException e) {
+			// nothing is notified of the Packets, so the references acquired for that are released
+			Packet.releaseAll(packets);
+			throw e;
+		}
+
+		deliverNotifications(ticket, notifications);
+	}
+
+	// returns the ticket of a post, or NO_TICKET if the thread posting is delivering notifications
+	// of this Topic, in which case they are delivered along with the ones being delivered
+	private long takeTicket(Queue<Object> notifications) {
+		if (deliveringThread == Thread.currentThread()) {
+			deliveringNotifications.addAll(notifications);
+			notifications.clear();
+			return AbstractTopic.NO_TICKET;
+		}
+
+		return nextTicket++;
+	}
+
+	// waits for the posts before this one to be delivered and then delivers the notifications
+	private void deliverNotifications(long ticket, Queue<Object> notifications) {
+		if (ticket == AbstractTopic.NO_TICKET) {
+			return;
+		}
+
+		boolean interrupted = false;
+		synchronized (this) {
+			while (servedTicket != ticket) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// the notifications of the next posts can't be delivered before these
+					interrupted = true;
+				}
+			}
+
+			deliveringThread = Thread.currentThread();
+			deliveringNotifications = notifications;
+		}
+
+		try {
+			Object next;
+			while ((next = notifications.poll()) != null) {
+				notifySubscribers(next);
+			}
+		} finally {
+			// let the next posting thread continue even if a Subscriber threw
+			for (final Object notification : notifications) {
+				if (notification instanceof Packet) {
+					((Packet) notification).release();
+				}
+			}
+
+			synchronized (this) {
+				deliveringThread = null;
+				deliveringNotifications = null;
+				servedTicket++;
+				notifyAll();
+			}
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void notifySubscribers(Object notification) {
+		if (notification instanceof PostInfo) {
+			final PostInfo postInfo = (PostInfo) notification;
+			for (final Subscriber sub : subscribers) {
+				sub.notify(postInfo, name);
+			}
+		} else {
+			final Packet packet = (Packet) notification;
+			try {
+				for (final Subscriber sub : subscribers) {
+					sub.notify(packet, name);
+				}
+			} finally {
+				packet.release();
+			}
+		}
+	}
+
+	/**
+	 * Posts the PostInfo and the Packets of every Post of this Topic to another Topic, sorted from
+	 * earliest to latest. The default implementation breaks each Post of this Topic into Packets,
+	 * while subclasses that already store Packets may post them directly.
+	 *
+	 * @param other the Topic to post to
 	 */
-	public final synchronized void post(Packet packet) {
-		postHook(packet);
-		for (final Subscriber sub : subscribers) {
-			sub.notify(packet, name);
+	public void postAllTo(AbstractTopic other) {
+		for (final Post post : this) {
+			other.post(post.getPostInfo());
+			for (final Packet packet : Packet.fromPost(post)) {
+				other.post(packet);
+			}
+		}
+	}
+
+	/**
+	 * Allows each subclass to specify how the template method is implemented. This method is
+	 * effectively synchronized. The default implementation posts the PostInfo and then each
+	 * Packet separately.
+	 *
+	 * @param postInfo the PostInfo
+	 * @param packets the Packets of the Post, or an empty array if only the PostInfo is posted
+	 *
+	 * @see AbstractTopic#post(PostInfo, Packet[])
+	 */
+	protected void postHook(PostInfo postInfo, Packet[] packets) {
+		postHook(postInfo);
+		for (final Packet packet : packets) {
+			postHook(packet);
 		}
 	}
 
@@ -161,26 +391,8 @@ public abstract class AbstractTopic implements Iterable<Post> {
 	 * @return a hash code value for this Topic
 	 */
 	public static int hashForTopic(String topicName) {
-		try {
-			final MessageDigest a = MessageDigest.getInstance("md5");
-			final byte[] b = a.digest(topicName.getBytes(StandardCharsets.UTF_8));
-
-			// big brain stuff
-			final int FOUR = 4;
-			final int c = FOUR;
-			final int d = b.length / c;
-			final byte[] e = new byte[c];
-			for (int f = 0; f < e.length; f++) {
-				for (int g = 0; g < d; g++) {
-					e[f] = (byte) (e[f] ^ (b[(d * f) + g]));
-				}
-			}
-
-			final BigInteger h = new BigInteger(e);
-			return h.intValueExact();
-		} catch (NoSuchAlgorithmException | ArithmeticException e) {
-			throw new RuntimeException(e);
-		}
+		final long hash = Partitioner.FNV_1A.hash(topicName);
+		return (int) (hash ^ (hash >>> 32));
 	}
 
 	@Override
@@ -190,7 +402,7 @@ public abstract class AbstractTopic implements Iterable<Post> {
 
 	@Override
 	public int hashCode() {
-		return AbstractTopic.hashForTopic(name);
+		return hash;
 	}
 
 	@Override
@@ -210,7 +422,9 @@ public abstract class AbstractTopic implements Iterable<Post> {
 
 		private static final Packet[] ZERO_LENGTH_PACKET_ARRAY = new Packet[0];
 
-		private final List<Post> posts = new LinkedList<>();
+		// the Posts are stored disassembled so that they are only assembled when needed
+		private final List<PostInfo> postInfos = new LinkedList<>();
+		private final LongObjectMap<Packet[]> packetsPerPostId = new LongObjectMap<>();
 
 		private SimpleTopic(String name) {
 			super(name);
@@ -221,7 +435,7 @@ public abstract class AbstractTopic implements Iterable<Post> {
 
 		@Override
 		public long getLastPostId() {
-			return posts.get(posts.size() - 1).getPostInfo().getId();
+			return postInfos.get(postInfos.size() - 1).getId();
 		}
 
 		@Override
@@ -239,16 +453,39 @@ public abstract class AbstractTopic implements Iterable<Post> {
 
 			if (packet.isFinal()) {
 				final Packet[] data = currPackets.toArray(SimpleTopic.ZERO_LENGTH_PACKET_ARRAY);
-				final Post completedPost = Post.fromPackets(data, currPI);
-				posts.add(completedPost);
+				postInfos.add(currPI);
+				packetsPerPostId.put(currPI.getId(), data);
 
 				currPackets.clear();
 			}
 		}
 
+		@Override
+		public void postAllTo(AbstractTopic other) {
+			for (final PostInfo postInfo : postInfos) {
+				other.post(postInfo);
+				for (final Packet packet : packetsPerPostId.get(postInfo.getId())) {
+					other.post(packet);
+				}
+			}
+		}
+
 		@Override
 		public Iterator<Post> iterator() {
-			return posts.iterator();
+			final Iterator<PostInfo> postInfoIterator = postInfos.iterator();
+
+			return new Iterator<Post>() {
+				@Override
+				public boolean hasNext() {
+					return postInfoIterator.hasNext();
+				}
+
+				@Override
+				public Post next() {
+					final PostInfo postInfo = postInfoIterator.next();
+					return Post.fromPackets(packetsPerPostId.get(postInfo.getId()), postInfo);
+				}
+			};
 		}
 
 		@Override
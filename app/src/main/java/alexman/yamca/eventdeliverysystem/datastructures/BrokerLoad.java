@@ -0,0 +1,273 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The load of a Broker, which each Broker reports to the leader with its heartbeats. The leader
+ * places each new Topic on the least loaded Broker, relative to the weight of the Brokers.
+ * <p>
+ * Each kind of load, a {@link Metric}, is compared to the mean of that kind across the server,
+ * so that a Broker with twice the mean load of one kind is as loaded as one with twice the mean
+ * load of another kind, even though the two are measured in different units.
+ *
+ * @author Alex Mandelias
+ */
+public final class BrokerLoad implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The load of a Broker that hasn't reported its load yet */
+	public static final BrokerLoad NONE = new BrokerLoad(0, 0, 0, 0, 0, 0);
+
+	private final int topicCount;
+	private final int consumerCount;
+	private final long bytesInPerSecond;
+	private final long bytesOutPerSecond;
+	private final long usedHeapBytes;
+	private final long maxHeapBytes;
+
+	/**
+	 * Constructs a BrokerLoad.
+	 *
+	 * @param topicCount the number of Topics of the Broker, including the copies it keeps
+	 * @param consumerCount the number of Consumers of the Broker
+	 * @param bytesInPerSecond the number of bytes of Posts the Broker receives per second
+	 * @param bytesOutPerSecond the number of bytes of Posts the Broker sends per second
+	 * @param usedHeapBytes the size of the heap of the Broker that is in use
+	 * @param maxHeapBytes the maximum size of the heap of the Broker
+	 */
+	public BrokerLoad(int topicCount, int consumerCount, long bytesInPerSecond,
+			long bytesOutPerSecond, long usedHeapBytes, long maxHeapBytes) {
+		this.topicCount = topicCount;
+		this.consumerCount = consumerCount;
+		this.bytesInPerSecond = bytesInPerSecond;
+		this.bytesOutPerSecond = bytesOutPerSecond;
+		this.usedHeapBytes = usedHeapBytes;
+		this.maxHeapBytes = maxHeapBytes;
+	}
+
+	/**
+	 * Returns this load along with one more Topic, which is how a Topic placed on a Broker is
+	 * counted until the Broker reports its load again.
+	 *
+	 * @return the new BrokerLoad
+	 */
+	public BrokerLoad withOneMoreTopic() {
+		return new BrokerLoad(topicCount + 1, consumerCount, bytesInPerSecond, bytesOutPerSecond,
+				usedHeapBytes, maxHeapBytes);
+	}
+
+	/**
+	 * Returns the number of Topics of the Broker, including the copies it keeps.
+	 *
+	 * @return the number of Topics
+	 */
+	public int getTopicCount() {
+		return topicCount;
+	}
+
+	/**
+	 * Returns the number of Consumers of the Broker.
+	 *
+	 * @return the number of Consumers
+	 */
+	public int getConsumerCount() {
+		return consumerCount;
+	}
+
+	/**
+	 * Returns the number of bytes of Posts the Broker receives per second.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getBytesInPerSecond() {
+		return bytesInPerSecond;
+	}
+
+	/**
+	 * Returns the number of bytes of Posts the Broker sends per second.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getBytesOutPerSecond() {
+		return bytesOutPerSecond;
+	}
+
+	/**
+	 * Returns the size of the heap of the Broker that is in use.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getUsedHeapBytes() {
+		return usedHeapBytes;
+	}
+
+	/**
+	 * Returns the maximum size of the heap of the Broker.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getMaxHeapBytes() {
+		return maxHeapBytes;
+	}
+
+	/**
+	 * Finds the least loaded Broker, the one with the lowest score. The score of a Broker is the
+	 * sum of its relative loads of every kind.
+	 *
+	 * @param weightPerBroker the weight of each Broker
+	 * @param loadPerBroker the load of each Broker, where Brokers without a load have none
+	 *
+	 * @return the ConnectionInfo of the least loaded Broker, the first of them if they are many
+	 *
+	 * @throws IllegalArgumentException if there are no Brokers
+	 * @see BrokerLoad#getRelativeLoadPerBroker(Metric, Map, Map)
+	 */
+	public static ConnectionInfo getLeastLoaded(Map<ConnectionInfo, Integer> weightPerBroker,
+			Map<ConnectionInfo, BrokerLoad> loadPerBroker) {
+		if (weightPerBroker.isEmpty()) {
+			throw new IllegalArgumentException("There are no brokers");
+		}
+
+		final Map<ConnectionInfo, Double> scorePerBroker =
+				BrokerLoad.getScorePerBroker(weightPerBroker, loadPerBroker);
+
+		ConnectionInfo leastLoaded = null;
+		double minScore = Double.POSITIVE_INFINITY;
+		for (final Map.Entry<ConnectionInfo, Double> e : scorePerBroker.entrySet()) {
+			if (e.getValue() < minScore) {
+				leastLoaded = e.getKey();
+				minScore = e.getValue();
+			}
+		}
+
+		return leastLoaded;
+	}
+
+	/**
+	 * Returns the score of every Broker, which is the sum of its relative loads of every kind.
+	 * The score of a server whose load is perfectly balanced is the number of Metrics.
+	 *
+	 * @param weightPerBroker the weight of each Broker
+	 * @param loadPerBroker the load of each Broker, where Brokers without a load have none
+	 *
+	 * @return a new Map with the score of each Broker, in the order of {@code weightPerBroker}
+	 */
+	public static Map<ConnectionInfo, Double> getScorePerBroker(
+			Map<ConnectionInfo, Integer> weightPerBroker,
+			Map<ConnectionInfo, BrokerLoad> loadPerBroker) {
+		final Map<ConnectionInfo, Double> scorePerBroker = new LinkedHashMap<>();
+		for (final ConnectionInfo broker : weightPerBroker.keySet()) {
+			scorePerBroker.put(broker, 0.0);
+		}
+
+		for (final Metric metric : Metric.values()) {
+			final Map<ConnectionInfo, Double> relativeLoadPerBroker =
+					BrokerLoad.getRelativeLoadPerBroker(metric, weightPerBroker, loadPerBroker);
+			for (final Map.Entry<ConnectionInfo, Double> e : relativeLoadPerBroker.entrySet()) {
+				scorePerBroker.merge(e.getKey(), e.getValue(), Double::sum);
+			}
+		}
+
+		return scorePerBroker;
+	}
+
+	/**
+	 * Returns the relative load of one kind of every Broker, which is its load divided by the
+	 * mean load of the server. If the kind of load is shared according to the weights, the load
+	 * per unit of weight is used instead. A relative load of {@code 1} means that the Broker has
+	 * exactly its share of the load, and all Brokers do if there is no load of that kind.
+	 *
+	 * @param metric the kind of load
+	 * @param weightPerBroker the weight of each Broker
+	 * @param loadPerBroker the load of each Broker, where Brokers without a load have none
+	 *
+	 * @return a new Map with the relative load of each Broker, in the order of
+	 * 		{@code weightPerBroker}
+	 */
+	public static Map<ConnectionInfo, Double> getRelativeLoadPerBroker(Metric metric,
+			Map<ConnectionInfo, Integer> weightPerBroker,
+			Map<ConnectionInfo, BrokerLoad> loadPerBroker) {
+		double totalLoad = 0;
+		double totalWeight = 0;
+		for (final Map.Entry<ConnectionInfo, Integer> e : weightPerBroker.entrySet()) {
+			totalLoad += metric.of(loadPerBroker.getOrDefault(e.getKey(), BrokerLoad.NONE));
+			totalWeight += metric.weighted ? e.getValue() : 1;
+		}
+
+		final Map<ConnectionInfo, Double> relativeLoadPerBroker = new LinkedHashMap<>();
+		for (final Map.Entry<ConnectionInfo, Integer> e : weightPerBroker.entrySet()) {
+			final BrokerLoad brokerLoad = loadPerBroker.getOrDefault(e.getKey(), BrokerLoad.NONE);
+			final double load = metric.of(brokerLoad);
+			final double weight = metric.weighted ? e.getValue() : 1;
+			relativeLoadPerBroker.put(e.getKey(),
+					totalLoad == 0 ? 1 : (load / weight) / (totalLoad / totalWeight));
+		}
+
+		return relativeLoadPerBroker;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BrokerLoad [topicCount=%d, consumerCount=%d, bytesInPerSecond=%d, "
+		                     + "bytesOutPerSecond=%d, usedHeapBytes=%d, maxHeapBytes=%d]",
+				topicCount, consumerCount, bytesInPerSecond, bytesOutPerSecond, usedHeapBytes,
+				maxHeapBytes);
+	}
+
+	/**
+	 * A kind of load of a Broker.
+	 *
+	 * @author Alex Mandelias
+	 */
+	public enum Metric {
+
+		/** The number of Topics, which is shared according to the weights */
+		TOPICS(true),
+
+		/** The number of Consumers, which is shared according to the weights */
+		CONSUMERS(true),
+
+		/** The bytes received per second, which are shared according to the weights */
+		BYTES_IN(true),
+
+		/** The bytes sent per second, which are shared according to the weights */
+		BYTES_OUT(true),
+
+		/** The fraction of the heap in use, which is already relative to the size of the heap */
+		HEAP(false);
+
+		private final boolean weighted;
+
+		Metric(boolean weighted) {
+			this.weighted = weighted;
+		}
+
+		/**
+		 * Returns the value of this kind of load of a Broker.
+		 *
+		 * @param load the load of the Broker
+		 *
+		 * @return the value
+		 */
+		public double of(BrokerLoad load) {
+			switch (this) {
+			case TOPICS:
+				return load.topicCount;
+			case CONSUMERS:
+				return load.consumerCount;
+			case BYTES_IN:
+				return load.bytesInPerSecond;
+			case BYTES_OUT:
+				return load.bytesOutPerSecond;
+			case HEAP:
+				return load.maxHeapBytes == 0 ? 0 : (double) load.usedHeapBytes / load.maxHeapBytes;
+			default:
+				throw new IllegalArgumentException(
+						"You forgot to put a case for the new Metric enum");
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of byte arrays that are leased and released explicitly so that they can be reused instead
+ * of being allocated and garbage collected. The arrays are grouped in size classes, each one a
+ * power of two, and a lease for some number of bytes returns an array of the smallest class that
+ * can hold them. Requests larger than the largest class are allocated and are not pooled.
+ * <p>
+ * The pool keeps count of the arrays that have been leased but not released. Optionally, it also
+ * records where each of them was leased so that leaks can be traced.
+ *
+ * @author Alex Mandelias
+ */
+public final class BufferPool {
+
+	private static final int MIN_CLASS_SHIFT = 12; // 4 KiB
+	private static final int MAX_CLASS_SHIFT = 19; // 512 KiB
+	private static final long MAX_RETAINED_BYTES_PER_CLASS = 8L * (1 << BufferPool.MAX_CLASS_SHIFT);
+
+	private static final BufferPool DEFAULT = new BufferPool();
+
+	/**
+	 * Returns the pool shared by all Packets.
+	 *
+	 * @return the default pool
+	 */
+	public static BufferPool getDefault() {
+		return BufferPool.DEFAULT;
+	}
+
+	private final Deque<byte[]>[] freeBuffers;
+	private final int[] maxRetainedPerClass;
+
+	private final AtomicLong leases = new AtomicLong();
+	private final AtomicLong reuses = new AtomicLong();
+	private final AtomicLong allocatedBytes = new AtomicLong();
+	private final AtomicLong outstanding = new AtomicLong();
+
+	private volatile boolean leakTracking = false;
+	private final Map<byte[], Throwable> leaseSites = new IdentityHashMap<>();
+
+	/** Constructs an empty pool. */
+	@SuppressWarnings("unchecked")
+	public BufferPool() {
+		final int classCount = (BufferPool.MAX_CLASS_SHIFT - BufferPool.MIN_CLASS_SHIFT) + 1;
+		freeBuffers = (Deque<byte[]>[]) new Deque<?>[classCount];
+		maxRetainedPerClass = new int[classCount];
+
+		for (int i = 0; i < classCount; i++) {
+			freeBuffers[i] = new ArrayDeque<>();
+			maxRetainedPerClass[i] = (int) (BufferPool.MAX_RETAINED_BYTES_PER_CLASS
+			                                >> (BufferPool.MIN_CLASS_SHIFT + i));
+		}
+	}
+
+	/**
+	 * Leases an array that can hold a number of bytes. The array may be longer than requested and
+	 * its contents are unspecified. It should be released when it is no longer needed.
+	 *
+	 * @param minLength the number of bytes the array must be able to hold
+	 *
+	 * @return the array
+	 *
+	 * @throws IllegalArgumentException if {@code minLength} is negative
+	 */
+	public byte[] lease(int minLength) {
+		if (minLength < 0) {
+			throw new IllegalArgumentException("minLength can't be negative");
+		}
+
+		leases.incrementAndGet();
+		outstanding.incrementAndGet();
+
+		final int sizeClass = BufferPool.sizeClassFor(minLength);
+		byte[] buffer = null;
+
+		if (sizeClass >= 0) {
+			final Deque<byte[]> free = freeBuffers[sizeClass];
+			synchronized (free) {
+				buffer = free.pollFirst();
+			}
+		}
+
+		if (buffer != null) {
+			reuses.incrementAndGet();
+		} else {
+			final int length = sizeClass >= 0 ? BufferPool.lengthOf(sizeClass) : minLength;
+			buffer = new byte[length];
+			allocatedBytes.addAndGet(length);
+		}
+
+		if (leakTracking) {
+			synchronized (leaseSites) {
+				leaseSites.put(buffer, new Throwable("Buffer leased here"));
+			}
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * Releases an array previously leased from this pool, so that it may be leased again. The
+	 * array must not be used after it is released.
+	 *
+	 * @param buffer the array
+	 */
+	public void release(byte[] buffer) {
+		outstanding.decrementAndGet();
+
+		if (leakTracking) {
+			synchronized (leaseSites) {
+				leaseSites.remove(buffer);
+			}
+		}
+
+		final int sizeClass = BufferPool.sizeClassFor(buffer.length);
+		if ((sizeClass < 0) || (buffer.length != BufferPool.lengthOf(sizeClass))) {
+			return;
+		}
+
+		final Deque<byte[]> free = freeBuffers[sizeClass];
+		synchronized (free) {
+			if (free.size() < maxRetainedPerClass[sizeClass]) {
+				free.addFirst(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of arrays that have been leased but not yet released. A count that keeps
+	 * increasing indicates that some arrays are never released.
+	 *
+	 * @return the number of outstanding arrays
+	 */
+	public long getOutstandingCount() {
+		return outstanding.get();
+	}
+
+	/**
+	 * Returns the number of leases that were served by reusing a released array.
+	 *
+	 * @return the number of reused arrays
+	 */
+	public long getReuseCount() {
+		return reuses.get();
+	}
+
+	/**
+	 * Returns the number of leases served by this pool.
+	 *
+	 * @return the number of leases
+	 */
+	public long getLeaseCount() {
+		return leases.get();
+	}
+
+	/**
+	 * Returns the total number of bytes allocated by this pool, which is the allocation pressure
+	 * that the pool could not avoid.
+	 *
+	 * @return the number of bytes allocated
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	/**
+	 * Sets whether this pool records where each array is leased. Tracking is expensive and is only
+	 * meant for finding leaks. Only arrays leased while tracking is enabled are recorded.
+	 *
+	 * @param enabled {@code true} to record lease sites, {@code false} to stop recording them
+	 */
+	public void setLeakTracking(boolean enabled) {
+		leakTracking = enabled;
+
+		if (!enabled) {
+			synchronized (leaseSites) {
+				leaseSites.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns where each of the outstanding arrays was leased, if leak tracking is enabled.
+	 *
+	 * @return a Throwable whose stack trace is the lease site of each outstanding array
+	 *
+	 * @see #setLeakTracking(boolean)
+	 */
+	public Collection<Throwable> getLeakSites() {
+		synchronized (leaseSites) {
+			return Collections.unmodifiableList(new LinkedList<>(leaseSites.values()));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"BufferPool [leases=%d, reuses=%d, allocatedBytes=%d, outstanding=%d]",
+				leases.get(), reuses.get(), allocatedBytes.get(), outstanding.get());
+	}
+
+	// returns -1 if the length is larger than the largest size class
+	private static int sizeClassFor(int length) {
+		if (length > (1 << BufferPool.MAX_CLASS_SHIFT)) {
+			return -1;
+		}
+
+		final int shift = length <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(length - 1);
+		return Math.max(shift, BufferPool.MIN_CLASS_SHIFT) - BufferPool.MIN_CLASS_SHIFT;
+	}
+
+	private static int lengthOf(int sizeClass) {
+		return 1 << (BufferPool.MIN_CLASS_SHIFT + sizeClass);
+	}
+}
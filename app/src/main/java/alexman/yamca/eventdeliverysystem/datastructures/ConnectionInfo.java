@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Objects;
 
 /**
  * An immutable pair of <IPAddress, Port> representing a unique connection in the web.
@@ -62,6 +63,23 @@ public final class ConnectionInfo implements Serializable {
 		return port;
 	}
 
+	@Override
+	public int hashCode() {
+		return Objects.hash(address, port);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ConnectionInfo)) {
+			return false;
+		}
+		final ConnectionInfo other = (ConnectionInfo) obj;
+		return Objects.equals(address, other.address) && (port == other.port);
+	}
+
 	@Override
 	public String toString() {
 		return String.format("ConnectionInfo [address=%s, port=%d]", address, port);
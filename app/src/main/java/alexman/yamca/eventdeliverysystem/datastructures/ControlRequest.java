@@ -0,0 +1,53 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.io.Serializable;
+
+/**
+ * A Message sent over a control channel, which is a persistent connection between a client and a
+ * Broker over which many requests are sent without waiting for the previous ones to be answered.
+ * The ID of the request identifies the ControlResponse that answers it.
+ *
+ * @author Alex Mandelias
+ * @see ControlResponse
+ */
+public final class ControlRequest implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long requestId;
+	private final Message message;
+
+	/**
+	 * Constructs a ControlRequest.
+	 *
+	 * @param requestId the ID of the request, unique in its control channel
+	 * @param message the Message of the request
+	 */
+	public ControlRequest(long requestId, Message message) {
+		this.requestId = requestId;
+		this.message = message;
+	}
+
+	/**
+	 * Returns this ControlRequest's ID.
+	 *
+	 * @return the ID
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * Returns this ControlRequest's Message.
+	 *
+	 * @return the Message
+	 */
+	public Message getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ControlRequest [requestId=%d, message=%s]", requestId, message);
+	}
+}
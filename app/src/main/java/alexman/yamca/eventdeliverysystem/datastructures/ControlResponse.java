@@ -0,0 +1,82 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.io.Serializable;
+
+/**
+ * The answer of a Broker to a ControlRequest. Responses may be sent in a different order than the
+ * requests they answer, and are matched to them by their ID.
+ * <p>
+ * A request for a Topic that the Broker doesn't have is forwarded to the actual Broker of the
+ * Topic, in which case the response also carries the ConnectionInfo of that Broker as a hint for
+ * the next requests.
+ *
+ * @author Alex Mandelias
+ * @see ControlRequest
+ */
+public final class ControlResponse implements Serializable {
+
+	private static final long serialVersionUID = 2L;
+
+	private final long requestId;
+	private final Serializable value;
+	private final ConnectionInfo actualBroker;
+
+	/**
+	 * Constructs a ControlResponse.
+	 *
+	 * @param requestId the ID of the request that this response answers
+	 * @param value the value of the response, which is the same as the response that is sent
+	 * 		when the request is made on its own connection
+	 */
+	public ControlResponse(long requestId, Serializable value) {
+		this(requestId, value, null);
+	}
+
+	/**
+	 * Constructs a ControlResponse to a request that was forwarded to another Broker.
+	 *
+	 * @param requestId the ID of the request that this response answers
+	 * @param value the value of the response, which is the same as the response that is sent
+	 * 		when the request is made on its own connection
+	 * @param actualBroker the ConnectionInfo of the Broker that answered the request, or {@code
+	 * 		null} if it wasn't forwarded
+	 */
+	public ControlResponse(long requestId, Serializable value, ConnectionInfo actualBroker) {
+		this.requestId = requestId;
+		this.value = value;
+		this.actualBroker = actualBroker;
+	}
+
+	/**
+	 * Returns the ID of the request that this ControlResponse answers.
+	 *
+	 * @return the ID
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * Returns this ControlResponse's value.
+	 *
+	 * @return the value
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	/**
+	 * Returns the ConnectionInfo of the Broker that answered the request, if it was forwarded.
+	 *
+	 * @return the ConnectionInfo, or {@code null} if the request wasn't forwarded
+	 */
+	public ConnectionInfo getActualBroker() {
+		return actualBroker;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ControlResponse [requestId=%d, value=%s, actualBroker=%s]",
+				requestId, value, actualBroker);
+	}
+}
@@ -0,0 +1,166 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * An immutable consistent-hashing ring that assigns keys to nodes. Each node is placed on the ring
+ * at a number of positions, its virtual nodes, which is proportional to its weight, and each key
+ * is assigned to the node of the first position at or after the key's own position.
+ * <p>
+ * When a node is added to the ring only the keys that fall right before its positions change
+ * node, which is about {@code 1/N} of the keys for {@code N} nodes of equal weight.
+ *
+ * @param <N> the type of the nodes
+ *
+ * @author Alex Mandelias
+ */
+public final class HashRing<N> {
+
+	private final Partitioner partitioner;
+	private final long[] positions;
+	private final Object[] nodes;
+
+	/**
+	 * Constructs a HashRing.
+	 *
+	 * @param weightPerNode the weight of each node, which must be positive
+	 * @param virtualNodesPerWeight the number of positions of a node per unit of its weight
+	 * @param nameOf the function that gives the unique name of each node, from which its
+	 * 		positions are derived
+	 * @param partitioner the hash function that gives the positions of the nodes and the keys
+	 *
+	 * @throws IllegalArgumentException if there are no nodes, if any weight is not positive or if
+	 * 		{@code virtualNodesPerWeight} is not positive
+	 */
+	public HashRing(Map<N, Integer> weightPerNode, int virtualNodesPerWeight,
+			Function<? super N, String> nameOf, Partitioner partitioner) {
+		if (weightPerNode.isEmpty()) {
+			throw new IllegalArgumentException("A HashRing must contain at least one node");
+		}
+		if (virtualNodesPerWeight <= 0) {
+			throw new IllegalArgumentException("virtualNodesPerWeight must be positive");
+		}
+
+		this.partitioner = partitioner;
+
+		int positionCount = 0;
+		for (final int weight : weightPerNode.values()) {
+			if (weight <= 0) {
+				throw new IllegalArgumentException("Node weights must be positive");
+			}
+			positionCount += weight * virtualNodesPerWeight;
+		}
+
+		final VirtualNode[] virtualNodes = new VirtualNode[positionCount];
+		int i = 0;
+		for (final Map.Entry<N, Integer> e : weightPerNode.entrySet()) {
+			final String name = nameOf.apply(e.getKey());
+			for (int j = 0, count = e.getValue() * virtualNodesPerWeight; j < count; j++) {
+				virtualNodes[i++] = new VirtualNode(partitioner.hash(name + '#' + j), e.getKey());
+			}
+		}
+
+		// ties are broken by name so that every ring with the same nodes is identical
+		Arrays.sort(virtualNodes, (v1, v2) -> {
+			final int positionComparison = Long.compare(v1.position, v2.position);
+			return positionComparison != 0
+			       ? positionComparison
+			       : nameOf.apply(castNode(v1.node)).compareTo(nameOf.apply(castNode(v2.node)));
+		});
+
+		positions = new long[positionCount];
+		nodes = new Object[positionCount];
+		for (int k = 0; k < positionCount; k++) {
+			positions[k] = virtualNodes[k].position;
+			nodes[k] = virtualNodes[k].node;
+		}
+	}
+
+	/**
+	 * Returns the node to which a key is assigned.
+	 *
+	 * @param key the key
+	 *
+	 * @return the node of the first position at or after the key's position
+	 */
+	public N getNode(String key) {
+		return castNode(nodes[indexOf(key)]);
+	}
+
+	/**
+	 * Returns the node to which a key would be assigned if a node weren't part of this ring,
+	 * which is the node that the key was assigned to before that node was added.
+	 *
+	 * @param key the key
+	 * @param excludedNode the node
+	 *
+	 * @return the node of the first position at or after the key's position that isn't a
+	 * 		position of the excluded node, or {@code null} if there is no other node
+	 */
+	public N getNodeWithout(String key, N excludedNode) {
+		final int index = indexOf(key);
+		for (int i = 0; i < nodes.length; i++) {
+			final N node = castNode(nodes[(index + i) % nodes.length]);
+			if (!node.equals(excludedNode)) {
+				return node;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the distinct nodes found by walking the ring from the position of a key, the first
+	 * of which is the node to which the key is assigned.
+	 *
+	 * @param key the key
+	 * @param count the maximum number of nodes to return
+	 *
+	 * @return a new List with at most {@code count} nodes, in the order in which they were found
+	 */
+	public List<N> getNodes(String key, int count) {
+		final List<N> found = new ArrayList<>(count);
+		final int index = indexOf(key);
+		for (int i = 0; (i < nodes.length) && (found.size() < count); i++) {
+			final N node = castNode(nodes[(index + i) % nodes.length]);
+			if (!found.contains(node)) {
+				found.add(node);
+			}
+		}
+
+		return found;
+	}
+
+	// returns the index of the first position at or after the key's position
+	private int indexOf(String key) {
+		final long hash = partitioner.hash(key);
+
+		int index = Arrays.binarySearch(positions, hash);
+		if (index < 0) {
+			index = -index - 1;
+		}
+
+		// positions after the last one wrap around to the first one
+		return index == positions.length ? 0 : index;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <N> N castNode(Object node) {
+		return (N) node;
+	}
+
+	private static final class VirtualNode {
+
+		private final long position;
+		private final Object node;
+
+		private VirtualNode(long position, Object node) {
+			this.position = position;
+			this.node = node;
+		}
+	}
+}
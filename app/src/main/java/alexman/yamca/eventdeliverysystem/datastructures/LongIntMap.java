@@ -0,0 +1,230 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * A map from {@code long} keys to {@code int} values that stores both unboxed. It uses open
+ * addressing with linear probing so that no node is allocated per entry.
+ *
+ * @author Alex Mandelias
+ */
+public final class LongIntMap {
+
+	private static final int DEFAULT_EXPECTED_SIZE = 8;
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private long[] keys;
+	private int[] values;
+	private boolean[] used;
+	private int mask;
+	private int size;
+
+	/** Constructs an empty map. */
+	public LongIntMap() {
+		this(LongIntMap.DEFAULT_EXPECTED_SIZE);
+	}
+
+	/**
+	 * Constructs an empty map that can hold a number of entries without being resized.
+	 *
+	 * @param expectedSize the number of entries
+	 *
+	 * @throws IllegalArgumentException if {@code expectedSize} is negative
+	 */
+	public LongIntMap(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize can't be negative");
+		}
+
+		allocate(LongIntMap.capacityFor(expectedSize));
+	}
+
+	/**
+	 * Returns the value associated with a key, or a default value if there is no such value.
+	 *
+	 * @param key the key
+	 * @param defaultValue the value to return if there is no value associated with the key
+	 *
+	 * @return the value associated with the key, or {@code defaultValue} if there is no such value
+	 */
+	public int getOrDefault(long key, int defaultValue) {
+		final int slot = find(key);
+		return slot < 0 ? defaultValue : values[slot];
+	}
+
+	/**
+	 * Returns whether this map contains a value for a key.
+	 *
+	 * @param key the key
+	 *
+	 * @return {@code true} if there is a value associated with the key, {@code false} otherwise
+	 */
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Associates a value with a key, replacing the previous value of that key, if any.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void put(long key, int value) {
+		int slot = LongIntMap.slotFor(key, mask);
+		while (used[slot]) {
+			if (keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		used[slot] = true;
+		keys[slot] = key;
+		values[slot] = value;
+
+		if (++size > LongIntMap.maxSizeFor(mask + 1)) {
+			resize();
+		}
+	}
+
+	/**
+	 * Removes the value associated with a key.
+	 *
+	 * @param key the key
+	 *
+	 * @return {@code true} if a value was removed, {@code false} otherwise
+	 */
+	public boolean remove(long key) {
+		final int slot = find(key);
+		if (slot < 0) {
+			return false;
+		}
+
+		deleteSlot(slot);
+		size--;
+		return true;
+	}
+
+	/**
+	 * Returns the number of entries in this map.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns whether this map has no entries.
+	 *
+	 * @return {@code true} if this map has no entries, {@code false} otherwise
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Removes all entries from this map. */
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	// returns the slot of the key, or -1 if it is not in the map
+	private int find(long key) {
+		int slot = LongIntMap.slotFor(key, mask);
+		while (used[slot]) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	// moves back the entries after the hole whose probe sequence passes through it
+	private void deleteSlot(int hole) {
+		int slot = hole;
+		while (true) {
+			slot = (slot + 1) & mask;
+			if (!used[slot]) {
+				break;
+			}
+
+			final int ideal = LongIntMap.slotFor(keys[slot], mask);
+			if (((slot - ideal) & mask) >= ((slot - hole) & mask)) {
+				keys[hole] = keys[slot];
+				values[hole] = values[slot];
+				hole = slot;
+			}
+		}
+
+		used[hole] = false;
+	}
+
+	private void resize() {
+		final long[] oldKeys = keys;
+		final int[] oldValues = values;
+		final boolean[] oldUsed = used;
+
+		allocate(oldKeys.length * 2);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				int slot = LongIntMap.slotFor(oldKeys[i], mask);
+				while (used[slot]) {
+					slot = (slot + 1) & mask;
+				}
+
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < keys.length; i++) {
+			if (used[i]) {
+				if (sb.length() > 1) {
+					sb.append(", ");
+				}
+				sb.append(keys[i]).append('=').append(values[i]);
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+	// ==================== HELPERS FOR OPEN ADDRESSING ====================
+
+	// the slot in a table of (mask + 1) slots where the probe sequence of the key starts
+	static int slotFor(long key, int mask) {
+		// spread the bits of the key, since Post IDs that are close share their upper bits
+		final long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	// the smallest power of two capacity that holds the expected size below the load factor
+	static int capacityFor(int expectedSize) {
+		int capacity = 2;
+		while (LongIntMap.maxSizeFor(capacity) < expectedSize && capacity < MAX_CAPACITY) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	// the load factor is 2/3 which keeps probe sequences short
+	static int maxSizeFor(int capacity) {
+		return (int) ((capacity * 2L) / 3);
+	}
+}
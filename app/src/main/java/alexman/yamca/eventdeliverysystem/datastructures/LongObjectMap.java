@@ -0,0 +1,301 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * A map from {@code long} keys to Object values that stores its keys unboxed. It uses open
+ * addressing with linear probing so that no node is allocated per entry. {@code null} values are
+ * not permitted, since an empty slot is marked by a {@code null} value.
+ *
+ * @param <V> the type of the values of this map
+ *
+ * @author Alex Mandelias
+ */
+public class LongObjectMap<V> {
+
+	private static final int DEFAULT_EXPECTED_SIZE = 8;
+
+	/**
+	 * Returns an unmodifiable view of a map. Query operations on the view read through to the map,
+	 * and attempts to modify the view throw an {@code UnsupportedOperationException}.
+	 *
+	 * @param map the map
+	 * @param <V> the type of the values of the map
+	 *
+	 * @return the unmodifiable view
+	 */
+	public static <V> LongObjectMap<V> unmodifiable(LongObjectMap<V> map) {
+		return map instanceof UnmodifiableLongObjectMap ? map
+		                                                : new UnmodifiableLongObjectMap<>(map);
+	}
+
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+	private int size;
+
+	/** Constructs an empty map. */
+	public LongObjectMap() {
+		this(LongObjectMap.DEFAULT_EXPECTED_SIZE);
+	}
+
+	/**
+	 * Constructs an empty map that can hold a number of entries without being resized.
+	 *
+	 * @param expectedSize the number of entries
+	 *
+	 * @throws IllegalArgumentException if {@code expectedSize} is negative
+	 */
+	public LongObjectMap(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize can't be negative");
+		}
+
+		allocate(LongIntMap.capacityFor(expectedSize));
+	}
+
+	/**
+	 * Returns the value associated with a key.
+	 *
+	 * @param key the key
+	 *
+	 * @return the value associated with the key, or {@code null} if there is no such value
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		final int slot = find(key);
+		return slot < 0 ? null : (V) values[slot];
+	}
+
+	/**
+	 * Returns whether this map contains a value for a key.
+	 *
+	 * @param key the key
+	 *
+	 * @return {@code true} if there is a value associated with the key, {@code false} otherwise
+	 */
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Associates a value with a key, replacing the previous value of that key, if any.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 *
+	 * @return the previous value of the key, or {@code null} if there was no such value
+	 *
+	 * @throws NullPointerException if the value is {@code null}
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		Objects.requireNonNull(value, "LongObjectMap does not permit null values");
+
+		int slot = LongIntMap.slotFor(key, mask);
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				final V previous = (V) values[slot];
+				values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+
+		if (++size > LongIntMap.maxSizeFor(mask + 1)) {
+			resize();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Removes the value associated with a key.
+	 *
+	 * @param key the key
+	 *
+	 * @return the removed value, or {@code null} if there was no such value
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		final int slot = find(key);
+		if (slot < 0) {
+			return null;
+		}
+
+		final V previous = (V) values[slot];
+		deleteSlot(slot);
+		size--;
+		return previous;
+	}
+
+	/**
+	 * Returns the number of entries in this map.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns whether this map has no entries.
+	 *
+	 * @return {@code true} if this map has no entries, {@code false} otherwise
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Performs an action for each value of this map, in no particular order.
+	 *
+	 * @param action the action to perform
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachValue(Consumer<? super V> action) {
+		for (final Object value : values) {
+			if (value != null) {
+				action.accept((V) value);
+			}
+		}
+	}
+
+	/** Removes all entries from this map. */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	// returns the slot of the key, or -1 if it is not in the map
+	private int find(long key) {
+		int slot = LongIntMap.slotFor(key, mask);
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	// moves back the entries after the hole whose probe sequence passes through it
+	private void deleteSlot(int hole) {
+		int slot = hole;
+		while (true) {
+			slot = (slot + 1) & mask;
+			if (values[slot] == null) {
+				break;
+			}
+
+			final int ideal = LongIntMap.slotFor(keys[slot], mask);
+			if (((slot - ideal) & mask) >= ((slot - hole) & mask)) {
+				keys[hole] = keys[slot];
+				values[hole] = values[slot];
+				hole = slot;
+			}
+		}
+
+		values[hole] = null;
+	}
+
+	private void resize() {
+		final long[] oldKeys = keys;
+		final Object[] oldValues = values;
+
+		allocate(oldKeys.length * 2);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = LongIntMap.slotFor(oldKeys[i], mask);
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) {
+				if (sb.length() > 1) {
+					sb.append(", ");
+				}
+				sb.append(keys[i]).append('=').append(values[i]);
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+	private static final class UnmodifiableLongObjectMap<V> extends LongObjectMap<V> {
+
+		private final LongObjectMap<V> map;
+
+		private UnmodifiableLongObjectMap(LongObjectMap<V> map) {
+			super(0);
+			this.map = map;
+		}
+
+		@Override
+		public V get(long key) {
+			return map.get(key);
+		}
+
+		@Override
+		public boolean containsKey(long key) {
+			return map.containsKey(key);
+		}
+
+		@Override
+		public V put(long key, V value) {
+			throw new UnsupportedOperationException("This map can't be modified");
+		}
+
+		@Override
+		public V remove(long key) {
+			throw new UnsupportedOperationException("This map can't be modified");
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return map.isEmpty();
+		}
+
+		@Override
+		public void forEachValue(Consumer<? super V> action) {
+			map.forEachValue(action);
+		}
+
+		@Override
+		public void clear() {
+			throw new UnsupportedOperationException("This map can't be modified");
+		}
+
+		@Override
+		public String toString() {
+			return map.toString();
+		}
+	}
+}
@@ -61,16 +61,98 @@ public final class Message implements Serializable {
 		/** Indicates the start of Packet transmission. The value is the Topic's name */
 		DATA_PACKET_SEND,
 
+		/**
+		 * Initialises a data channel over which a Publisher sends many DATA_PACKET_SEND requests,
+		 * each followed by its Posts. There is no value
+		 */
+		INITIALISE_DATA_CHANNEL,
+
 		/** Requests the actual Broker CI for a Topic. The value is the Topic's name */
 		BROKER_DISCOVERY,
 
-		/** Initialises a Consumer connection. The value is a TopicToken */
-		INITIALISE_CONSUMER,
+		/**
+		 * Requests the RoutingTable of the server. The value is the version of the RoutingTable
+		 * the client already has, in which case the response is sent once a newer one exists
+		 */
+		ROUTING_TABLE_DISCOVERY,
+
+		/**
+		 * Initialises a subscription session over which a Consumer listens for many Topics. The
+		 * value is the SyncMode of the session
+		 */
+		INITIALISE_SESSION,
+
+		/** Requests the data of a Post, or a range of it. The value is a PostRequest */
+		FETCH_POST,
+
+		/**
+		 * Initialises a control channel over which many requests for the creation or deletion of
+		 * Topics and for the actual Broker of Topics are sent. The value is the ConnectionInfo of
+		 * the Broker that forwards requests over it, whose requests aren't forwarded again, or
+		 * {@code null} if a client sends them
+		 */
+		INITIALISE_CONTROL_CHANNEL,
 
-		/** Requests the creation of a Topic. The value is the Topic's name */
+		/**
+		 * Requests the creation of a Topic, which is placed on the least loaded Broker. The value
+		 * is the Topic's name
+		 */
 		CREATE_TOPIC,
 
 		/** Requests the deletion of a Topic. The value is the Topic's name */
 		DELETE_TOPIC,
+
+		/**
+		 * Sent by a Broker to the Broker that takes over one of its Topics, followed by the Posts
+		 * of the Topic. The value is the Topic's name
+		 */
+		MIGRATE_TOPIC,
+
+		/**
+		 * Sent by a Broker to each of the followers of its Topics, followed by the Posts of the
+		 * Topics that the follower copies. The value is the ConnectionInfo of the Broker
+		 */
+		REPLICATE_TOPICS,
+
+		/**
+		 * Requests the CI of the least loaded Broker from which a Consumer can receive the Posts
+		 * of a Topic, which is either its actual Broker or one of its followers. The value is the
+		 * Topic's name
+		 */
+		CONSUMER_DISCOVERY,
+
+		/**
+		 * Requests the creation of a Topic that marks a Topic as partitioned, once its partitions
+		 * have been created. The value is the TopicPartitions of the Topic
+		 */
+		CREATE_PARTITIONED_TOPIC,
+
+		/**
+		 * Requests the number of partitions of a Topic, which is {@code 0} if the Topic isn't
+		 * partitioned. The value is the Topic's name
+		 */
+		PARTITION_DISCOVERY,
+
+		/**
+		 * Sent by a Broker to the leader to place a new Topic on the least loaded Broker, unless
+		 * it has been placed already. The value is the Topic's name, and the response is the
+		 * RoutingTable in which it is placed
+		 */
+		PLACE_TOPIC,
+
+		/**
+		 * Sent by a Broker to the leader once it has deleted a placed Topic, to remove it from the
+		 * placement directory. The value is the Topic's name
+		 */
+		UNPLACE_TOPIC,
+
+		/** Requests the load of every Broker, as last reported to the leader. There is no value */
+		LOAD_DISCOVERY,
+
+		/**
+		 * Requests the port on which a Broker accepts other Brokers, which join it once it takes
+		 * over from a leader that has failed. There is no value
+		 */
+		BROKER_PORT_DISCOVERY,
 	}
 }
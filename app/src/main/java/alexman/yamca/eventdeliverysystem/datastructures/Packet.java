@@ -1,17 +1,40 @@
 package alexman.yamca.eventdeliverysystem.datastructures;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a fragment of a Post. Each Packet contains enough information so that the original
  * Post can be restored given the array of Packets.
+ * <p>
+ * The payload of a Packet is either held in memory or is a region of a file. In the latter case
+ * the payload is copied from the file to the stream in small chunks when the Packet is serialized,
+ * so that the data of a Post is never held in memory as a whole, and is only read into memory if
+ * it is explicitly requested. The Packets of a Post share the file, which is opened once while
+ * they are read.
+ * <p>
+ * Payloads held in memory are leased from the default {@link BufferPool}. Such Packets are
+ * reference counted: a Packet starts with one reference, owned by whoever created it, and its
+ * payload is returned to the pool once all references have been released. Packets that are never
+ * released are garbage collected normally, but their payloads are not reused.
  *
  * @author Alex Mandelias
  * @author Dimitris Tsirmpas
  */
 public final class Packet implements Serializable {
 
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
 
 	private static final int PACKET_SIZE = (int) Math.floor(512.0 * StrictMath.pow(2.0, 10.0));
 
@@ -22,11 +45,13 @@ public final class Packet implements Serializable {
 	 *
 	 * @return an array of Packets which collectively stores the original Post. Every Packet has the
 	 * 		same id as the Post and invoking {@link #isFinal()} on the last one returns {@code true}.
+	 * 		The caller owns a reference to each Packet.
 	 *
 	 * @see Post#fromPackets(Packet[], PostInfo)
+	 * @see #release()
 	 */
 	public static Packet[] fromPost(Post post) {
-		final byte[] src = post.getData();
+		final byte[] src = post.getDataWithoutCopy();
 		final long id = post.getPostInfo().getId();
 
 		final int packetCount = (int) Math.ceil((double) src.length / Packet.PACKET_SIZE);
@@ -37,24 +62,145 @@ public final class Packet implements Serializable {
 			final boolean isFinal = i == (packetCount - 1);
 
 			final int length = Math.min(Packet.PACKET_SIZE, src.length - srcPointer);
-			final byte[] payload = new byte[length];
+			final byte[] payload = BufferPool.getDefault().lease(length);
 
 			System.arraycopy(src, srcPointer, payload, 0, length);
 			srcPointer += length;
 
-			packets[i] = new Packet(isFinal, payload, id);
+			packets[i] = new Packet(isFinal, payload, length, id);
 		}
 
 		return packets;
 	}
 
+	/**
+	 * Breaks a region of a file into an array of Packets without reading the file. The payload of
+	 * each Packet is read from the file only when it is needed.
+	 *
+	 * @param file the file which contains the data of a Post
+	 * @param postId the id of the Post
+	 * @param offset the position in the file where the region starts
+	 * @param length the number of bytes in the region
+	 *
+	 * @return an array of Packets which collectively stores the region. Every Packet has the given
+	 * 		id and invoking {@link #isFinal()} on the last one returns {@code true}. An empty region
+	 * 		is stored in a single empty Packet.
+	 */
+	public static Packet[] fromFile(Path file, long postId, long offset, long length) {
+		final int packetCount = Math.max(1, (int) Math.ceil((double) length / Packet.PACKET_SIZE));
+		final Packet[] packets = new Packet[packetCount];
+		final PostFile postFile = new PostFile(file);
+
+		long position = offset;
+		for (int i = 0; i < packetCount; i++) {
+			final boolean isFinal = i == (packetCount - 1);
+
+			final int packetLength = (int) Math.min(Packet.PACKET_SIZE, (offset + length) - position);
+
+			packets[i] = new Packet(isFinal, postFile, position, packetLength, postId);
+			position += packetLength;
+		}
+
+		return packets;
+	}
+
+	/**
+	 * Copies a region of the data of a Post into an array of new Packets, without copying the
+	 * rest of the data.
+	 *
+	 * @param packets the Packets that store the data of the Post
+	 * @param offset the index of the first byte of the region
+	 * @param length the number of bytes in the region, which must end within the data
+	 *
+	 * @return an array of Packets which collectively stores the region. Every Packet has the id
+	 * 		of the Post and invoking {@link #isFinal()} on the last one returns {@code true}. An
+	 * 		empty region is stored in a single empty Packet. The caller owns a reference to each
+	 * 		Packet.
+	 *
+	 * @throws IllegalArgumentException if the packets array has length 0
+	 * @throws UncheckedIOException if an I/O error occurs while reading a payload from a file
+	 */
+	public static Packet[] fromPacketRange(Packet[] packets, long offset, long length) {
+		if (packets.length == 0) {
+			throw new IllegalArgumentException("Tried to copy a region of no data");
+		}
+
+		final long postId = packets[0].getPostId();
+		final int packetCount = Math.max(1, (int) Math.ceil((double) length / Packet.PACKET_SIZE));
+		final Packet[] range = new Packet[packetCount];
+
+		// the source Packet that contains the next byte to copy and the position of that byte
+		int src = 0;
+		long srcStart = 0;
+
+		long position = offset;
+		for (int i = 0; i < packetCount; i++) {
+			final boolean isFinal = i == (packetCount - 1);
+
+			final int packetLength =
+					(int) Math.min(Packet.PACKET_SIZE, (offset + length) - position);
+			final byte[] payload = BufferPool.getDefault().lease(packetLength);
+
+			int copied = 0;
+			while (copied < packetLength) {
+				while ((srcStart + packets[src].length) <= position) {
+					srcStart += packets[src].length;
+					src++;
+				}
+
+				final int from = (int) (position - srcStart);
+				final int count = Math.min(packetLength - copied, packets[src].length - from);
+				packets[src].copyPayloadTo(from, payload, copied, count);
+
+				copied += count;
+				position += count;
+			}
+
+			range[i] = new Packet(isFinal, payload, packetLength, postId);
+		}
+
+		return range;
+	}
+
+	/**
+	 * Releases a reference to each of some Packets.
+	 *
+	 * @param packets the Packets
+	 *
+	 * @see #release()
+	 */
+	public static void releaseAll(Packet[] packets) {
+		for (final Packet packet : packets) {
+			packet.release();
+		}
+	}
+
 	private final boolean isFinal;
-	private final byte[] payload;
 	private final long postId;
 
-	private Packet(boolean isFinal, byte[] payload, long postId) {
+	// the payload is either in memory or in a file region, not both
+	private transient byte[] payload;
+	private transient PostFile file;
+	private transient long position;
+	private transient int length;
+
+	// null if the payload is not pooled
+	private transient AtomicInteger referenceCount;
+
+	// the payload array may be longer than the payload
+	private Packet(boolean isFinal, byte[] payload, int length, long postId) {
 		this.isFinal = isFinal;
 		this.payload = payload;
+		this.length = length;
+		this.postId = postId;
+		referenceCount = new AtomicInteger(1);
+	}
+
+	private Packet(boolean isFinal, PostFile file, long position, int length, long postId) {
+		this.isFinal = isFinal;
+		this.file = file;
+		this.position = position;
+		this.length = length;
 		this.postId = postId;
 	}
 
@@ -68,12 +214,123 @@ public final class Packet implements Serializable {
 	}
 
 	/**
-	 * Returns this Packet's payload.
+	 * Returns whether this Packet's payload is a region of a file.
+	 *
+	 * @return {@code true} if the payload is read from a file, {@code false} if it is in memory
+	 */
+	public boolean isInFile() {
+		return file != null;
+	}
+
+	/**
+	 * Returns this Packet's payload. If the payload is a region of a file, it is read from it.
 	 *
 	 * @return the payload
+	 *
+	 * @throws UncheckedIOException if an I/O error occurs while reading the payload from a file
 	 */
 	public byte[] getPayload() {
-		return payload.clone();
+		final byte[] copy = new byte[length];
+		copyPayloadTo(copy, 0);
+		return copy;
+	}
+
+	/**
+	 * Copies this Packet's payload to an array, without an intermediate copy. If the payload is a
+	 * region of a file, it is read from it.
+	 *
+	 * @param dst the array to copy the payload to
+	 * @param offset the index of the array where the payload is copied
+	 *
+	 * @throws UncheckedIOException if an I/O error occurs while reading the payload from a file
+	 * @throws IllegalStateException if this Packet has been released
+	 */
+	void copyPayloadTo(byte[] dst, int offset) {
+		copyPayloadTo(0, dst, offset, length);
+	}
+
+	// copies the bytes of the payload in [from, from + count) to an array
+	private void copyPayloadTo(int from, byte[] dst, int offset, int count) {
+		if (payload != null) {
+			System.arraycopy(payload, from, dst, offset, count);
+			return;
+		}
+
+		if (file == null) {
+			throw new IllegalStateException("Packet has been released");
+		}
+
+		final ByteBuffer buffer = ByteBuffer.wrap(dst, offset, count);
+		try {
+			final FileChannel channel = file.open();
+			try {
+				while (buffer.hasRemaining()) {
+					final long filePosition = position + from + (buffer.position() - offset);
+					if (channel.read(buffer, filePosition) < 0) {
+						throw new EOFException("Unexpected end of file " + file.path);
+					}
+				}
+			} finally {
+				file.close(isFinal);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Acquires a reference to this Packet, which prevents its payload from being returned to the
+	 * pool until the reference is released. This method has no effect on Packets whose payload is
+	 * not pooled.
+	 *
+	 * @throws IllegalStateException if this Packet has already been released
+	 */
+	public void retain() {
+		if (referenceCount == null) {
+			return;
+		}
+
+		// never increment from 0, or a failed retain would revive a released Packet
+		int references;
+		do {
+			references = referenceCount.get();
+			if (references <= 0) {
+				throw new IllegalStateException("Packet has been released");
+			}
+		} while (!referenceCount.compareAndSet(references, references + 1));
+	}
+
+	/**
+	 * Releases a reference to this Packet. Once all references have been released, its payload is
+	 * returned to the pool and this Packet must no longer be used. This method has no effect on
+	 * Packets whose payload is not pooled.
+	 *
+	 * @throws IllegalStateException if this Packet has already been released
+	 */
+	public void release() {
+		if (referenceCount == null) {
+			return;
+		}
+
+		final int references = referenceCount.decrementAndGet();
+		if (references < 0) {
+			throw new IllegalStateException("Packet has been released");
+		}
+
+		if (references == 0) {
+			final byte[] pooledPayload = payload;
+			payload = null;
+			BufferPool.getDefault().release(pooledPayload);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes in this Packet's payload.
+	 *
+	 * @return the length of the payload
+	 */
+	public int getLength() {
+		return length;
 	}
 
 	/**
@@ -87,7 +344,87 @@ public final class Packet implements Serializable {
 
 	@Override
 	public String toString() {
-		return String.format("Packet [isFinal=%s, payload.length=%s, postId=%s]", isFinal,
-				payload.length, postId);
+		return String.format("Packet [isFinal=%s, payload.length=%s, postId=%s]", isFinal, length,
+				postId);
+	}
+
+	// the payload is written as its length followed by its raw bytes so that payloads in files
+	// can be copied to the stream without first being read into memory. the stream isn't a
+	// channel, so the bytes still pass through a small buffer instead of being sent by the OS.
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(length);
+
+		if (payload != null) {
+			out.write(payload, 0, length);
+			return;
+		}
+
+		if (file == null) {
+			throw new IllegalStateException("Packet has been released");
+		}
+
+		final WritableByteChannel target = Channels.newChannel(out);
+		final FileChannel channel = file.open();
+		try {
+			long transferred = 0;
+			while (transferred < length) {
+				final long count = channel.transferTo(position + transferred,
+						length - transferred, target);
+				if (count <= 0) {
+					throw new EOFException("Unexpected end of file " + file.path);
+				}
+				transferred += count;
+			}
+		} finally {
+			file.close(isFinal);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		length = in.readInt();
+		payload = BufferPool.getDefault().lease(length);
+		try {
+			in.readFully(payload, 0, length);
+		} catch (IOException e) {
+			// the Packet is never returned, so no one else can release its payload
+			BufferPool.getDefault().release(payload);
+			payload = null;
+			throw e;
+		}
+		referenceCount = new AtomicInteger(1);
+	}
+
+	// the file of the Packets of a Post, which is opened once for all of them instead of once for
+	// each Packet. it is closed once the final Packet has been read while no other Packet is
+	// being read, so that the many Posts whose Packets are kept don't keep their files open.
+	private static final class PostFile {
+
+		private final Path path;
+
+		// the open channel and the number of Packets being read from it, guarded by this
+		private FileChannel channel = null;
+		private int readerCount = 0;
+
+		private PostFile(Path path) {
+			this.path = path;
+		}
+
+		private synchronized FileChannel open() throws IOException {
+			if (channel == null) {
+				channel = FileChannel.open(path, StandardOpenOption.READ);
+			}
+			readerCount++;
+			return channel;
+		}
+
+		private synchronized void close(boolean isFinal) throws IOException {
+			readerCount--;
+			if (isFinal && (readerCount == 0)) {
+				channel.close();
+				channel = null;
+			}
+		}
 	}
 }
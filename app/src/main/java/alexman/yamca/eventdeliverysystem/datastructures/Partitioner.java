@@ -0,0 +1,76 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Defines the hash function that gives the position of a Topic, or of a virtual node of a Broker,
+ * on a {@link HashRing}. Every client and Broker must use the same Partitioner, which is why it is
+ * part of the {@link RoutingTable}.
+ *
+ * @author Alex Mandelias
+ */
+public enum Partitioner {
+
+	/**
+	 * The first 8 bytes of the MD5 digest of the UTF-8 encoding of the key. This is slow, and is
+	 * kept so that the placement of Topics on servers that have used it doesn't change
+	 */
+	MD5 {
+		@Override
+		public long hash(String key) {
+			final byte[] digest;
+			try {
+				digest = MessageDigest.getInstance("md5")
+				                      .digest(key.getBytes(StandardCharsets.UTF_8));
+			} catch (final NoSuchAlgorithmException e) {
+				throw new IllegalStateException("MD5 is not supported", e);
+			}
+
+			long hash = 0;
+			for (int i = 0; i < Long.BYTES; i++) {
+				hash = (hash << Byte.SIZE) | (digest[i] & 0xFF);
+			}
+			return hash;
+		}
+	},
+
+	/**
+	 * The 64-bit FNV-1a hash of the characters of the key, with the final mixing step of
+	 * MurmurHash3 so that keys which differ only slightly are spread over the whole ring. This
+	 * allocates nothing and is much faster than {@link #MD5}
+	 */
+	FNV_1A {
+		@Override
+		public long hash(String key) {
+			long hash = Partitioner.FNV_OFFSET_BASIS;
+			for (int i = 0, length = key.length(); i < length; i++) {
+				hash ^= key.charAt(i);
+				hash *= Partitioner.FNV_PRIME;
+			}
+
+			hash ^= hash >>> 33;
+			hash *= 0xff51afd7ed558ccdL;
+			hash ^= hash >>> 33;
+			hash *= 0xc4ceb9fe1a85ec53L;
+			hash ^= hash >>> 33;
+			return hash;
+		}
+	};
+
+	/** The Partitioner used if no other is specified */
+	public static final Partitioner DEFAULT = FNV_1A;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * Returns the position of a key on a HashRing.
+	 *
+	 * @param key the key
+	 *
+	 * @return the position of the key
+	 */
+	public abstract long hash(String key);
+}
@@ -1,14 +1,13 @@
 package alexman.yamca.eventdeliverysystem.datastructures;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Stream;
 
 /**
  * Encapsulates a Post, its data and its associated PostInfo object.
@@ -36,7 +35,11 @@ public final class Post {
 			throw new IllegalArgumentException("Tried to create a Post object with no data");
 		}
 
-		final int byteCount = Stream.of(packets).mapToInt(p -> p.getPayload().length).sum();
+		int byteCount = 0;
+		for (final Packet curr : packets) {
+			byteCount += curr.getLength();
+		}
+
 		final byte[] data = new byte[byteCount];
 
 		final long idOfFirst = packets[0].getPostId();
@@ -49,13 +52,11 @@ public final class Post {
 								idOfFirst, curr.getPostId()));
 			}
 
-			final byte[] payload = curr.getPayload();
-			final int length = payload.length;
-			System.arraycopy(payload, 0, data, dataPointer, length);
-			dataPointer += length;
+			curr.copyPayloadTo(data, dataPointer);
+			dataPointer += curr.getLength();
 		}
 
-		return new Post(data, postInfo);
+		return new Post(data, postInfo, false);
 	}
 
 	/**
@@ -73,19 +74,15 @@ public final class Post {
 
 		byte[] data;
 		try (FileInputStream fis = new FileInputStream(file)) {
-			List<Integer> bytes = new LinkedList<>();
-
-			int nextByte = fis.read();
-			while (nextByte != -1) {
-				bytes.add(nextByte);
-				nextByte = fis.read();
-			}
-
-			data = new byte[bytes.size()];
-			int index = 0;
-			for (Integer b : bytes) {
-				data[index] = b.byteValue();
-				index++;
+			data = new byte[(int) fis.getChannel().size()];
+
+			int bytesRead = 0;
+			while (bytesRead < data.length) {
+				final int count = fis.read(data, bytesRead, data.length - bytesRead);
+				if (count < 0) {
+					throw new EOFException("Unexpected end of file " + file);
+				}
+				bytesRead += count;
 			}
 		}
 
@@ -104,7 +101,22 @@ public final class Post {
 	 * @return the Post that encapsulates the plain-text message
 	 */
 	public static Post fromText(String text, String posterName) {
-		return new Post(text.getBytes(StandardCharsets.UTF_8), posterName, "~txt");
+		return new Post(text.getBytes(StandardCharsets.UTF_8), posterName,
+				PostInfo.PLAIN_TEXT_EXTENSION);
+	}
+
+	/**
+	 * Constructs a Post whose data has not been loaded. Such Posts are used to represent Posts for
+	 * which only the PostInfo is known, until their data is fetched.
+	 *
+	 * @param postInfo the PostInfo object associated with the Post
+	 *
+	 * @return the Post without data
+	 *
+	 * @see Post#isLoaded()
+	 */
+	public static Post withoutData(PostInfo postInfo) {
+		return new Post(postInfo);
 	}
 
 	private final byte[] data;
@@ -117,7 +129,12 @@ public final class Post {
 	 * @param postInfo the PostInfo object associated with this Post
 	 */
 	public Post(byte[] data, PostInfo postInfo) {
-		this.data = data.clone();
+		this(data, postInfo, true);
+	}
+
+	// the data is only copied if it may be modified by the caller
+	private Post(byte[] data, PostInfo postInfo, boolean copyData) {
+		this.data = copyData ? data.clone() : data;
 		this.postInfo = postInfo;
 	}
 
@@ -130,16 +147,57 @@ public final class Post {
 	 * 		messages have a file extension of '{@code ~txt}'
 	 */
 	private Post(byte[] data, String posterName, String fileExtension) {
-		this(data, new PostInfo(posterName, fileExtension, ThreadLocalRandom.current().nextLong()));
+		this(data, new PostInfo(posterName, fileExtension, ThreadLocalRandom.current().nextLong(),
+				data.length, PostInfo.createPreview(fileExtension, data)), false);
+	}
+
+	private Post(PostInfo postInfo) {
+		data = null;
+		this.postInfo = postInfo;
+	}
+
+	/**
+	 * Returns whether this Post's data has been loaded.
+	 *
+	 * @return {@code true} if this Post has data, {@code false} if only its PostInfo is known
+	 *
+	 * @see Post#withoutData(PostInfo)
+	 */
+	public boolean isLoaded() {
+		return data != null;
 	}
 
 	/**
 	 * Returns a clone of this Post's data.
 	 *
 	 * @return a clone of the data
+	 *
+	 * @throws IllegalStateException if this Post's data has not been loaded
 	 */
 	public byte[] getData() {
-		return data.clone();
+		return getDataWithoutCopy().clone();
+	}
+
+	/**
+	 * Writes this Post's data to a stream without copying it.
+	 *
+	 * @param out the stream
+	 *
+	 * @throws IOException if an I/O Error occurs while writing to the stream
+	 * @throws IllegalStateException if this Post's data has not been loaded
+	 */
+	public void writeDataTo(OutputStream out) throws IOException {
+		out.write(getDataWithoutCopy());
+	}
+
+	// the returned array must not be modified
+	byte[] getDataWithoutCopy() {
+		if (!isLoaded()) {
+			throw new IllegalStateException("The data of Post " + postInfo.getId()
+			                                + " has not been loaded");
+		}
+
+		return data;
 	}
 
 	/**
@@ -153,6 +211,7 @@ public final class Post {
 
 	@Override
 	public String toString() {
-		return String.format("Post [data.length=%s, postInfo=%s]", data.length, postInfo);
+		return String.format("Post [data.length=%s, postInfo=%s]", isLoaded() ? data.length : null,
+				postInfo);
 	}
 }
@@ -1,6 +1,7 @@
 package alexman.yamca.eventdeliverysystem.datastructures;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Contains information about a Post.
@@ -13,9 +14,60 @@ public final class PostInfo implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
+	/** The file extension of plain-text messages */
+	public static final String PLAIN_TEXT_EXTENSION = "~txt";
+
+	/**
+	 * The file extension of the Post that marks a Topic as partitioned, whose data is the number
+	 * of partitions of the Topic as text
+	 */
+	public static final String PARTITIONS_EXTENSION = "~partitions";
+
+	/** Constant to be used as the size of a Post whose size is not known */
+	public static final long UNKNOWN_SIZE = -1L;
+
+	private static final int PREVIEW_LENGTH = 64;
+
+	/**
+	 * Returns whether the Posts with a file extension have a preview. Only plain-text messages and
+	 * the Posts that mark Topics as partitioned have one.
+	 *
+	 * @param fileExtension the extension of the Post's file
+	 *
+	 * @return {@code true} if they have a preview, {@code false} otherwise
+	 */
+	public static boolean hasPreview(String fileExtension) {
+		return PostInfo.PLAIN_TEXT_EXTENSION.equals(fileExtension)
+		       || PostInfo.PARTITIONS_EXTENSION.equals(fileExtension);
+	}
+
+	/**
+	 * Creates the preview of a Post's data, which is sent along with its PostInfo so that the Post
+	 * can be displayed before its data has been fetched. Only the Posts whose data is text have a
+	 * preview, which is their first few characters.
+	 *
+	 * @param fileExtension the extension of the Post's file
+	 * @param data the data of the Post
+	 *
+	 * @return the preview of the data, or {@code null} if the Post has no preview
+	 *
+	 * @see #hasPreview(String)
+	 */
+	public static String createPreview(String fileExtension, byte[] data) {
+		if (!PostInfo.hasPreview(fileExtension)) {
+			return null;
+		}
+
+		final String text = new String(data, StandardCharsets.UTF_8);
+		return text.length() <= PostInfo.PREVIEW_LENGTH ? text
+		                                                : text.substring(0, PostInfo.PREVIEW_LENGTH);
+	}
+
 	private final String posterName;
 	private final String fileExtension;
 	private final long id;
+	private final long size;
+	private final String preview;
 
 	/**
 	 * Constructs a new PostInfo that holds information associated with a Post.
@@ -26,9 +78,29 @@ public final class PostInfo implements Serializable {
 	 * @param id the unique id of the Post
 	 */
 	public PostInfo(String posterName, String fileExtension, long id) {
+		this(posterName, fileExtension, id, PostInfo.UNKNOWN_SIZE, null);
+	}
+
+	/**
+	 * Constructs a new PostInfo that holds information associated with a Post, including its size
+	 * and a preview of its data.
+	 *
+	 * @param posterName the unique name of the Post's poster
+	 * @param fileExtension the extension of the associated Post's file, '{@code ~txt}' for
+	 * 		plain-text messages
+	 * @param id the unique id of the Post
+	 * @param size the number of bytes of the Post's data, {@link PostInfo#UNKNOWN_SIZE} if not
+	 * 		known
+	 * @param preview the preview of the Post's data, {@code null} if it has no preview
+	 *
+	 * @see PostInfo#createPreview(String, byte[])
+	 */
+	public PostInfo(String posterName, String fileExtension, long id, long size, String preview) {
 		this.posterName = posterName;
 		this.fileExtension = fileExtension;
 		this.id = id;
+		this.size = size;
+		this.preview = preview;
 	}
 
 	/**
@@ -58,9 +130,27 @@ public final class PostInfo implements Serializable {
 		return id;
 	}
 
+	/**
+	 * Returns the number of bytes of the data of the Post associated with this PostInfo.
+	 *
+	 * @return the Post's size, {@link PostInfo#UNKNOWN_SIZE} if not known
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the preview of the data of the Post associated with this PostInfo.
+	 *
+	 * @return the Post's preview, {@code null} if it has no preview
+	 */
+	public String getPreview() {
+		return preview;
+	}
+
 	@Override
 	public String toString() {
-		return String.format("PostInfo [posterName=%s, fileExtension=%s, id=%s]", posterName,
-				fileExtension, id);
+		return String.format("PostInfo [posterName=%s, fileExtension=%s, id=%s, size=%s]",
+				posterName, fileExtension, id, size);
 	}
 }
@@ -0,0 +1,108 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.io.Serializable;
+
+/**
+ * Identifies a Post of a Topic whose data, or a range of bytes of it, is requested from a Broker.
+ *
+ * @author Alex Mandelias
+ */
+public final class PostRequest implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Constant to be used as the length of a range that extends to the end of the data */
+	public static final long TO_END = -1L;
+
+	private final String topicName;
+	private final long postId;
+	private final long offset;
+	private final long length;
+
+	/**
+	 * Constructs a PostRequest for all the data of a Post of a Topic.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param postId the ID of the Post
+	 */
+	public PostRequest(String topicName, long postId) {
+		this(topicName, postId, 0L, PostRequest.TO_END);
+	}
+
+	/**
+	 * Constructs a PostRequest for a range of bytes of the data of a Post of a Topic.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param postId the ID of the Post
+	 * @param offset the index of the first byte of the range
+	 * @param length the number of bytes in the range, or {@link PostRequest#TO_END} for a range
+	 * 		that extends to the end of the data
+	 *
+	 * @throws IllegalArgumentException if {@code offset < 0} or if {@code length < 0} and it is
+	 * 		not {@code TO_END}
+	 */
+	public PostRequest(String topicName, long postId, long offset, long length) {
+		if (offset < 0) {
+			throw new IllegalArgumentException("offset can't be negative");
+		}
+		if (length < 0 && length != PostRequest.TO_END) {
+			throw new IllegalArgumentException("length can't be negative");
+		}
+
+		this.topicName = topicName;
+		this.postId = postId;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Returns the name of the Topic of the requested Post.
+	 *
+	 * @return the Topic's name
+	 */
+	public String getTopicName() {
+		return topicName;
+	}
+
+	/**
+	 * Returns the ID of the requested Post.
+	 *
+	 * @return the Post's ID
+	 */
+	public long getPostId() {
+		return postId;
+	}
+
+	/**
+	 * Returns the index of the first requested byte.
+	 *
+	 * @return the offset
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the number of requested bytes.
+	 *
+	 * @return the length, or {@link PostRequest#TO_END} if all bytes after the offset are requested
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns whether all the data of the Post is requested.
+	 *
+	 * @return {@code true} if the whole Post is requested, {@code false} otherwise
+	 */
+	public boolean isWholePost() {
+		return offset == 0L && length == PostRequest.TO_END;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PostRequest [topicName=%s, postId=%d, offset=%d, length=%d]",
+				topicName, postId, offset, length);
+	}
+}
@@ -0,0 +1,39 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+/**
+ * Defines the priority with which a Post is transferred, so that messages which are expected to
+ * arrive immediately are not delayed by the transfer of large files.
+ *
+ * @author Alex Mandelias
+ */
+public enum Priority {
+
+	/** Plain-text messages and other small Posts */
+	HIGH,
+
+	/** Media and other large Posts, or Posts whose size is not known */
+	LOW;
+
+	private static final long MAX_HIGH_PRIORITY_SIZE = 64L * 1024L;
+
+	/**
+	 * Classifies a Post by the size and file extension in its PostInfo.
+	 *
+	 * @param postInfo the PostInfo of the Post
+	 *
+	 * @return {@link #HIGH} if the Post is a plain-text message or is known to be small,
+	 * 		{@link #LOW} otherwise
+	 */
+	public static Priority of(PostInfo postInfo) {
+		if (PostInfo.PLAIN_TEXT_EXTENSION.equals(postInfo.getFileExtension())) {
+			return HIGH;
+		}
+
+		final long size = postInfo.getSize();
+		if ((size != PostInfo.UNKNOWN_SIZE) && (size <= Priority.MAX_HIGH_PRIORITY_SIZE)) {
+			return HIGH;
+		}
+
+		return LOW;
+	}
+}
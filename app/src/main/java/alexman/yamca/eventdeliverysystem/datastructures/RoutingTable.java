@@ -0,0 +1,511 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the Brokers of the server, from which the actual Broker of any Topic
+ * can be found without asking the default Broker. Each snapshot has a version, which increases
+ * every time a Broker joins or leaves the server and every time a batch of Topics is placed, so
+ * that clients can tell whether their copy is outdated.
+ * <p>
+ * Topics are placed on the Brokers using a {@link HashRing}, on which each Broker has a number of
+ * virtual nodes proportional to its weight. This way, when a Broker joins the server, only the
+ * Topics that it takes over change Broker.
+ * <p>
+ * Each Topic may also be copied to a number of other Brokers, its followers, which are the Brokers
+ * that follow its actual Broker on the ring. When a Broker leaves the server, its Topics are
+ * therefore placed on their first follower, which already has a copy of them.
+ * <p>
+ * New Topics are instead placed by the leader, the first Broker, on the least loaded Broker, and
+ * are recorded in the placement directory of the RoutingTable, which takes precedence over the
+ * ring. Their followers are the Brokers that follow them on the ring, except for the Broker on
+ * which they are placed. Topics that aren't in the directory, such as those created before it
+ * existed, are still placed by the ring. When a Broker joins the server, the placed Topics that
+ * the ring assigns to it are moved to it as well, so that it takes over its share of them.
+ * <p>
+ * A RoutingTable that only places Topics records which Topics it places, so that the Brokers that
+ * receive it only need to act on them, and so that only its {@link PlacementDelta} is sent to the
+ * Brokers and clients that have the previous version.
+ *
+ * @author Alex Mandelias
+ */
+public final class RoutingTable implements Serializable {
+
+	private static final long serialVersionUID = 6L;
+
+	/** The version known by clients that haven't received any RoutingTable */
+	public static final long NO_VERSION = -1L;
+
+	/** The weight of a Broker for which no weight is specified */
+	public static final int DEFAULT_WEIGHT = 1;
+
+	/** The number of virtual nodes per unit of weight used if no other number is specified */
+	public static final int DEFAULT_VIRTUAL_NODES_PER_WEIGHT = 128;
+
+	/** The number of followers of each Topic used if no other number is specified */
+	public static final int DEFAULT_REPLICATION_FACTOR = 0;
+
+	private final long version;
+	private final Map<ConnectionInfo, Integer> weightPerBroker;
+	private final int virtualNodesPerWeight;
+	private final Partitioner partitioner;
+	private final int replicationFactor;
+	private final Map<String, ConnectionInfo> brokerPerPlacedTopic;
+
+	// the broker of each placed Topic that moved to the broker that joined last, before it joined
+	private final Map<String, ConnectionInfo> previousBrokerPerMovedTopic;
+
+	// the Topics placed or unplaced since the previous version, or null if brokers joined or left
+	private final Set<String> placementChanges;
+
+	// derived from the other fields, so it isn't sent along with them
+	private transient HashRing<ConnectionInfo> ring;
+
+	/**
+	 * Constructs a RoutingTable.
+	 *
+	 * @param version the version of this RoutingTable
+	 * @param weightPerBroker the weight of each Broker, which must be positive
+	 * @param virtualNodesPerWeight the number of virtual nodes of a Broker per unit of its weight
+	 * @param partitioner the hash function that places the Topics and the Brokers on the ring
+	 *
+	 * @throws IllegalArgumentException if there are no Brokers, if any weight is not positive or
+	 * 		if {@code virtualNodesPerWeight} is not positive
+	 */
+	public RoutingTable(long version, Map<ConnectionInfo, Integer> weightPerBroker,
+			int virtualNodesPerWeight, Partitioner partitioner) {
+		this(version, weightPerBroker, virtualNodesPerWeight, partitioner,
+				RoutingTable.DEFAULT_REPLICATION_FACTOR);
+	}
+
+	/**
+	 * Constructs a RoutingTable in which each Topic is copied to a number of followers.
+	 *
+	 * @param version the version of this RoutingTable
+	 * @param weightPerBroker the weight of each Broker, which must be positive
+	 * @param virtualNodesPerWeight the number of virtual nodes of a Broker per unit of its weight
+	 * @param partitioner the hash function that places the Topics and the Brokers on the ring
+	 * @param replicationFactor the number of followers of each Topic, if there are enough Brokers
+	 *
+	 * @throws IllegalArgumentException if there are no Brokers, if any weight is not positive, if
+	 * 		{@code virtualNodesPerWeight} is not positive or if {@code replicationFactor} is
+	 * 		negative
+	 */
+	public RoutingTable(long version, Map<ConnectionInfo, Integer> weightPerBroker,
+			int virtualNodesPerWeight, Partitioner partitioner, int replicationFactor) {
+		this(version, weightPerBroker, virtualNodesPerWeight, partitioner, replicationFactor,
+				Collections.emptyMap(), Collections.emptyMap(),
+				RoutingTable.newRing(weightPerBroker, virtualNodesPerWeight, partitioner));
+	}
+
+	// the routing table after brokers join or leave, whose ring is derived from its weights
+	private RoutingTable(long version, Map<ConnectionInfo, Integer> weightPerBroker,
+			int virtualNodesPerWeight, Partitioner partitioner, int replicationFactor,
+			Map<String, ConnectionInfo> brokerPerPlacedTopic,
+			Map<String, ConnectionInfo> previousBrokerPerMovedTopic,
+			HashRing<ConnectionInfo> ring) {
+		if (replicationFactor < 0) {
+			throw new IllegalArgumentException("replicationFactor can't be negative");
+		}
+
+		this.version = version;
+		this.weightPerBroker = Collections.unmodifiableMap(new LinkedHashMap<>(weightPerBroker));
+		this.virtualNodesPerWeight = virtualNodesPerWeight;
+		this.partitioner = partitioner;
+		this.replicationFactor = replicationFactor;
+		this.brokerPerPlacedTopic =
+				Collections.unmodifiableMap(new HashMap<>(brokerPerPlacedTopic));
+		this.previousBrokerPerMovedTopic =
+				Collections.unmodifiableMap(new HashMap<>(previousBrokerPerMovedTopic));
+		placementChanges = null;
+		this.ring = ring;
+	}
+
+	// the routing table after Topics are placed, which shares everything else with the previous
+	// one, including its ring, and takes ownership of the maps and the set that it is given
+	private RoutingTable(RoutingTable previous, Map<String, ConnectionInfo> brokerPerPlacedTopic,
+			Map<String, ConnectionInfo> previousBrokerPerMovedTopic, Set<String> placementChanges) {
+		version = previous.version + 1;
+		weightPerBroker = previous.weightPerBroker;
+		virtualNodesPerWeight = previous.virtualNodesPerWeight;
+		partitioner = previous.partitioner;
+		replicationFactor = previous.replicationFactor;
+		this.brokerPerPlacedTopic = Collections.unmodifiableMap(brokerPerPlacedTopic);
+		this.previousBrokerPerMovedTopic = previousBrokerPerMovedTopic;
+		this.placementChanges = Collections.unmodifiableSet(placementChanges);
+		ring = previous.ring;
+	}
+
+	/**
+	 * Returns the RoutingTable that follows this one, after a Broker joins the server. The placed
+	 * Topics that the ring assigns to that Broker are moved to it. If the Broker is already part
+	 * of this RoutingTable, its weight is changed instead and no placed Topic is moved.
+	 *
+	 * @param broker the ConnectionInfo of the Broker that joined
+	 * @param weight the weight of the Broker
+	 *
+	 * @return the new RoutingTable
+	 *
+	 * @throws IllegalArgumentException if the weight is not positive
+	 */
+	public RoutingTable withBroker(ConnectionInfo broker, int weight) {
+		final Map<ConnectionInfo, Integer> newWeights = new LinkedHashMap<>(weightPerBroker);
+		newWeights.put(broker, weight);
+		final HashRing<ConnectionInfo> newRing =
+				RoutingTable.newRing(newWeights, virtualNodesPerWeight, partitioner);
+
+		final Map<String, ConnectionInfo> newPlacements = new HashMap<>(brokerPerPlacedTopic);
+		final Map<String, ConnectionInfo> movedTopics = new HashMap<>();
+		if (!weightPerBroker.containsKey(broker)) {
+			for (final Map.Entry<String, ConnectionInfo> e : brokerPerPlacedTopic.entrySet()) {
+				if (newRing.getNode(e.getKey()).equals(broker)) {
+					newPlacements.put(e.getKey(), broker);
+					movedTopics.put(e.getKey(), e.getValue());
+				}
+			}
+		}
+
+		return new RoutingTable(version + 1, newWeights, virtualNodesPerWeight, partitioner,
+				replicationFactor, newPlacements, movedTopics, newRing);
+	}
+
+	/**
+	 * Returns the RoutingTable that follows this one, after a Broker leaves the server. The
+	 * Topics of that Broker are placed on their first follower, and the Topics placed on it that
+	 * have no followers are removed from the placement directory.
+	 *
+	 * @param broker the ConnectionInfo of the Broker that left
+	 *
+	 * @return the new RoutingTable, or this RoutingTable if the Broker isn't part of it
+	 *
+	 * @throws IllegalArgumentException if the Broker is the only one in this RoutingTable
+	 */
+	public RoutingTable withoutBroker(ConnectionInfo broker) {
+		if (!weightPerBroker.containsKey(broker)) {
+			return this;
+		}
+
+		final Map<ConnectionInfo, Integer> newWeights = new LinkedHashMap<>(weightPerBroker);
+		newWeights.remove(broker);
+
+		final Map<String, ConnectionInfo> newPlacements = new HashMap<>(brokerPerPlacedTopic);
+		for (final Map.Entry<String, ConnectionInfo> e : brokerPerPlacedTopic.entrySet()) {
+			if (e.getValue().equals(broker)) {
+				final List<ConnectionInfo> replicas = getReplicasForTopic(e.getKey());
+				if (replicas.size() > 1) {
+					newPlacements.put(e.getKey(), replicas.get(1));
+				} else {
+					newPlacements.remove(e.getKey());
+				}
+			}
+		}
+
+		// the Topics that moved from or to that broker have to be handed over again
+		final Map<String, ConnectionInfo> movedTopics = new HashMap<>();
+		for (final Map.Entry<String, ConnectionInfo> e : previousBrokerPerMovedTopic.entrySet()) {
+			if (!e.getValue().equals(broker)
+			    && brokerPerPlacedTopic.get(e.getKey()).equals(newPlacements.get(e.getKey()))) {
+				movedTopics.put(e.getKey(), e.getValue());
+			}
+		}
+
+		return new RoutingTable(version + 1, newWeights, virtualNodesPerWeight, partitioner,
+				replicationFactor, newPlacements, movedTopics,
+				RoutingTable.newRing(newWeights, virtualNodesPerWeight, partitioner));
+	}
+
+	/**
+	 * Returns the RoutingTable that follows this one, after a batch of new Topics is placed on
+	 * Brokers and a batch of deleted Topics is removed from the placement directory. The Brokers,
+	 * and therefore the ring, stay the same.
+	 *
+	 * @param placedTopics the Broker on which each new Topic is placed
+	 * @param unplacedTopics the names of the deleted Topics
+	 *
+	 * @return the new RoutingTable, or this RoutingTable if no placement changes
+	 *
+	 * @throws IllegalArgumentException if any of the Brokers isn't part of this RoutingTable
+	 */
+	public RoutingTable withPlacedTopics(Map<String, ConnectionInfo> placedTopics,
+			Collection<String> unplacedTopics) {
+		final Set<String> changes = new HashSet<>();
+		for (final Map.Entry<String, ConnectionInfo> e : placedTopics.entrySet()) {
+			if (!weightPerBroker.containsKey(e.getValue())) {
+				throw new IllegalArgumentException(
+						"Broker " + e.getValue() + " isn't part of the server");
+			}
+
+			if (!e.getValue().equals(brokerPerPlacedTopic.get(e.getKey()))) {
+				changes.add(e.getKey());
+			}
+		}
+		for (final String topicName : unplacedTopics) {
+			if (brokerPerPlacedTopic.containsKey(topicName)) {
+				changes.add(topicName);
+			}
+		}
+
+		if (changes.isEmpty()) {
+			return this;
+		}
+
+		final Map<String, ConnectionInfo> newPlacements = new HashMap<>(brokerPerPlacedTopic);
+		newPlacements.keySet().removeAll(unplacedTopics);
+		newPlacements.putAll(placedTopics);
+
+		// the Topics that are placed again are no longer being handed over
+		Map<String, ConnectionInfo> movedTopics = previousBrokerPerMovedTopic;
+		if (!Collections.disjoint(movedTopics.keySet(), changes)) {
+			final Map<String, ConnectionInfo> remaining = new HashMap<>(movedTopics);
+			remaining.keySet().removeAll(changes);
+			movedTopics = Collections.unmodifiableMap(remaining);
+		}
+
+		return new RoutingTable(this, newPlacements, movedTopics, changes);
+	}
+
+	/**
+	 * Returns the RoutingTable that follows this one, after the Topics of a PlacementDelta are
+	 * placed. This way a copy of the previous version of a RoutingTable that only places Topics
+	 * becomes a copy of that RoutingTable.
+	 *
+	 * @param delta the PlacementDelta of the RoutingTable that follows this one
+	 *
+	 * @return the new RoutingTable, or this RoutingTable if the PlacementDelta doesn't follow it
+	 */
+	public RoutingTable withPlacementDelta(PlacementDelta delta) {
+		if (delta.version != (version + 1)) {
+			return this;
+		}
+
+		return withPlacedTopics(delta.placedTopics, delta.unplacedTopics);
+	}
+
+	/**
+	 * Returns the placement changes of this RoutingTable since the previous version, if it only
+	 * changes the placement of Topics.
+	 *
+	 * @return the PlacementDelta, or {@code null} if Brokers joined or left the server
+	 */
+	public PlacementDelta getPlacementDelta() {
+		if (placementChanges == null) {
+			return null;
+		}
+
+		final Map<String, ConnectionInfo> placedTopics = new HashMap<>();
+		final Set<String> unplacedTopics = new HashSet<>();
+		for (final String topicName : placementChanges) {
+			final ConnectionInfo broker = brokerPerPlacedTopic.get(topicName);
+			if (broker != null) {
+				placedTopics.put(topicName, broker);
+			} else {
+				unplacedTopics.add(topicName);
+			}
+		}
+
+		return new PlacementDelta(version, placedTopics, unplacedTopics);
+	}
+
+	/**
+	 * Returns this RoutingTable's version.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the Topics that were placed or removed from the placement directory since the
+	 * previous version, if this RoutingTable only changes the placement of Topics.
+	 *
+	 * @return an unmodifiable Set with the names of the Topics, or {@code null} if Brokers joined
+	 * 		or left the server, in which case any Topic may have changed Broker
+	 */
+	public Set<String> getPlacementChanges() {
+		return placementChanges;
+	}
+
+	/**
+	 * Returns the weight of every Broker.
+	 *
+	 * @return an unmodifiable Map with the weight of each Broker
+	 */
+	public Map<ConnectionInfo, Integer> getWeightPerBroker() {
+		return weightPerBroker;
+	}
+
+	/**
+	 * Returns the leader, the Broker that started the server and places new Topics.
+	 *
+	 * @return the ConnectionInfo of the leader
+	 */
+	public ConnectionInfo getLeader() {
+		return weightPerBroker.keySet().iterator().next();
+	}
+
+	/**
+	 * Returns the placement directory, the Broker on which each placed Topic is placed.
+	 *
+	 * @return an unmodifiable Map with the Broker of each placed Topic
+	 */
+	public Map<String, ConnectionInfo> getBrokerPerPlacedTopic() {
+		return brokerPerPlacedTopic;
+	}
+
+	/**
+	 * Returns whether a Topic has been placed by the leader, or is placed by the ring.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return {@code true} if the Topic is in the placement directory, {@code false} otherwise
+	 */
+	public boolean isPlaced(String topicName) {
+		return brokerPerPlacedTopic.containsKey(topicName);
+	}
+
+	/**
+	 * Returns the number of followers of each Topic.
+	 *
+	 * @return the replication factor
+	 */
+	public int getReplicationFactor() {
+		return replicationFactor;
+	}
+
+	/**
+	 * Finds the actual Broker of a Topic.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return the ConnectionInfo of the Broker responsible for the Topic
+	 */
+	public ConnectionInfo getBrokerForTopic(String topicName) {
+		final ConnectionInfo placedBroker = brokerPerPlacedTopic.get(topicName);
+		return placedBroker != null ? placedBroker : ring.getNode(topicName);
+	}
+
+	/**
+	 * Finds the actual Broker of a Topic and its followers, which are fewer than the replication
+	 * factor if there aren't enough Brokers.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return a new List with the ConnectionInfo of the actual Broker followed by those of the
+	 * 		followers, in the order in which they take over the Topic
+	 */
+	public List<ConnectionInfo> getReplicasForTopic(String topicName) {
+		final ConnectionInfo placedBroker = brokerPerPlacedTopic.get(topicName);
+		if (placedBroker == null) {
+			return ring.getNodes(topicName, replicationFactor + 1);
+		}
+
+		// the placed broker may be among the brokers that follow the Topic on the ring
+		final List<ConnectionInfo> replicas = new ArrayList<>(replicationFactor + 1);
+		replicas.add(placedBroker);
+		for (final ConnectionInfo broker : ring.getNodes(topicName, replicationFactor + 2)) {
+			if ((replicas.size() <= replicationFactor) && !broker.equals(placedBroker)) {
+				replicas.add(broker);
+			}
+		}
+		return replicas;
+	}
+
+	/**
+	 * Finds the Broker of a Topic if a Broker weren't part of this RoutingTable, which is the
+	 * Broker that had the Topic before that Broker joined the server. A Topic placed on that
+	 * Broker had another Broker only if it was moved to that Broker when it joined.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param broker the ConnectionInfo of the Broker
+	 *
+	 * @return the ConnectionInfo of the other Broker, or {@code null} if there is no other Broker
+	 */
+	public ConnectionInfo getBrokerForTopicWithout(String topicName, ConnectionInfo broker) {
+		final ConnectionInfo placedBroker = brokerPerPlacedTopic.get(topicName);
+		if (placedBroker != null) {
+			return placedBroker.equals(broker) ? previousBrokerPerMovedTopic.get(topicName)
+					: placedBroker;
+		}
+
+		return ring.getNodeWithout(topicName, broker);
+	}
+
+	/**
+	 * Returns the name of a Broker from which the positions of its virtual nodes are derived.
+	 *
+	 * @param broker the ConnectionInfo of the Broker
+	 *
+	 * @return the name of the Broker
+	 */
+	public static String nameOf(ConnectionInfo broker) {
+		return broker.getAddress().getHostAddress() + ':' + broker.getPort();
+	}
+
+	private static HashRing<ConnectionInfo> newRing(Map<ConnectionInfo, Integer> weightPerBroker,
+			int virtualNodesPerWeight, Partitioner partitioner) {
+		return new HashRing<>(weightPerBroker, virtualNodesPerWeight, RoutingTable::nameOf,
+				partitioner);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		ring = RoutingTable.newRing(weightPerBroker, virtualNodesPerWeight, partitioner);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RoutingTable [version=%d, weightPerBroker=%s, partitioner=%s, "
+		                     + "replicationFactor=%d, placedTopics=%d]", version, weightPerBroker,
+				partitioner, replicationFactor, brokerPerPlacedTopic.size());
+	}
+
+	/**
+	 * The Topics that a RoutingTable which only places Topics places and removes from the
+	 * placement directory, which is all that the Brokers and clients with the previous version
+	 * need in order to have that RoutingTable as well.
+	 *
+	 * @author Alex Mandelias
+	 */
+	public static final class PlacementDelta implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long version;
+		private final Map<String, ConnectionInfo> placedTopics;
+		private final Set<String> unplacedTopics;
+
+		private PlacementDelta(long version, Map<String, ConnectionInfo> placedTopics,
+				Set<String> unplacedTopics) {
+			this.version = version;
+			this.placedTopics = placedTopics;
+			this.unplacedTopics = unplacedTopics;
+		}
+
+		/**
+		 * Returns the version of the RoutingTable that this PlacementDelta produces.
+		 *
+		 * @return the version
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("PlacementDelta [version=%d, placedTopics=%s, unplacedTopics=%s]",
+					version, placedTopics, unplacedTopics);
+		}
+	}
+}
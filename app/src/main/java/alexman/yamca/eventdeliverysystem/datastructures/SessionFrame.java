@@ -0,0 +1,140 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.io.Serializable;
+
+/**
+ * A unit of communication in a subscription session, which is a single connection between a
+ * Consumer and a Broker over which the Consumer listens for many Topics. Each frame is tagged with
+ * the name of the Topic it refers to, so that the data of different Topics can share the session.
+ * <p>
+ * Brokers use the same frames to stream the Posts of Topics to each other, when a Topic is handed
+ * over to another Broker and when it is copied to its followers.
+ *
+ * @author Alex Mandelias
+ */
+public final class SessionFrame implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Kind kind;
+	private final String topicName;
+	private final Serializable value;
+
+	/**
+	 * Constructs a SessionFrame with no value.
+	 *
+	 * @param kind the kind of the frame
+	 * @param topicName the name of the Topic the frame refers to
+	 */
+	public SessionFrame(Kind kind, String topicName) {
+		this(kind, topicName, null);
+	}
+
+	/**
+	 * Constructs a SessionFrame.
+	 *
+	 * @param kind the kind of the frame
+	 * @param topicName the name of the Topic the frame refers to
+	 * @param value the value of the frame, as specified by its kind
+	 */
+	public SessionFrame(Kind kind, String topicName, Serializable value) {
+		this.kind = kind;
+		this.topicName = topicName;
+		this.value = value;
+	}
+
+	/**
+	 * Returns this SessionFrame's kind.
+	 *
+	 * @return the kind
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Returns the name of the Topic this SessionFrame refers to.
+	 *
+	 * @return the name of the Topic
+	 */
+	public String getTopicName() {
+		return topicName;
+	}
+
+	/**
+	 * Returns this SessionFrame's value.
+	 *
+	 * @return the value
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SessionFrame [kind=%s, topicName=%s, value=%s]", kind, topicName,
+				value);
+	}
+
+	/**
+	 * Specifies the purpose of a SessionFrame, thereby indirectly indicating the type of its
+	 * value.
+	 *
+	 * @author Alex Mandelias
+	 */
+	public enum Kind {
+
+		/**
+		 * Sent by the Consumer to start listening for a Topic. The value is the Topic's
+		 * TopicToken
+		 */
+		SUBSCRIBE,
+
+		/** Sent by the Consumer to stop listening for a Topic. There is no value */
+		UNSUBSCRIBE,
+
+		/**
+		 * Sent by the Broker once the Consumer listens for a Topic, before any of its data. There
+		 * is no value
+		 */
+		SUBSCRIBED,
+
+		/** Sent by the Broker if the Consumer can't listen for a Topic. There is no value */
+		SUBSCRIPTION_FAILED,
+
+		/**
+		 * Sent by the Broker once the Consumer no longer listens for a Topic, after all of its
+		 * data. There is no value
+		 */
+		UNSUBSCRIBED,
+
+		/**
+		 * Sent by the Broker when a Topic the Consumer listens for is deleted. There is no value
+		 */
+		TOPIC_DELETED,
+
+		/**
+		 * Sent by the Broker when a Topic the Consumer listens for is taken over by another
+		 * Broker, or when a follower of the Topic falls too far behind its actual Broker, after
+		 * all of its data. The value is the ConnectionInfo of the Broker on which the Consumer
+		 * listens for the Topic from now on
+		 */
+		TOPIC_MOVED,
+
+		/** Sent by the Broker for each object of a Topic. The value is a PostInfo or a Packet */
+		DATA,
+
+		/**
+		 * Sent by a follower of a Topic, in batches, once it has stored some of the Posts streamed
+		 * to it. The value is the ID of the last Post that it has stored along with every Post
+		 * before it
+		 */
+		ACKNOWLEDGED,
+
+		/**
+		 * Sent by the actual Broker of a Topic to a follower when the follower falls out of sync
+		 * or gets back in sync. The value is how far behind the follower is, in milliseconds
+		 */
+		REPLICATION_LAG,
+	}
+}
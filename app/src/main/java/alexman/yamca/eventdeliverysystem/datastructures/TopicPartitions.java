@@ -0,0 +1,150 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The partitions of a Topic that is split among many Brokers. Each partition is a Topic of its
+ * own, which is placed on a Broker independently of the others, and each Post of the Topic is
+ * posted to a single partition, chosen by the key of the Post. Since the key of a Post is the
+ * name of its poster, the Posts of each poster are received in the order in which they were
+ * posted, while the Posts of different posters are received in any order.
+ * <p>
+ * The name of each partition is the name of the Topic followed by a separator and the index of
+ * the partition, which is why the names of Topics can't contain the separator.
+ * <p>
+ * The Topic itself holds a single Post that marks it as partitioned, whose data is the number of
+ * its partitions. That Post is its first Post, so that it is stored, copied and moved along with
+ * the Topic like any other Post.
+ *
+ * @author Alex Mandelias
+ */
+public final class TopicPartitions implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final char SEPARATOR = '#';
+	private static final String POSTER_NAME = "server";
+
+	private final String topicName;
+	private final int partitionCount;
+
+	/**
+	 * Constructs the partitions of a Topic.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param partitionCount the number of partitions of the Topic
+	 *
+	 * @throws IllegalArgumentException if {@code partitionCount} is not positive or if a Topic
+	 * 		can't have that name
+	 */
+	public TopicPartitions(String topicName, int partitionCount) {
+		if (partitionCount <= 0) {
+			throw new IllegalArgumentException("partitionCount must be positive");
+		}
+
+		TopicPartitions.checkTopicName(topicName);
+
+		this.topicName = topicName;
+		this.partitionCount = partitionCount;
+	}
+
+	/**
+	 * Checks that a Topic can have a name, which it can unless the name could be mistaken for the
+	 * name of a partition of another Topic.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @throws IllegalArgumentException if a Topic can't have that name
+	 */
+	public static void checkTopicName(String topicName) {
+		if (topicName.indexOf(TopicPartitions.SEPARATOR) != -1) {
+			throw new IllegalArgumentException(String.format(
+					"Topic name %s can't contain '%c'", topicName, TopicPartitions.SEPARATOR));
+		}
+	}
+
+	/**
+	 * Returns the partitions of a Topic, given the PostInfo of its first Post.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param firstPostInfo the PostInfo of the first Post of the Topic, or {@code null} if the
+	 * 		Topic has no Posts
+	 *
+	 * @return the partitions of the Topic, or {@code null} if the Topic isn't partitioned
+	 */
+	public static TopicPartitions fromPostInfo(String topicName, PostInfo firstPostInfo) {
+		if ((firstPostInfo == null)
+		    || !PostInfo.PARTITIONS_EXTENSION.equals(firstPostInfo.getFileExtension())) {
+			return null;
+		}
+
+		return new TopicPartitions(topicName, Integer.parseInt(firstPostInfo.getPreview()));
+	}
+
+	/**
+	 * Returns the name of the Topic.
+	 *
+	 * @return the name
+	 */
+	public String getTopicName() {
+		return topicName;
+	}
+
+	/**
+	 * Returns the number of partitions of the Topic.
+	 *
+	 * @return the number of partitions
+	 */
+	public int getPartitionCount() {
+		return partitionCount;
+	}
+
+	/**
+	 * Returns the names of the partitions of the Topic.
+	 *
+	 * @return a new List with the names, sorted by the index of the partition
+	 */
+	public List<String> getPartitionNames() {
+		final List<String> partitionNames = new ArrayList<>(partitionCount);
+		for (int i = 0; i < partitionCount; i++) {
+			partitionNames.add(topicName + TopicPartitions.SEPARATOR + i);
+		}
+		return partitionNames;
+	}
+
+	/**
+	 * Returns the name of the partition to which a Post of the Topic is posted.
+	 *
+	 * @param postInfo the PostInfo of the Post
+	 *
+	 * @return the name of the partition
+	 */
+	public String getPartitionName(PostInfo postInfo) {
+		final long hash = Partitioner.DEFAULT.hash(postInfo.getPosterName());
+		final long partition = Long.remainderUnsigned(hash, partitionCount);
+		return topicName + TopicPartitions.SEPARATOR + partition;
+	}
+
+	/**
+	 * Creates the Post that marks the Topic as partitioned.
+	 *
+	 * @return the Post
+	 */
+	public Post toPost() {
+		final String count = Integer.toString(partitionCount);
+		final byte[] data = count.getBytes(StandardCharsets.UTF_8);
+		return new Post(data, new PostInfo(TopicPartitions.POSTER_NAME,
+				PostInfo.PARTITIONS_EXTENSION, ThreadLocalRandom.current().nextLong(),
+				data.length, PostInfo.createPreview(PostInfo.PARTITIONS_EXTENSION, data)));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TopicPartitions [topicName=%s, partitionCount=%d]", topicName,
+				partitionCount);
+	}
+}
@@ -3,6 +3,7 @@ package alexman.yamca.eventdeliverysystem.filesystem;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -19,6 +20,7 @@ import java.util.stream.Stream;
 
 import alexman.yamca.eventdeliverysystem.dao.ITopicDAO;
 import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.Packet;
 import alexman.yamca.eventdeliverysystem.datastructures.Post;
 import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
 
@@ -97,6 +99,22 @@ public final class TopicFileSystem implements ITopicDAO {
 		updateHeadForPost(fileForPost, topicName);
 	}
 
+	@Override
+	public Packet[] readPost(PostInfo postInfo, String topicName, long offset, long length)
+			throws FileSystemException {
+		final String fileName = TopicFileSystem.getFileNameFromPostInfo(postInfo);
+		final Path pathForPost = TopicFileSystem.resolve(resolveRoot(topicName), fileName);
+
+		final long size = TopicFileSystem.size(pathForPost);
+		if (offset > size) {
+			throw new IllegalArgumentException(
+					String.format("Offset %d is past the end of Post %d", offset, postInfo.getId()));
+		}
+
+		final long lengthInFile = Math.min(length, size - offset);
+		return Packet.fromFile(pathForPost, postInfo.getId(), offset, lengthInFile);
+	}
+
 	@Override
 	public Collection<AbstractTopic> readAllTopics() throws FileSystemException {
 		final Set<AbstractTopic> topics = new HashSet<>();
@@ -128,8 +146,12 @@ public final class TopicFileSystem implements ITopicDAO {
 
 		TopicFileSystem.create(pathForPost);
 
-		final byte[] data = post.getData();
-		TopicFileSystem.write(pathForPost, data);
+		try (OutputStream out = Files.newOutputStream(pathForPost)) {
+			post.writeDataTo(out);
+		} catch (IOException e) {
+			throw new FileSystemException("An IO error occurred when writing to a File", e,
+					pathForPost);
+		}
 
 		return pathForPost;
 	}
@@ -172,20 +194,29 @@ public final class TopicFileSystem implements ITopicDAO {
 	}
 
 	private AbstractTopic readTopic(String topicName) throws FileSystemException {
-		final List<Post> loadedPosts = new LinkedList<>();
+		final List<Path> postFiles = new LinkedList<>();
 
 		final Path latestPost = getFirstPost(topicName); // from latest to earliest
 		for (Path postFile = latestPost; postFile != null;
 				postFile = getNextFile(postFile, topicName)) {
-			final String filename = postFile.getFileName().toString();
-			final PostInfo postInfo = TopicFileSystem.getPostInfoFromFileName(filename);
-			final Post loadedPost = TopicFileSystem.readPost(postInfo, postFile);
-			loadedPosts.add(loadedPost);
+			postFiles.add(postFile);
 		}
 
-		Collections.reverse(loadedPosts); // from earliest to latest
+		Collections.reverse(postFiles); // from earliest to latest
+
+		// the Packets refer to the files so that the data is only read when it is needed
+		final AbstractTopic topic = AbstractTopic.createSimple(topicName, Collections.emptyList());
+		for (Path postFile : postFiles) {
+			final PostInfo postInfo = TopicFileSystem.readPostInfo(postFile);
+			topic.post(postInfo);
+
+			final long size = postInfo.getSize();
+			for (Packet packet : Packet.fromFile(postFile, postInfo.getId(), 0, size)) {
+				topic.post(packet);
+			}
+		}
 
-		return AbstractTopic.createSimple(topicName, loadedPosts);
+		return topic;
 	}
 
 	// returns null if topic has no posts
@@ -218,9 +249,18 @@ public final class TopicFileSystem implements ITopicDAO {
 		return TopicFileSystem.resolve(topicDirectory, fileName);
 	}
 
-	private static Post readPost(PostInfo postInfo, Path postFile) throws FileSystemException {
-		final byte[] data = TopicFileSystem.read(postFile);
-		return new Post(data, postInfo);
+	private static PostInfo readPostInfo(Path postFile) throws FileSystemException {
+		final String fileName = postFile.getFileName().toString();
+		final PostInfo postInfo = TopicFileSystem.getPostInfoFromFileName(fileName);
+		final String fileExtension = postInfo.getFileExtension();
+
+		// only text Posts have a preview so there is no need to read any other data
+		final String preview = PostInfo.hasPreview(fileExtension)
+				? PostInfo.createPreview(fileExtension, TopicFileSystem.read(postFile))
+				: null;
+
+		return new PostInfo(postInfo.getPosterName(), fileExtension, postInfo.getId(),
+				TopicFileSystem.size(postFile), preview);
 	}
 
 	// ==================== READ/WRITE ====================
@@ -243,6 +283,15 @@ public final class TopicFileSystem implements ITopicDAO {
 		}
 	}
 
+	private static long size(Path path) throws FileSystemException {
+		try {
+			return Files.size(path);
+		} catch (IOException e) {
+			throw new FileSystemException("An IO error occurred when reading from a File", e,
+					path);
+		}
+	}
+
 	private static void write(Path pointerToNextPost, byte[] data) throws FileSystemException {
 		try {
 			Files.write(pointerToNextPost, data);
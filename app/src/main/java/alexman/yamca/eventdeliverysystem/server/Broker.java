@@ -1,34 +1,78 @@
 package alexman.yamca.eventdeliverysystem.server;
 
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 import alexman.yamca.eventdeliverysystem.dao.ITopicDAO;
-import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
 import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic.TopicToken;
+import alexman.yamca.eventdeliverysystem.datastructures.BrokerLoad;
 import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.ControlRequest;
+import alexman.yamca.eventdeliverysystem.datastructures.ControlResponse;
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
 import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
 import alexman.yamca.eventdeliverysystem.datastructures.Packet;
+import alexman.yamca.eventdeliverysystem.datastructures.Partitioner;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
 import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.PostRequest;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable.PlacementDelta;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame.Kind;
 import alexman.yamca.eventdeliverysystem.datastructures.Subscriber;
+import alexman.yamca.eventdeliverysystem.datastructures.TopicPartitions;
 import alexman.yamca.eventdeliverysystem.thread.PullThread;
 import alexman.yamca.eventdeliverysystem.thread.PushThread;
 import alexman.yamca.eventdeliverysystem.thread.PushThread.Protocol;
+import alexman.yamca.eventdeliverysystem.thread.RequestChannel;
+import alexman.yamca.eventdeliverysystem.thread.SyncMode;
 import alexman.yamca.eventdeliverysystem.util.LG;
 
 /**
  * A remote component that forms the backbone of the EventDeliverySystem. Brokers act as part of a
  * distributed server that services Publishers and Consumers.
+ * <p>
+ * The other brokers and the leader exchange heartbeats, and a broker that stops sending them is
+ * considered to have failed and is removed from the routing table, the version of which is the
+ * version of the membership of the server. A broker that finds itself removed stops serving. If
+ * the leader stops sending them, the broker that follows it in the routing table takes over as
+ * the leader and removes it, and the other brokers join that broker instead.
+ * <p>
+ * The heartbeats of the other brokers carry their load, and the leader places each new Topic on
+ * the least loaded broker and records it in the placement directory of the routing table.
  *
  * @author Alex Mandelias
  * @author Dimitris Tsirmpas
@@ -37,13 +81,62 @@ public final class Broker implements Runnable, AutoCloseable {
 
 	private static final int BACKLOG = 50;
 
+	// the number of Posts a follower stores before acknowledging them, unless it runs out of data
+	private static final int ACKNOWLEDGEMENT_BATCH_SIZE = 64;
+
+	// the number of Threads that save the Posts of every Topic of a broker
+	private static final int TOPIC_WRITER_COUNT = 4;
+
 	private final BrokerTopicManager btm;
 
-	// no need to synchronise because these practically immutable after startup
-	// since no new broker can be constructed after startup
+	// the Threads on which the TopicWriters save the Posts, so that saving a Post doesn't hold up
+	// the notifications of its Topic
+	private final ExecutorService topicWriters = Broker.newTopicWriterPool();
+
+	// the Threads on which new Topics are created, or their requests forwarded, once they have
+	// been placed, so that neither runs on the Thread that reads the responses of the leader
+	private final ExecutorService placedTopicHandlers = Broker.newPlacedTopicHandlerPool();
+
+	// the connections to the other brokers, which are closed along with this broker. guarded by
+	// itself, since brokers join and leave while the server is running.
 	private final List<Socket> brokerConnections = new LinkedList<>();
-	private final List<ConnectionInfo> brokerCI = new LinkedList<>();
 
+	// replaced, along with notifying the watchers, while holding the lock of the watchers
+	private volatile RoutingTable routingTable;
+	private final List<Consumer<RoutingTable>> routingTableWatchers = new LinkedList<>();
+
+	// the streams over which the leader sends every new routing table and its heartbeats to the
+	// other brokers, and the streams over which the other brokers receive them and report their
+	// load to the leader. a broker that doesn't read them in time is dropped.
+	private final PeerStreams peers = new PeerStreams(HeartbeatThread.FAILURE_TIMEOUT_MILLIS);
+	private volatile Socket leaderConnection = null;
+	private volatile ObjectInputStream leaderStream = null;
+	private volatile PeerStreams loadReportStream = null;
+	private volatile HeartbeatThread heartbeatThread = null;
+
+	// the brokers that have joined this broker while it is the leader, guarded by itself
+	private final Set<ConnectionInfo> joinedBrokers = new HashSet<>();
+
+	// the bytes of Posts received and sent since the load of this broker was last measured
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final BrokerLoads loads;
+	private final TopicPlacer placer;
+
+	// the Topics being handed over to and taken over from other brokers and the copies of the
+	// Topics of other brokers that this broker keeps
+	private final TopicOwnership ownership;
+
+	// the Threads that stream the Topics of this broker to their followers
+	private final Map<ConnectionInfo, ReplicationThread> replicationThreadPerFollower =
+			new HashMap<>();
+
+	// the channels over which the requests that clients send to this broker for the Topics of
+	// other brokers are forwarded to them, guarded by itself
+	private final Map<ConnectionInfo, RequestChannel> forwardingChannelPerBroker =
+			new HashMap<>();
+
+	private final ConnectionInfo ownCI;
 	private final ServerSocket clientRequestSocket;
 	private final ServerSocket brokerRequestSocket;
 
@@ -62,8 +155,69 @@ public final class Broker implements Runnable, AutoCloseable {
 	 */
 	public Broker(ITopicDAO postDao, ServerSocket clientRequestSocket,
 			ServerSocket brokerRequestSocket) throws IOException {
+		this(postDao, clientRequestSocket, brokerRequestSocket, RoutingTable.DEFAULT_WEIGHT,
+				RoutingTable.DEFAULT_VIRTUAL_NODES_PER_WEIGHT, Partitioner.DEFAULT);
+	}
+
+	/**
+	 * Create a new leader broker with a weight, which determines the share of the Topics this
+	 * broker is responsible for. This is necessarily the first step to initialize the server
+	 * network.
+	 *
+	 * @param postDao the ITopicDAO object responsible for this Broker's Posts.
+	 * @param clientRequestSocket the unbound ServerSocket that will listen for incoming requests
+	 * 		from Clients
+	 * @param brokerRequestSocket the unbound ServerSocket that will listen for incoming requests
+	 * 		from Brokers
+	 * @param weight the weight of this broker, relative to the weight of the other brokers
+	 * @param virtualNodesPerWeight the number of virtual nodes each broker has per unit of its
+	 * 		weight in the hash ring that places Topics on brokers
+	 * @param partitioner the hash function of the hash ring. Servers whose Topics were placed
+	 * 		with {@link Partitioner#MD5} must keep using it until their Topics are migrated.
+	 *
+	 * @throws IOException if the server could not be started
+	 * @throws IllegalArgumentException if the weight or the number of virtual nodes is not
+	 * 		positive
+	 * @see ITopicDAO
+	 * @see RoutingTable
+	 */
+	public Broker(ITopicDAO postDao, ServerSocket clientRequestSocket,
+			ServerSocket brokerRequestSocket, int weight, int virtualNodesPerWeight,
+			Partitioner partitioner) throws IOException {
+		this(postDao, clientRequestSocket, brokerRequestSocket, weight, virtualNodesPerWeight,
+				partitioner, RoutingTable.DEFAULT_REPLICATION_FACTOR);
+	}
+
+	/**
+	 * Create a new leader broker of a server on which each Topic is copied to a number of other
+	 * brokers, its followers. The followers store every Post of the Topic as it is uploaded, and
+	 * the first one takes over the Topic if the broker of the Topic fails. This is necessarily
+	 * the first step to initialize the server network.
+	 *
+	 * @param postDao the ITopicDAO object responsible for this Broker's Posts.
+	 * @param clientRequestSocket the unbound ServerSocket that will listen for incoming requests
+	 * 		from Clients
+	 * @param brokerRequestSocket the unbound ServerSocket that will listen for incoming requests
+	 * 		from Brokers
+	 * @param weight the weight of this broker, relative to the weight of the other brokers
+	 * @param virtualNodesPerWeight the number of virtual nodes each broker has per unit of its
+	 * 		weight in the hash ring that places Topics on brokers
+	 * @param partitioner the hash function of the hash ring. Servers whose Topics were placed
+	 * 		with {@link Partitioner#MD5} must keep using it until their Topics are migrated.
+	 * @param replicationFactor the number of followers of each Topic
+	 *
+	 * @throws IOException if the server could not be started
+	 * @throws IllegalArgumentException if the weight or the number of virtual nodes is not
+	 * 		positive or if the replication factor is negative
+	 * @see ITopicDAO
+	 * @see RoutingTable
+	 */
+	public Broker(ITopicDAO postDao, ServerSocket clientRequestSocket,
+			ServerSocket brokerRequestSocket, int weight, int virtualNodesPerWeight,
+			Partitioner partitioner, int replicationFactor) throws IOException {
 		btm = new BrokerTopicManager(postDao);
 		btm.forEach(brokerTopic -> brokerTopic.subscribe(new BrokerTopicSubscriber(brokerTopic)));
+		ownership = new TopicOwnership(btm);
 
 		this.clientRequestSocket = clientRequestSocket;
 		this.brokerRequestSocket = brokerRequestSocket;
@@ -71,6 +225,12 @@ public final class Broker implements Runnable, AutoCloseable {
 		this.clientRequestSocket.bind(new InetSocketAddress((InetAddress) null, 0), Broker.BACKLOG);
 		this.brokerRequestSocket.bind(new InetSocketAddress((InetAddress) null, 0), Broker.BACKLOG);
 
+		ownCI = ConnectionInfo.forServerSocket(clientRequestSocket);
+		loads = new BrokerLoads(ownCI, btm, bytesIn, bytesOut);
+		placer = new TopicPlacer(loads, this::replaceRoutingTable, () -> routingTable);
+		routingTable = new RoutingTable(0, Collections.singletonMap(ownCI, weight),
+				virtualNodesPerWeight, partitioner, replicationFactor);
+
 		LG.sout("Broker connected at:");
 		LG.sout("Server IP   - %s", InetAddress.getLocalHost().getHostAddress());
 		LG.socket("Client", clientRequestSocket);
@@ -94,14 +254,38 @@ public final class Broker implements Runnable, AutoCloseable {
 	 */
 	public Broker(ITopicDAO postDao, ServerSocket clientRequestSocket,
 			ServerSocket brokerRequestSocket, String leaderIP, int leaderPort) throws IOException {
-		this(postDao, clientRequestSocket, brokerRequestSocket);
+		this(postDao, clientRequestSocket, brokerRequestSocket, leaderIP, leaderPort,
+				RoutingTable.DEFAULT_WEIGHT);
+	}
 
-		@SuppressWarnings({ "SocketOpenedButNotSafelyClosed", "resource" })
-		final Socket leaderConnection = new Socket(leaderIP, leaderPort); // closes at Broker#close
-		final ObjectOutputStream oos = new ObjectOutputStream(leaderConnection.getOutputStream());
+	/**
+	 * Create a non-leader broker with a weight, which determines the share of the Topics this
+	 * broker is responsible for, and connect it to the server network.
+	 *
+	 * @param postDao the ITopicDAO object responsible for this Broker's Posts.
+	 * @param clientRequestSocket the unbound ServerSocket that will listen for incoming requests
+	 * 		from Clients
+	 * @param brokerRequestSocket the unbound ServerSocket that will listen for incoming requests
+	 * 		from Brokers
+	 * @param leaderIP the IP of the leader broker
+	 * @param leaderPort the port of the leader broker
+	 * @param weight the weight of this broker, relative to the weight of the other brokers
+	 *
+	 * @throws IOException if this server could not be started or the connection to the leader
+	 * 		broker could not be established.
+	 * @throws IllegalArgumentException if the weight is not positive
+	 * @see ITopicDAO
+	 * @see RoutingTable
+	 */
+	public Broker(ITopicDAO postDao, ServerSocket clientRequestSocket,
+			ServerSocket brokerRequestSocket, String leaderIP, int leaderPort, int weight)
+			throws IOException {
+		this(postDao, clientRequestSocket, brokerRequestSocket, weight,
+				RoutingTable.DEFAULT_VIRTUAL_NODES_PER_WEIGHT, Partitioner.DEFAULT);
 
-		oos.writeObject(ConnectionInfo.forServerSocket(clientRequestSocket));
-		brokerConnections.add(leaderConnection);
+		@SuppressWarnings({ "SocketOpenedButNotSafelyClosed", "resource" })
+		final Socket connection = new Socket(leaderIP, leaderPort); // closes at Broker#close
+		joinLeader(connection, weight);
 	}
 
 	/** Starts listening for new requests by clients and connection requests from other brokers */
@@ -139,23 +323,660 @@ public final class Broker implements Runnable, AutoCloseable {
 
 		clientRequestThread.start();
 		brokerRequestThread.start();
+		startLeaderThreads();
 
 		LG.sout("#Broker#run");
 	}
 
-	/** Closes all connections to this broker */
+	// starts the Thread that sends the heartbeats of this broker and, unless this broker is the
+	// leader, the Thread that receives the routing tables and the heartbeats of the leader
+	private void startLeaderThreads() {
+		if (isLeader()) {
+			heartbeatThread = new HeartbeatThread(loads, this::sendRoutingTableVersion, peers);
+			heartbeatThread.start();
+			return;
+		}
+
+		final HeartbeatThread heartbeat =
+				new HeartbeatThread(loads, loadReportStream, this::replaceLeader);
+		final ObjectInputStream stream = leaderStream;
+		heartbeatThread = heartbeat;
+		heartbeat.start();
+
+		Thread routingTableThread = new Thread(() -> {
+			LG.sout("RoutingTableThread#run()");
+			try {
+				while (true) {
+					final Object fromLeader = stream.readObject();
+					heartbeat.leaderHeard();
+
+					// the routing tables are sent in order, so a newer version than the current
+					// one only arrives if this broker has missed one, which it asks for instead
+					if (fromLeader instanceof Long) {
+						if ((Long) fromLeader > routingTable.getVersion()) {
+							fetchRoutingTable();
+						}
+						continue;
+					}
+
+					// a placement that doesn't follow the current routing table means that this
+					// broker has missed one as well
+					if (fromLeader instanceof PlacementDelta) {
+						final PlacementDelta delta = (PlacementDelta) fromLeader;
+						replaceRoutingTable(current -> current.withPlacementDelta(delta));
+						if (routingTable.getVersion() < delta.getVersion()) {
+							fetchRoutingTable();
+						}
+						continue;
+					}
+
+					if (!(fromLeader instanceof RoutingTable)) {
+						@SuppressWarnings("unchecked")
+						final Map<ConnectionInfo, BrokerLoad> loadPerBroker =
+								(Map<ConnectionInfo, BrokerLoad>) fromLeader;
+						loads.replaceAll(loadPerBroker);
+						continue;
+					}
+
+					final RoutingTable newRoutingTable = (RoutingTable) fromLeader;
+
+					// the leader has considered this broker failed, and its Topics have
+					// been taken over, so it stops serving them
+					if (!newRoutingTable.getWeightPerBroker().containsKey(ownCI)) {
+						LG.sout("Broker %s has been removed from the server", ownCI);
+						close();
+						break;
+					}
+
+					replaceRoutingTable(current -> newRoutingTable);
+				}
+			} catch (final IOException | ClassNotFoundException e) {
+				LG.exception(e);
+			}
+			LG.sout("#RoutingTableThread#run()");
+		}, "Routing Table Thread");
+
+		routingTableThread.start();
+	}
+
+	// joins the leader over a connection to it, and waits for the first routing table, so that the
+	// routing table with this broker is known before any client finds this broker in it. the
+	// leader then sends every routing table and its heartbeats, and this broker reports its load.
+	private void joinLeader(Socket connection, int weight) throws IOException {
+		final ObjectOutputStream oos;
+		final ObjectInputStream ois;
+		final RoutingTable firstRoutingTable;
+		try {
+			connection.setTcpNoDelay(true);
+			oos = new ObjectOutputStream(connection.getOutputStream());
+			oos.writeObject(ownCI);
+			oos.writeInt(weight);
+			oos.flush();
+
+			// the heartbeats that the leader sends before the routing table are skipped
+			ois = new ObjectInputStream(connection.getInputStream());
+			Object fromLeader;
+			do {
+				fromLeader = ois.readObject();
+			} while (!(fromLeader instanceof RoutingTable));
+			firstRoutingTable = (RoutingTable) fromLeader;
+		} catch (final ClassNotFoundException e) {
+			connection.close();
+			throw new IOException("Invalid routing table sent by the leader broker", e);
+		} catch (final IOException e) {
+			connection.close();
+			throw e;
+		}
+
+		synchronized (brokerConnections) {
+			brokerConnections.add(connection);
+		}
+
+		final PeerStreams reportStream = new PeerStreams(HeartbeatThread.FAILURE_TIMEOUT_MILLIS);
+		reportStream.add(connection, oos);
+		leaderConnection = connection;
+		leaderStream = ois;
+		loadReportStream = reportStream;
+
+		replaceRoutingTable(current -> firstRoutingTable);
+	}
+
+	// replaces the leader, which hasn't sent a heartbeat in time. the broker that follows it in
+	// the routing table takes over as the leader, and the other brokers join that broker. the
+	// order of the brokers is the same on every broker, so they all pick the same one.
+	private void replaceLeader() {
+		final RoutingTable current = routingTable;
+		final ConnectionInfo oldLeader = current.getLeader();
+		ConnectionInfo newLeader = null;
+		for (final ConnectionInfo broker : current.getWeightPerBroker().keySet()) {
+			if (!broker.equals(oldLeader)) {
+				newLeader = broker;
+				break;
+			}
+		}
+
+		LG.sout("The leader %s has failed, %s takes over", oldLeader, newLeader);
+
+		loadReportStream.close();
+		try {
+			leaderConnection.close();
+		} catch (final IOException e) {
+			LG.exception(e);
+		}
+		synchronized (brokerConnections) {
+			brokerConnections.remove(leaderConnection);
+		}
+
+		try {
+			if (ownCI.equals(newLeader)) {
+				takeOverAsLeader(oldLeader);
+			} else {
+				joinNewLeader(newLeader, current.getWeightPerBroker().get(ownCI));
+			}
+		} catch (final InterruptedException e) {
+			// the broker has been closed
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// removes the old leader from the routing table, and then removes the brokers that don't
+	// join this broker in time, since they have failed as well
+	private void takeOverAsLeader(ConnectionInfo oldLeader) throws InterruptedException {
+		loadReportStream = null;
+		leaderStream = null;
+		leaderConnection = null;
+
+		loads.remove(oldLeader);
+		replaceRoutingTable(current -> current.withoutBroker(oldLeader));
+		startLeaderThreads();
+
+		Thread.sleep(HeartbeatThread.FAILURE_TIMEOUT_MILLIS);
+		synchronized (joinedBrokers) {
+			for (final ConnectionInfo broker : routingTable.getWeightPerBroker().keySet()) {
+				if (!broker.equals(ownCI) && !joinedBrokers.contains(broker)) {
+					LG.sout("Broker %s hasn't joined the new leader", broker);
+					loads.remove(broker);
+					replaceRoutingTable(current -> current.withoutBroker(broker));
+				}
+			}
+		}
+	}
+
+	// joins the broker that takes over as the leader, which refuses other brokers until it has
+	// taken over. the port on which it accepts them is asked for over its control channel.
+	private void joinNewLeader(ConnectionInfo newLeader, int weight)
+			throws InterruptedException {
+		final long startMillis = System.currentTimeMillis();
+		while (!clientRequestSocket.isClosed()) {
+			try {
+				final int brokerPort = (Integer) getForwardingChannel(newLeader)
+						.send(new Message(MessageType.BROKER_PORT_DISCOVERY, null))
+						.get()
+						.getValue();
+
+				@SuppressWarnings({ "SocketOpenedButNotSafelyClosed", "resource" })
+				final Socket connection = new Socket(newLeader.getAddress(), brokerPort);
+				joinLeader(connection, weight);
+				startLeaderThreads();
+				return;
+			} catch (final IOException | ExecutionException e) {
+				if ((System.currentTimeMillis() - startMillis)
+				    > HeartbeatThread.FAILURE_TIMEOUT_MILLIS) {
+					LG.err("Broker %s couldn't join the new leader %s", ownCI, newLeader);
+					close();
+					return;
+				}
+			}
+
+			Thread.sleep(HeartbeatThread.HEARTBEAT_INTERVAL_MILLIS);
+		}
+	}
+
+	// asks the leader for the current routing table
+	private void fetchRoutingTable() {
+		try {
+			final RoutingTable current = (RoutingTable) getForwardingChannel(
+					routingTable.getLeader())
+					.send(new Message(MessageType.ROUTING_TABLE_DISCOVERY, RoutingTable.NO_VERSION))
+					.get()
+					.getValue();
+			replaceRoutingTable(ignored -> current);
+		} catch (final ExecutionException e) {
+			LG.exception(e);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// sends the version of the routing table as the heartbeat of the leader while holding the
+	// lock of the watchers, so that it never arrives before the routing table itself
+	private void sendRoutingTableVersion() {
+		synchronized (routingTableWatchers) {
+			peers.send(routingTable.getVersion());
+		}
+	}
+
+	/** Closes all connections to this broker and stops accepting new ones */
 	@Override
 	public void close() {
 		LG.sout("Broker#close()");
+		peers.close();
+		final PeerStreams reportStream = loadReportStream;
+		if (reportStream != null) {
+			reportStream.close();
+		}
+
+		final HeartbeatThread heartbeat = heartbeatThread;
+		if (heartbeat != null) {
+			heartbeat.interrupt();
+		}
+
+		topicWriters.shutdown();
+		placedTopicHandlers.shutdown();
+
 		try {
 			btm.close();
 
-			for (final Socket brokerSocket : brokerConnections) {
-				brokerSocket.close();
+			synchronized (brokerConnections) {
+				for (final Socket brokerSocket : brokerConnections) {
+					brokerSocket.close();
+				}
 			}
+
+			clientRequestSocket.close();
+			brokerRequestSocket.close();
 		} catch (final IOException e) {
 			LG.exception(e);
 		}
+
+		final List<ReplicationThread> threads;
+		synchronized (replicationThreadPerFollower) {
+			threads = new ArrayList<>(replicationThreadPerFollower.values());
+		}
+
+		for (final ReplicationThread thread : threads) {
+			thread.close();
+		}
+
+		synchronized (forwardingChannelPerBroker) {
+			for (final RequestChannel channel : forwardingChannelPerBroker.values()) {
+				channel.close();
+			}
+			forwardingChannelPerBroker.clear();
+		}
+	}
+
+	private static ExecutorService newTopicWriterPool() {
+		final AtomicInteger nextWriterId = new AtomicInteger();
+		return Executors.newFixedThreadPool(Broker.TOPIC_WRITER_COUNT, work -> {
+			final Thread writer = new Thread(work, "TopicWriter-" + nextWriterId.getAndIncrement());
+			writer.setDaemon(true);
+			return writer;
+		});
+	}
+
+	private static ExecutorService newPlacedTopicHandlerPool() {
+		final AtomicInteger nextHandlerId = new AtomicInteger();
+		return Executors.newCachedThreadPool(work -> {
+			final Thread handler =
+					new Thread(work, "PlacedTopicHandler-" + nextHandlerId.getAndIncrement());
+			handler.setDaemon(true);
+			return handler;
+		});
+	}
+
+	// returns what is sent to a broker or client with a version of the routing table so that it
+	// has a newer one: only the placement changes if it has the previous version, since the
+	// placement directory grows with every Topic, and the whole routing table otherwise
+	private static Serializable routingTableUpdate(RoutingTable newRoutingTable,
+			long knownVersion) {
+		final PlacementDelta delta = (newRoutingTable.getVersion() == (knownVersion + 1))
+				? newRoutingTable.getPlacementDelta()
+				: null;
+		return (delta != null) ? delta : newRoutingTable;
+	}
+
+	// adds a broker to the routing table and sends it every routing table from now on
+	private void addBroker(ConnectionInfo broker, int weight, Socket brokerConnection,
+			ObjectOutputStream brokerStream) {
+		synchronized (joinedBrokers) {
+			joinedBrokers.add(broker);
+		}
+		peers.add(brokerConnection, brokerStream);
+		replaceRoutingTable(current -> current.withBroker(broker, weight));
+	}
+
+	// removes a broker whose connection to the leader has ended, or which has failed to send a
+	// heartbeat in time, from the routing table, so that its Topics are taken over by their
+	// first follower. the broker is sent that routing table, in case it is still running.
+	private void removeBroker(ConnectionInfo broker, ObjectOutputStream brokerStream) {
+		LG.sout("Broker %s left", broker);
+		synchronized (joinedBrokers) {
+			joinedBrokers.remove(broker);
+		}
+		loads.remove(broker);
+		replaceRoutingTable(current -> current.withoutBroker(broker));
+		try {
+			peers.remove(brokerStream);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// only the other brokers report their load to the leader
+	private boolean isLeader() {
+		return loadReportStream == null;
+	}
+
+	// returns the least loaded of the brokers that have a Topic, preferring its actual broker,
+	// and counts the Consumer towards the load of that broker until its load is updated
+	private ConnectionInfo getBrokerForConsumer(String topicName) {
+		return loads.assignConsumer(routingTable.getReplicasForTopic(topicName));
+	}
+
+	// asks the leader to place a new Topic, or places it if this broker is the leader, and
+	// returns the routing table in which the Topic is placed. only the leader places Topics, so
+	// that a Topic is never placed on two brokers.
+	private CompletableFuture<RoutingTable> requestPlacement(String topicName) {
+		if (isLeader()) {
+			return placer.place(topicName);
+		}
+
+		return getForwardingChannel(routingTable.getLeader())
+				.send(new Message(MessageType.PLACE_TOPIC, topicName))
+				.thenApply(response -> (RoutingTable) response.getValue());
+	}
+
+	// removes a deleted Topic from the placement directory, which only the leader changes
+	private void unplaceTopic(String topicName) {
+		final CompletableFuture<?> unplaced = isLeader() ? placer.unplace(topicName)
+				: getForwardingChannel(routingTable.getLeader())
+						.send(new Message(MessageType.UNPLACE_TOPIC, topicName));
+
+		unplaced.whenComplete((value, cause) -> {
+			if (cause != null) {
+				LG.exception(cause);
+			}
+		});
+	}
+
+	// replaces the routing table, unless the new one is outdated, publishes it to the clients
+	// that watch for it and to the other brokers, hands over the Topics that changed broker and
+	// updates the copies of the Topics that this broker keeps and that it streams to others. a
+	// routing table that only places Topics and follows the current one affects only them.
+	private void replaceRoutingTable(UnaryOperator<RoutingTable> nextRoutingTable) {
+		final List<Consumer<RoutingTable>> watchers;
+		final RoutingTable oldRoutingTable;
+		final RoutingTable newRoutingTable;
+
+		synchronized (routingTableWatchers) {
+			oldRoutingTable = routingTable;
+			newRoutingTable = nextRoutingTable.apply(oldRoutingTable);
+			if (newRoutingTable.getVersion() <= oldRoutingTable.getVersion()) {
+				return;
+			}
+			routingTable = newRoutingTable;
+
+			watchers = new ArrayList<>(routingTableWatchers);
+			routingTableWatchers.clear();
+
+			// the brokers learn about the routing table first, since clients act on it at once.
+			// it is sent while holding the lock, so that the brokers receive every routing table
+			// in order, which doesn't wait for any broker, and therefore always have the
+			// previous version.
+			peers.send(Broker.routingTableUpdate(newRoutingTable, oldRoutingTable.getVersion()));
+		}
+
+		LG.sout("routingTable=%s", newRoutingTable);
+
+		for (final Consumer<RoutingTable> watcher : watchers) {
+			watcher.accept(newRoutingTable);
+		}
+
+		final Set<String> changedTopics =
+				(newRoutingTable.getVersion() == (oldRoutingTable.getVersion() + 1))
+						? newRoutingTable.getPlacementChanges()
+						: null;
+
+		if (changedTopics == null) {
+			closeForwardingChannels(newRoutingTable);
+			updateReplicas(newRoutingTable, null);
+			migrateTopics(newRoutingTable, btm.getTopicNames());
+			replicateTopics();
+			return;
+		}
+
+		updateReplicas(newRoutingTable, changedTopics);
+		migrateTopics(newRoutingTable, changedTopics);
+
+		// the followers change only for the Topics of this broker
+		for (final String topicName : changedTopics) {
+			if (btm.topicExists(topicName)) {
+				replicateTopics();
+				break;
+			}
+		}
+	}
+
+	// returns the channel over which requests are forwarded to another broker
+	private RequestChannel getForwardingChannel(ConnectionInfo broker) {
+		synchronized (forwardingChannelPerBroker) {
+			RequestChannel channel = forwardingChannelPerBroker.get(broker);
+			if (channel == null) {
+				channel = new RequestChannel(broker.getAddress(), broker.getPort(), ownCI,
+						RequestChannel.DEFAULT_TIMEOUT_MILLIS);
+				forwardingChannelPerBroker.put(broker, channel);
+			}
+			return channel;
+		}
+	}
+
+	// closes the channels to the brokers that are no longer part of the routing table
+	private void closeForwardingChannels(RoutingTable newRoutingTable) {
+		synchronized (forwardingChannelPerBroker) {
+			final Iterator<Map.Entry<ConnectionInfo, RequestChannel>> it =
+					forwardingChannelPerBroker.entrySet().iterator();
+			while (it.hasNext()) {
+				final Map.Entry<ConnectionInfo, RequestChannel> entry = it.next();
+				if (!newRoutingTable.getWeightPerBroker().containsKey(entry.getKey())) {
+					entry.getValue().close();
+					it.remove();
+				}
+			}
+		}
+	}
+
+	// takes over the Topics of which this broker keeps a copy and which the routing table now
+	// places on it, and drops the copies of the Topics of which it is no longer a follower, whose
+	// Consumers are sent to the broker of the Topic. only the Topics given are checked, unless
+	// none are given.
+	private void updateReplicas(RoutingTable newRoutingTable, Collection<String> topicNames) {
+		final List<String> promotedTopics = new LinkedList<>();
+		final List<String> droppedTopics = new LinkedList<>();
+
+		ownership.updateReplicas(newRoutingTable, topicNames, ownCI, promotedTopics,
+				droppedTopics);
+
+		for (final String topicName : promotedTopics) {
+			LG.sout("Taking over Topic %s", topicName);
+			try {
+				btm.getTopic(topicName).discardIncompletePosts();
+			} catch (final NoSuchElementException e) {
+				// the copy has been dropped in the meantime
+			} finally {
+				ownership.endTakeOver(topicName);
+			}
+		}
+
+		for (final String topicName : droppedTopics) {
+			LG.sout("Dropping copy of Topic %s", topicName);
+			try {
+				btm.removeTopic(topicName);
+			} catch (final IOException e) {
+				LG.exception(e);
+			} catch (final NoSuchElementException e) {
+				// the copy has been dropped in the meantime
+			}
+		}
+	}
+
+	// hands over each of the Topics given that this broker has and that the routing table places
+	// on another broker. a Topic being taken over is handed over once all of its Posts have been
+	// received.
+	private void migrateTopics(RoutingTable newRoutingTable, Collection<String> topicNames) {
+		for (final String topicName : topicNames) {
+			final ConnectionInfo newBroker = newRoutingTable.getBrokerForTopic(topicName);
+			if (newBroker.equals(ownCI) || !btm.topicExists(topicName)) {
+				continue;
+			}
+
+			if (ownership.beginMigration(topicName)) {
+				new TopicMigrationThread(topicName, newBroker, ownCI, () -> routingTable, btm,
+						ownership, bytesOut).start();
+			}
+		}
+	}
+
+	// streams each Topic of this broker to the followers that the routing table assigns to it,
+	// and stops streaming it to the brokers that are no longer its followers
+	private void replicateTopics() {
+		final RoutingTable currentRoutingTable = routingTable;
+		final Map<ConnectionInfo, Set<String>> topicsPerFollower = new HashMap<>();
+		for (final String topicName : btm.getTopicNames()) {
+			if (!isOwnTopic(topicName, currentRoutingTable)) {
+				continue;
+			}
+
+			final List<ConnectionInfo> replicas =
+					currentRoutingTable.getReplicasForTopic(topicName);
+			for (final ConnectionInfo follower : replicas.subList(1, replicas.size())) {
+				topicsPerFollower.computeIfAbsent(follower, key -> new HashSet<>()).add(topicName);
+			}
+		}
+
+		synchronized (replicationThreadPerFollower) {
+			final Iterator<Map.Entry<ConnectionInfo, ReplicationThread>> it =
+					replicationThreadPerFollower.entrySet().iterator();
+			while (it.hasNext()) {
+				final Map.Entry<ConnectionInfo, ReplicationThread> e = it.next();
+				if (!topicsPerFollower.containsKey(e.getKey())) {
+					e.getValue().replicate(Collections.emptySet());
+					it.remove();
+				}
+			}
+
+			for (final Map.Entry<ConnectionInfo, Set<String>> e : topicsPerFollower.entrySet()) {
+				final ReplicationThread thread = replicationThreadPerFollower.get(e.getKey());
+				if ((thread == null) || !thread.replicate(e.getValue())) {
+					final ReplicationThread newThread = new ReplicationThread(e.getKey(), ownCI,
+							btm, bytesOut, this::removeReplicationThread);
+					replicationThreadPerFollower.put(e.getKey(), newThread);
+					newThread.replicate(e.getValue());
+					newThread.start();
+				}
+			}
+		}
+	}
+
+	// forgets a Thread whose stream to its follower has ended
+	private void removeReplicationThread(ReplicationThread thread) {
+		synchronized (replicationThreadPerFollower) {
+			replicationThreadPerFollower.remove(thread.getFollower(), thread);
+		}
+	}
+
+	// returns whether this broker is the broker of one of its Topics, rather than keeping a copy
+	// of it or handing it over to or taking it over from another broker
+	private boolean isOwnTopic(String topicName, RoutingTable currentRoutingTable) {
+		return ownership.isLocal(topicName)
+		       && currentRoutingTable.getBrokerForTopic(topicName).equals(ownCI);
+	}
+
+	// waits until the followers of a Topic that are in sync have stored its last Post, or until
+	// they fall out of sync
+	private void awaitReplication(String topicName) throws InterruptedException {
+		final List<ReplicationThread> threads;
+		synchronized (replicationThreadPerFollower) {
+			threads = new ArrayList<>(replicationThreadPerFollower.values());
+		}
+
+		final BrokerTopic topic;
+		try {
+			topic = btm.getTopic(topicName);
+		} catch (final NoSuchElementException e) {
+			return;
+		}
+
+		final long postId = topic.getLastPostId();
+		final long deadlineMillis = System.currentTimeMillis()
+		                            + ReplicationThread.MAX_REPLICATION_LAG_MILLIS;
+		for (final ReplicationThread thread : threads) {
+			thread.awaitAcknowledgement(topic, postId, deadlineMillis);
+		}
+	}
+
+	// records how far behind the copy of a Topic streamed by a broker is, as measured by that
+	// broker, and sends the Consumers of the copy to that broker if the copy is too far behind
+	private void updateReplicationLag(String topicName, ConnectionInfo owner, long lagMillis) {
+		LG.sout("Copy of Topic %s is %d ms behind", topicName, lagMillis);
+		if (!ownership.setReplicationLag(topicName, owner, lagMillis)) {
+			return;
+		}
+
+		if (lagMillis > ReplicationThread.MAX_REPLICATION_LAG_MILLIS) {
+			try {
+				btm.closeConsumers(topicName);
+			} catch (final IOException e) {
+				LG.exception(e);
+			} catch (final NoSuchElementException e) {
+				// the copy has been dropped in the meantime
+			}
+		}
+	}
+
+	// returns the broker to which to redirect an upload for a Topic that this broker doesn't
+	// accept, which is either the broker that took it over, the broker of a Topic of which this
+	// broker keeps a copy or, if it hasn't been handed over to this broker yet, the broker that
+	// has it. Returns null if the Topic doesn't exist.
+	private ConnectionInfo getBrokerForUpload(String topicName) {
+		final ConnectionInfo newBroker = ownership.getNewBroker(topicName);
+		if (newBroker != null) {
+			return newBroker;
+		}
+
+		final RoutingTable currentRoutingTable = routingTable;
+		if (ownership.isReplica(topicName)) {
+			return currentRoutingTable.getBrokerForTopic(topicName);
+		}
+
+		if (btm.topicExists(topicName)
+		    || !currentRoutingTable.getBrokerForTopic(topicName).equals(ownCI)) {
+			return null;
+		}
+
+		return currentRoutingTable.getBrokerForTopicWithout(topicName, ownCI);
+	}
+
+	// posts a PostInfo or a Packet streamed by another broker to a Topic, unless the Topic
+	// already has it, and returns whether it was posted
+	private static boolean postIfAbsent(BrokerTopic topic, Object object) {
+		return object instanceof PostInfo
+		       ? topic.postIfAbsent((PostInfo) object)
+		       : topic.postIfAbsent((Packet) object);
+	}
+
+	// releases the references to the Packets obtained from a BrokerTopic once they are pushed,
+	// and returns the number of bytes pushed
+	private static long releasePackets(List<PostInfo> piList, LongObjectMap<Packet[]> packetMap) {
+		long byteCount = 0;
+		for (final PostInfo postInfo : piList) {
+			final Packet[] packets = packetMap.get(postInfo.getId());
+			for (final Packet packet : packets) {
+				byteCount += packet.getLength();
+			}
+			Packet.releaseAll(packets);
+		}
+		return byteCount;
 	}
 
 	// ========== THREADS ==========
@@ -176,6 +997,9 @@ public final class Broker implements Runnable, AutoCloseable {
 			LG.in();
 
 			try {
+				// every message is flushed whole, so don't hold back the small ones until the
+				// previous ones have been acknowledged
+				socket.setTcpNoDelay(true);
 				final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
 				oos.flush();
 				final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
@@ -191,46 +1015,83 @@ public final class Broker implements Runnable, AutoCloseable {
 					LG.sout(start, message.getType(), topicName);
 					LG.in();
 
-					boolean success = topicExists(topicName);
+					boolean success = ownership.beginUpload(topicName);
 					LG.sout("success=%s", success);
 					oos.writeBoolean(success);
 					oos.flush();
 
 					if (success) {
-						new PullThread(ois, getTopic(topicName)).run();
+						try {
+							new PullThread(ois, getTopic(topicName)).run();
+						} finally {
+							ownership.endUpload(topicName);
+						}
 					}
 
 					socket.close();
 					break;
 				}
 
-				case INITIALISE_CONSUMER: {
-					final TopicToken topicToken = (TopicToken) message.getValue();
-					topicName = topicToken.getName();
+				case INITIALISE_DATA_CHANNEL: {
+					topicName = "";
 					LG.sout(start, message.getType(), topicName);
 					LG.in();
 
-					final boolean success = registerConsumer(topicName, socket);
-					LG.sout("success=%s", success);
-					oos.writeBoolean(success);
+					oos.writeBoolean(true);
 					oos.flush();
 
-					if (success) {
-						// send existing topics that the consumer does not have
-						final long idOfLast = topicToken.getLastId();
-						LG.sout("idOfLast=%d", idOfLast);
-
-						final List<PostInfo> piList = new LinkedList<>();
-						final Map<Long, Packet[]> packetMap = new HashMap<>();
-						getPostsFromTopicSince(topicName, idOfLast, piList, packetMap);
+					try {
+						serveDataChannel(ois, oos);
+					} finally {
+						socket.close();
+					}
 
-						LG.sout("piList=%s", piList);
-						LG.sout("packetMap=%s", packetMap);
-						new PushThread(oos, piList, packetMap, Protocol.KEEP_ALIVE).run();
+					break;
+				}
+
+				case INITIALISE_SESSION: {
+					final SyncMode syncMode = (SyncMode) message.getValue();
+					topicName = syncMode.name();
+					LG.sout(start, message.getType(), topicName);
+					LG.in();
 
-						new BrokerPushThread(getTopic(topicName), oos).start();
+					oos.writeBoolean(true);
+					oos.flush();
+
+					final BrokerPushThread pushThread =
+							new BrokerPushThread(oos, syncMode, socket.toString(), bytesOut);
+					pushThread.start();
+
+					try {
+						serveSession(ois, pushThread);
+					} finally {
+						pushThread.interrupt();
+						socket.close();
+					}
+
+					break;
+				}
+
+				case FETCH_POST: {
+					final PostRequest postRequest = (PostRequest) message.getValue();
+					topicName = postRequest.getTopicName();
+					LG.sout(start, message.getType(), topicName);
+					LG.in();
+
+					final List<PostInfo> piList = new LinkedList<>();
+					final LongObjectMap<Packet[]> packetMap = new LongObjectMap<>();
+					final boolean success =
+							getPostRangeFromTopic(topicName, postRequest, piList, packetMap);
+					LG.sout("success=%s", success);
+					oos.writeBoolean(success);
+					oos.flush();
+
+					if (success) {
+						new PushThread(oos, piList, packetMap, Protocol.NORMAL).run();
+						bytesOut.add(Broker.releasePackets(piList, packetMap));
 					}
 
+					socket.close();
 					break;
 				}
 
@@ -248,20 +1109,42 @@ public final class Broker implements Runnable, AutoCloseable {
 					break;
 				}
 
+				case CONSUMER_DISCOVERY: {
+					topicName = (String) message.getValue();
+					LG.sout(start, message.getType(), topicName);
+
+					final ConnectionInfo brokerInfo = getBrokerForConsumer(topicName);
+					LG.sout("brokerInfo=%s", brokerInfo);
+
+					oos.writeObject(brokerInfo);
+					oos.flush();
+
+					socket.close();
+					break;
+				}
+
+				case ROUTING_TABLE_DISCOVERY: {
+					topicName = "";
+					LG.sout(start, message.getType(), topicName);
+
+					// on its own connection the current routing table is sent immediately
+					oos.writeObject(routingTable);
+					oos.flush();
+
+					socket.close();
+					break;
+				}
+
 				case CREATE_TOPIC: {
 					topicName = (String) message.getValue();
 					LG.sout(start, message.getType(), topicName);
 					LG.in();
 
-					final boolean success = !topicExists(topicName) && addTopic(topicName);
+					final boolean success = createTopic(topicName);
 					LG.sout("success=%s", success);
 					oos.writeBoolean(success);
 					oos.flush();
 
-					if (success) {
-						subscribeToTopic(topicName);
-					}
-
 					socket.close();
 					break;
 				}
@@ -271,7 +1154,7 @@ public final class Broker implements Runnable, AutoCloseable {
 					LG.sout(start, message.getType(), topicName);
 					LG.in();
 
-					final boolean success = topicExists(topicName) && removeTopic(topicName);
+					final boolean success = deleteTopic(topicName);
 					LG.sout("success=%s", success);
 					oos.writeBoolean(success);
 					oos.flush();
@@ -280,6 +1163,81 @@ public final class Broker implements Runnable, AutoCloseable {
 					break;
 				}
 
+				case LOAD_DISCOVERY: {
+					topicName = "";
+					LG.sout(start, message.getType(), topicName);
+
+					oos.writeObject(loads.getAll());
+					oos.flush();
+
+					socket.close();
+					break;
+				}
+
+				case INITIALISE_CONTROL_CHANNEL: {
+					topicName = "";
+					LG.sout(start, message.getType(), topicName);
+					LG.in();
+
+					oos.writeBoolean(true);
+					oos.flush();
+
+					try {
+						serveControlChannel(socket, ois, oos,
+								(ConnectionInfo) message.getValue());
+					} finally {
+						socket.close();
+					}
+
+					break;
+				}
+
+				case MIGRATE_TOPIC: {
+					topicName = (String) message.getValue();
+					LG.sout(start, message.getType(), topicName);
+					LG.in();
+
+					final boolean success = takeOverTopic(topicName);
+					LG.sout("success=%s", success);
+					oos.writeBoolean(success);
+					oos.flush();
+
+					try {
+						if (success) {
+							receiveMigratedTopic(topicName, ois, oos);
+						}
+					} finally {
+						if (success) {
+							ownership.endTakeOver(topicName);
+							migrateTopics(routingTable, btm.getTopicNames());
+							replicateTopics();
+						}
+						socket.close();
+					}
+
+					break;
+				}
+
+				case REPLICATE_TOPICS: {
+					final ConnectionInfo owner = (ConnectionInfo) message.getValue();
+					topicName = owner.toString();
+					LG.sout(start, message.getType(), topicName);
+					LG.in();
+
+					// the broker streams each Topic after the last Post that this broker has
+					oos.writeBoolean(true);
+					oos.writeObject(getLastPostIdPerReplicaTopic());
+					oos.flush();
+
+					try {
+						receiveReplicatedTopics(owner, ois, oos);
+					} finally {
+						socket.close();
+					}
+
+					break;
+				}
+
 				default: {
 					throw new IllegalArgumentException(
 							"You forgot to put a case for the new Message enum");
@@ -297,6 +1255,647 @@ public final class Broker implements Runnable, AutoCloseable {
 			LG.sout("Finishing ClientRequestHandler for Socket: %s", socket);
 		}
 
+		// reads the commands of a subscription session until the Consumer closes it
+		private void serveSession(ObjectInputStream ois, BrokerPushThread pushThread)
+				throws IOException, ClassNotFoundException {
+
+			// each one stops the session from listening for its Topic when the Topic is removed
+			final Map<String, Closeable> registrations = new HashMap<>();
+
+			try {
+				while (true) {
+					final SessionFrame frame;
+					try {
+						frame = (SessionFrame) ois.readObject();
+					} catch (final EOFException | SocketException e) {
+						// session closed by the consumer
+						return;
+					}
+
+					final String topicName = frame.getTopicName();
+					LG.sout("frame=%s", frame);
+
+					switch (frame.getKind()) {
+					case SUBSCRIBE: {
+						final TopicToken topicToken = (TopicToken) frame.getValue();
+						final Closeable registration = () -> {
+							final ConnectionInfo newBroker =
+									ownership.getBrokerForConsumers(topicName);
+							if (newBroker == null) {
+								pushThread.unsubscribe(topicName, Kind.TOPIC_DELETED);
+							} else {
+								pushThread.finish(topicName,
+										new SessionFrame(Kind.TOPIC_MOVED, topicName, newBroker));
+							}
+						};
+
+						if (registrations.containsKey(topicName)
+						    || !registerConsumer(topicName, registration)) {
+							pushThread.send(new SessionFrame(Kind.SUBSCRIPTION_FAILED, topicName));
+							break;
+						}
+
+						// checked once registered, so that the Consumer is sent to the broker of
+						// the Topic either now or once the copy falls behind
+						final ConnectionInfo owner = ownership.getBrokerForLaggingReplica(topicName,
+							ReplicationThread.MAX_REPLICATION_LAG_MILLIS);
+						if (owner != null) {
+							btm.unregisterConsumer(topicName, registration);
+							pushThread.send(new SessionFrame(Kind.TOPIC_MOVED, topicName, owner));
+							break;
+						}
+
+						try {
+							pushThread.subscribe(getTopic(topicName), topicToken.getLastId());
+							registrations.put(topicName, registration);
+						} catch (final NoSuchElementException e) {
+							btm.unregisterConsumer(topicName, registration);
+							pushThread.send(new SessionFrame(Kind.SUBSCRIPTION_FAILED, topicName));
+						}
+						break;
+					}
+
+					case UNSUBSCRIBE: {
+						final Closeable registration = registrations.remove(topicName);
+						if (registration != null) {
+							btm.unregisterConsumer(topicName, registration);
+						}
+
+						pushThread.unsubscribe(topicName, Kind.UNSUBSCRIBED);
+						break;
+					}
+
+					default: {
+						throw new IllegalArgumentException(
+								"Consumers can't send SessionFrames of kind " + frame.getKind());
+					}
+					}
+				}
+			} finally {
+				for (final Map.Entry<String, Closeable> e : registrations.entrySet()) {
+					btm.unregisterConsumer(e.getKey(), e.getValue());
+				}
+			}
+		}
+
+		// reads the Posts sent over a data channel, one request after the other, until the
+		// Publisher closes it or a request fails
+		private void serveDataChannel(ObjectInputStream ois, ObjectOutputStream oos)
+				throws IOException, ClassNotFoundException {
+
+			while (true) {
+				final Message message;
+				try {
+					message = (Message) ois.readObject();
+				} catch (final EOFException | SocketException e) {
+					// data channel closed by the publisher
+					return;
+				}
+
+				if (message.getType() != MessageType.DATA_PACKET_SEND) {
+					throw new IllegalArgumentException(String.format(
+							"Messages of type %s can't be sent over a data channel",
+							message.getType()));
+				}
+
+				final String topicName = (String) message.getValue();
+				LG.sout("%s '%s'", message.getType(), topicName);
+
+				final boolean success = ownership.beginUpload(topicName);
+				LG.sout("success=%s", success);
+				oos.writeBoolean(success);
+
+				// lets the Publisher know where to upload the Posts if the Topic is moving
+				if (!success) {
+					oos.writeObject(getBrokerForUpload(topicName));
+					oos.flush();
+					continue;
+				}
+
+				oos.flush();
+
+				final boolean[] completed = { false };
+				try {
+					new PullThread(ois, getTopic(topicName),
+							(callbackSuccess, callbackTopicName, callbackCause) -> completed[0] =
+									callbackSuccess && (callbackCause == null)).run();
+				} finally {
+					ownership.endUpload(topicName);
+				}
+
+				// the rest of the stream can't be read if some of the Posts weren't
+				if (!completed[0]) {
+					return;
+				}
+
+				// the followers that are in sync have the Posts as well once they are acknowledged
+				try {
+					awaitReplication(topicName);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+
+				// lets the Publisher know that the Posts arrived and the channel can be reused
+				oos.writeBoolean(true);
+				oos.flush();
+			}
+		}
+
+		// answers the requests of a control channel, in order, until the client closes it. requests
+		// for the routing table that the client already has are answered once it changes, and
+		// requests for the Topics of other brokers are forwarded to them, unless they have been
+		// forwarded by another broker, in which case they are never forwarded again. the
+		// responses are written by their own Thread, so that a client that doesn't read them
+		// never holds up the Thread that answers, such as the one that replaces the routing table,
+		// and is dropped instead.
+		private void serveControlChannel(Socket socket, ObjectInputStream ois,
+				ObjectOutputStream oos, ConnectionInfo forwardingBroker)
+				throws IOException, ClassNotFoundException {
+
+			final List<Consumer<RoutingTable>> watchers = new LinkedList<>();
+			final PeerStreams responses = new PeerStreams(HeartbeatThread.FAILURE_TIMEOUT_MILLIS);
+			responses.add(socket, oos);
+
+			try {
+				while (true) {
+					final ControlRequest request;
+					try {
+						request = (ControlRequest) ois.readObject();
+					} catch (final EOFException | SocketException e) {
+						// control channel closed by the client
+						return;
+					}
+
+					LG.sout("request=%s", request);
+
+					final Message message = request.getMessage();
+					final long requestId = request.getRequestId();
+					final Serializable response;
+
+					switch (message.getType()) {
+					case BROKER_DISCOVERY: {
+						response = getAssignedBroker((String) message.getValue());
+						break;
+					}
+
+					case CONSUMER_DISCOVERY: {
+						response = getBrokerForConsumer((String) message.getValue());
+						break;
+					}
+
+					case ROUTING_TABLE_DISCOVERY: {
+						final long knownVersion = (Long) message.getValue();
+						final Consumer<RoutingTable> watcher = newRoutingTable ->
+								writeControlResponse(responses, requestId,
+										Broker.routingTableUpdate(newRoutingTable, knownVersion));
+
+						synchronized (routingTableWatchers) {
+							if (routingTable.getVersion() > knownVersion) {
+								response = Broker.routingTableUpdate(routingTable, knownVersion);
+							} else {
+								routingTableWatchers.add(watcher);
+								watchers.add(watcher);
+								response = null;
+							}
+						}
+
+						if (response == null) {
+							continue;
+						}
+						break;
+					}
+
+					case CREATE_TOPIC: {
+						final String topicName = (String) message.getValue();
+						createPlacedTopic(responses, request, forwardingBroker, topicName,
+								() -> createTopic(topicName));
+						continue;
+					}
+
+					case DELETE_TOPIC: {
+						final String topicName = (String) message.getValue();
+						if (forwardRequest(responses, request, forwardingBroker, topicName)) {
+							continue;
+						}
+
+						response = deleteTopic(topicName);
+						break;
+					}
+
+					case CREATE_PARTITIONED_TOPIC: {
+						final TopicPartitions partitions = (TopicPartitions) message.getValue();
+						final String topicName = partitions.getTopicName();
+						createPlacedTopic(responses, request, forwardingBroker, topicName,
+								() -> createPartitionedTopic(partitions));
+						continue;
+					}
+
+					case PARTITION_DISCOVERY: {
+						final String topicName = (String) message.getValue();
+						if (forwardRequest(responses, request, forwardingBroker, topicName)) {
+							continue;
+						}
+
+						response = getPartitionCount(topicName);
+						break;
+					}
+
+					case PLACE_TOPIC: {
+						// the broker that asked gives up if the Topic can't be placed
+						placer.place((String) message.getValue()).thenAccept(newRoutingTable ->
+								writeControlResponse(responses, requestId, newRoutingTable));
+						continue;
+					}
+
+					case UNPLACE_TOPIC: {
+						unplaceTopic((String) message.getValue());
+						response = Boolean.TRUE;
+						break;
+					}
+
+					case LOAD_DISCOVERY: {
+						response = loads.getAll();
+						break;
+					}
+
+					case BROKER_PORT_DISCOVERY: {
+						response = brokerRequestSocket.getLocalPort();
+						break;
+					}
+
+					default: {
+						throw new IllegalArgumentException(String.format(
+								"Requests of type %s can't be sent over a control channel",
+								message.getType()));
+					}
+					}
+
+					writeControlResponse(responses, requestId, response);
+				}
+			} finally {
+				synchronized (routingTableWatchers) {
+					routingTableWatchers.removeAll(watchers);
+				}
+				responses.close();
+			}
+		}
+
+		// reads the Posts of a Topic streamed by the broker that hands it over, as in a
+		// subscription session, and acknowledges them once the broker has streamed all of them
+		private void receiveMigratedTopic(String topicName, ObjectInputStream ois,
+				ObjectOutputStream oos) throws IOException, ClassNotFoundException {
+
+			final BrokerTopic topic = getTopic(topicName);
+
+			while (true) {
+				final SessionFrame frame = (SessionFrame) ois.readObject();
+
+				switch (frame.getKind()) {
+				case SUBSCRIBED: {
+					break;
+				}
+
+				case DATA: {
+					// the PostInfo objects arrive in the order in which the Posts were posted,
+					// which is kept by adding each object to the Topic as soon as it arrives.
+					// a copy of the Topic that this broker kept already has some of them.
+					Broker.postIfAbsent(topic, frame.getValue());
+					break;
+				}
+
+				case UNSUBSCRIBED: {
+					// the Topic is only taken over once every Post streamed is complete, and a
+					// Post that isn't never will be, since the broker has stopped streaming
+					final boolean complete = !topic.hasIncompletePosts();
+					if (!complete) {
+						topic.discardIncompletePosts();
+					}
+
+					oos.writeBoolean(complete);
+					oos.flush();
+					return;
+				}
+
+				case TOPIC_DELETED: {
+					// the Topic was deleted before it was handed over
+					removeTopic(topicName);
+					return;
+				}
+
+				default: {
+					throw new IllegalArgumentException(
+							"Brokers can't migrate SessionFrames of kind " + frame.getKind());
+				}
+				}
+			}
+		}
+
+		// reads the Posts of the Topics that another broker streams to this one, its follower,
+		// and acknowledges the ones that have been stored in batches, without waiting for more
+		// to arrive, until the broker ends the stream
+		private void receiveReplicatedTopics(ConnectionInfo owner, ObjectInputStream ois,
+				ObjectOutputStream oos) throws IOException, ClassNotFoundException {
+
+			final InputStream socketStream = socket.getInputStream();
+			final Set<String> replicatedTopics = new HashSet<>();
+			final Set<String> topicsToAcknowledge = new HashSet<>();
+			int postsToAcknowledge = 0;
+
+			while (true) {
+				final SessionFrame frame;
+				try {
+					frame = (SessionFrame) ois.readObject();
+				} catch (final EOFException | SocketException e) {
+					// stream ended by the broker. the Consumers of the copies keep listening for
+					// them in case this broker takes them over, but no new ones are accepted.
+					ownership.clearReplicationLag(replicatedTopics, owner);
+					return;
+				}
+
+				final String topicName = frame.getTopicName();
+
+				switch (frame.getKind()) {
+				case SUBSCRIBED: {
+					// the broker counts this one in sync once it acknowledges the Posts it has
+					if (startReplica(topicName, owner)) {
+						replicatedTopics.add(topicName);
+						topicsToAcknowledge.add(topicName);
+					}
+					break;
+				}
+
+				case DATA: {
+					// the Posts are no longer stored once another broker has the Topic
+					if (!replicatedTopics.contains(topicName)
+					    || !ownership.beginReplicaUpload(topicName, owner)) {
+						if (frame.getValue() instanceof Packet) {
+							((Packet) frame.getValue()).release();
+						}
+						break;
+					}
+
+					try {
+						final boolean posted = Broker.postIfAbsent(getTopic(topicName),
+								frame.getValue());
+						if (posted && (frame.getValue() instanceof Packet)
+						    && ((Packet) frame.getValue()).isFinal()) {
+							topicsToAcknowledge.add(topicName);
+							postsToAcknowledge++;
+						}
+					} finally {
+						ownership.endUpload(topicName);
+					}
+					break;
+				}
+
+				case REPLICATION_LAG: {
+					if (replicatedTopics.contains(topicName)) {
+						updateReplicationLag(topicName, owner, (Long) frame.getValue());
+					}
+					break;
+				}
+
+				case UNSUBSCRIBED: {
+					// whether to keep the copy depends on the routing table, and until then
+					// Consumers listen for the Topic on its broker
+					if (replicatedTopics.remove(topicName)) {
+						ownership.clearReplicationLag(Collections.singleton(topicName), owner);
+					}
+					break;
+				}
+
+				case TOPIC_DELETED: {
+					if (replicatedTopics.remove(topicName)
+					    && ownership.removeReplica(topicName, owner)) {
+						removeTopic(topicName);
+					}
+					break;
+				}
+
+				default: {
+					throw new IllegalArgumentException(
+							"Brokers can't replicate SessionFrames of kind " + frame.getKind());
+				}
+				}
+
+				if (topicsToAcknowledge.isEmpty()
+				    || ((postsToAcknowledge < Broker.ACKNOWLEDGEMENT_BATCH_SIZE)
+				        && (socketStream.available() > 0))) {
+					continue;
+				}
+
+				for (final String topicToAcknowledge : topicsToAcknowledge) {
+					try {
+						final long lastPostId = getTopic(topicToAcknowledge)
+								.getLastPostIdWithoutGaps();
+						oos.writeObject(new SessionFrame(Kind.ACKNOWLEDGED, topicToAcknowledge,
+								lastPostId));
+					} catch (final NoSuchElementException e) {
+						// the copy has been dropped in the meantime
+					}
+				}
+
+				oos.flush();
+				oos.reset();
+				topicsToAcknowledge.clear();
+				postsToAcknowledge = 0;
+			}
+		}
+
+		// returns whether this broker keeps a copy of a Topic streamed by its broker, whose
+		// incomplete Posts are dropped since they are streamed again
+		private boolean startReplica(String topicName, ConnectionInfo owner) {
+			try {
+				// the Topic has to be handed over before this broker keeps a copy of it, which is
+				// in sync once the broker says so
+				if (!ownership.beginReplica(topicName, owner,
+						() -> routingTable.getBrokerForTopic(topicName).equals(ownCI))) {
+					return false;
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+
+			if (!topicExists(topicName) && !createTopic(topicName)) {
+				ownership.removeReplica(topicName, owner);
+				return false;
+			}
+
+			LG.sout("Keeping copy of Topic %s of broker %s", topicName, owner);
+			getTopic(topicName).discardIncompletePosts();
+			return true;
+		}
+
+		// returns the ID of the last Post without gaps of each Topic of which this broker keeps
+		// a copy, after which the Posts of the Topic are streamed
+		private HashMap<String, Long> getLastPostIdPerReplicaTopic() {
+			final HashMap<String, Long> lastPostIdPerTopic = new HashMap<>();
+			for (final String topicName : ownership.getReplicaTopics()) {
+				try {
+					lastPostIdPerTopic.put(topicName,
+							getTopic(topicName).getLastPostIdWithoutGaps());
+				} catch (final NoSuchElementException e) {
+					// the copy has been dropped in the meantime
+				}
+			}
+			return lastPostIdPerTopic;
+		}
+
+		// creates a Topic on the broker on which it is placed. a Topic that isn't placed is first
+		// sent to the broker on which the ring places it, which may have it from before it was
+		// placed, and is otherwise placed by the leader and forwarded to the broker on which it is
+		// placed, even if it has been forwarded already. that broker may not know the placement
+		// yet, in which case it asks the leader again, so that it never hands the Topic over to
+		// the broker on which an older routing table places it.
+		private void createPlacedTopic(PeerStreams responses, ControlRequest request,
+				ConnectionInfo forwardingBroker, String topicName, Supplier<Boolean> create) {
+			final long requestId = request.getRequestId();
+			if (forwardRequest(responses, request, forwardingBroker, topicName)) {
+				return;
+			}
+
+			if (routingTable.isPlaced(topicName) || topicExists(topicName)) {
+				writeControlResponse(responses, requestId, create.get());
+				return;
+			}
+
+			requestPlacement(topicName).whenCompleteAsync((newRoutingTable, cause) -> {
+				if (cause != null) {
+					LG.exception(cause);
+					writeControlResponse(responses, requestId, Boolean.FALSE);
+					return;
+				}
+
+				replaceRoutingTable(current -> newRoutingTable);
+
+				final ConnectionInfo placedBroker = newRoutingTable.getBrokerForTopic(topicName);
+				if (placedBroker.equals(ownCI)) {
+					writeControlResponse(responses, requestId, create.get());
+				} else {
+					forwardRequestTo(responses, request, placedBroker);
+				}
+			}, placedTopicHandlers);
+		}
+
+		// forwards a request for a Topic of another broker, unless it has already been forwarded,
+		// and sends its response back along with that broker once it arrives, so that the client
+		// sends its next requests for the Topic directly to it. if the other broker can't be
+		// reached, the request fails.
+		private boolean forwardRequest(PeerStreams responses, ControlRequest request,
+				ConnectionInfo forwardingBroker, String topicName) {
+			final ConnectionInfo actualBroker = routingTable.getBrokerForTopic(topicName);
+			if ((forwardingBroker != null) || actualBroker.equals(ownCI)) {
+				return false;
+			}
+
+			forwardRequestTo(responses, request, actualBroker);
+			return true;
+		}
+
+		private void forwardRequestTo(PeerStreams responses, ControlRequest request,
+				ConnectionInfo actualBroker) {
+			final Message message = request.getMessage();
+			LG.sout("Forwarding request %d to %s", request.getRequestId(), actualBroker);
+
+			getForwardingChannel(actualBroker).send(message).whenComplete((response, cause) -> {
+				if (cause != null) {
+					LG.exception(cause);
+				}
+
+				writeControlResponse(responses, request.getRequestId(),
+						(cause == null) ? (Serializable) response.getValue() : Boolean.FALSE,
+						actualBroker);
+			});
+		}
+
+		private void writeControlResponse(PeerStreams responses, long requestId,
+				Serializable response) {
+			writeControlResponse(responses, requestId, response, null);
+		}
+
+		// queues a response to be written by the Thread of the control channel
+		private void writeControlResponse(PeerStreams responses, long requestId,
+				Serializable response, ConnectionInfo actualBroker) {
+			LG.sout("response=%s", response);
+			responses.send(new ControlResponse(requestId, response, actualBroker));
+		}
+
+		private boolean createTopic(String topicName) {
+			final boolean success = !topicExists(topicName) && addTopic(topicName);
+			if (success) {
+				subscribeToTopic(topicName);
+				replicateTopics();
+			}
+			return success;
+		}
+
+		// the Topic may already exist if clients with the new routing table have created it.
+		// endTakeOver must be called once the Posts of the Topic have been received.
+		private boolean takeOverTopic(String topicName) {
+			// the copy of the Topic is kept and only the Posts that it doesn't have are stored
+			if (ownership.beginTakeOver(topicName)) {
+				try {
+					ownership.awaitUploads(topicName);
+					getTopic(topicName).discardIncompletePosts();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					ownership.endTakeOver(topicName);
+					return false;
+				} catch (final NoSuchElementException e) {
+					// the copy has been dropped in the meantime
+				}
+			}
+
+			final boolean success = topicExists(topicName) || createTopic(topicName);
+			if (!success) {
+				ownership.endTakeOver(topicName);
+			}
+			return success;
+		}
+
+		// creates a Topic whose first Post marks it as partitioned. its partitions are created by
+		// the client beforehand, since each of them may be placed on a different broker.
+		private boolean createPartitionedTopic(TopicPartitions partitions) {
+			final String topicName = partitions.getTopicName();
+			if (!createTopic(topicName)) {
+				return false;
+			}
+
+			final Post post = partitions.toPost();
+			getTopic(topicName).post(post.getPostInfo(), Packet.fromPost(post));
+			return true;
+		}
+
+		// returns the number of partitions of a Topic, 0 if it doesn't exist or isn't partitioned
+		private int getPartitionCount(String topicName) {
+			final TopicPartitions partitions;
+			try {
+				partitions = TopicPartitions.fromPostInfo(topicName,
+						getTopic(topicName).getFirstPostInfo());
+			} catch (final NoSuchElementException e) {
+				return 0;
+			}
+
+			return partitions == null ? 0 : partitions.getPartitionCount();
+		}
+
+		private boolean deleteTopic(String topicName) {
+			if (ownership.isReplica(topicName)) {
+				return false;
+			}
+
+			final boolean success = topicExists(topicName) && removeTopic(topicName);
+			if (success) {
+				replicateTopics();
+				if (routingTable.isPlaced(topicName)) {
+					unplaceTopic(topicName);
+				}
+			}
+			return success;
+		}
+
 		private boolean topicExists(String topicName) {
 			return btm.topicExists(topicName);
 		}
@@ -327,18 +1926,30 @@ public final class Broker implements Runnable, AutoCloseable {
 			return false;
 		}
 
-		private boolean registerConsumer(String topicName, Socket consumerSocket) {
+		private boolean registerConsumer(String topicName, Closeable consumer) {
 			try {
-				btm.registerConsumer(topicName, consumerSocket);
+				btm.registerConsumer(topicName, consumer);
 				return true;
 			} catch (NoSuchElementException e) {
 				return false;
 			}
 		}
 
-		private void getPostsFromTopicSince(String topicName, long idOfLast, List<PostInfo> piList,
-				Map<? super Long, Packet[]> packetMap) {
-			btm.getPostsFromTopicSince(topicName, idOfLast, piList, packetMap);
+		private boolean getPostRangeFromTopic(String topicName, PostRequest postRequest,
+				List<PostInfo> piList, LongObjectMap<Packet[]> packetMap) {
+			final long length = postRequest.getLength() == PostRequest.TO_END
+			                     ? Long.MAX_VALUE
+			                     : postRequest.getLength();
+			try {
+				return btm.getPostRangeFromTopic(topicName, postRequest.getPostId(),
+						postRequest.getOffset(), length, piList, packetMap);
+			} catch (IOException e) {
+				LG.exception(e);
+			} catch (NoSuchElementException | IllegalArgumentException e) {
+				// do nothing specific to these exceptions
+				// the request is simply invalid
+			}
+			return false;
 		}
 
 		private void subscribeToTopic(String topicName) {
@@ -348,19 +1959,9 @@ public final class Broker implements Runnable, AutoCloseable {
 		}
 
 		private ConnectionInfo getAssignedBroker(String topicName) {
-			final int brokerCount = brokerCI.size();
-
-			final int hash = AbstractTopic.hashForTopic(topicName);
-			final int brokerIndex = Math.abs(hash % (brokerCount + 1));
-
-			// last index (out of range normally) => this broker is responsible for the topic. this
-			// works because the default broker is the only broker that processes such requests.
-			if (brokerIndex == brokerCount) {
-				return ConnectionInfo.forServerSocket(clientRequestSocket);
-			}
-
-			// else send the broker from the other connections
-			return brokerCI.get(brokerIndex);
+			// any broker can process such requests, since the leader sends every routing table
+			// to all of them
+			return routingTable.getBrokerForTopic(topicName);
 		}
 	}
 
@@ -378,31 +1979,73 @@ public final class Broker implements Runnable, AutoCloseable {
 
 			LG.sout("Starting BrokerRequestHandler for Socket: %s", socket);
 
+			ConnectionInfo brokerCIForClient = null;
+			ObjectOutputStream oos = null;
 			try {
+				socket.setTcpNoDelay(true);
 				final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
-				final ConnectionInfo brokerCIForClient = (ConnectionInfo) ois.readObject();
+				brokerCIForClient = (ConnectionInfo) ois.readObject();
+				final int weight = ois.readInt();
 
-				brokerConnections.add(socket);
+				LG.sout("brokerCIForClient=%s, weight=%d", brokerCIForClient, weight);
 
-				LG.sout("brokerCIForClient=%s", brokerCIForClient);
-				brokerCI.add(brokerCIForClient);
-			} catch (ClassNotFoundException | IOException e) {
-				LG.exception(e);
-				try {
+				// a broker that is about to take over from the leader refuses the other brokers
+				// until it has, and they try again
+				if (!isLeader()) {
+					LG.sout("Broker %s refused, since this broker isn't the leader",
+							brokerCIForClient);
 					socket.close();
-				} catch (IOException e1) {
-					LG.exception(e1);
+					return;
 				}
+
+				oos = new ObjectOutputStream(socket.getOutputStream());
+				oos.flush();
+
+				synchronized (brokerConnections) {
+					brokerConnections.add(socket);
+				}
+
+				addBroker(brokerCIForClient, weight, socket, oos);
+
+				// the broker only sends heartbeats with its load, and its connection ends with it
+				socket.setSoTimeout((int) HeartbeatThread.FAILURE_TIMEOUT_MILLIS);
+				try {
+					while (true) {
+						final BrokerLoad load = (BrokerLoad) ois.readObject();
+						loads.report(brokerCIForClient, load);
+					}
+				} catch (final SocketTimeoutException e) {
+					LG.sout("Broker %s hasn't sent a heartbeat for %d ms", brokerCIForClient,
+							HeartbeatThread.FAILURE_TIMEOUT_MILLIS);
+				} catch (final EOFException | SocketException e) {
+					// connection ended by the broker
+				}
+			} catch (ClassNotFoundException | IOException e) {
+				LG.exception(e);
+			}
+
+			if (brokerCIForClient != null) {
+				removeBroker(brokerCIForClient, oos);
+			}
+
+			synchronized (brokerConnections) {
+				brokerConnections.remove(socket);
+			}
+
+			try {
+				socket.close();
+			} catch (IOException e1) {
+				LG.exception(e1);
 			}
 		}
 	}
 
 	private final class BrokerTopicSubscriber implements Subscriber {
 
-		private final BrokerTopic brokerTopic;
+		private final TopicWriter writer;
 
 		private BrokerTopicSubscriber(BrokerTopic brokerTopic) {
-			this.brokerTopic = brokerTopic;
+			writer = new TopicWriter(brokerTopic, topicWriters, Broker.this::close);
 		}
 
 		@Override
@@ -412,12 +2055,9 @@ public final class Broker implements Runnable, AutoCloseable {
 
 		@Override
 		public void notify(Packet packet, String topicName) {
+			bytesIn.add(packet.getLength());
 			if (packet.isFinal()) {
-				try {
-					brokerTopic.savePostToTFS(packet.getPostId());
-				} catch (IOException e) {
-					close();
-				}
+				writer.save(packet.getPostId());
 			}
 		}
 	}
@@ -0,0 +1,164 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import alexman.yamca.eventdeliverysystem.datastructures.BrokerLoad;
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+
+/**
+ * The load of every Broker of the server as known to one of them. The other Brokers report their
+ * load to the leader with their heartbeats, and the leader sends the load of every Broker to the
+ * other Brokers with its own, so that any Broker can send Consumers to the least loaded Broker and
+ * the leader can place new Topics on it.
+ * <p>
+ * Each Broker measures its own load, whose traffic is the one since it was last measured. The
+ * Consumers and the Topics sent to a Broker are counted towards its load until its load is
+ * reported again.
+ *
+ * @author Alex Mandelias
+ */
+final class BrokerLoads {
+
+	private final ConnectionInfo ownCI;
+	private final BrokerTopicManager btm;
+
+	// the bytes of Posts received and sent since the load was last measured, the time of which
+	// only the Thread that measures it accesses
+	private final LongAdder bytesIn;
+	private final LongAdder bytesOut;
+	private long measuredAtMillis = System.currentTimeMillis();
+
+	// the number of Consumers of each Broker, which is known exactly for this Broker, and the
+	// load of each Broker, both guarded by the lock of this object
+	private final Map<ConnectionInfo, Integer> consumerCountPerBroker = new HashMap<>();
+	private final Map<ConnectionInfo, BrokerLoad> loadPerBroker = new HashMap<>();
+
+	/**
+	 * Constructs the BrokerLoads of a Broker, which knows no load until it measures its own or is
+	 * sent the others.
+	 *
+	 * @param ownCI the ConnectionInfo of the Broker
+	 * @param btm the manager of the Topics of the Broker
+	 * @param bytesIn the counter of the bytes of Posts that the Broker receives
+	 * @param bytesOut the counter of the bytes of Posts that the Broker sends
+	 */
+	BrokerLoads(ConnectionInfo ownCI, BrokerTopicManager btm, LongAdder bytesIn,
+			LongAdder bytesOut) {
+		this.ownCI = ownCI;
+		this.btm = btm;
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+	}
+
+	/**
+	 * Measures the load of this Broker, whose traffic is the one since it was last measured, and
+	 * keeps it. Only one Thread may call this method.
+	 *
+	 * @return the load of this Broker
+	 */
+	BrokerLoad measureOwnLoad() {
+		final long now = System.currentTimeMillis();
+		final long elapsedMillis = Math.max(1L, now - measuredAtMillis);
+		measuredAtMillis = now;
+
+		final Runtime runtime = Runtime.getRuntime();
+		final BrokerLoad ownLoad = new BrokerLoad(btm.getTopicNames().size(),
+				btm.getConsumerCount(), (bytesIn.sumThenReset() * 1_000L) / elapsedMillis,
+				(bytesOut.sumThenReset() * 1_000L) / elapsedMillis,
+				runtime.totalMemory() - runtime.freeMemory(), runtime.maxMemory());
+
+		report(ownCI, ownLoad);
+		return ownLoad;
+	}
+
+	/**
+	 * Keeps the load that a Broker reported.
+	 *
+	 * @param broker the Broker
+	 * @param load its load
+	 */
+	synchronized void report(ConnectionInfo broker, BrokerLoad load) {
+		consumerCountPerBroker.put(broker, load.getConsumerCount());
+		loadPerBroker.put(broker, load);
+	}
+
+	/**
+	 * Forgets the load of a Broker that has left the server.
+	 *
+	 * @param broker the Broker
+	 */
+	synchronized void remove(ConnectionInfo broker) {
+		consumerCountPerBroker.remove(broker);
+		loadPerBroker.remove(broker);
+	}
+
+	/**
+	 * Replaces the load of every Broker with the one sent by the leader, except for the number of
+	 * Consumers of this Broker, which is known exactly.
+	 *
+	 * @param loads the load of every Broker
+	 */
+	synchronized void replaceAll(Map<ConnectionInfo, BrokerLoad> loads) {
+		final int ownConsumerCount = consumerCountPerBroker.getOrDefault(ownCI, 0);
+		consumerCountPerBroker.clear();
+		for (final Map.Entry<ConnectionInfo, BrokerLoad> e : loads.entrySet()) {
+			consumerCountPerBroker.put(e.getKey(), e.getValue().getConsumerCount());
+		}
+		consumerCountPerBroker.put(ownCI, ownConsumerCount);
+
+		loadPerBroker.clear();
+		loadPerBroker.putAll(loads);
+	}
+
+	/**
+	 * Returns the load of every Broker, as last reported to the leader.
+	 *
+	 * @return a new Map with the load of every Broker
+	 */
+	synchronized HashMap<ConnectionInfo, BrokerLoad> getAll() {
+		return new HashMap<>(loadPerBroker);
+	}
+
+	/**
+	 * Returns the Broker with the fewest Consumers among some Brokers, preferring the first one,
+	 * and counts a Consumer towards its load.
+	 *
+	 * @param brokers the Brokers
+	 *
+	 * @return the Broker with the fewest Consumers
+	 */
+	synchronized ConnectionInfo assignConsumer(List<ConnectionInfo> brokers) {
+		ConnectionInfo leastLoaded = null;
+		int minLoad = Integer.MAX_VALUE;
+		for (final ConnectionInfo broker : brokers) {
+			final int load = consumerCountPerBroker.getOrDefault(broker, 0);
+			if (load < minLoad) {
+				leastLoaded = broker;
+				minLoad = load;
+			}
+		}
+
+		consumerCountPerBroker.put(leastLoaded, minLoad + 1);
+		return leastLoaded;
+	}
+
+	/**
+	 * Returns the least loaded Broker of the server and counts a Topic towards its load.
+	 *
+	 * @param weightPerBroker the weight of every Broker of the server
+	 *
+	 * @return the least loaded Broker
+	 *
+	 * @see BrokerLoad#getLeastLoaded(Map, Map)
+	 */
+	synchronized ConnectionInfo assignTopic(Map<ConnectionInfo, Integer> weightPerBroker) {
+		final ConnectionInfo leastLoaded =
+				BrokerLoad.getLeastLoaded(weightPerBroker, loadPerBroker);
+		loadPerBroker.put(leastLoaded,
+				loadPerBroker.getOrDefault(leastLoaded, BrokerLoad.NONE).withOneMoreTopic());
+		return leastLoaded;
+	}
+}
@@ -2,22 +2,47 @@ package alexman.yamca.eventdeliverysystem.server;
 
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
-import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.LongIntMap;
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
 import alexman.yamca.eventdeliverysystem.datastructures.Packet;
 import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Priority;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame.Kind;
 import alexman.yamca.eventdeliverysystem.datastructures.Subscriber;
+import alexman.yamca.eventdeliverysystem.thread.SyncMode;
 import alexman.yamca.eventdeliverysystem.util.LG;
 
 /**
- * A Thread responsible for streaming newly received packets for a BrokerTopic to a single
- * Consumer.
+ * A Thread responsible for streaming the newly received packets of many BrokerTopics to a single
+ * Consumer over its subscription session. Each object is streamed in a SessionFrame tagged with
+ * the name of its Topic. The Packets of different Posts are interleaved in the stream, with each
+ * Post being streamed taking turns, so that a large Post does not delay the Posts that arrive
+ * after it.
+ * <p>
+ * The PostInfo of each Post is streamed as soon as possible, in the order in which the Posts were
+ * posted, so that the Consumer receives the Posts in the same order. The Packets are streamed in
+ * two lanes according to the {@link Priority} of their Post. High priority Packets preempt low
+ * priority ones, except that one low priority Packet is streamed after every few high priority
+ * ones so that large Posts keep making progress.
+ * <p>
+ * When this Thread subscribes to a Topic, the Posts that the Consumer has not yet received are
+ * read from the Topic after subscribing to it, and the notifications for what was read are
+ * ignored. The Posts that are still being received are read with the Packets received so far and
+ * the rest of their Packets are streamed as they are received. Therefore no Post is either missed
+ * or streamed twice.
  *
  * @author Alex Mandelias
  * @author Dimitris Tsirmpas
@@ -26,159 +51,452 @@ final class BrokerPushThread extends Thread implements Subscriber {
 
 	private static final long TIMEOUT_MILLIS = 10_000L;
 
-	private static final long NO_CURRENT_POST_ID = -1L;
-	private final Deque<PostInfo> postInfoList = new LinkedList<>();
-	private final Map<Long, List<Packet>> buffers = new HashMap<>();
-	private final Queue<Object> queue = new LinkedList<>();
-	private final AbstractTopic topic;
+	// the number of high priority Packets streamed for every low priority one
+	private static final int HIGH_PRIORITY_WEIGHT = 8;
+
+	// the frames about the session itself, which are streamed before any data
+	private final Deque<SessionFrame> controlFrames = new ArrayDeque<>();
+
+	// the Posts whose PostInfo has not been streamed yet, in the order in which they were posted
+	private final Deque<OutgoingPost> pendingPostInfos = new ArrayDeque<>();
+
+	// the Posts being streamed in each lane, in the order in which they take turns
+	private final Deque<OutgoingPost> highPriorityPosts = new LinkedList<>();
+	private final Deque<OutgoingPost> lowPriorityPosts = new LinkedList<>();
+	private final Map<String, Subscription> subscriptionPerTopic = new HashMap<>();
+	private int highPriorityStreak = 0;
 	private final ObjectOutputStream oos;
-	private long currentPostId = BrokerPushThread.NO_CURRENT_POST_ID;
+	private final SyncMode syncMode;
+	private final LongAdder bytesStreamed;
+	private boolean closed = false;
 
 	/**
-	 * Constructs the Thread that writes some Posts to a stream. This Thread is subscribed to a
-	 * Topic and is notified each time there is new data in the Topic.
+	 * Constructs the Thread that streams the data of the Topics it is subscribed to. This Thread
+	 * is notified each time there is new data in one of those Topics.
 	 *
-	 * @param topic the Topic to subscribe to
-	 * @param stream the output stream to which to write the data
+	 * @param stream the output stream of the subscription session
+	 * @param syncMode the parts of each Post to write to the stream
+	 * @param sessionName the name of the subscription session, used to name this Thread
+	 * @param bytesStreamed the counter to which the length of each Packet streamed is added
 	 */
-	BrokerPushThread(AbstractTopic topic, ObjectOutputStream stream) {
-		super("BrokerPushThread-" + topic.getName());
-		this.topic = topic;
+	BrokerPushThread(ObjectOutputStream stream, SyncMode syncMode, String sessionName,
+			LongAdder bytesStreamed) {
+		super("BrokerPushThread-" + sessionName);
 		oos = stream;
+		this.syncMode = syncMode;
+		this.bytesStreamed = bytesStreamed;
 	}
 
 	@Override
 	public void run() {
-		topic.subscribe(this);
-
-		while (true) {
-			try {
-				synchronized (queue) {
-					while (queue.isEmpty()) {
-						queue.wait(BrokerPushThread.TIMEOUT_MILLIS, 0);
-					}
+		try {
+			boolean resetPending = false;
+			while (true) {
+				final SessionFrame next = takeNext();
+
+				// the stream would otherwise keep a reference to every object written. it is
+				// reset before the next frame so that nothing is left unread after a frame.
+				if (resetPending) {
+					oos.reset();
+					resetPending = false;
 				}
 
-			} catch (final InterruptedException e) {
-				try {
-					oos.close();
-				} catch (IOException e1) {
-					LG.exception(e1);
+				oos.writeObject(next);
+				oos.flush();
+
+				if (next.getValue() instanceof Packet) {
+					final Packet packet = (Packet) next.getValue();
+					resetPending = packet.isFinal();
+					bytesStreamed.add(packet.getLength());
+					packet.release();
 				}
-				Thread.currentThread().interrupt();
 			}
+		} catch (final InterruptedException e) {
+			try {
+				oos.close();
+			} catch (IOException e1) {
+				LG.exception(e1);
+			}
+			Thread.currentThread().interrupt();
+		} catch (final IOException e) {
+			// session closed by the consumer or by the broker
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Subscribes this Thread to a Topic and streams the Posts of the Topic posted after a given
+	 * Post, followed by every new Post. A SUBSCRIBED frame is streamed before any of them.
+	 *
+	 * @param topic the Topic
+	 * @param lastPostId the ID of the last Post of the Topic that the Consumer has received
+	 *
+	 * @throws IllegalArgumentException if this Thread is already subscribed to the Topic
+	 * @throws NoSuchElementException if no Post in the Topic has the given ID
+	 */
+	synchronized void subscribe(BrokerTopic topic, long lastPostId) {
+		final String topicName = topic.getName();
+		LG.sout("BrokerPushThread#subscribe(%s, %d)", topicName, lastPostId);
+
+		if (subscriptionPerTopic.containsKey(topicName)) {
+			throw new IllegalArgumentException("Already subscribed to Topic " + topicName);
+		}
+
+		// the session has ended, nothing will be streamed
+		if (closed) {
+			return;
+		}
+
+		// notifications are only delivered once this method returns, as they need the lock
+		topic.subscribe(this);
+
+		final List<PostInfo> piList = new LinkedList<>();
+		final LongObjectMap<Packet[]> packetMap = new LongObjectMap<>();
+		try {
+			topic.getPostsSinceWithIncomplete(lastPostId, piList, packetMap);
+		} catch (final NoSuchElementException e) {
+			topic.unsubscribe(this);
+			throw e;
+		}
+
+		final Subscription subscription = new Subscription(topic);
+		subscriptionPerTopic.put(topicName, subscription);
+		controlFrames.addLast(new SessionFrame(Kind.SUBSCRIBED, topicName));
 
-			boolean queueNotEmpty;
-			do {
-				try {
-					synchronized (queue) {
-						oos.writeObject(queue.remove());
-					}
-				} catch (final IOException e) {
-					return; // topic deleted -> socket closed by broker
+		for (final PostInfo postInfo : piList) {
+			final Packet[] packets = packetMap.get(postInfo.getId());
+			subscription.postIdsInSnapshot.put(postInfo.getId(), 0);
+
+			// the rest of the Packets of an incomplete Post are streamed as they are received
+			final boolean complete = (packets.length > 0) && packets[packets.length - 1].isFinal();
+			final OutgoingPost outgoingPost = addOutgoingPost(subscription, postInfo, complete);
+
+			if (syncMode == SyncMode.METADATA_ONLY) {
+				Packet.releaseAll(packets);
+			} else {
+				for (final Packet packet : packets) {
+					outgoingPost.packets.addLast(packet);
 				}
 
-				synchronized (queue) {
-					queueNotEmpty = !queue.isEmpty();
+				if (!complete) {
+					outgoingPost.packetsInSnapshot =
+							Collections.newSetFromMap(new IdentityHashMap<>());
+					Collections.addAll(outgoingPost.packetsInSnapshot, packets);
 				}
-			} while (queueNotEmpty);
+			}
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Unsubscribes this Thread from a Topic, discards the data of the Topic that has not been
+	 * streamed yet and streams a frame of the given kind.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param kind the kind of the frame to stream, either {@link Kind#UNSUBSCRIBED} or {@link
+	 *        Kind#TOPIC_DELETED}
+	 */
+	synchronized void unsubscribe(String topicName, Kind kind) {
+		LG.sout("BrokerPushThread#unsubscribe(%s, %s)", topicName, kind);
+
+		final Subscription subscription = subscriptionPerTopic.remove(topicName);
+		if (subscription != null) {
+			discard(subscription);
+			pendingPostInfos.removeIf(outgoingPost -> outgoingPost.subscription == subscription);
+			highPriorityPosts.removeIf(outgoingPost -> outgoingPost.subscription == subscription);
+			lowPriorityPosts.removeIf(outgoingPost -> outgoingPost.subscription == subscription);
+		}
+
+		send(new SessionFrame(kind, topicName));
+	}
+
+	/**
+	 * Stops listening for new data of a Topic and streams a frame once the data of the Topic that
+	 * has not been streamed yet is streamed. No more Packets of the Posts of the Topic will be
+	 * received, so the rest of the Posts that are not complete are not streamed.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param endFrame the frame to stream after the data, either of kind {@link
+	 *        Kind#UNSUBSCRIBED} or of kind {@link Kind#TOPIC_MOVED}
+	 */
+	synchronized void finish(String topicName, SessionFrame endFrame) {
+		LG.sout("BrokerPushThread#finish(%s, %s)", topicName, endFrame);
+
+		final Subscription subscription = subscriptionPerTopic.get(topicName);
+		if (subscription == null) {
+			send(endFrame);
+			return;
+		}
+
+		subscription.topic.unsubscribe(this);
+
+		// otherwise the end frame would wait for the Packets that will never be received
+		final List<OutgoingPost> incompletePosts = new LinkedList<>();
+		subscription.outgoingPostsById.forEachValue(outgoingPost -> {
+			if (!outgoingPost.finalPacketReceived) {
+				incompletePosts.add(outgoingPost);
+			}
+		});
+
+		for (final OutgoingPost outgoingPost : incompletePosts) {
+			LG.sout("BrokerPushThread#finish: dropping incomplete Post %d",
+					outgoingPost.postInfo.getId());
+			subscription.outgoingPostsById.remove(outgoingPost.postInfo.getId());
+			outgoingPost.packets.forEach(Packet::release);
+			pendingPostInfos.remove(outgoingPost);
+			highPriorityPosts.remove(outgoingPost);
+			lowPriorityPosts.remove(outgoingPost);
+		}
+
+		subscription.endFrame = endFrame;
+		endIfStreamed(subscription);
+	}
+
+	/**
+	 * Streams a frame about the session itself before any data that has not been streamed yet.
+	 *
+	 * @param frame the frame
+	 */
+	synchronized void send(SessionFrame frame) {
+		if (closed) {
+			return;
+		}
+
+		controlFrames.addLast(frame);
+		notifyAll();
+	}
+
+	// blocks until a frame can be streamed
+	private synchronized SessionFrame takeNext() throws InterruptedException {
+		SessionFrame next = poll();
+		while (next == null) {
+			wait(BrokerPushThread.TIMEOUT_MILLIS, 0);
+			next = poll();
+		}
+
+		return next;
+	}
+
+	// takes the next frame, with control frames first and then PostInfo frames, or returns null
+	private SessionFrame poll() {
+		final SessionFrame controlFrame = controlFrames.pollFirst();
+		if (controlFrame != null) {
+			return controlFrame;
+		}
+
+		final OutgoingPost outgoingPost = pendingPostInfos.pollFirst();
+		if (outgoingPost != null) {
+			return outgoingPost.pollPostInfo();
+		}
+
+		return nextInTurn();
+	}
+
+	// takes the next frame from the lane whose turn it is, or from the other if it has none
+	private SessionFrame nextInTurn() {
+		final boolean lowPriorityTurn =
+				highPriorityStreak >= BrokerPushThread.HIGH_PRIORITY_WEIGHT;
+
+		final Deque<OutgoingPost> first = lowPriorityTurn ? lowPriorityPosts : highPriorityPosts;
+		final Deque<OutgoingPost> second = lowPriorityTurn ? highPriorityPosts : lowPriorityPosts;
+
+		SessionFrame next = nextInTurn(first);
+		boolean fromHighPriority = !lowPriorityTurn;
+		if (next == null) {
+			next = nextInTurn(second);
+			fromHighPriority = lowPriorityTurn;
+		}
+
+		if (next != null) {
+			highPriorityStreak = fromHighPriority ? highPriorityStreak + 1 : 0;
+		}
+
+		return next;
+	}
+
+	// takes the next frame of the first Post in turn that has one ready, or returns null
+	private SessionFrame nextInTurn(Deque<OutgoingPost> outgoingPosts) {
+		for (int i = 0, count = outgoingPosts.size(); i < count; i++) {
+			final OutgoingPost outgoingPost = outgoingPosts.removeFirst();
+			final SessionFrame next = outgoingPost.poll();
+
+			if (outgoingPost.isFullyStreamed()) {
+				final long postId = outgoingPost.postInfo.getId();
+				outgoingPost.subscription.outgoingPostsById.remove(postId);
+				endIfStreamed(outgoingPost.subscription);
+			} else {
+				outgoingPosts.addLast(outgoingPost);
+			}
+
+			if (next != null) {
+				return next;
+			}
 		}
+
+		return null;
+	}
+
+	// streams the end frame of a finishing subscription once all of its data has been taken
+	private void endIfStreamed(Subscription subscription) {
+		if ((subscription.endFrame == null) || !subscription.outgoingPostsById.isEmpty()) {
+			return;
+		}
+
+		subscriptionPerTopic.remove(subscription.topic.getName(), subscription);
+		send(subscription.endFrame);
+		subscription.endFrame = null;
+	}
+
+	private OutgoingPost addOutgoingPost(Subscription subscription, PostInfo postInfo,
+			boolean finalPacketReceived) {
+		// only PostInfo objects are streamed, there are no Packets to wait for
+		final boolean complete = finalPacketReceived || (syncMode == SyncMode.METADATA_ONLY);
+		final OutgoingPost outgoingPost = new OutgoingPost(subscription, postInfo, complete);
+
+		final boolean highPriority = Priority.of(postInfo) == Priority.HIGH;
+		pendingPostInfos.addLast(outgoingPost);
+		(highPriority ? highPriorityPosts : lowPriorityPosts).addLast(outgoingPost);
+		subscription.outgoingPostsById.put(postInfo.getId(), outgoingPost);
+
+		return outgoingPost;
+	}
+
+	// stops accepting data and releases the Packets that will never be streamed
+	private synchronized void close() {
+		closed = true;
+
+		for (final Subscription subscription : subscriptionPerTopic.values()) {
+			discard(subscription);
+		}
+
+		subscriptionPerTopic.clear();
+		pendingPostInfos.clear();
+		highPriorityPosts.clear();
+		lowPriorityPosts.clear();
+		controlFrames.clear();
+	}
+
+	private void discard(Subscription subscription) {
+		subscription.topic.unsubscribe(this);
+		subscription.outgoingPostsById.forEachValue(
+				outgoingPost -> outgoingPost.packets.forEach(Packet::release));
+		subscription.outgoingPostsById.clear();
 	}
 
 	@Override
 	public synchronized void notify(PostInfo postInfo, String topicName) {
-		LG.sout("BrokerPushThread#notify(%s)", postInfo);
+		LG.sout("BrokerPushThread#notify(%s, %s)", postInfo, topicName);
 
-		// if no post is being streamed
-		if (currentPostId == BrokerPushThread.NO_CURRENT_POST_ID) {
-			// set post as current being streamed
-			currentPostId = postInfo.getId();
-			// start streaming post
-			queue.add(postInfo);
-		} else {
-			// add this post to buffer
-			postInfoList.addLast(postInfo);
-			buffers.put(postInfo.getId(), new LinkedList<>());
+		final Subscription subscription = subscriptionPerTopic.get(topicName);
+		if (closed || (subscription == null)) {
+			return;
 		}
 
-		synchronized (queue) {
-			queue.notifyAll();
+		// the Post was streamed when subscribing
+		if (subscription.postIdsInSnapshot.containsKey(postInfo.getId())) {
+			subscription.postIdsInSnapshot.remove(postInfo.getId());
+			return;
 		}
+
+		// the notifications are delivered in order, so none of the Posts streamed when
+		// subscribing will be notified of again
+		subscription.postIdsInSnapshot.clear();
+
+		addOutgoingPost(subscription, postInfo, false);
+		notifyAll();
 	}
 
 	@Override
 	public synchronized void notify(Packet packet, String topicName) {
-		LG.sout("BrokerPushThread#notify(%s)", packet);
+		LG.sout("BrokerPushThread#notify(%s, %s)", packet, topicName);
 
-		// if no post is being streamed
-		assert currentPostId != BrokerPushThread.NO_CURRENT_POST_ID;
+		final Subscription subscription = subscriptionPerTopic.get(topicName);
+		if (closed || (subscription == null) || (syncMode == SyncMode.METADATA_ONLY)) {
+			return;
+		}
 
-		// if packet does not belong to post being streamed
-		long incomingPostId = packet.getPostId();
-		if (incomingPostId != currentPostId) {
+		// the PostInfo of the Post was posted before subscribing, or was ignored
+		final OutgoingPost outgoingPost = subscription.outgoingPostsById.get(packet.getPostId());
+		if ((outgoingPost == null) || outgoingPost.finalPacketReceived) {
+			return;
+		}
 
-			// add packet to buffer because it's not being streamed
-			buffers.get(incomingPostId).add(packet);
-		} else {
-			// stream packet
-			queue.add(packet);
+		// the Packet was streamed when subscribing, while the Post was being received
+		if (outgoingPost.packetsInSnapshot != null) {
+			if (outgoingPost.packetsInSnapshot.remove(packet)) {
+				return;
+			}
 
-			// if current post is fully streamed
-			if (packet.isFinal()) {
+			// the notifications are delivered in order, so the rest of the Packets are new
+			outgoingPost.packetsInSnapshot = null;
+		}
 
-				// start streaming next post
-				boolean finalReached;
-				do {
+		// the Packet is streamed after the notification returns
+		packet.retain();
+		outgoingPost.packets.addLast(packet);
+		if (packet.isFinal()) {
+			outgoingPost.finalPacketReceived = true;
+			subscription.postIdsInSnapshot.remove(packet.getPostId());
+		}
 
-					// if no posts left in buffer, mark current as none
-					// wait next post info
-					if (postInfoList.isEmpty()) {
-						currentPostId = BrokerPushThread.NO_CURRENT_POST_ID;
-						break;
-					}
+		notifyAll();
+	}
 
-					// take next Post
-					final PostInfo curr = postInfoList.removeFirst();
+	private static final class Subscription {
 
-					// start streaming post
-					queue.add(curr);
+		private final BrokerTopic topic;
+		private final LongObjectMap<OutgoingPost> outgoingPostsById = new LongObjectMap<>();
 
-					// set as current
-					currentPostId = curr.getId();
+		// the Posts streamed when subscribing, whose notifications have not been ignored yet
+		private final LongIntMap postIdsInSnapshot = new LongIntMap();
 
-					// stream all packets in buffer
-					finalReached = emptyBufferOfCurrentPost();
+		// the frame to stream once the rest of the data is streamed, if the subscription finishes
+		private SessionFrame endFrame = null;
 
-					// keep streaming the next post in buffer if the previous has been fully
-					// streamed
-				} while (finalReached);
-			}
-		}
-
-		synchronized (queue) {
-			queue.notifyAll();
+		private Subscription(BrokerTopic topic) {
+			this.topic = topic;
 		}
 	}
 
-	private boolean emptyBufferOfCurrentPost() {
+	private static final class OutgoingPost {
 
-		final List<Packet> buffer = buffers.get(currentPostId);
-		final Packet lastPacket = buffer.get(buffer.size() - 1);
+		private final Subscription subscription;
+		private final PostInfo postInfo;
+		private final Deque<Packet> packets = new ArrayDeque<>();
+		private boolean postInfoStreamed = false;
+		private boolean finalPacketReceived;
 
-		for (final Packet packetInBuffer : buffer) {
+		// the Packets streamed when subscribing, if the Post was being received at the time
+		private Set<Packet> packetsInSnapshot = null;
 
-			// stream packet
-			queue.add(packetInBuffer);
+		private OutgoingPost(Subscription subscription, PostInfo postInfo, boolean complete) {
+			this.subscription = subscription;
+			this.postInfo = postInfo;
+			finalPacketReceived = complete;
+		}
 
-			assert !(packetInBuffer.isFinal() && (packetInBuffer != lastPacket));
+		private SessionFrame pollPostInfo() {
+			postInfoStreamed = true;
+			return new SessionFrame(Kind.DATA, subscription.topic.getName(), postInfo);
 		}
 
-		// whether this post has been fully streamed
-		boolean fullyStreamed = lastPacket.isFinal();
-		if (fullyStreamed) {
-			buffers.remove(currentPostId);
+		// returns the next Packet frame of this Post to stream, or null if none is ready
+		private SessionFrame poll() {
+			// the Packets of a Post are only streamed after its PostInfo
+			if (!postInfoStreamed) {
+				return null;
+			}
+
+			final Packet packet = packets.pollFirst();
+			return packet == null
+			       ? null
+			       : new SessionFrame(Kind.DATA, subscription.topic.getName(), packet);
 		}
 
-		return fullyStreamed;
+		private boolean isFullyStreamed() {
+			return postInfoStreamed && packets.isEmpty() && finalPacketReceived;
+		}
 	}
 }
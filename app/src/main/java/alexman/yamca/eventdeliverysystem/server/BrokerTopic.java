@@ -1,15 +1,17 @@
 package alexman.yamca.eventdeliverysystem.server;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.function.Predicate;
+import java.util.NoSuchElementException;
 
 import alexman.yamca.eventdeliverysystem.dao.ITopicDAO;
 import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.LongIntMap;
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
 import alexman.yamca.eventdeliverysystem.datastructures.Packet;
 import alexman.yamca.eventdeliverysystem.datastructures.Post;
 import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
@@ -25,14 +27,18 @@ import alexman.yamca.eventdeliverysystem.util.LG;
 final class BrokerTopic extends AbstractTopic {
 
 	private static final Packet[] ZERO_LENGTH_PACKET_ARRAY = new Packet[0];
+	private static final int NO_INDEX = -1;
 	private static final PostInfo dummyPostInfo =
 			new PostInfo(null, null, AbstractTopic.FETCH_ALL_POSTS);
 
 	private final ITopicDAO postDAO;
 
-	private final List<PostInfo> postInfoList = new LinkedList<>();
-	private final Map<Long, List<Packet>> packetsPerPostInfoMap = new HashMap<>();
-	private final Map<Long, Integer> indexPerPostInfoId = new HashMap<>();
+	private final List<PostInfo> postInfoList = new ArrayList<>();
+	private final LongObjectMap<List<Packet>> packetsPerPostInfoMap = new LongObjectMap<>();
+	private final LongIntMap indexPerPostInfoId = new LongIntMap();
+
+	// the index of the last Post which, along with every Post before it, is complete
+	private int completePrefixEnd = 0;
 
 	{
 		postInfoList.add(BrokerTopic.dummyPostInfo);
@@ -47,12 +53,7 @@ final class BrokerTopic extends AbstractTopic {
 	 */
 	BrokerTopic(AbstractTopic abstractTopic, ITopicDAO postDAO) {
 		this(abstractTopic.getName(), postDAO);
-		abstractTopic.forEach(post -> {
-			post(post.getPostInfo());
-			for (Packet packet : Packet.fromPost(post)) {
-				post(packet);
-			}
-		});
+		abstractTopic.postAllTo(this);
 	}
 
 	/**
@@ -67,19 +68,13 @@ final class BrokerTopic extends AbstractTopic {
 	}
 
 	@Override
-	public long getLastPostId() {
-
-		Predicate<PostInfo> isPostComplete = postInfo -> {
-			List<Packet> packetsOfLast = packetsPerPostInfoMap.get(postInfo.getId());
-			Packet lastPacket = packetsOfLast.get(packetsOfLast.size() - 1);
-			return lastPacket.isFinal();
-		};
+	public synchronized long getLastPostId() {
 
 		// find last completed post
 		for (int i = postInfoList.size() - 1; i >= 1; i--) { // index 0 = dummyPostInfo
 			PostInfo postInfo = postInfoList.get(i);
 
-			if (isPostComplete.test(postInfo)) {
+			if (isComplete(packetsPerPostInfoMap.get(postInfo.getId()))) {
 				return postInfo.getId();
 			}
 		}
@@ -104,48 +99,328 @@ final class BrokerTopic extends AbstractTopic {
 		final long postId = packet.getPostId();
 
 		packetsPerPostInfoMap.get(postId).add(packet);
+
+		if (packet.isFinal()) {
+			while ((completePrefixEnd + 1) < postInfoList.size()) {
+				final long nextId = postInfoList.get(completePrefixEnd + 1).getId();
+				if (!isComplete(packetsPerPostInfoMap.get(nextId))) {
+					break;
+				}
+				completePrefixEnd++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the ID of the last Post of this Topic which, along with every Post before it, is
+	 * complete. Unlike the last complete Post, no Post before this one is still being received.
+	 *
+	 * @return the ID of that Post, or {@link AbstractTopic#FETCH_ALL_POSTS} if there is none
+	 */
+	synchronized long getLastPostIdWithoutGaps() {
+		return postInfoList.get(completePrefixEnd).getId(); // index 0 = dummyPostInfo
+	}
+
+	/**
+	 * Returns whether any Post of this Topic is still being received.
+	 *
+	 * @return {@code true} if some Post is not complete, {@code false} otherwise
+	 */
+	synchronized boolean hasIncompletePosts() {
+		// the Post right after the complete prefix isn't complete, if there is one
+		return completePrefixEnd < (postInfoList.size() - 1);
+	}
+
+	/**
+	 * Returns the PostInfo of the first Post of this Topic.
+	 *
+	 * @return the PostInfo, or {@code null} if this Topic has no Posts
+	 */
+	synchronized PostInfo getFirstPostInfo() {
+		return postInfoList.size() > 1 ? postInfoList.get(1) : null; // index 0 = dummyPostInfo
+	}
+
+	/**
+	 * Returns the position of a Post in this Topic, which is the order in which it was posted.
+	 *
+	 * @param postId the ID of the Post
+	 *
+	 * @return the position of the Post, which is positive, {@code 0} for {@link
+	 * 		AbstractTopic#FETCH_ALL_POSTS} or {@code -1} if no Post in this Topic has that ID
+	 */
+	synchronized int indexOf(long postId) {
+		return indexPerPostInfoId.getOrDefault(postId, BrokerTopic.NO_INDEX);
+	}
+
+	/**
+	 * Posts a PostInfo streamed by another Broker, unless this Topic already has it because the
+	 * Posts of this Topic are streamed again.
+	 *
+	 * @param postInfo the PostInfo
+	 *
+	 * @return {@code true} if the PostInfo was posted, {@code false} otherwise
+	 */
+	boolean postIfAbsent(PostInfo postInfo) {
+		return postIf(postInfo, postId -> !indexPerPostInfoId.containsKey(postId));
+	}
+
+	/**
+	 * Posts a Packet streamed by another Broker, unless this Topic already has every Packet of its
+	 * Post because the Posts of this Topic are streamed again. The caller's reference to a Packet
+	 * that isn't posted is released.
+	 *
+	 * @param packet the Packet
+	 *
+	 * @return {@code true} if the Packet was posted, {@code false} otherwise
+	 */
+	boolean postIfAbsent(Packet packet) {
+		final boolean posted = postIf(packet, postId -> {
+			final List<Packet> packets = packetsPerPostInfoMap.get(postId);
+			return (packets != null) && !isComplete(packets);
+		});
+
+		if (!posted) {
+			packet.release();
+		}
+
+		return posted;
+	}
+
+	/**
+	 * Discards the Posts of this Topic that aren't complete, so that they can be streamed again
+	 * from the start. No more Packets of those Posts may be posted.
+	 */
+	synchronized void discardIncompletePosts() {
+		final List<PostInfo> completePostInfos = new ArrayList<>(postInfoList.size());
+		for (final PostInfo postInfo : postInfoList) {
+			final long postId = postInfo.getId();
+			if ((postInfo == BrokerTopic.dummyPostInfo)
+			    || isComplete(packetsPerPostInfoMap.get(postId))) {
+				completePostInfos.add(postInfo);
+				continue;
+			}
+
+			LG.sout("BrokerTopic#discardIncompletePosts: %d", postId);
+			final List<Packet> packets = packetsPerPostInfoMap.remove(postId);
+			Packet.releaseAll(packets.toArray(BrokerTopic.ZERO_LENGTH_PACKET_ARRAY));
+			indexPerPostInfoId.remove(postId);
+		}
+
+		postInfoList.clear();
+		postInfoList.addAll(completePostInfos);
+		for (int i = 1; i < postInfoList.size(); i++) {
+			indexPerPostInfoId.put(postInfoList.get(i).getId(), i);
+		}
+		completePrefixEnd = postInfoList.size() - 1;
+	}
+
+	private static boolean isComplete(List<Packet> packets) {
+		return !packets.isEmpty() && packets.get(packets.size() - 1).isFinal();
+	}
+
+	/**
+	 * Adds to the given List and the Map the PostInfo and Packet objects of the complete Posts in
+	 * this Topic starting from a certain PostInfo object. The Posts that are still being received
+	 * are skipped. The PostInfo with the given ID and its Packets are not returned.
+	 *
+	 * @param postId the ID of the PostInfo
+	 * @param emptyPostInfoList the empty list where the PostInfo objects will be added, sorted
+	 * 		from earliest to latest
+	 * @param emptyPacketsPerPostInfoMap the empty map where the Packets of every PostInfo object
+	 * 		will be added. The caller owns a reference to each of them.
+	 *
+	 * @throws NoSuchElementException if no Post in this Topic has the given ID
+	 */
+	synchronized void getPostsSince(long postId, List<PostInfo> emptyPostInfoList,
+			LongObjectMap<Packet[]> emptyPacketsPerPostInfoMap) {
+		getPostsSince(postId, emptyPostInfoList, emptyPacketsPerPostInfoMap, false);
 	}
 
 	/**
 	 * Adds to the given List and the Map all the PostInfo and Packet objects in this Topic starting
-	 * from a certain PostInfo object. The PostInfo with the given ID and its Packets are not
+	 * from a certain PostInfo object, including the Posts that are still being received along
+	 * with the Packets of them received so far. A Subscriber that subscribed to this Topic before
+	 * calling this method is notified of the rest of their Packets, though it may also be notified
+	 * of some of the Packets added here. The PostInfo with the given ID and its Packets are not
 	 * returned.
 	 *
 	 * @param postId the ID of the PostInfo
 	 * @param emptyPostInfoList the empty list where the PostInfo objects will be added, sorted
 	 * 		from earliest to latest
 	 * @param emptyPacketsPerPostInfoMap the empty map where the Packets of every PostInfo object
-	 * 		will be added
+	 * 		will be added. The caller owns a reference to each of them.
+	 *
+	 * @throws NoSuchElementException if no Post in this Topic has the given ID
 	 */
-	synchronized void getPostsSince(long postId, List<PostInfo> emptyPostInfoList,
-			Map<? super Long, Packet[]> emptyPacketsPerPostInfoMap) {
+	synchronized void getPostsSinceWithIncomplete(long postId, List<PostInfo> emptyPostInfoList,
+			LongObjectMap<Packet[]> emptyPacketsPerPostInfoMap) {
+		getPostsSince(postId, emptyPostInfoList, emptyPacketsPerPostInfoMap, true);
+	}
 
-		final Integer index = indexPerPostInfoId.get(postId);
+	private void getPostsSince(long postId, List<PostInfo> emptyPostInfoList,
+			LongObjectMap<Packet[]> emptyPacketsPerPostInfoMap, boolean withIncomplete) {
 
-		emptyPostInfoList.addAll(postInfoList.subList(index + 1, postInfoList.size()));
+		final int index = indexPerPostInfoId.getOrDefault(postId, BrokerTopic.NO_INDEX);
+		if (index == BrokerTopic.NO_INDEX) {
+			throw new NoSuchElementException(
+					"No post with id " + postId + " found in this Topic");
+		}
 
-		for (PostInfo pi : emptyPostInfoList) {
+		for (final PostInfo pi : postInfoList.subList(index + 1, postInfoList.size())) {
 			final long id = pi.getId();
-			final List<Packet> ls = packetsPerPostInfoMap.get(id);
-			emptyPacketsPerPostInfoMap.put(id, ls.toArray(BrokerTopic.ZERO_LENGTH_PACKET_ARRAY));
+			final List<Packet> packetList = packetsPerPostInfoMap.get(id);
+			if (!withIncomplete && !isComplete(packetList)) {
+				continue;
+			}
+
+			final Packet[] packets = packetList.toArray(BrokerTopic.ZERO_LENGTH_PACKET_ARRAY);
+			for (final Packet packet : packets) {
+				packet.retain();
+			}
+			emptyPostInfoList.add(pi);
+			emptyPacketsPerPostInfoMap.put(id, packets);
+		}
+	}
+
+	/**
+	 * Adds to the given List and the Map the PostInfo of a Post of this Topic and the Packets that
+	 * contain a range of bytes of its data. The Packets are read from the ITopicDAO object of this
+	 * BrokerTopic once the Post has been saved, and are copied from memory until then. Only Posts
+	 * that have been fully received can be read.
+	 *
+	 * @param postId the ID of the Post
+	 * @param offset the index of the first byte of the range
+	 * @param length the number of bytes in the range. If the range extends past the end of the
+	 * 		data, only the bytes up to the end are added.
+	 * @param emptyPostInfoList the empty list where the PostInfo object will be added
+	 * @param emptyPacketsPerPostInfoMap the empty map where the Packets of the range will be added.
+	 * 		The caller owns a reference to each of them.
+	 *
+	 * @return {@code true} if the range was added, {@code false} if no complete Post with that ID
+	 * 		exists in this Topic
+	 *
+	 * @throws IOException if an I/O Error occurs while reading the Post
+	 * @throws IllegalArgumentException if the offset is past the end of the data
+	 */
+	boolean getPostRange(long postId, long offset, long length, List<PostInfo> emptyPostInfoList,
+			LongObjectMap<Packet[]> emptyPacketsPerPostInfoMap) throws IOException {
+
+		final PostInfo postInfo;
+		final Packet[] packets;
+		synchronized (this) {
+			final int index = indexPerPostInfoId.getOrDefault(postId, BrokerTopic.NO_INDEX);
+			if (index == BrokerTopic.NO_INDEX || index == 0) { // index 0 = dummyPostInfo
+				return false;
+			}
+
+			final List<Packet> ls = packetsPerPostInfoMap.get(postId);
+			if (!isComplete(ls)) {
+				return false;
+			}
+
+			postInfo = postInfoList.get(index);
+			packets = ls.toArray(BrokerTopic.ZERO_LENGTH_PACKET_ARRAY);
+
+			// the Post may be saved or discarded meanwhile, which releases the Topic's reference
+			for (final Packet packet : packets) {
+				packet.retain();
+			}
+		}
+
+		final Packet[] range;
+		try {
+			// the Post is saved by a TopicWriter after it has been posted
+			range = packets[0].isInFile()
+			        ? postDAO.readPost(postInfo, getName(), offset, length)
+			        : BrokerTopic.copyRange(postInfo, packets, offset, length);
+		} finally {
+			Packet.releaseAll(packets);
+		}
+
+		emptyPostInfoList.add(postInfo);
+		emptyPacketsPerPostInfoMap.put(postId, range);
+		return true;
+	}
+
+	private static Packet[] copyRange(PostInfo postInfo, Packet[] packets, long offset,
+			long length) {
+		long size = 0;
+		for (final Packet packet : packets) {
+			size += packet.getLength();
 		}
+
+		if (offset > size) {
+			throw new IllegalArgumentException(String.format(
+					"Offset %d is past the end of Post %d", offset, postInfo.getId()));
+		}
+
+		return Packet.fromPacketRange(packets, offset, Math.min(length, size - offset));
 	}
 
 	/**
-	 * Saves a Post of this Topic to the ITopicDAO object of this BrokerTopic.
+	 * Saves a Post of this Topic to the ITopicDAO object of this BrokerTopic. Once saved, the
+	 * Packets of the Post are replaced by ones read from the ITopicDAO object so that its data no
+	 * longer has to be kept in memory.
 	 *
 	 * @param postId the id of the Post to save
 	 *
+	 * @return {@code true} if the Post was saved, {@code false} if no complete Post with that ID
+	 * 		exists in this Topic
+	 *
 	 * @throws IOException if an I/O Error occurs while saving the Post.
 	 */
-	void savePostToTFS(long postId) throws IOException {
+	boolean savePostToTFS(long postId) throws IOException {
 		LG.sout("BrokerTopic#savePostToTFS(%d)", postId);
-		PostInfo pi = postInfoList.get(indexPerPostInfoId.get(postId));
-		final List<Packet> ls = packetsPerPostInfoMap.get(postId);
-		Packet[] packets = ls.toArray(BrokerTopic.ZERO_LENGTH_PACKET_ARRAY);
+		final PostInfo pi;
+		final List<Packet> ls;
+		final Packet[] packets;
+		synchronized (this) {
+			// the Post may have been discarded after its final Packet was posted
+			final int index = indexPerPostInfoId.getOrDefault(postId, BrokerTopic.NO_INDEX);
+			if (index == BrokerTopic.NO_INDEX || index == 0) { // index 0 = dummyPostInfo
+				LG.err("Can't save Post %d of Topic %s because it doesn't exist", postId,
+						getName());
+				return false;
+			}
+
+			ls = packetsPerPostInfoMap.get(postId);
+			if (!isComplete(ls)) {
+				LG.err("Can't save Post %d of Topic %s because it isn't complete", postId,
+						getName());
+				return false;
+			}
+
+			pi = postInfoList.get(index);
+			packets = ls.toArray(BrokerTopic.ZERO_LENGTH_PACKET_ARRAY);
+
+			// the Post may be discarded while it is saved, which releases the Topic's reference
+			for (final Packet packet : packets) {
+				packet.retain();
+			}
+		}
+
+		final Packet[] storedPackets;
+		try {
+			Post post = Post.fromPackets(packets, pi);
+			postDAO.writePost(post, getName());
+
+			storedPackets = postDAO.readPost(pi, getName(), 0, Long.MAX_VALUE);
+		} finally {
+			Packet.releaseAll(packets);
+		}
+
+		synchronized (this) {
+			if (packetsPerPostInfoMap.get(postId) != ls) {
+				Packet.releaseAll(storedPackets);
+				return false;
+			}
+
+			packetsPerPostInfoMap.put(postId, new LinkedList<>(Arrays.asList(storedPackets)));
+		}
 
-		Post post = Post.fromPackets(packets, pi);
-		postDAO.writePost(post, getName());
+		// anyone still streaming the old Packets holds their own reference
+		Packet.releaseAll(packets);
+		return true;
 	}
 
 	@Override
@@ -1,7 +1,8 @@
 package alexman.yamca.eventdeliverysystem.server;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.Socket;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -12,6 +13,7 @@ import java.util.Set;
 
 import alexman.yamca.eventdeliverysystem.dao.ITopicDAO;
 import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
 import alexman.yamca.eventdeliverysystem.datastructures.Packet;
 import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
 import alexman.yamca.eventdeliverysystem.datastructures.Subscriber;
@@ -25,7 +27,7 @@ import alexman.yamca.eventdeliverysystem.util.LG;
 final class BrokerTopicManager implements AutoCloseable, Iterable<BrokerTopic> {
 
 	private final ITopicDAO postDao;
-	private final Map<String, Set<Socket>> consumerSocketsPerTopic = new HashMap<>();
+	private final Map<String, Set<Closeable>> consumersPerTopic = new HashMap<>();
 	private final Map<String, BrokerTopic> topicsByName = new HashMap<>();
 
 	/**
@@ -51,10 +53,11 @@ final class BrokerTopicManager implements AutoCloseable, Iterable<BrokerTopic> {
 
 	@Override
 	public void close() throws IOException {
-		for (final Set<Socket> consumerSocketSet : consumerSocketsPerTopic.values()) {
-			for (final Socket socket : consumerSocketSet) {
-				socket.shutdownOutput();
-				socket.close();
+		synchronized (consumersPerTopic) {
+			for (final Set<Closeable> consumerSet : consumersPerTopic.values()) {
+				for (final Closeable consumer : consumerSet) {
+					consumer.close();
+				}
 			}
 		}
 	}
@@ -77,6 +80,17 @@ final class BrokerTopicManager implements AutoCloseable, Iterable<BrokerTopic> {
 		}
 	}
 
+	/**
+	 * Returns the names of the BrokerTopics in this manager.
+	 *
+	 * @return a new List with the names
+	 */
+	List<String> getTopicNames() {
+		synchronized (topicsByName) {
+			return new ArrayList<>(topicsByName.keySet());
+		}
+	}
+
 	/**
 	 * Returns the BrokerTopic with the given name.
 	 *
@@ -129,13 +143,13 @@ final class BrokerTopicManager implements AutoCloseable, Iterable<BrokerTopic> {
 			topicsByName.remove(topicName);
 		}
 
-		synchronized (consumerSocketsPerTopic) {
-			for (final Socket socket : consumerSocketsPerTopic.get(topicName)) {
-				socket.close();
+		synchronized (consumersPerTopic) {
+			for (final Closeable consumer : consumersPerTopic.get(topicName)) {
+				consumer.close();
 			}
 
-			consumerSocketsPerTopic.get(topicName).clear();
-			consumerSocketsPerTopic.remove(topicName);
+			consumersPerTopic.get(topicName).clear();
+			consumersPerTopic.remove(topicName);
 		}
 
 		synchronized (postDao) {
@@ -144,37 +158,99 @@ final class BrokerTopicManager implements AutoCloseable, Iterable<BrokerTopic> {
 	}
 
 	/**
-	 * Registers a new connection for a BrokerTopic.
+	 * Closes and unregisters all Consumers of a BrokerTopic without removing the BrokerTopic.
+	 *
+	 * @param topicName the name of the BrokerTopic
+	 *
+	 * @throws IOException if an I/O Error occurred while closing a connection associated with it
+	 * @throws NoSuchElementException if no BrokerTopic with that name exists in this manager
+	 */
+	void closeConsumers(String topicName) throws IOException, NoSuchElementException {
+		assertTopicExists(topicName);
+
+		final List<Closeable> consumers;
+		synchronized (consumersPerTopic) {
+			consumers = new ArrayList<>(consumersPerTopic.get(topicName));
+			consumersPerTopic.get(topicName).clear();
+		}
+
+		for (final Closeable consumer : consumers) {
+			consumer.close();
+		}
+	}
+
+	/**
+	 * Registers a Consumer of a BrokerTopic, which is closed when the BrokerTopic is removed or
+	 * when this manager is closed.
 	 *
-	 * @param topicName the name of the BrokerTopic to register the connection
-	 * @param socket the connection
+	 * @param topicName the name of the BrokerTopic to register the Consumer
+	 * @param consumer the object that stops the Consumer from listening for the BrokerTopic when
+	 * 		closed
 	 *
 	 * @throws NoSuchElementException if no BrokerTopic with that name exists in this manager
 	 */
-	void registerConsumer(String topicName, Socket socket) throws NoSuchElementException {
+	void registerConsumer(String topicName, Closeable consumer) throws NoSuchElementException {
 		assertTopicExists(topicName);
 
-		synchronized (consumerSocketsPerTopic) {
-			consumerSocketsPerTopic.get(topicName).add(socket);
+		synchronized (consumersPerTopic) {
+			consumersPerTopic.get(topicName).add(consumer);
+		}
+	}
+
+	/**
+	 * Unregisters a Consumer of a BrokerTopic that no longer listens for it. Nothing happens if
+	 * the BrokerTopic has been removed in the meantime.
+	 *
+	 * @param topicName the name of the BrokerTopic
+	 * @param consumer the object with which the Consumer was registered
+	 */
+	void unregisterConsumer(String topicName, Closeable consumer) {
+		synchronized (consumersPerTopic) {
+			final Set<Closeable> consumerSet = consumersPerTopic.get(topicName);
+			if (consumerSet != null) {
+				consumerSet.remove(consumer);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of Consumers registered for all the BrokerTopics in this manager, which
+	 * is the number of streams the Broker serves.
+	 *
+	 * @return the number of Consumers
+	 */
+	int getConsumerCount() {
+		synchronized (consumersPerTopic) {
+			int count = 0;
+			for (final Set<Closeable> consumerSet : consumersPerTopic.values()) {
+				count += consumerSet.size();
+			}
+			return count;
 		}
 	}
 
 	/**
-	 * Adds to the given List and the Map all the PostInfo and Packet objects in a BrokerTopic in
-	 * this manager, starting from a certain PostInfo object. The PostInfo with the given ID and its
-	 * Packets are not returned.
+	 * Adds to the given List and the Map the PostInfo of a Post of a BrokerTopic in this manager
+	 * and the Packets that contain a range of bytes of its data.
 	 *
 	 * @param topicName the name of the BrokerTopic whose data to extract
-	 * @param postId the ID of the PostInfo
-	 * @param piList the empty list where the PostInfo objects will be added, sorted from earliest
-	 * 		to latest
-	 * @param packetMap the empty map where the Packets of every PostInfo object will be added
+	 * @param postId the ID of the Post
+	 * @param offset the index of the first byte of the range
+	 * @param length the number of bytes in the range
+	 * @param piList the empty list where the PostInfo object will be added
+	 * @param packetMap the empty map where the Packets of the range will be added
+	 *
+	 * @return {@code true} if the range was added, {@code false} if no complete Post with that ID
+	 * 		exists in the BrokerTopic
 	 *
+	 * @throws IOException if an I/O Error occurs while reading the Post
+	 * @throws IllegalArgumentException if the offset is past the end of the data
 	 * @throws NoSuchElementException if no BrokerTopic with that name exists in this manager.
+	 * @see BrokerTopic#getPostRange(long, long, long, List, LongObjectMap)
 	 */
-	void getPostsFromTopicSince(String topicName, long postId, List<PostInfo> piList,
-			Map<? super Long, Packet[]> packetMap) {
-		getTopic0(topicName).getPostsSince(postId, piList, packetMap);
+	boolean getPostRangeFromTopic(String topicName, long postId, long offset, long length,
+			List<PostInfo> piList, LongObjectMap<Packet[]> packetMap) throws IOException {
+		return getTopic0(topicName).getPostRange(postId, offset, length, piList, packetMap);
 	}
 
 	/**
@@ -207,8 +283,8 @@ final class BrokerTopicManager implements AutoCloseable, Iterable<BrokerTopic> {
 			topicsByName.put(topicName, topic);
 		}
 
-		synchronized (consumerSocketsPerTopic) {
-			consumerSocketsPerTopic.put(topicName, new HashSet<>());
+		synchronized (consumersPerTopic) {
+			consumersPerTopic.put(topicName, new HashSet<>());
 		}
 	}
 
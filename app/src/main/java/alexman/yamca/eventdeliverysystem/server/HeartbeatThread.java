@@ -0,0 +1,104 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import alexman.yamca.eventdeliverysystem.datastructures.BrokerLoad;
+import alexman.yamca.eventdeliverysystem.util.LG;
+
+/**
+ * A Thread that sends the heartbeats of a Broker. The heartbeats of the other Brokers carry their
+ * load and are sent to the leader, and those of the leader carry the version of the current
+ * routing table and the load of every Broker and are sent to the other Brokers, which receive the
+ * routing table itself, or only its placement changes, when it changes. A Broker that stops
+ * sending heartbeats, or stops reading them, is considered to have failed.
+ * <p>
+ * The HeartbeatThread of another Broker ends once the leader has been silent for too long, after
+ * running the action that replaces the leader.
+ *
+ * @author Alex Mandelias
+ */
+final class HeartbeatThread extends Thread {
+
+	/** The time between two heartbeats */
+	static final long HEARTBEAT_INTERVAL_MILLIS = 1_000L;
+
+	/** The time without a heartbeat after which a Broker is considered to have failed */
+	static final long FAILURE_TIMEOUT_MILLIS = 5_000L;
+
+	private final BrokerLoads loads;
+	private final Runnable sendVersion;
+	private final PeerStreams peers;
+	private final Runnable onLeaderFailure;
+
+	// when the other Brokers last received a heartbeat from the leader
+	private volatile long leaderHeardAtMillis = System.currentTimeMillis();
+
+	/**
+	 * Constructs the HeartbeatThread of the leader Broker.
+	 *
+	 * @param loads the load of every Broker
+	 * @param sendVersion sends the version of the current routing table to the other Brokers
+	 * @param peers the streams to the other Brokers
+	 */
+	HeartbeatThread(BrokerLoads loads, Runnable sendVersion, PeerStreams peers) {
+		this(loads, sendVersion, peers, null);
+	}
+
+	/**
+	 * Constructs the HeartbeatThread of another Broker.
+	 *
+	 * @param loads the load of every Broker
+	 * @param leader the stream to the leader
+	 * @param onLeaderFailure run once the leader hasn't been heard from for
+	 * 		{@link #FAILURE_TIMEOUT_MILLIS}
+	 */
+	HeartbeatThread(BrokerLoads loads, PeerStreams leader, Runnable onLeaderFailure) {
+		this(loads, null, leader, onLeaderFailure);
+	}
+
+	private HeartbeatThread(BrokerLoads loads, Runnable sendVersion, PeerStreams peers,
+			Runnable onLeaderFailure) {
+		super("Heartbeat Thread");
+		this.loads = loads;
+		this.sendVersion = sendVersion;
+		this.peers = peers;
+		this.onLeaderFailure = onLeaderFailure;
+	}
+
+	@Override
+	public void run() {
+		LG.sout("HeartbeatThread#run()");
+		try {
+			while (sendHeartbeat()) {
+				Thread.sleep(HeartbeatThread.HEARTBEAT_INTERVAL_MILLIS);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LG.sout("#HeartbeatThread#run()");
+	}
+
+	/** Records that a heartbeat of the leader has been received */
+	void leaderHeard() {
+		leaderHeardAtMillis = System.currentTimeMillis();
+	}
+
+	// returns false once the leader has failed, after replacing it
+	private boolean sendHeartbeat() {
+		final BrokerLoad ownLoad = loads.measureOwnLoad();
+
+		if (sendVersion != null) {
+			sendVersion.run();
+			peers.send(loads.getAll());
+			return true;
+		}
+
+		final long silentMillis = System.currentTimeMillis() - leaderHeardAtMillis;
+		if (silentMillis > HeartbeatThread.FAILURE_TIMEOUT_MILLIS) {
+			LG.sout("The leader hasn't been heard from for %d ms", silentMillis);
+			onLeaderFailure.run();
+			return false;
+		}
+
+		peers.send(ownLoad);
+		return true;
+	}
+}
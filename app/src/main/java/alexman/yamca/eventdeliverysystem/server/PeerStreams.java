@@ -0,0 +1,193 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import alexman.yamca.eventdeliverysystem.util.LG;
+
+/**
+ * The streams over which a Broker sends its heartbeats to the other Brokers, and over which the
+ * leader sends every new routing table. Each Broker is written to by its own Thread, so that a
+ * Broker that stops reading doesn't hold up the others. A Broker whose messages aren't written in
+ * time is considered to have failed and its connection is closed, and the Brokers that can't be
+ * reached are no longer sent anything.
+ * <p>
+ * The responses over a control channel are sent the same way, so that the Thread that answers a
+ * request, or that pushes a new routing table to the client, never waits for the client.
+ *
+ * @author Alex Mandelias
+ */
+final class PeerStreams {
+
+	/** The number of messages waiting to be written to a Broker after which it is dropped */
+	static final int MAX_QUEUED_MESSAGES = 64;
+
+	// written to a Broker after its last message, once it is removed
+	private static final Object END = new Object();
+
+	private final long writeTimeoutMillis;
+
+	// guarded by itself, since Brokers join and leave while the server is running
+	private final Map<ObjectOutputStream, PeerWriter> writerPerStream = new HashMap<>();
+
+	/**
+	 * Constructs the PeerStreams of a Broker, which initially sends nothing.
+	 *
+	 * @param writeTimeoutMillis the time after which a Broker to which a message is still being
+	 * 		written is dropped
+	 */
+	PeerStreams(long writeTimeoutMillis) {
+		this.writeTimeoutMillis = writeTimeoutMillis;
+	}
+
+	/**
+	 * Sends everything from now on to another Broker.
+	 *
+	 * @param socket the connection to the Broker, which is closed if the Broker is dropped
+	 * @param stream the stream to the Broker
+	 */
+	void add(Socket socket, ObjectOutputStream stream) {
+		final PeerWriter writer = new PeerWriter(socket, stream);
+		synchronized (writerPerStream) {
+			writerPerStream.put(stream, writer);
+		}
+		writer.start();
+	}
+
+	/**
+	 * Stops sending anything to another Broker, once the messages already sent to it have been
+	 * written, which this method waits for at most as long as a write may take.
+	 *
+	 * @param stream the stream to the Broker
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	void remove(ObjectOutputStream stream) throws InterruptedException {
+		final PeerWriter writer;
+		synchronized (writerPerStream) {
+			writer = writerPerStream.remove(stream);
+		}
+
+		if (writer != null) {
+			if (writer.queue.offer(PeerStreams.END)) {
+				writer.join(writeTimeoutMillis);
+			}
+			writer.interrupt();
+		}
+	}
+
+	/** Stops sending anything to every Broker, without waiting for any message to be written */
+	void close() {
+		final List<PeerWriter> writers;
+		synchronized (writerPerStream) {
+			writers = new ArrayList<>(writerPerStream.values());
+			writerPerStream.clear();
+		}
+
+		for (final PeerWriter writer : writers) {
+			writer.interrupt();
+		}
+	}
+
+	/**
+	 * Sends a message to the other Brokers without waiting for it to be written. The messages are
+	 * written to each Broker in the order in which they are sent.
+	 *
+	 * @param message the message
+	 */
+	void send(Serializable message) {
+		final List<PeerWriter> writers;
+		synchronized (writerPerStream) {
+			writers = new ArrayList<>(writerPerStream.values());
+		}
+
+		for (final PeerWriter writer : writers) {
+			if (!writer.offer(message)) {
+				LG.sout("Dropping connection to %s, which doesn't read its messages in time",
+						writer.socket.getRemoteSocketAddress());
+				forget(writer);
+				writer.drop();
+			}
+		}
+	}
+
+	private void forget(PeerWriter writer) {
+		synchronized (writerPerStream) {
+			writerPerStream.remove(writer.stream, writer);
+		}
+		writer.interrupt();
+	}
+
+	private final class PeerWriter extends Thread {
+
+		private static final long NOT_WRITING = -1L;
+
+		private final Socket socket;
+		private final ObjectOutputStream stream;
+		private final BlockingQueue<Object> queue =
+				new ArrayBlockingQueue<>(PeerStreams.MAX_QUEUED_MESSAGES);
+
+		// when the message being written started being written
+		private volatile long writingSinceMillis = PeerWriter.NOT_WRITING;
+
+		private PeerWriter(Socket socket, ObjectOutputStream stream) {
+			super("PeerWriter-" + socket.getRemoteSocketAddress());
+			this.socket = socket;
+			this.stream = stream;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					final Object message = queue.take();
+					if (message == PeerStreams.END) {
+						return;
+					}
+
+					writingSinceMillis = System.currentTimeMillis();
+					stream.writeObject(message);
+					stream.flush();
+
+					// the stream would otherwise keep a reference to every message written
+					stream.reset();
+					writingSinceMillis = PeerWriter.NOT_WRITING;
+				}
+			} catch (final IOException e) {
+				// the Broker can't be reached
+				LG.exception(e);
+				forget(this);
+			} catch (final InterruptedException e) {
+				// the Broker has been removed
+			}
+		}
+
+		// returns false if the Broker has stalled, in which case the message isn't written
+		private boolean offer(Serializable message) {
+			final long since = writingSinceMillis;
+			if ((since != PeerWriter.NOT_WRITING)
+			    && ((System.currentTimeMillis() - since) > writeTimeoutMillis)) {
+				return false;
+			}
+
+			return queue.offer(message);
+		}
+
+		// closes the connection to the Broker, which ends the write that has stalled
+		private void drop() {
+			try {
+				socket.close();
+			} catch (final IOException e) {
+				LG.exception(e);
+			}
+		}
+	}
+}
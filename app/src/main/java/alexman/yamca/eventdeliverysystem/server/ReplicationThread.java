@@ -0,0 +1,331 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame.Kind;
+import alexman.yamca.eventdeliverysystem.thread.SyncMode;
+import alexman.yamca.eventdeliverysystem.util.LG;
+
+/**
+ * A Thread that streams the Topics of a Broker to one of their followers. The Posts of each Topic
+ * are streamed as in a subscription session, starting after the last Post that the follower
+ * already has, without waiting for the follower to acknowledge the ones that have already been
+ * streamed. The follower acknowledges them in batches, from which this Thread keeps track of
+ * whether the follower is in sync for each Topic.
+ * <p>
+ * A follower is in sync for a Topic once it has acknowledged every Post that the Broker has
+ * stored, each of them up to its final Packet, and stays in sync unless it falls behind for more
+ * than {@link #MAX_REPLICATION_LAG_MILLIS} without storing any Post. The Posts that the follower
+ * says it has when it connects only decide where the stream of each Topic starts. Uploads are
+ * acknowledged to the Publisher once the followers that are in sync have stored them. Consumers
+ * may listen for a Topic on its followers as well, which is why each follower is told whether it
+ * is in sync.
+ *
+ * @author Alex Mandelias
+ */
+final class ReplicationThread extends Thread {
+
+	/** The time for which a follower may fall behind without storing any Post and stay in sync */
+	static final long MAX_REPLICATION_LAG_MILLIS = 10_000L;
+
+	private final ConnectionInfo follower;
+	private final ConnectionInfo ownCI;
+	private final BrokerTopicManager btm;
+	private final LongAdder bytesOut;
+	private final Consumer<ReplicationThread> onEnd;
+
+	// all guarded by the lock of this Thread. the follower's last Posts are known once connected,
+	// and the Topics streamed at that time are streamed from then on.
+	private final Map<String, ReplicaState> statePerTopic = new HashMap<>();
+	private Set<String> topicsToReplicate = Collections.emptySet();
+	private Map<String, Long> lastPostIdPerTopic = null;
+	private BrokerPushThread pushThread = null;
+	private boolean closed = false;
+
+	/**
+	 * Constructs the Thread that streams the Topics of a Broker to one of their followers.
+	 *
+	 * @param follower the follower
+	 * @param ownCI the ConnectionInfo of the Broker
+	 * @param btm the manager of the Topics of the Broker
+	 * @param bytesOut the counter to which the length of each Packet streamed is added
+	 * @param onEnd called with this Thread once the stream ends
+	 */
+	ReplicationThread(ConnectionInfo follower, ConnectionInfo ownCI, BrokerTopicManager btm,
+			LongAdder bytesOut, Consumer<ReplicationThread> onEnd) {
+		super("ReplicationThread-" + follower);
+		this.follower = follower;
+		this.ownCI = ownCI;
+		this.btm = btm;
+		this.bytesOut = bytesOut;
+		this.onEnd = onEnd;
+	}
+
+	@Override
+	public void run() {
+		LG.sout("%s#run()", getName());
+
+		try (Socket socket = new Socket(follower.getAddress(), follower.getPort())) {
+			socket.setTcpNoDelay(true);
+			final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+
+			oos.writeObject(new Message(MessageType.REPLICATE_TOPICS, ownCI));
+			oos.flush();
+
+			if (!ois.readBoolean()) {
+				throw new IOException("Broker " + follower + " can't follow " + ownCI);
+			}
+
+			@SuppressWarnings("unchecked")
+			final Map<String, Long> followerLastPostIds = (Map<String, Long>) ois.readObject();
+
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+
+				lastPostIdPerTopic = followerLastPostIds;
+				pushThread = new BrokerPushThread(oos, SyncMode.FULL, getName(), bytesOut);
+				pushThread.start();
+				updateSubscriptions();
+
+				// the follower may have dropped its copy of a Topic streamed later in the meantime
+				lastPostIdPerTopic.clear();
+			}
+
+			while (true) {
+				final SessionFrame frame = (SessionFrame) ois.readObject();
+				if (frame.getKind() != Kind.ACKNOWLEDGED) {
+					throw new IllegalArgumentException(
+							"Followers can't send SessionFrames of kind " + frame.getKind());
+				}
+
+				acknowledge(frame.getTopicName(), (Long) frame.getValue());
+			}
+		} catch (final EOFException | SocketException e) {
+			// stream ended by this broker or by the follower
+		} catch (final IOException | ClassNotFoundException e) {
+			LG.exception(e);
+		} finally {
+			onEnd.accept(this);
+			close();
+		}
+
+		LG.sout("#%s#run()", getName());
+	}
+
+	/**
+	 * Returns the follower to which this Thread streams Topics.
+	 *
+	 * @return the follower
+	 */
+	ConnectionInfo getFollower() {
+		return follower;
+	}
+
+	/**
+	 * Sets the Topics to stream to the follower, which ends the stream if there are none.
+	 *
+	 * @param topicNames the names of the Topics
+	 *
+	 * @return {@code false} if the stream has already ended, in which case nothing happens,
+	 * 		{@code true} otherwise
+	 */
+	synchronized boolean replicate(Set<String> topicNames) {
+		if (closed) {
+			return false;
+		}
+
+		topicsToReplicate = topicNames;
+		if (topicNames.isEmpty()) {
+			close();
+		} else if (pushThread != null) {
+			updateSubscriptions();
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until the follower has stored a Post of a Topic, unless it isn't in sync for the Topic
+	 * or the deadline passes.
+	 *
+	 * @param topic the Topic
+	 * @param postId the id of the Post
+	 * @param deadlineMillis the time after which to stop waiting
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	synchronized void awaitAcknowledgement(BrokerTopic topic, long postId, long deadlineMillis)
+			throws InterruptedException {
+		final int index = topic.indexOf(postId);
+		while (true) {
+			final ReplicaState state = statePerTopic.get(topic.getName());
+			if ((state == null) || !isInSync(topic, state)
+			    || (topic.indexOf(state.acknowledgedPostId) >= index)) {
+				return;
+			}
+
+			final long remainingMillis = deadlineMillis - System.currentTimeMillis();
+			if (remainingMillis <= 0) {
+				return;
+			}
+
+			wait(remainingMillis);
+		}
+	}
+
+	// called while holding the lock of this Thread, once connected. the follower is told how far
+	// behind it is whenever it falls out of sync or gets back in sync.
+	private boolean isInSync(BrokerTopic topic, ReplicaState state) {
+		final long now = System.currentTimeMillis();
+		final int lastIndex = topic.indexOf(topic.getLastPostIdWithoutGaps());
+		if (state.acknowledged && (topic.indexOf(state.acknowledgedPostId) >= lastIndex)) {
+			if (!state.inSync) {
+				LG.sout("%s in sync for %s", follower, topic.getName());
+				pushThread.send(new SessionFrame(Kind.REPLICATION_LAG, topic.getName(), 0L));
+			}
+			state.inSync = true;
+			state.behindSinceMillis = ReplicaState.NOT_BEHIND;
+			return true;
+		}
+
+		if (state.behindSinceMillis == ReplicaState.NOT_BEHIND) {
+			state.behindSinceMillis = now;
+		}
+
+		final long stalledSinceMillis =
+				Math.max(state.behindSinceMillis, state.acknowledgedAtMillis);
+		final long lagMillis = now - stalledSinceMillis;
+		if (state.inSync && (lagMillis > ReplicationThread.MAX_REPLICATION_LAG_MILLIS)) {
+			LG.sout("%s out of sync for %s, %d ms behind", follower, topic.getName(), lagMillis);
+			pushThread.send(new SessionFrame(Kind.REPLICATION_LAG, topic.getName(), lagMillis));
+			state.inSync = false;
+		}
+		return state.inSync;
+	}
+
+	private synchronized void acknowledge(String topicName, long postId) {
+		final ReplicaState state = statePerTopic.get(topicName);
+		if (state == null) {
+			return;
+		}
+
+		state.acknowledged = true;
+		state.acknowledgedPostId = postId;
+		state.acknowledgedAtMillis = System.currentTimeMillis();
+		try {
+			isInSync(btm.getTopic(topicName), state);
+		} catch (final NoSuchElementException e) {
+			// the Topic has been deleted in the meantime
+		}
+		notifyAll();
+	}
+
+	// called while holding the lock of this Thread, once connected
+	private void updateSubscriptions() {
+		final Iterator<Map.Entry<String, ReplicaState>> it = statePerTopic.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<String, ReplicaState> e = it.next();
+			if (!topicsToReplicate.contains(e.getKey())) {
+				it.remove();
+				btm.unregisterConsumer(e.getKey(), e.getValue().registration);
+
+				// the follower keeps its copy if the routing table says so
+				pushThread.unsubscribe(e.getKey(), Kind.UNSUBSCRIBED);
+			}
+		}
+
+		for (final String topicName : topicsToReplicate) {
+			if (!statePerTopic.containsKey(topicName)) {
+				startReplicating(topicName);
+			}
+		}
+
+		notifyAll();
+	}
+
+	// called while holding the lock of this Thread, once connected
+	private void startReplicating(String topicName) {
+		// the follower deletes its copy as well if the Topic is deleted
+		final BrokerPushThread replicationPushThread = pushThread;
+		final Closeable registration =
+				() -> replicationPushThread.unsubscribe(topicName, Kind.TOPIC_DELETED);
+
+		final Long followerLastPostId = lastPostIdPerTopic.remove(topicName);
+		final long lastPostId = followerLastPostId == null ? AbstractTopic.FETCH_ALL_POSTS
+		                                                   : followerLastPostId;
+		final BrokerTopic topic;
+		try {
+			btm.registerConsumer(topicName, registration);
+			topic = btm.getTopic(topicName);
+			try {
+				pushThread.subscribe(topic, lastPostId);
+			} catch (final NoSuchElementException e) {
+				// the copy of the follower has different Posts, which it doesn't store again
+				pushThread.subscribe(topic, AbstractTopic.FETCH_ALL_POSTS);
+			}
+		} catch (final NoSuchElementException e) {
+			// the Topic has been deleted in the meantime
+			btm.unregisterConsumer(topicName, registration);
+			return;
+		}
+
+		// the follower is in sync once it acknowledges the Posts that it has stored
+		final ReplicaState state = new ReplicaState(registration);
+		statePerTopic.put(topicName, state);
+		isInSync(topic, state);
+	}
+
+	/** Stops streaming every Topic and ends the stream */
+	synchronized void close() {
+		closed = true;
+		for (final Map.Entry<String, ReplicaState> e : statePerTopic.entrySet()) {
+			btm.unregisterConsumer(e.getKey(), e.getValue().registration);
+		}
+		statePerTopic.clear();
+
+		if (pushThread != null) {
+			pushThread.interrupt();
+		}
+
+		notifyAll();
+	}
+
+	// what a Broker knows about a follower of one of its Topics
+	private static final class ReplicaState {
+
+		private static final long NOT_BEHIND = -1L;
+
+		private final Closeable registration;
+		private boolean acknowledged = false;
+		private long acknowledgedPostId = AbstractTopic.FETCH_ALL_POSTS;
+		private long acknowledgedAtMillis = 0L;
+		private long behindSinceMillis = ReplicaState.NOT_BEHIND;
+		private boolean inSync = false;
+
+		private ReplicaState(Closeable registration) {
+			this.registration = registration;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame.Kind;
+import alexman.yamca.eventdeliverysystem.thread.SyncMode;
+import alexman.yamca.eventdeliverysystem.util.LG;
+
+/**
+ * A Thread that hands over a Topic to the Broker on which the routing table now places it. The
+ * Posts of the Topic are streamed to the new Broker, along with the Posts uploaded while they are
+ * being streamed, after which uploads are refused and the Posts uploaded until then are streamed.
+ * Once the new Broker has received all of them, each of them complete, the Topic is removed from
+ * this Broker, whose Consumers and Publishers are then redirected to the new Broker. Otherwise
+ * this Broker keeps the Topic.
+ *
+ * @author Alex Mandelias
+ */
+final class TopicMigrationThread extends Thread {
+
+	private final String topicName;
+	private final ConnectionInfo newBroker;
+	private final ConnectionInfo ownCI;
+	private final Supplier<RoutingTable> routingTable;
+	private final BrokerTopicManager btm;
+	private final TopicOwnership ownership;
+	private final LongAdder bytesOut;
+
+	/**
+	 * Constructs the Thread that hands over a Topic, which must have been marked as being handed
+	 * over with {@link TopicOwnership#beginMigration(String)}.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param newBroker the Broker that takes it over
+	 * @param ownCI the ConnectionInfo of this Broker
+	 * @param routingTable the current routing table
+	 * @param btm the manager of the Topics of this Broker
+	 * @param ownership the ownership of the Topics of this Broker
+	 * @param bytesOut the counter to which the length of each Packet streamed is added
+	 */
+	TopicMigrationThread(String topicName, ConnectionInfo newBroker, ConnectionInfo ownCI,
+			Supplier<RoutingTable> routingTable, BrokerTopicManager btm,
+			TopicOwnership ownership, LongAdder bytesOut) {
+		super("TopicMigrationThread-" + topicName);
+		this.topicName = topicName;
+		this.newBroker = newBroker;
+		this.ownCI = ownCI;
+		this.routingTable = routingTable;
+		this.btm = btm;
+		this.ownership = ownership;
+		this.bytesOut = bytesOut;
+	}
+
+	@Override
+	public void run() {
+		LG.sout("%s#run(%s)", getName(), newBroker);
+
+		BrokerPushThread pushThread = null;
+		Closeable registration = null;
+		boolean handedOver = false;
+
+		try (Socket socket = new Socket(newBroker.getAddress(), newBroker.getPort())) {
+			socket.setTcpNoDelay(true);
+			final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+
+			oos.writeObject(new Message(MessageType.MIGRATE_TOPIC, topicName));
+			oos.flush();
+
+			if (!ois.readBoolean()) {
+				throw new IOException("Broker " + newBroker + " can't take over " + topicName);
+			}
+
+			pushThread = new BrokerPushThread(oos, SyncMode.FULL, getName(), bytesOut);
+			pushThread.start();
+
+			// uploaded Posts are posted whole, so an incomplete Post was left by a stream from
+			// another broker that has ended and is never streamed, since it never completes
+			final BrokerTopic topic = btm.getTopic(topicName);
+			topic.discardIncompletePosts();
+
+			// the new broker deletes the Topic as well if it is deleted in the meantime
+			final BrokerPushThread migrationPushThread = pushThread;
+			registration = () -> migrationPushThread.unsubscribe(topicName, Kind.TOPIC_DELETED);
+			btm.registerConsumer(topicName, registration);
+			pushThread.subscribe(topic, AbstractTopic.FETCH_ALL_POSTS);
+
+			// uploads are redirected from now on, so the Posts being uploaded are the last ones
+			ownership.redirectUploads(topicName, newBroker);
+
+			// the Topic changes broker only once the new broker has every Post complete
+			pushThread.finish(topicName, new SessionFrame(Kind.UNSUBSCRIBED, topicName));
+			if (!ois.readBoolean()) {
+				throw new IOException("Broker " + newBroker + " didn't receive every Post of "
+				                      + topicName);
+			}
+
+			// the Consumers of the Topic are redirected once their data has been streamed
+			btm.unregisterConsumer(topicName, registration);
+			handedOver = true;
+
+			// a follower of the new broker keeps the Topic, which the new broker streams to it
+			if (routingTable.get().getReplicasForTopic(topicName).contains(ownCI)) {
+				ownership.addReplica(topicName, newBroker);
+				btm.closeConsumers(topicName);
+			} else {
+				btm.removeTopic(topicName);
+			}
+		} catch (final IOException | NoSuchElementException e) {
+			LG.exception(e);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (registration != null) {
+				btm.unregisterConsumer(topicName, registration);
+			}
+
+			if (pushThread != null) {
+				pushThread.interrupt();
+			}
+
+			ownership.endMigration(topicName, handedOver);
+		}
+
+		LG.sout("#%s#run(%s)", getName(), newBroker);
+	}
+}
@@ -0,0 +1,432 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+
+/**
+ * Keeps track of how the Topics of a Broker relate to the other Brokers: the Topics being handed
+ * over to other Brokers and the Brokers of the ones that have been, the Topics being taken over
+ * from other Brokers and the Broker of each Topic of which this Broker keeps a copy, along with how
+ * far behind the copy is. It also counts the uploads in progress for each Topic, which a hand-over
+ * waits for.
+ * <p>
+ * All of it is guarded by the lock of this object, on which the Threads that wait for uploads or
+ * take-overs to end wait.
+ *
+ * @author Alex Mandelias
+ */
+final class TopicOwnership {
+
+	private final BrokerTopicManager btm;
+
+	private final Set<String> topicsBeingMigrated = new HashSet<>();
+	private final Set<String> topicsBeingTakenOver = new HashSet<>();
+	private final Map<String, ConnectionInfo> newBrokerPerMovedTopic = new HashMap<>();
+	private final Map<String, ConnectionInfo> ownerPerReplicaTopic = new HashMap<>();
+	private final Map<String, Long> lagMillisPerReplicaTopic = new HashMap<>();
+	private final Map<String, Integer> uploadsInProgressPerTopic = new HashMap<>();
+
+	/**
+	 * Constructs the TopicOwnership of a Broker, none of whose Topics is being handed over, taken
+	 * over or copied.
+	 *
+	 * @param btm the manager of the Topics of the Broker
+	 */
+	TopicOwnership(BrokerTopicManager btm) {
+		this.btm = btm;
+	}
+
+	/**
+	 * Returns whether a Topic is neither a copy of a Topic of another Broker nor being handed over
+	 * to or taken over from another Broker, in which case it is a Topic of this Broker if the
+	 * routing table places it on this Broker.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return {@code true} if the Topic is none of the above, {@code false} otherwise
+	 */
+	synchronized boolean isLocal(String topicName) {
+		return !ownerPerReplicaTopic.containsKey(topicName)
+		       && !topicsBeingMigrated.contains(topicName)
+		       && !topicsBeingTakenOver.contains(topicName)
+		       && !newBrokerPerMovedTopic.containsKey(topicName);
+	}
+
+	/**
+	 * Returns whether a Topic is a copy of a Topic of another Broker.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return {@code true} if it is a copy, {@code false} otherwise
+	 */
+	synchronized boolean isReplica(String topicName) {
+		return ownerPerReplicaTopic.containsKey(topicName);
+	}
+
+	/**
+	 * Returns whether Posts may be uploaded to a Topic, in which case {@link #endUpload(String)}
+	 * must be called once they have been. Uploads to a Topic that is being handed over are
+	 * refused, and uploads to a Topic that is being taken over wait until its Posts are, so that
+	 * they follow them.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return {@code true} if Posts may be uploaded, {@code false} otherwise
+	 */
+	synchronized boolean beginUpload(String topicName) {
+		try {
+			while (topicsBeingTakenOver.contains(topicName)) {
+				wait();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		if (newBrokerPerMovedTopic.containsKey(topicName)
+		    || ownerPerReplicaTopic.containsKey(topicName)
+		    || !btm.topicExists(topicName)) {
+			return false;
+		}
+
+		uploadsInProgressPerTopic.merge(topicName, 1, Integer::sum);
+		return true;
+	}
+
+	/**
+	 * Returns whether the Posts streamed by a Broker may be stored in the copy of a Topic, in
+	 * which case {@link #endUpload(String)} must be called once they have been.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param owner the Broker that streams the Posts
+	 *
+	 * @return {@code true} if the Posts may be stored, {@code false} otherwise
+	 */
+	synchronized boolean beginReplicaUpload(String topicName, ConnectionInfo owner) {
+		if (!owner.equals(ownerPerReplicaTopic.get(topicName))) {
+			return false;
+		}
+
+		uploadsInProgressPerTopic.merge(topicName, 1, Integer::sum);
+		return true;
+	}
+
+	/**
+	 * Ends an upload that was allowed to begin.
+	 *
+	 * @param topicName the name of the Topic
+	 */
+	synchronized void endUpload(String topicName) {
+		uploadsInProgressPerTopic.computeIfPresent(topicName,
+				(key, count) -> count == 1 ? null : count - 1);
+		notifyAll();
+	}
+
+	/**
+	 * Waits until no Posts are being uploaded to a Topic.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	synchronized void awaitUploads(String topicName) throws InterruptedException {
+		while (uploadsInProgressPerTopic.containsKey(topicName)) {
+			wait();
+		}
+	}
+
+	/**
+	 * Marks a Topic as being handed over, unless it is a copy, being taken over or already being
+	 * handed over, in which case {@link #endMigration(String, boolean)} must be called once it
+	 * has been or has failed to be.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return {@code true} if the Topic may be handed over, {@code false} otherwise
+	 */
+	synchronized boolean beginMigration(String topicName) {
+		return !ownerPerReplicaTopic.containsKey(topicName)
+		       && !topicsBeingTakenOver.contains(topicName)
+		       && topicsBeingMigrated.add(topicName);
+	}
+
+	/**
+	 * Refuses the uploads to a Topic being handed over, which are redirected to the Broker that
+	 * takes it over, and waits until the uploads in progress end, so that their Posts are the last
+	 * ones of the Topic.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param newBroker the Broker that takes it over
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	synchronized void redirectUploads(String topicName, ConnectionInfo newBroker)
+			throws InterruptedException {
+		newBrokerPerMovedTopic.put(topicName, newBroker);
+		awaitUploads(topicName);
+	}
+
+	/**
+	 * Ends the hand-over of a Topic. Uploads to a Topic that hasn't been handed over are accepted
+	 * again.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param handedOver whether the Topic was handed over
+	 */
+	synchronized void endMigration(String topicName, boolean handedOver) {
+		if (!handedOver) {
+			newBrokerPerMovedTopic.remove(topicName);
+		}
+		topicsBeingMigrated.remove(topicName);
+		notifyAll();
+	}
+
+	/**
+	 * Marks a Topic as being taken over from another Broker, in which case {@link
+	 * #endTakeOver(String)} must be called once its Posts have been received.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return {@code true} if this Broker kept a copy of the Topic, which it keeps, {@code false}
+	 * 		otherwise
+	 */
+	synchronized boolean beginTakeOver(String topicName) {
+		newBrokerPerMovedTopic.remove(topicName);
+		topicsBeingTakenOver.add(topicName);
+		lagMillisPerReplicaTopic.remove(topicName);
+		return ownerPerReplicaTopic.remove(topicName) != null;
+	}
+
+	/**
+	 * Ends the take-over of a Topic, after which uploads to it are accepted.
+	 *
+	 * @param topicName the name of the Topic
+	 */
+	synchronized void endTakeOver(String topicName) {
+		topicsBeingTakenOver.remove(topicName);
+		notifyAll();
+	}
+
+	/**
+	 * Marks a Topic as a copy of a Topic of another Broker, whose Consumers are sent to that
+	 * Broker until it says that the copy is in sync. The Topic must not be handed over or taken
+	 * over meanwhile, so this method waits until it isn't, and then until no Posts are being
+	 * stored in it.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param owner the Broker of the Topic
+	 * @param isPlacedHere whether the routing table places the Topic on this Broker, in which case
+	 * 		it isn't a copy
+	 *
+	 * @return {@code true} if the Topic is a copy, {@code false} otherwise
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	synchronized boolean beginReplica(String topicName, ConnectionInfo owner,
+			BooleanSupplier isPlacedHere) throws InterruptedException {
+		while (topicsBeingMigrated.contains(topicName)
+		       || topicsBeingTakenOver.contains(topicName)) {
+			wait();
+		}
+
+		if (isPlacedHere.getAsBoolean()) {
+			return false;
+		}
+
+		ownerPerReplicaTopic.put(topicName, owner);
+		newBrokerPerMovedTopic.remove(topicName);
+		lagMillisPerReplicaTopic.remove(topicName);
+		awaitUploads(topicName);
+		return true;
+	}
+
+	/**
+	 * Marks a Topic that has been handed over as a copy of the Topic of the Broker that took it
+	 * over, which streams the Topic to this Broker.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param owner the Broker of the Topic
+	 */
+	synchronized void addReplica(String topicName, ConnectionInfo owner) {
+		ownerPerReplicaTopic.put(topicName, owner);
+	}
+
+	/**
+	 * Stops keeping a copy of a Topic of a Broker.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param owner the Broker of the Topic
+	 *
+	 * @return {@code true} if this Broker kept a copy of the Topic of that Broker, {@code false}
+	 * 		otherwise
+	 */
+	synchronized boolean removeReplica(String topicName, ConnectionInfo owner) {
+		final boolean isReplica = ownerPerReplicaTopic.remove(topicName, owner);
+		if (isReplica) {
+			newBrokerPerMovedTopic.remove(topicName);
+			lagMillisPerReplicaTopic.remove(topicName);
+		}
+		return isReplica;
+	}
+
+	/**
+	 * Returns the names of the Topics of which this Broker keeps a copy.
+	 *
+	 * @return a new List with the names
+	 */
+	synchronized List<String> getReplicaTopics() {
+		return new ArrayList<>(ownerPerReplicaTopic.keySet());
+	}
+
+	/**
+	 * Takes over the Topics of which this Broker keeps a copy and which a routing table places on
+	 * it, and stops keeping a copy of the Topics of which it is no longer a follower, whose new
+	 * Broker is recorded. This method returns once the Posts being stored in those Topics have
+	 * been stored, and {@link #endTakeOver(String)} must be called for each Topic taken over.
+	 *
+	 * @param newRoutingTable the routing table
+	 * @param topicNames the names of the Topics whose Brokers may have changed, or {@code null}
+	 * 		if the Brokers of any Topic may have changed
+	 * @param ownCI the ConnectionInfo of this Broker
+	 * @param promotedTopics the List to which the names of the Topics taken over are added
+	 * @param droppedTopics the List to which the names of the Topics no longer copied are added
+	 */
+	synchronized void updateReplicas(RoutingTable newRoutingTable, Collection<String> topicNames,
+			ConnectionInfo ownCI, List<String> promotedTopics, List<String> droppedTopics) {
+		final List<String> changedTopics = new ArrayList<>(
+				topicNames != null ? topicNames : ownerPerReplicaTopic.keySet());
+		for (final String topicName : changedTopics) {
+			if (!ownerPerReplicaTopic.containsKey(topicName)) {
+				continue;
+			}
+
+			final List<ConnectionInfo> replicas = newRoutingTable.getReplicasForTopic(topicName);
+
+			if (replicas.get(0).equals(ownCI)) {
+				// uploads wait until the Posts that the old Broker didn't finish are dropped
+				topicsBeingTakenOver.add(topicName);
+				newBrokerPerMovedTopic.remove(topicName);
+				lagMillisPerReplicaTopic.remove(topicName);
+				promotedTopics.add(topicName);
+				ownerPerReplicaTopic.remove(topicName);
+			} else if (!replicas.contains(ownCI)) {
+				newBrokerPerMovedTopic.put(topicName, replicas.get(0));
+				lagMillisPerReplicaTopic.remove(topicName);
+				droppedTopics.add(topicName);
+				ownerPerReplicaTopic.remove(topicName);
+			}
+		}
+
+		// the Posts being copied are stored before the copies change
+		try {
+			for (final String topicName : promotedTopics) {
+				awaitUploads(topicName);
+			}
+			for (final String topicName : droppedTopics) {
+				awaitUploads(topicName);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the Broker that took over a Topic.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return the Broker, or {@code null} if the Topic hasn't been handed over
+	 */
+	synchronized ConnectionInfo getNewBroker(String topicName) {
+		return newBrokerPerMovedTopic.get(topicName);
+	}
+
+	/**
+	 * Returns the Broker of a Topic of which this Broker keeps a copy.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return the Broker, or {@code null} if this Broker doesn't keep a copy of the Topic
+	 */
+	synchronized ConnectionInfo getOwner(String topicName) {
+		return ownerPerReplicaTopic.get(topicName);
+	}
+
+	/**
+	 * Returns the Broker on which the Consumers of a Topic listen for it once they no longer can
+	 * on this Broker, which is either the Broker that took it over or the Broker of a Topic of
+	 * which this Broker keeps a copy.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return the Broker, or {@code null} if the Topic has been deleted
+	 */
+	synchronized ConnectionInfo getBrokerForConsumers(String topicName) {
+		final ConnectionInfo newBroker = newBrokerPerMovedTopic.get(topicName);
+		return newBroker != null ? newBroker : ownerPerReplicaTopic.get(topicName);
+	}
+
+	/**
+	 * Returns the Broker of a Topic of which this Broker keeps a copy that isn't known to be in
+	 * sync, on which Consumers listen for the Topic instead.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param maxLagMillis the time for which a copy may fall behind and stay in sync
+	 *
+	 * @return the Broker, or {@code null} if Consumers may listen for the Topic on this Broker
+	 */
+	synchronized ConnectionInfo getBrokerForLaggingReplica(String topicName,
+			long maxLagMillis) {
+		final Long lagMillis = lagMillisPerReplicaTopic.get(topicName);
+		if ((lagMillis != null) && (lagMillis <= maxLagMillis)) {
+			return null;
+		}
+
+		return ownerPerReplicaTopic.get(topicName);
+	}
+
+	/**
+	 * Records how far behind the copy of a Topic streamed by a Broker is, as measured by that
+	 * Broker.
+	 *
+	 * @param topicName the name of the Topic
+	 * @param owner the Broker of the Topic
+	 * @param lagMillis how far behind the copy is, in milliseconds
+	 *
+	 * @return {@code true} if this Broker keeps a copy of the Topic of that Broker, {@code false}
+	 * 		otherwise
+	 */
+	synchronized boolean setReplicationLag(String topicName, ConnectionInfo owner,
+			long lagMillis) {
+		if (!owner.equals(ownerPerReplicaTopic.get(topicName))) {
+			return false;
+		}
+
+		lagMillisPerReplicaTopic.put(topicName, lagMillis);
+		return true;
+	}
+
+	/**
+	 * Forgets how far behind the copies of some Topics streamed by a Broker are, once the Broker
+	 * stops streaming them, so that their Consumers are sent to the Broker.
+	 *
+	 * @param topicNames the names of the Topics
+	 * @param owner the Broker of the Topics
+	 */
+	synchronized void clearReplicationLag(Collection<String> topicNames, ConnectionInfo owner) {
+		for (final String topicName : topicNames) {
+			if (owner.equals(ownerPerReplicaTopic.get(topicName))) {
+				lagMillisPerReplicaTopic.remove(topicName);
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+import alexman.yamca.eventdeliverysystem.util.LG;
+
+/**
+ * Places new Topics on the least loaded Broker and removes deleted Topics from the placement
+ * directory on behalf of the leader. The requests are applied in batches: the Thread whose request
+ * finds no batch being applied applies every request made until then with a single new routing
+ * table, and keeps applying the requests made meanwhile, which therefore don't each replace the
+ * routing table and send it to every Broker.
+ *
+ * @author Alex Mandelias
+ */
+final class TopicPlacer {
+
+	private final BrokerLoads loads;
+	private final Consumer<UnaryOperator<RoutingTable>> routingTableReplacer;
+	private final Supplier<RoutingTable> routingTableSupplier;
+
+	// whether each Topic is to be placed or removed, the requests waiting for them and whether a
+	// Thread is applying them, all guarded by the lock of this object
+	private Map<String, Boolean> placePerPendingTopic = new LinkedHashMap<>();
+	private List<CompletableFuture<RoutingTable>> pendingRequests = new ArrayList<>();
+	private boolean placing = false;
+
+	/**
+	 * Constructs the TopicPlacer of the leader.
+	 *
+	 * @param loads the load of every Broker, to which the Topics placed are counted
+	 * @param routingTableReplacer replaces the routing table of the leader with the one derived
+	 * 		from it, unless it isn't newer
+	 * @param routingTableSupplier supplies the routing table of the leader
+	 */
+	TopicPlacer(BrokerLoads loads, Consumer<UnaryOperator<RoutingTable>> routingTableReplacer,
+			Supplier<RoutingTable> routingTableSupplier) {
+		this.loads = loads;
+		this.routingTableReplacer = routingTableReplacer;
+		this.routingTableSupplier = routingTableSupplier;
+	}
+
+	/**
+	 * Places a new Topic on the least loaded Broker, unless it has been placed already.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return a future that is completed with a routing table in which the Topic is placed
+	 */
+	CompletableFuture<RoutingTable> place(String topicName) {
+		return request(topicName, true);
+	}
+
+	/**
+	 * Removes a deleted Topic from the placement directory.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return a future that is completed with a routing table in which the Topic isn't placed
+	 */
+	CompletableFuture<RoutingTable> unplace(String topicName) {
+		return request(topicName, false);
+	}
+
+	private CompletableFuture<RoutingTable> request(String topicName, boolean place) {
+		final CompletableFuture<RoutingTable> request = new CompletableFuture<>();
+		synchronized (this) {
+			// the latest request for a Topic is the one applied
+			placePerPendingTopic.put(topicName, place);
+			pendingRequests.add(request);
+
+			if (placing) {
+				return request;
+			}
+			placing = true;
+		}
+
+		applyPendingRequests();
+		return request;
+	}
+
+	private void applyPendingRequests() {
+		while (true) {
+			final Map<String, Boolean> batch;
+			final List<CompletableFuture<RoutingTable>> requests;
+			synchronized (this) {
+				if (placePerPendingTopic.isEmpty()) {
+					placing = false;
+					return;
+				}
+
+				batch = placePerPendingTopic;
+				requests = pendingRequests;
+				placePerPendingTopic = new LinkedHashMap<>();
+				pendingRequests = new ArrayList<>();
+			}
+
+			try {
+				routingTableReplacer.accept(current -> applyBatch(current, batch));
+			} catch (final RuntimeException e) {
+				LG.exception(e);
+				for (final CompletableFuture<RoutingTable> request : requests) {
+					request.completeExceptionally(e);
+				}
+				continue;
+			}
+
+			final RoutingTable newRoutingTable = routingTableSupplier.get();
+			for (final CompletableFuture<RoutingTable> request : requests) {
+				request.complete(newRoutingTable);
+			}
+		}
+	}
+
+	// places the new Topics on the least loaded broker, counting each one towards its load so
+	// that the Topics of a batch are spread over the brokers
+	private RoutingTable applyBatch(RoutingTable current, Map<String, Boolean> batch) {
+		final Map<String, ConnectionInfo> placedTopics = new HashMap<>();
+		final List<String> unplacedTopics = new ArrayList<>();
+
+		for (final Map.Entry<String, Boolean> e : batch.entrySet()) {
+			final String topicName = e.getKey();
+			if (!e.getValue()) {
+				unplacedTopics.add(topicName);
+			} else if (!current.isPlaced(topicName)) {
+				final ConnectionInfo leastLoaded = loads.assignTopic(current.getWeightPerBroker());
+				LG.sout("Placing Topic %s on %s", topicName, leastLoaded);
+				placedTopics.put(topicName, leastLoaded);
+			}
+		}
+
+		return current.withPlacedTopics(placedTopics, unplacedTopics);
+	}
+}
@@ -0,0 +1,86 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import alexman.yamca.eventdeliverysystem.util.LG;
+
+/**
+ * Saves the Posts of a BrokerTopic to its ITopicDAO object once they have been fully received.
+ * The Posts are saved on Threads shared by every Topic of a Broker, and not by the Thread that
+ * posts them, so that a slow disk doesn't hold up the notifications of the Topic. The Posts of a
+ * Topic are saved one at a time, in the order in which they were completed.
+ *
+ * @author Alex Mandelias
+ */
+final class TopicWriter {
+
+	private final BrokerTopic topic;
+	private final Executor executor;
+	private final Runnable onFailure;
+
+	// the IDs of the Posts waiting to be saved and whether a Thread is saving them, all guarded by
+	// the lock of this object
+	private final Queue<Long> pendingPostIds = new ArrayDeque<>();
+	private boolean saving = false;
+
+	/**
+	 * Constructs the TopicWriter of a BrokerTopic.
+	 *
+	 * @param topic the BrokerTopic whose Posts to save
+	 * @param executor the Executor on which the Posts are saved
+	 * @param onFailure run if a Post can't be saved
+	 */
+	TopicWriter(BrokerTopic topic, Executor executor, Runnable onFailure) {
+		this.topic = topic;
+		this.executor = executor;
+		this.onFailure = onFailure;
+	}
+
+	/**
+	 * Saves a Post of the Topic after the Posts completed before it, without waiting for it to be
+	 * saved.
+	 *
+	 * @param postId the ID of the Post
+	 */
+	void save(long postId) {
+		synchronized (this) {
+			pendingPostIds.add(postId);
+			if (saving) {
+				return;
+			}
+			saving = true;
+		}
+
+		try {
+			executor.execute(this::savePendingPosts);
+		} catch (final RejectedExecutionException e) {
+			// the Broker has been closed
+			LG.err("Can't save Post %d of Topic %s", postId, topic.getName());
+		}
+	}
+
+	private void savePendingPosts() {
+		while (true) {
+			final long postId;
+			synchronized (this) {
+				final Long next = pendingPostIds.poll();
+				if (next == null) {
+					saving = false;
+					return;
+				}
+				postId = next;
+			}
+
+			try {
+				topic.savePostToTFS(postId);
+			} catch (final IOException e) {
+				LG.exception(e);
+				onFailure.run();
+			}
+		}
+	}
+}
@@ -4,23 +4,56 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
 
 import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
 import alexman.yamca.eventdeliverysystem.util.LG;
 import alexman.yamca.eventdeliverysystem.datastructures.Packet;
 import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
 
 /**
- * A Thread that reads some Posts from a stream and then posts them to a Topic as they arrive.
+ * A Thread that reads some Posts from a stream and then posts them to a Topic as they arrive. The
+ * Packets of different Posts may be interleaved in the stream, in which case the Posts are read
+ * concurrently.
+ * <p>
+ * By default, the Packets of each Post are staged in this Thread until the final one arrives and
+ * the whole Post is then posted to the Topic at once. This way, Posts read concurrently by
+ * different Threads only contend for the Topic while being posted, and a Post that is not fully
+ * read is never posted.
  *
  * @author Alex Mandelias
+ * @see Delivery
  */
 public final class PullThread extends Thread {
 
+	/**
+	 * Defines when the objects read by the Pull Thread are posted to the Topic.
+	 *
+	 * @author Alex Mandelias
+	 */
+	public enum Delivery {
+
+		/** Stage the Packets of each Post and post the whole Post once its final Packet is read */
+		WHOLE_POSTS,
+
+		/** Post each PostInfo and Packet as soon as it is read */
+		AS_RECEIVED,
+	}
+
+	private static final Packet[] ZERO_LENGTH_PACKET_ARRAY = new Packet[0];
+
 	private final ObjectInputStream ois;
 	private final AbstractTopic topic;
+	private final SyncMode syncMode;
+	private final Delivery delivery;
 	private final Callback callback;
 
+	// the Posts whose PostInfo has been read but whose final Packet has not
+	private final LongObjectMap<PostInfo> stagedPostInfos = new LongObjectMap<>();
+	private final LongObjectMap<List<Packet>> stagedPackets = new LongObjectMap<>();
+
 	/**
 	 * Constructs the Thread that reads some Posts from a stream and posts them to a Topic.
 	 *
@@ -42,9 +75,49 @@ public final class PullThread extends Thread {
 	 * @see Callback
 	 */
 	public PullThread(ObjectInputStream stream, AbstractTopic topic, Callback callback) {
+		this(stream, topic, SyncMode.FULL, callback);
+	}
+
+	/**
+	 * Constructs the Thread that reads some Posts, or only their PostInfo objects, from a stream
+	 * and posts them to a Topic and additionally calls a callback right before finishing
+	 * execution.
+	 *
+	 * @param stream the input stream from which to read the Posts
+	 * @param topic the Topic in which the new Posts will be added
+	 * @param syncMode the parts of each Post that will be read from the stream
+	 * @param callback the callback to call right before finishing execution
+	 *
+	 * @see SyncMode
+	 * @see Callback
+	 */
+	public PullThread(ObjectInputStream stream, AbstractTopic topic, SyncMode syncMode,
+			Callback callback) {
+		this(stream, topic, syncMode, Delivery.WHOLE_POSTS, callback);
+	}
+
+	/**
+	 * Constructs the Thread that reads some Posts, or only their PostInfo objects, from a stream
+	 * and posts them to a Topic at the specified time and additionally calls a callback right
+	 * before finishing execution.
+	 *
+	 * @param stream the input stream from which to read the Posts
+	 * @param topic the Topic in which the new Posts will be added
+	 * @param syncMode the parts of each Post that will be read from the stream
+	 * @param delivery when the objects read are posted to the Topic
+	 * @param callback the callback to call right before finishing execution
+	 *
+	 * @see SyncMode
+	 * @see Delivery
+	 * @see Callback
+	 */
+	public PullThread(ObjectInputStream stream, AbstractTopic topic, SyncMode syncMode,
+			Delivery delivery, Callback callback) {
 		super("PullThread-" + topic.getName());
 		ois = stream;
 		this.topic = topic;
+		this.syncMode = syncMode;
+		this.delivery = delivery;
 		this.callback = callback;
 	}
 
@@ -56,23 +129,29 @@ public final class PullThread extends Thread {
 			final int postCount = ois.readInt();
 			LG.sout("postCount=%d", postCount);
 
-			for (int i = 0; i < postCount; i++) {
-
-				final PostInfo postInfo = (PostInfo) ois.readObject();
+			int completedPostCount = 0;
+			while (completedPostCount < postCount) {
+				final Object obj = ois.readObject();
 
 				LG.in();
-				LG.sout("postInfo=%s", postInfo);
-				topic.post(postInfo);
-
-				Packet packet;
-				do {
-					packet = (Packet) ois.readObject();
-
+				if (obj instanceof PostInfo) {
+					final PostInfo postInfo = (PostInfo) obj;
+					LG.sout("postInfo=%s", postInfo);
+
+					if (syncMode == SyncMode.METADATA_ONLY) {
+						topic.post(postInfo, PullThread.ZERO_LENGTH_PACKET_ARRAY);
+						completedPostCount++;
+					} else {
+						readPostInfo(postInfo);
+					}
+				} else {
+					final Packet packet = (Packet) obj;
 					LG.sout("packet=%s", packet);
 
-					topic.post(packet);
-				} while (!packet.isFinal());
-
+					if (readPacket(packet)) {
+						completedPostCount++;
+					}
+				}
 				LG.out();
 			}
 
@@ -89,8 +168,53 @@ public final class PullThread extends Thread {
 			if (callback != null) {
 				callback.onCompletion(false, topic.getName(), e);
 			}
+		} finally {
+			releaseStagedPackets();
 		}
 
 		LG.sout("#%s#run()", getName());
 	}
+
+	private void readPostInfo(PostInfo postInfo) {
+		if (delivery == Delivery.AS_RECEIVED) {
+			topic.post(postInfo);
+			return;
+		}
+
+		stagedPostInfos.put(postInfo.getId(), postInfo);
+		stagedPackets.put(postInfo.getId(), new ArrayList<>());
+	}
+
+	// returns whether the Packet completes its Post
+	private boolean readPacket(Packet packet) {
+		if (delivery == Delivery.AS_RECEIVED) {
+			topic.post(packet);
+			return packet.isFinal();
+		}
+
+		final long postId = packet.getPostId();
+		final List<Packet> packetsOfPost = stagedPackets.get(postId);
+		if (packetsOfPost == null) {
+			packet.release();
+			throw new IllegalStateException("Received Packet of unknown Post " + postId);
+		}
+
+		packetsOfPost.add(packet);
+
+		if (!packet.isFinal()) {
+			return false;
+		}
+
+		final Packet[] packets = packetsOfPost.toArray(PullThread.ZERO_LENGTH_PACKET_ARRAY);
+		stagedPackets.remove(postId);
+		topic.post(stagedPostInfos.remove(postId), packets);
+		return true;
+	}
+
+	// the Posts of the staged Packets will never be complete
+	private void releaseStagedPackets() {
+		stagedPackets.forEachValue(packets -> packets.forEach(Packet::release));
+		stagedPackets.clear();
+		stagedPostInfos.clear();
+	}
 }
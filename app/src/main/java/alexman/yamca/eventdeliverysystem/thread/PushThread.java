@@ -4,8 +4,8 @@ import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
 import alexman.yamca.eventdeliverysystem.datastructures.Packet;
 import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
 import alexman.yamca.eventdeliverysystem.util.LG;
@@ -34,8 +34,9 @@ public final class PushThread extends Thread {
 	private final ObjectOutputStream oos;
 	private final String topicName;
 	private final List<PostInfo> postInfoList;
-	private final Map<Long, Packet[]> packetMap;
+	private final LongObjectMap<Packet[]> packetMap;
 	private final Protocol protocol;
+	private final SyncMode syncMode;
 	private final Callback callback;
 
 	/**
@@ -50,8 +51,27 @@ public final class PushThread extends Thread {
 	 * @see Protocol
 	 */
 	public PushThread(ObjectOutputStream stream, List<PostInfo> postInfoList,
-			Map<Long, Packet[]> packetMap, Protocol protocol) {
-		this(stream, null, postInfoList, packetMap, protocol, null);
+			LongObjectMap<Packet[]> packetMap, Protocol protocol) {
+		this(stream, postInfoList, packetMap, protocol, SyncMode.FULL);
+	}
+
+	/**
+	 * Constructs the Thread that writes some Posts, or only their PostInfo objects, to a stream.
+	 *
+	 * @param stream the output stream to which to write the Posts
+	 * @param postInfoList the PostInfo objects to write to the stream
+	 * @param packetMap the array of Packets to write for each PostInfo object. It is not used if
+	 * 		the {@code syncMode} is {@link SyncMode#METADATA_ONLY}
+	 * @param protocol the protocol to use when pushing, which alters the behaviour of the Pull
+	 * 		Thread
+	 * @param syncMode the parts of each Post to write to the stream
+	 *
+	 * @see Protocol
+	 * @see SyncMode
+	 */
+	public PushThread(ObjectOutputStream stream, List<PostInfo> postInfoList,
+			LongObjectMap<Packet[]> packetMap, Protocol protocol, SyncMode syncMode) {
+		this(stream, null, postInfoList, packetMap, protocol, syncMode, null);
 	}
 
 	/**
@@ -70,7 +90,13 @@ public final class PushThread extends Thread {
 	 * @see Callback
 	 */
 	public PushThread(ObjectOutputStream stream, String topicName, List<PostInfo> postInfoList,
-			Map<Long, Packet[]> packetMap, Protocol protocol, Callback callback) {
+			LongObjectMap<Packet[]> packetMap, Protocol protocol, Callback callback) {
+		this(stream, topicName, postInfoList, packetMap, protocol, SyncMode.FULL, callback);
+	}
+
+	private PushThread(ObjectOutputStream stream, String topicName, List<PostInfo> postInfoList,
+			LongObjectMap<Packet[]> packetMap, Protocol protocol, SyncMode syncMode,
+			Callback callback) {
 		super("PushThread-" + postInfoList.size() + '-' + protocol);
 
 		if (callback != null && topicName == null) {
@@ -80,8 +106,9 @@ public final class PushThread extends Thread {
 		oos = stream;
 		this.topicName = topicName;
 		this.postInfoList = Collections.unmodifiableList(postInfoList);
-		this.packetMap = Collections.unmodifiableMap(packetMap);
+		this.packetMap = LongObjectMap.unmodifiable(packetMap);
 		this.protocol = protocol;
+		this.syncMode = syncMode;
 		this.callback = callback;
 	}
 
@@ -104,6 +131,10 @@ public final class PushThread extends Thread {
 				LG.sout("postInfo=%s", postInfo);
 				oos.writeObject(postInfo);
 
+				if (syncMode == SyncMode.METADATA_ONLY) {
+					continue;
+				}
+
 				final Packet[] packetArray = packetMap.get(postInfo.getId());
 				for (final Packet packet : packetArray) {
 					oos.writeObject(packet);
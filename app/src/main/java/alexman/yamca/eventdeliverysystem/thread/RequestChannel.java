@@ -0,0 +1,278 @@
+package alexman.yamca.eventdeliverysystem.thread;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.ControlRequest;
+import alexman.yamca.eventdeliverysystem.datastructures.ControlResponse;
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.util.LG;
+
+/**
+ * A persistent control channel to a Broker, over which clients send their requests and Brokers
+ * forward the requests of clients to other Brokers. Each request carries an ID, so that many
+ * requests can be sent without waiting for the previous ones to be answered, and their responses
+ * are matched to them as they arrive.
+ * <p>
+ * The connection is established when the first request is sent, and is established again when a
+ * request is sent after it has been lost. A request whose response doesn't arrive in time fails
+ * and its response is ignored if it arrives later.
+ *
+ * @author Alex Mandelias
+ */
+public final class RequestChannel implements AutoCloseable {
+
+	/** The time for which a request waits for its response, unless specified otherwise */
+	public static final long DEFAULT_TIMEOUT_MILLIS = 10_000L;
+
+	// fails the requests that haven't been answered in time, shared by every RequestChannel
+	private static final ScheduledThreadPoolExecutor timeouts;
+
+	static {
+		timeouts = new ScheduledThreadPoolExecutor(1, runnable -> {
+			final Thread thread = new Thread(runnable, "RequestChannel-Timeouts");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timeouts.setRemoveOnCancelPolicy(true);
+	}
+
+	private final InetAddress brokerIP;
+	private final int brokerPort;
+	private final ConnectionInfo forwardingBroker;
+	private final long timeoutMillis;
+
+	// guarded by this
+	private Connection connection = null;
+	private long nextRequestId = 0;
+
+	/**
+	 * Constructs a RequestChannel to a Broker whose requests fail if their response doesn't arrive
+	 * within a timeout. No connection is established until a request is sent.
+	 *
+	 * @param brokerIP the InetAddress of the Broker
+	 * @param brokerPort the port of the Broker
+	 * @param forwardingBroker the ConnectionInfo of the Broker that forwards requests over this
+	 * 		channel, or {@code null} if a client sends them
+	 * @param timeoutMillis the time, in milliseconds, for which a request waits for its response
+	 */
+	public RequestChannel(InetAddress brokerIP, int brokerPort, ConnectionInfo forwardingBroker,
+			long timeoutMillis) {
+		this.brokerIP = brokerIP;
+		this.brokerPort = brokerPort;
+		this.forwardingBroker = forwardingBroker;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Sends a request to the Broker without waiting for its response.
+	 *
+	 * @param message the request
+	 *
+	 * @return a future that is completed with the response, or exceptionally with an IOException
+	 * 		if the connection to the Broker is lost before the response arrives or with a
+	 * 		TimeoutException if the response does not arrive in time
+	 */
+	public CompletableFuture<ControlResponse> send(Message message) {
+		final CompletableFuture<ControlResponse> response = new CompletableFuture<>();
+
+		final Connection current;
+		try {
+			current = getConnection();
+		} catch (final IOException e) {
+			response.completeExceptionally(e);
+			return response;
+		}
+
+		final long requestId;
+		synchronized (this) {
+			requestId = nextRequestId++;
+			current.pendingResponses.put(requestId, response);
+		}
+
+		// the response is no longer waited for once the request has failed in any way. a request
+		// that times out is forgotten before it fails, since the stages that depend on it run
+		// before the one below.
+		final ScheduledFuture<?> timeout = RequestChannel.timeouts.schedule(() -> {
+			synchronized (this) {
+				current.pendingResponses.remove(requestId);
+			}
+			response.completeExceptionally(new TimeoutException("Broker did not respond in time"));
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+		response.whenComplete((ignored, cause) -> {
+			timeout.cancel(false);
+			synchronized (this) {
+				current.pendingResponses.remove(requestId);
+			}
+		});
+
+		try {
+			current.send(new ControlRequest(requestId, message));
+		} catch (final IOException e) {
+			response.completeExceptionally(e);
+			closeConnection(current);
+		}
+
+		return response;
+	}
+
+	// returns the connection to the Broker, establishing it without holding the lock so that the
+	// requests over an existing connection and closing this channel aren't blocked meanwhile
+	private Connection getConnection() throws IOException {
+		synchronized (this) {
+			if (connection != null) {
+				return connection;
+			}
+		}
+
+		final Connection newConnection = new Connection();
+
+		synchronized (this) {
+			if (connection != null) {
+				// another connection was established in the meantime
+				newConnection.close();
+				return connection;
+			}
+
+			connection = newConnection;
+			newConnection.start();
+			return newConnection;
+		}
+	}
+
+	/**
+	 * Returns the number of requests whose response is waited for.
+	 *
+	 * @return the number of requests
+	 */
+	public synchronized int getPendingRequestCount() {
+		return connection == null ? 0 : connection.pendingResponses.size();
+	}
+
+	@Override
+	public void close() {
+		final Connection current;
+		synchronized (this) {
+			current = connection;
+		}
+
+		if (current != null) {
+			closeConnection(current);
+		}
+	}
+
+	// fails the requests that have not been answered and allows a new connection to be made
+	private void closeConnection(Connection closed) {
+		synchronized (this) {
+			if (connection == closed) {
+				connection = null;
+			}
+		}
+
+		closed.close();
+	}
+
+	private final class Connection extends Thread {
+
+		private final Socket socket;
+		private final ObjectOutputStream oos;
+		private final ObjectInputStream ois;
+
+		// guarded by the RequestChannel
+		private final LongObjectMap<CompletableFuture<ControlResponse>> pendingResponses =
+				new LongObjectMap<>();
+
+		private Connection() throws IOException {
+			super("RequestChannel-" + brokerIP + ':' + brokerPort);
+			setDaemon(true);
+
+			socket = new Socket(brokerIP, brokerPort);
+			try {
+				socket.setTcpNoDelay(true);
+				oos = new ObjectOutputStream(socket.getOutputStream());
+				oos.flush();
+
+				// don't remove the following line even if the ois isn't used
+				// https://stackoverflow.com/questions/72920493/
+				ois = new ObjectInputStream(socket.getInputStream());
+
+				oos.writeObject(
+						new Message(MessageType.INITIALISE_CONTROL_CHANNEL, forwardingBroker));
+				oos.flush();
+
+				if (!ois.readBoolean()) {
+					throw new IOException("Broker refused to open a control channel");
+				}
+			} catch (final IOException e) {
+				socket.close();
+				throw e;
+			}
+		}
+
+		private synchronized void send(ControlRequest request) throws IOException {
+			LG.sout("RequestChannel#send(%s)", request);
+			oos.writeObject(request);
+			oos.flush();
+
+			// the stream would otherwise keep a reference to every object written
+			oos.reset();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					final ControlResponse response = (ControlResponse) ois.readObject();
+					LG.sout("RequestChannel#receive(%s)", response);
+
+					final CompletableFuture<ControlResponse> future;
+					synchronized (RequestChannel.this) {
+						future = pendingResponses.remove(response.getRequestId());
+					}
+
+					if (future != null) {
+						future.complete(response);
+					}
+				}
+			} catch (final ClassNotFoundException | IOException e) {
+				// connection lost or closed, the pending requests fail below
+			}
+
+			closeConnection(this);
+		}
+
+		private void close() {
+			try {
+				socket.close();
+			} catch (final IOException e) {
+				LG.exception(e);
+			}
+
+			// completing a future removes it from the map, so they are completed afterwards
+			final List<CompletableFuture<ControlResponse>> futures = new ArrayList<>();
+			synchronized (RequestChannel.this) {
+				pendingResponses.forEachValue(futures::add);
+				pendingResponses.clear();
+			}
+
+			final IOException cause = new IOException(
+					"Connection to Broker at " + brokerIP + ':' + brokerPort + " lost");
+			for (final CompletableFuture<ControlResponse> future : futures) {
+				future.completeExceptionally(cause);
+			}
+		}
+	}
+}
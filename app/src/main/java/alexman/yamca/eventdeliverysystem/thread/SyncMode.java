@@ -0,0 +1,18 @@
+package alexman.yamca.eventdeliverysystem.thread;
+
+/**
+ * Defines what parts of a Post are transferred by the Push and Pull Threads.
+ *
+ * @author Alex Mandelias
+ */
+public enum SyncMode {
+
+	/** Both the PostInfo and the Packets of each Post are transferred */
+	FULL,
+
+	/**
+	 * Only the PostInfo of each Post is transferred. The data of the Post can be fetched later,
+	 * when it is actually needed.
+	 */
+	METADATA_ONLY,
+}
@@ -1,5 +1,6 @@
 /**
- * Defines general-purpose Thread subclasses which are used to send and receive data.
+ * Defines general-purpose Thread subclasses, and the channels built on them, which are used to
+ * send and receive data.
  *
  * @author Alex Mandelias
  */
@@ -0,0 +1,152 @@
+package alexman.yamca.server;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import alexman.yamca.eventdeliverysystem.datastructures.BrokerLoad;
+import alexman.yamca.eventdeliverysystem.datastructures.BrokerLoad.Metric;
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+import alexman.yamca.eventdeliverysystem.util.LG;
+
+/**
+ * Reports how evenly the load is spread across the Brokers of a running server. The load of each
+ * Broker, as last reported to the leader, is printed along with the number of Topics that the
+ * leader has placed on it, followed by the imbalance of each kind of load, which is the relative
+ * load of the most loaded Broker. An imbalance of {@code 1} means that the load is perfectly
+ * balanced.
+ *
+ * @author Alex Mandelias
+ */
+final class ImbalanceReport {
+
+	private static final String LINE_SEP = System.lineSeparator();
+
+	private static final int ARG_IP = 0;
+	private static final int ARG_PORT = 1;
+
+	private static final String USAGE = "Usage:" + LINE_SEP
+	        + "\tjava app.ImbalanceReport <ip> <port>" + LINE_SEP
+	        + LINE_SEP
+	        + "Where:" + LINE_SEP
+	        + "\t<ip>    the ip of any server" + LINE_SEP
+	        + "\t<port>  the port the server listens to for clients (See 'Client Port' in the"
+	                                    + " server's console)";
+
+	private ImbalanceReport() {}
+
+	/**
+	 * Prints the report.
+	 *
+	 * @param args see {@code ImbalanceReport#USAGE} for more information or run with no args
+	 */
+	public static void main(String[] args) {
+		LG.setOut(System.out);
+		LG.setErr(System.err);
+		LG.setTabSize(4);
+
+		if (args.length < 2) {
+			LG.sout(ImbalanceReport.USAGE);
+			return;
+		}
+
+		final String ip = args[ARG_IP];
+		final int port;
+		try {
+			port = Integer.parseInt(args[ARG_PORT]);
+		} catch (NumberFormatException e) {
+			LG.err("The port must be an integer");
+			return;
+		}
+
+		final RoutingTable routingTable;
+		final Map<ConnectionInfo, BrokerLoad> loadPerBroker;
+		try {
+			routingTable = (RoutingTable) ImbalanceReport.request(ip, port,
+					new Message(MessageType.ROUTING_TABLE_DISCOVERY, RoutingTable.NO_VERSION));
+
+			@SuppressWarnings("unchecked")
+			final Map<ConnectionInfo, BrokerLoad> loads =
+					(Map<ConnectionInfo, BrokerLoad>) ImbalanceReport.request(ip, port,
+							new Message(MessageType.LOAD_DISCOVERY, null));
+			loadPerBroker = loads;
+		} catch (IOException | ClassNotFoundException e) {
+			LG.err("Could not get the load of the server: %s", e);
+			return;
+		}
+
+		ImbalanceReport.report(routingTable, loadPerBroker);
+	}
+
+	private static void report(RoutingTable routingTable,
+			Map<ConnectionInfo, BrokerLoad> loadPerBroker) {
+
+		final Map<ConnectionInfo, Integer> weightPerBroker = routingTable.getWeightPerBroker();
+
+		final Map<ConnectionInfo, Integer> placedTopicsPerBroker = new HashMap<>();
+		for (final ConnectionInfo broker : routingTable.getBrokerPerPlacedTopic().values()) {
+			placedTopicsPerBroker.merge(broker, 1, Integer::sum);
+		}
+
+		final Map<ConnectionInfo, Double> scorePerBroker =
+				BrokerLoad.getScorePerBroker(weightPerBroker, loadPerBroker);
+
+		LG.sout("Routing table version %d, leader %s", routingTable.getVersion(),
+				RoutingTable.nameOf(routingTable.getLeader()));
+
+		LG.in();
+		for (final Map.Entry<ConnectionInfo, Integer> e : weightPerBroker.entrySet()) {
+			final ConnectionInfo broker = e.getKey();
+			final BrokerLoad load = loadPerBroker.getOrDefault(broker, BrokerLoad.NONE);
+
+			LG.sout("%-21s weight=%-3d placed=%-6d topics=%-6d consumers=%-6d in=%-10d "
+			        + "out=%-10d heap=%5.1f%% score=%.3f", RoutingTable.nameOf(broker),
+					e.getValue(), placedTopicsPerBroker.getOrDefault(broker, 0),
+					load.getTopicCount(), load.getConsumerCount(), load.getBytesInPerSecond(),
+					load.getBytesOutPerSecond(), 100 * Metric.HEAP.of(load),
+					scorePerBroker.get(broker));
+		}
+		LG.out();
+
+		LG.sout("");
+		LG.sout("Imbalance of each kind of load (1 is perfectly balanced)");
+
+		LG.in();
+		for (final Metric metric : Metric.values()) {
+			final Map<ConnectionInfo, Double> relativeLoadPerBroker =
+					BrokerLoad.getRelativeLoadPerBroker(metric, weightPerBroker, loadPerBroker);
+
+			double maxLoad = 0;
+			double sumOfSquares = 0;
+			for (final double relativeLoad : relativeLoadPerBroker.values()) {
+				maxLoad = Math.max(maxLoad, relativeLoad);
+				sumOfSquares += (relativeLoad - 1) * (relativeLoad - 1);
+			}
+
+			final double deviation = Math.sqrt(sumOfSquares / relativeLoadPerBroker.size());
+			LG.sout("%-9s imbalance=%.3f, load deviation=%.3f", metric, maxLoad, deviation);
+		}
+		LG.out();
+	}
+
+	// sends a request on its own connection, to which the broker sends a single response
+	private static Object request(String ip, int port, Message message)
+			throws IOException, ClassNotFoundException {
+		try (Socket socket = new Socket(ip, port)) {
+			final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+
+			oos.writeObject(message);
+			oos.flush();
+
+			return ois.readObject();
+		}
+	}
+}
@@ -6,10 +6,16 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
 import java.util.concurrent.ThreadLocalRandom;
 
 import alexman.yamca.eventdeliverysystem.dao.ITopicDAO;
+import alexman.yamca.eventdeliverysystem.datastructures.Partitioner;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
 import alexman.yamca.eventdeliverysystem.filesystem.FileSystemException;
 import alexman.yamca.eventdeliverysystem.filesystem.TopicFileSystem;
 import alexman.yamca.eventdeliverysystem.server.Broker;
@@ -25,20 +31,33 @@ final class Server {
 	private static final String LINE_SEP = System.lineSeparator();
 	private static final int MAX_PORT_NUMBER = 65_535;
 
-	// ARG_FLAG and ARG_PATH should be in the same position as ARG_IP and ARG_PORT respectively
+	// ARG_FLAG and ARG_PATH should be in the same position as ARG_IP and ARG_PORT respectively,
+	// and so should ARG_FLAG and ARG_REPLICATION_FACTOR
 	private static final int ARG_BROKER_DIR = 0;
 	private static final int ARG_IP = 1;
 	private static final int ARG_PORT = 2;
 	private static final int ARG_FLAG = 1;
 	private static final int ARG_PATH = 2;
+	private static final int ARG_REPLICATION_FACTOR = 2;
+
+	// the optional weight is always the last argument
+	private static final int ARG_LEADER_WEIGHT = 1;
+	private static final int ARG_WEIGHT = 3;
+
+	// the optional partitioner is removed from the arguments before the others are parsed
+	private static final String PARTITIONER_FLAG = "-p";
 
 	private static final String USAGE = "Usage:" + LINE_SEP
-	        + "\t   java app.Server <broker_dir>" + LINE_SEP
-	        + "\tor java app.Server <broker_dir> <ip> <port>" + LINE_SEP
-	        + "\tor java app.Server <broker_dir> -f <path>" + LINE_SEP
+	        + "\t   java app.Server <broker_dir> [<weight>]" + LINE_SEP
+	        + "\tor java app.Server <broker_dir> -r <replicas> [<weight>]" + LINE_SEP
+	        + "\tor java app.Server <broker_dir> <ip> <port> [<weight>]" + LINE_SEP
+	        + "\tor java app.Server <broker_dir> -f <path> [<weight>]" + LINE_SEP
+	        + "\twith an optional -p <partitioner> after <broker_dir>" + LINE_SEP
 	        + LINE_SEP
 	        + "Options:" + LINE_SEP
+	        + "\t-r\tcopy each topic to other servers (first server only)" + LINE_SEP
 	        + "\t-f\tread connection configuration from file" + LINE_SEP
+	        + "\t-p\tplace topics with another hash function (first server only)" + LINE_SEP
 	        + LINE_SEP
 	        + "Where:" + LINE_SEP
 	        + "\t<broker_dir>    the directory where the topics will be saved for this server"
@@ -47,15 +66,22 @@ final class Server {
 			                            + LINE_SEP
 	        + "\t<port>          the port the first server listens to (See 'Broker Port' in the"
 										+ " first server's console)" + LINE_SEP
-	        + "\t<path>          the file with the configuration";
+	        + "\t<path>          the file with the configuration" + LINE_SEP
+	        + "\t<replicas>      the number of other servers that keep a copy of each topic and"
+	                                    + " take it over if its server fails (default 0)"
+	                                    + LINE_SEP
+	        + "\t<weight>        the share of the topics this server is responsible for, relative"
+	                                    + " to the other servers (default 1)" + LINE_SEP
+	        + "\t<partitioner>   the hash function, `fnv_1a` (default) or `md5`, which servers"
+	                                    + " that have placed topics with it must keep using";
 
 	private Server() {}
 
 	/**
-	 * Starts a new broker as a process on the local machine. If more than one arg is provided the
-	 * broker will attempt to connect to the leader broker. If exactly one arg is provided, the
-	 * broker is considered the leader broker. When starting the server subsystem the first broker
-	 * MUST be the leader.
+	 * Starts a new broker as a process on the local machine. If more than two args are provided
+	 * the broker will attempt to connect to the leader broker. If one or two args are provided,
+	 * or if the second one is {@code -r}, the broker is considered the leader broker. When
+	 * starting the server subsystem the first broker MUST be the leader.
 	 *
 	 * @param args see {@code Server#Usage} for more information or run with no args
 	 */
@@ -66,16 +92,68 @@ final class Server {
 
 		LG.args(args);
 
+		final List<String> argList = new ArrayList<>(Arrays.asList(args));
+		final Partitioner partitioner;
+		final int partitionerIndex = argList.indexOf(Server.PARTITIONER_FLAG);
+		if (partitionerIndex == -1) {
+			partitioner = Partitioner.DEFAULT;
+		} else {
+			try {
+				partitioner = Partitioner.valueOf(
+						argList.get(partitionerIndex + 1).toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+				LG.sout(Server.USAGE);
+				return;
+			}
+
+			argList.subList(partitionerIndex, partitionerIndex + 2).clear();
+			args = argList.toArray(new String[0]);
+		}
+
 		switch (args.length) {
 		case 1:
+		case 2:
 		case 3:
+		case 4:
 			break;
 		default:
 			LG.sout(Server.USAGE);
 			return;
 		}
 
-		final boolean leader = args.length == 1;
+		final boolean replicated = (args.length > ARG_FLAG) && "-r".equals(args[ARG_FLAG]);
+		final boolean leader = (args.length <= 2) || replicated;
+		final int weightIndex = (leader && !replicated) ? ARG_LEADER_WEIGHT : ARG_WEIGHT;
+		final int weight;
+		if (args.length > weightIndex) {
+			try {
+				weight = Integer.parseInt(args[weightIndex]);
+				if (weight <= 0) {
+					throw new IllegalArgumentException();
+				}
+			} catch (IllegalArgumentException e) {
+				LG.err("Invalid weight: %s", args[weightIndex]);
+				return;
+			}
+		} else {
+			weight = RoutingTable.DEFAULT_WEIGHT;
+		}
+
+		final int replicationFactor;
+		if (replicated) {
+			try {
+				replicationFactor = Integer.parseInt(args[ARG_REPLICATION_FACTOR]);
+				if (replicationFactor < 0) {
+					throw new IllegalArgumentException();
+				}
+			} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+				LG.sout(Server.USAGE);
+				return;
+			}
+		} else {
+			replicationFactor = RoutingTable.DEFAULT_REPLICATION_FACTOR;
+		}
+
 		final Path path = new File(args[ARG_BROKER_DIR]).getAbsoluteFile().toPath();
 		final String ip;
 		final int port;
@@ -144,8 +222,11 @@ final class Server {
 			return;
 		}
 
-		try (Broker broker = leader ? new Broker(postDao, crs, brs)
-		                            : new Broker(postDao, crs, brs, ip, port)) {
+		try (Broker broker = leader
+		                     ? new Broker(postDao, crs, brs, weight,
+		                             RoutingTable.DEFAULT_VIRTUAL_NODES_PER_WEIGHT,
+		                             partitioner, replicationFactor)
+		                     : new Broker(postDao, crs, brs, ip, port, weight)) {
 
 			final String brokerId = leader ? "Leader" : Integer.toString(
 					ThreadLocalRandom.current().nextInt(1, 100));
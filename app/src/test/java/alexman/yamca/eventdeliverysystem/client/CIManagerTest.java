@@ -0,0 +1,160 @@
+package alexman.yamca.eventdeliverysystem.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.ControlRequest;
+import alexman.yamca.eventdeliverysystem.datastructures.ControlResponse;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.datastructures.Partitioner;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the Brokers that a {@link CIManager} finds for Consumers, using a fake default Broker
+ * of a server on which every Topic is copied to one follower.
+ *
+ * @author Alex Mandelias
+ */
+public class CIManagerTest {
+
+	private static final String TOPIC_NAME = "topic";
+
+	private ServerSocket serverSocket;
+	private ServerSocket otherBrokerSocket;
+	private RoutingTable routingTable;
+	private CIManager ciManager;
+
+	private final AtomicInteger consumerDiscoveries = new AtomicInteger(0);
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		serverSocket = new ServerSocket(0);
+		otherBrokerSocket = new ServerSocket(0);
+
+		final Map<ConnectionInfo, Integer> weightPerBroker = new LinkedHashMap<>();
+		weightPerBroker.put(ConnectionInfo.forServerSocket(serverSocket), 1);
+		weightPerBroker.put(ConnectionInfo.forServerSocket(otherBrokerSocket), 1);
+		routingTable = new RoutingTable(1, weightPerBroker,
+				RoutingTable.DEFAULT_VIRTUAL_NODES_PER_WEIGHT, Partitioner.DEFAULT, 1);
+
+		final Thread broker = new Thread(this::runBroker, "FakeBroker");
+		broker.setDaemon(true);
+		broker.start();
+
+		ciManager = new CIManager(Collections.singletonList(
+				new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort())),
+				brokerCI -> {});
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		ciManager.close();
+		serverSocket.close();
+		otherBrokerSocket.close();
+	}
+
+	private void runBroker() {
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				final Thread connection = new Thread(() -> serve(socket), "FakeBroker-Channel");
+				connection.setDaemon(true);
+				connection.start();
+			}
+		} catch (final IOException e) {
+			// the test has finished
+		}
+	}
+
+	// answers the requests for the RoutingTable, but never sends a newer one, and sends every
+	// Consumer to the actual Broker of its Topic
+	private void serve(Socket socket) {
+		try (Socket s = socket) {
+			final ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(s.getInputStream());
+
+			ois.readObject();
+			oos.writeBoolean(true);
+			oos.flush();
+
+			while (true) {
+				final ControlRequest request = (ControlRequest) ois.readObject();
+				final Message message = request.getMessage();
+				final Serializable response;
+				if (message.getType() == MessageType.CONSUMER_DISCOVERY) {
+					consumerDiscoveries.incrementAndGet();
+					response = routingTable.getBrokerForTopic((String) message.getValue());
+				} else if (RoutingTable.NO_VERSION == (Long) message.getValue()) {
+					response = routingTable;
+				} else {
+					continue;
+				}
+
+				synchronized (oos) {
+					oos.writeObject(new ControlResponse(request.getRequestId(), response));
+					oos.flush();
+				}
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			// the channel was closed
+		}
+	}
+
+	/**
+	 * Consumers are spread over the Brokers of a Topic that the cached RoutingTable lists, and the
+	 * default Broker is asked only while there is no RoutingTable
+	 */
+	@Test(timeout = 30_000)
+	public void consumersAreSpreadOverCachedReplicas() throws ServerException {
+		final List<ConnectionInfo> replicas =
+				routingTable.getReplicasForTopic(CIManagerTest.TOPIC_NAME);
+		assertEquals(2, replicas.size());
+
+		assertEquals(replicas.get(0),
+				ciManager.getConnectionInfoForConsumer(CIManagerTest.TOPIC_NAME));
+		assertEquals(1, consumerDiscoveries.get());
+
+		// the RoutingTable that is fetched in the background is used from then on
+		ciManager.getConnectionInfoForTopic(CIManagerTest.TOPIC_NAME);
+
+		final Set<ConnectionInfo> brokers = new HashSet<>();
+		for (int i = 0; i < 100; i++) {
+			final ConnectionInfo broker =
+					ciManager.getConnectionInfoForConsumer(CIManagerTest.TOPIC_NAME);
+			assertTrue(broker + " doesn't have the Topic", replicas.contains(broker));
+			brokers.add(broker);
+		}
+
+		assertEquals(new HashSet<>(replicas), brokers);
+		assertEquals(1, consumerDiscoveries.get());
+	}
+}
@@ -0,0 +1,195 @@
+package alexman.yamca.eventdeliverysystem.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import alexman.yamca.eventdeliverysystem.client.UserEvent.Tag;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.filesystem.ProfileFileSystem;
+import alexman.yamca.eventdeliverysystem.filesystem.TopicFileSystem;
+import alexman.yamca.eventdeliverysystem.server.Broker;
+import alexman.yamca.eventdeliverysystem.thread.SyncMode;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the subscription sessions of a {@link Consumer}, through a User connected to a Broker
+ * that runs in the same process.
+ *
+ * @author Alex Mandelias
+ */
+public class ConsumerTest {
+
+	private static final String FAILING_TOPIC_NAME = "failing";
+	private static final String TOPIC_NAME = "topic";
+
+	private static final long EVENT_TIMEOUT_MILLIS = 10_000L;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Broker broker;
+	private int brokerPort;
+	private User user;
+	private final BlockingQueue<UserEvent> events = new LinkedBlockingQueue<>();
+	private volatile boolean failing = false;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException, InterruptedException {
+		final ServerSocket clientRequestSocket = new ServerSocket();
+		broker = new Broker(new TopicFileSystem(folder.newFolder("broker").toPath()),
+				clientRequestSocket, new ServerSocket());
+		new Thread(broker, "Broker").start();
+		brokerPort = clientRequestSocket.getLocalPort();
+
+		user = User.createNew("127.0.0.1", brokerPort,
+				new ProfileFileSystem(folder.newFolder("users").toPath()), "user");
+		user.addUserListener(new UserAdapter() {
+			@Override
+			public void onMessageReceived(UserEvent e) {
+				if (failing && e.topicName.equals(ConsumerTest.FAILING_TOPIC_NAME)) {
+					throw new IllegalStateException("Listener failed");
+				}
+				events.add(e);
+			}
+
+			@Override
+			public void onTopicListened(UserEvent e) {
+				events.add(e);
+			}
+
+			@Override
+			public void onTopicListenStopped(UserEvent e) {
+				events.add(e);
+			}
+		});
+
+		// each Topic is listened for once it is created, over the same session
+		for (final String topicName : new String[] { ConsumerTest.FAILING_TOPIC_NAME,
+				ConsumerTest.TOPIC_NAME }) {
+			user.createTopic(topicName);
+			final UserEvent listened = nextEvent();
+			assertNotNull(listened);
+			assertEquals(Tag.TOPIC_LISTENED, listened.tag);
+			assertTrue(listened.success);
+			TestFixtures.awaitTopic(user, topicName);
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try {
+			user.close();
+		} finally {
+			broker.close();
+		}
+	}
+
+	private UserEvent nextEvent() throws InterruptedException {
+		return events.poll(ConsumerTest.EVENT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/** A Topic whose data can't be received stops being listened for, but the others don't */
+	@Test(timeout = 60_000)
+	public void failureOfTopicDoesNotEndSession() throws InterruptedException {
+		failing = true;
+		user.post(Post.fromText("first", "user"), ConsumerTest.FAILING_TOPIC_NAME);
+
+		final UserEvent stopped = nextEvent();
+		assertNotNull(stopped);
+		assertEquals(Tag.TOPIC_LISTEN_STOPPED, stopped.tag);
+		assertEquals(ConsumerTest.FAILING_TOPIC_NAME, stopped.topicName);
+		assertFalse(stopped.success);
+
+		user.post(Post.fromText("second", "user"), ConsumerTest.TOPIC_NAME);
+
+		final UserEvent received = nextEvent();
+		assertNotNull(received);
+		assertEquals(Tag.MESSAGE_RECEIVED, received.tag);
+		assertEquals(ConsumerTest.TOPIC_NAME, received.topicName);
+		assertTrue(received.success);
+	}
+
+	/**
+	 * A Post fires one MESSAGE_RECEIVED event according to the sync mode of the session over
+	 * which it is received, even if the sync mode of the Consumer has changed since
+	 */
+	@Test(timeout = 60_000)
+	public void messageReceivedFollowsSessionSyncMode() throws IOException, InterruptedException {
+		for (final SyncMode sessionSyncMode : SyncMode.values()) {
+			final SyncMode newSyncMode = sessionSyncMode == SyncMode.FULL
+			                             ? SyncMode.METADATA_ONLY
+			                             : SyncMode.FULL;
+
+			// a Topic of its own, so that no earlier Post is received
+			final String topicName = "topic-" + sessionSyncMode.name().toLowerCase();
+			user.createTopic(topicName);
+			UserEvent created;
+			do {
+				created = nextEvent();
+				assertNotNull(created);
+			} while (created.tag != Tag.TOPIC_LISTENED);
+			TestFixtures.awaitTopic(user, topicName);
+
+			// the events of the Consumer are fired to a User that doesn't listen for the Topic
+			final BlockingQueue<UserEvent> readerEvents = new LinkedBlockingQueue<>();
+			final User reader = User.createNew("127.0.0.1", brokerPort,
+					new ProfileFileSystem(folder.newFolder().toPath()), "reader");
+			reader.addUserListener(new UserAdapter() {
+				@Override
+				public void onMessageReceived(UserEvent e) {
+					readerEvents.add(e);
+				}
+
+				@Override
+				public void onTopicListened(UserEvent e) {
+					readerEvents.add(e);
+				}
+			});
+
+			try (Consumer consumer = new Consumer("127.0.0.1", brokerPort,
+					reader.new UserStub())) {
+				consumer.setSyncMode(sessionSyncMode);
+				consumer.listenForNewTopic(topicName);
+				final UserEvent listened = readerEvents.poll(ConsumerTest.EVENT_TIMEOUT_MILLIS,
+						TimeUnit.MILLISECONDS);
+				assertNotNull(listened);
+				assertEquals(Tag.TOPIC_LISTENED, listened.tag);
+
+				// the session that is already open keeps its sync mode
+				consumer.setSyncMode(newSyncMode);
+				user.post(Post.fromText("message", "user"), topicName);
+
+				final UserEvent received = readerEvents.poll(ConsumerTest.EVENT_TIMEOUT_MILLIS,
+						TimeUnit.MILLISECONDS);
+				assertNotNull(sessionSyncMode.toString(), received);
+				assertEquals(Tag.MESSAGE_RECEIVED, received.tag);
+				assertNull(sessionSyncMode.toString(),
+						readerEvents.poll(500, TimeUnit.MILLISECONDS));
+			} finally {
+				reader.close();
+			}
+		}
+	}
+}
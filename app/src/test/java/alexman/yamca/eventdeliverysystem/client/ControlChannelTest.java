@@ -0,0 +1,138 @@
+package alexman.yamca.eventdeliverysystem.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ControlRequest;
+import alexman.yamca.eventdeliverysystem.datastructures.ControlResponse;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the requests sent over a {@link ControlChannel} to a fake Broker, which answers every
+ * request except for those whose value is {@code "ignore"}.
+ *
+ * @author Alex Mandelias
+ */
+public class ControlChannelTest {
+
+	private static final long TIMEOUT_MILLIS = 500L;
+
+	private ServerSocket serverSocket;
+	private ControlChannel channel;
+
+	// the fake Broker waits for this before accepting a control channel
+	private final CountDownLatch accepting = new CountDownLatch(1);
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		serverSocket = new ServerSocket(0);
+		final Thread broker = new Thread(this::runBroker, "FakeBroker");
+		broker.setDaemon(true);
+		broker.start();
+
+		channel = new ControlChannel(InetAddress.getLoopbackAddress(),
+				serverSocket.getLocalPort(), ControlChannelTest.TIMEOUT_MILLIS);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		accepting.countDown();
+		channel.close();
+		serverSocket.close();
+	}
+
+	private void runBroker() {
+		try {
+			accepting.await();
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				final Thread connection = new Thread(() -> serve(socket), "FakeBroker-Channel");
+				connection.setDaemon(true);
+				connection.start();
+			}
+		} catch (IOException | InterruptedException e) {
+			// the test has finished
+		}
+	}
+
+	private static void serve(Socket socket) {
+		try (Socket s = socket) {
+			final ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(s.getInputStream());
+
+			ois.readObject();
+			oos.writeBoolean(true);
+			oos.flush();
+
+			while (true) {
+				final ControlRequest request = (ControlRequest) ois.readObject();
+				final Object value = request.getMessage().getValue();
+				if (!"ignore".equals(value)) {
+					oos.writeObject(new ControlResponse(request.getRequestId(), (String) value));
+					oos.flush();
+				}
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			// the channel was closed
+		}
+	}
+
+	/** A request that isn't answered in time fails and is no longer waited for */
+	@Test(timeout = 30_000)
+	public void unansweredRequestTimesOut() throws ServerException {
+		accepting.countDown();
+
+		try {
+			channel.call(MessageType.CREATE_TOPIC, "ignore");
+			fail("The request was answered");
+		} catch (ServerException e) {
+			// expected
+		}
+
+		assertEquals(0, channel.getPendingRequestCount());
+		assertEquals("answered", channel.call(MessageType.CREATE_TOPIC, "answered"));
+	}
+
+	/** Closing the channel while it is connecting isn't blocked by the connection */
+	@Test(timeout = 30_000)
+	public void closingIsNotBlockedWhileConnecting() throws InterruptedException {
+		final CompletableFuture<Object> response = new CompletableFuture<>();
+		final Thread requester = new Thread(() -> response.complete(
+				channel.send(MessageType.CREATE_TOPIC, "answered")));
+		requester.start();
+
+		// the connection can't be established until the fake Broker accepts it
+		Thread.sleep(200);
+		final long start = System.nanoTime();
+		channel.close();
+		final long closeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		accepting.countDown();
+		requester.join();
+		assertTrue("Closing took " + closeMillis + " ms", closeMillis < 100);
+		assertTrue(response.isDone());
+	}
+}
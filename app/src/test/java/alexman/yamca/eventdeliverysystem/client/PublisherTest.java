@@ -0,0 +1,234 @@
+package alexman.yamca.eventdeliverysystem.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.TopicPartitions;
+import alexman.yamca.eventdeliverysystem.filesystem.ProfileFileSystem;
+import alexman.yamca.eventdeliverysystem.filesystem.TopicFileSystem;
+import alexman.yamca.eventdeliverysystem.server.Broker;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the batching of the Posts pushed by a {@link Publisher}, through a User connected to a
+ * Broker that runs in the same process.
+ *
+ * @author Alex Mandelias
+ */
+public class PublisherTest {
+
+	private static final String TOPIC_NAME = "topic";
+	private static final String PARTITIONED_TOPIC_NAME = "partitioned";
+
+	// long enough that a test would time out waiting for a batch to linger
+	private static final long LONG_LINGER_MILLIS = 60_000L;
+	private static final long EVENT_TIMEOUT_MILLIS = 10_000L;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Broker broker;
+	private int brokerPort;
+	private User user;
+	private final BlockingQueue<UserEvent> sentEvents = new LinkedBlockingQueue<>();
+	private final BlockingQueue<UserEvent> topicEvents = new LinkedBlockingQueue<>();
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException, InterruptedException {
+		final ServerSocket clientRequestSocket = new ServerSocket();
+		broker = new Broker(new TopicFileSystem(folder.newFolder("broker").toPath()),
+				clientRequestSocket, new ServerSocket());
+		new Thread(broker, "Broker").start();
+
+		brokerPort = clientRequestSocket.getLocalPort();
+		user = User.createNew("127.0.0.1", brokerPort,
+				new ProfileFileSystem(folder.newFolder("users").toPath()), "user");
+		user.addUserListener(new UserAdapter() {
+			@Override
+			public void onMessageSent(UserEvent e) {
+				sentEvents.add(e);
+			}
+
+			@Override
+			public void onTopicCreated(UserEvent e) {
+				topicEvents.add(e);
+			}
+
+			@Override
+			public void onTopicListened(UserEvent e) {
+				topicEvents.add(e);
+			}
+		});
+
+		user.createTopic(PublisherTest.TOPIC_NAME);
+		final UserEvent created = topicEvents.poll(PublisherTest.EVENT_TIMEOUT_MILLIS,
+				TimeUnit.MILLISECONDS);
+		assertTrue(PublisherTest.describe(created), (created != null) && created.success);
+
+		// the Topic is listened for once it is created
+		final UserEvent listened = topicEvents.poll(PublisherTest.EVENT_TIMEOUT_MILLIS,
+				TimeUnit.MILLISECONDS);
+		assertTrue(PublisherTest.describe(listened), (listened != null) && listened.success);
+		TestFixtures.awaitTopic(user, PublisherTest.TOPIC_NAME);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try {
+			user.close();
+		} finally {
+			broker.close();
+		}
+	}
+
+	private UserEvent nextSentEvent() throws InterruptedException {
+		return sentEvents.poll(PublisherTest.EVENT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private static String describe(UserEvent event) {
+		if (event == null) {
+			return "no event";
+		}
+		return event.success ? "success" : String.valueOf(event.getCause());
+	}
+
+	private static Post createLargePost() {
+		final int size = 3 * 512 * 1024;
+		return new Post(new byte[size], new PostInfo("user", "bin", 1L, size, null));
+	}
+
+	/** Without configuring batching, every Post is sent at once, on its own */
+	@Test(timeout = 60_000)
+	public void postsAreNotBatchedByDefault() throws InterruptedException {
+		user.post(Post.fromText("first", "user"), PublisherTest.TOPIC_NAME);
+		user.post(Post.fromText("second", "user"), PublisherTest.TOPIC_NAME);
+
+		for (int i = 0; i < 2; i++) {
+			final UserEvent sent = nextSentEvent();
+			assertTrue("Post " + i + " wasn't sent: " + PublisherTest.describe(sent),
+					(sent != null) && sent.success);
+		}
+	}
+
+	/** A large Post sends the open batch of its Topic instead of waiting for it to linger */
+	@Test(timeout = 60_000)
+	public void largePostSendsOpenBatch() throws InterruptedException {
+		user.configureBatching(PublisherTest.LONG_LINGER_MILLIS, Long.MAX_VALUE);
+
+		user.post(Post.fromText("small", "user"), PublisherTest.TOPIC_NAME);
+		user.post(PublisherTest.createLargePost(), PublisherTest.TOPIC_NAME);
+
+		for (int i = 0; i < 2; i++) {
+			final UserEvent sent = nextSentEvent();
+			assertTrue("Upload " + i + " wasn't sent: " + PublisherTest.describe(sent),
+					(sent != null) && sent.success);
+		}
+	}
+
+	/** Closing the User sends the open batches, after which no more Posts are sent */
+	@Test(timeout = 60_000)
+	public void closeSendsOpenBatches() throws IOException, InterruptedException {
+		user.configureBatching(PublisherTest.LONG_LINGER_MILLIS, Long.MAX_VALUE);
+
+		user.post(Post.fromText("first", "user"), PublisherTest.TOPIC_NAME);
+		user.post(Post.fromText("second", "user"), PublisherTest.TOPIC_NAME);
+		user.close();
+
+		// an event is fired for each Post of the batch before closing returns
+		assertEquals(2, sentEvents.size());
+		for (final UserEvent sent : sentEvents) {
+			assertTrue(PublisherTest.describe(sent), sent.success);
+		}
+		sentEvents.clear();
+
+		// the Post is either rejected at once or fails to be sent
+		try {
+			user.post(Post.fromText("third", "user"), PublisherTest.TOPIC_NAME);
+			final UserEvent sent = nextSentEvent();
+			assertTrue(PublisherTest.describe(sent), (sent != null) && !sent.success);
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/** A Topic can't be created with a name that could be mistaken for that of a partition */
+	@Test(timeout = 60_000, expected = IllegalArgumentException.class)
+	public void topicNameWithPartitionSeparatorIsRejected() {
+		user.createTopic(PublisherTest.TOPIC_NAME + "#0", 2);
+	}
+
+	/**
+	 * The Posts pushed to each partition of a Topic are uploaded separately, so those of one
+	 * partition are sent even if those of another partition fail to be sent
+	 */
+	@Test(timeout = 60_000)
+	public void partitionsAreUploadedSeparately()
+			throws IOException, InterruptedException, ServerException {
+		user.createTopic(PublisherTest.PARTITIONED_TOPIC_NAME, 2);
+		UserEvent created;
+		do {
+			created = topicEvents.poll(PublisherTest.EVENT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			assertTrue(PublisherTest.describe(created), (created != null) && created.success);
+		} while (created.tag != UserEvent.Tag.TOPIC_CREATED);
+
+		// a poster whose Posts are pushed to each partition
+		final TopicPartitions partitions =
+				new TopicPartitions(PublisherTest.PARTITIONED_TOPIC_NAME, 2);
+		final String[] posterPerPartition = new String[2];
+		for (int i = 0; (posterPerPartition[0] == null) || (posterPerPartition[1] == null); i++) {
+			final String posterName = "poster-" + i;
+			final String partitionName =
+					partitions.getPartitionName(Post.fromText("", posterName).getPostInfo());
+			posterPerPartition[partitions.getPartitionNames().indexOf(partitionName)] = posterName;
+		}
+
+		// the second partition is deleted without the Publisher knowing
+		try (ControlChannel channel = new ControlChannel(InetAddress.getLoopbackAddress(),
+				brokerPort)) {
+			assertEquals(Boolean.TRUE, ControlChannel.await(channel.send(MessageType.DELETE_TOPIC,
+					partitions.getPartitionNames().get(1))));
+		}
+
+		// a Publisher of its own, since the User stops listening for the Topic
+		try (Publisher publisher = new Publisher("127.0.0.1", brokerPort, user.new UserStub())) {
+			publisher.configureBatching(PublisherTest.LONG_LINGER_MILLIS, Long.MAX_VALUE);
+			publisher.push(Post.fromText("first", posterPerPartition[0]),
+					PublisherTest.PARTITIONED_TOPIC_NAME);
+			publisher.push(Post.fromText("second", posterPerPartition[1]),
+					PublisherTest.PARTITIONED_TOPIC_NAME);
+		}
+
+		int successCount = 0;
+		for (int i = 0; i < 2; i++) {
+			final UserEvent sent = nextSentEvent();
+			assertTrue("Post " + i + " wasn't reported", sent != null);
+			if (sent.success) {
+				successCount++;
+			}
+		}
+		assertEquals(1, successCount);
+	}
+}
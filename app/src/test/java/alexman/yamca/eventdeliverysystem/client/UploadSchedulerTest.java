@@ -0,0 +1,143 @@
+package alexman.yamca.eventdeliverysystem.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import alexman.yamca.eventdeliverysystem.datastructures.Priority;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the scheduling of uploads by an {@link UploadScheduler}. No Broker is running, so the
+ * Broker of every upload is unknown and only the limits that don't depend on it apply.
+ *
+ * @author Alex Mandelias
+ */
+public class UploadSchedulerTest {
+
+	private static final int MAX_UPLOADS = 2;
+
+	private CIManager ciManager;
+	private UploadScheduler scheduler;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		// a port on which nothing listens, so that finding the Broker of an upload fails at once
+		final int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		ciManager = new CIManager(
+				Collections.singletonList(new InetSocketAddress("127.0.0.1", port)), ci -> {});
+		scheduler = new UploadScheduler(ciManager, UploadSchedulerTest.MAX_UPLOADS, 1);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		scheduler.shutdown();
+		scheduler.awaitTermination(10_000);
+		ciManager.close();
+	}
+
+	/** Uploads run on a fixed number of Threads however many are submitted */
+	@Test(timeout = 30_000)
+	public void uploadsRunOnFixedPool() throws InterruptedException {
+		final int uploadCount = 50;
+		final Set<String> threadNames = Collections.synchronizedSet(new HashSet<>());
+		final CountDownLatch finished = new CountDownLatch(uploadCount);
+
+		for (int i = 0; i < uploadCount; i++) {
+			scheduler.submit(() -> {
+				threadNames.add(Thread.currentThread().getName());
+				finished.countDown();
+			}, "topic-" + i, (i % 2 == 0) ? Priority.HIGH : Priority.LOW);
+		}
+
+		finished.await();
+		assertTrue(threadNames.toString(),
+				threadNames.size() <= (UploadSchedulerTest.MAX_UPLOADS + 1));
+	}
+
+	/** Uploads to the same Topic with the same Priority run one at a time, in order */
+	@Test(timeout = 30_000)
+	public void uploadsToSameTopicRunInOrder() throws InterruptedException {
+		final int uploadCount = 20;
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch finished = new CountDownLatch(uploadCount);
+
+		for (int i = 0; i < uploadCount; i++) {
+			final int index = i;
+			scheduler.submit(() -> {
+				order.add(index);
+				finished.countDown();
+			}, "topic", Priority.LOW);
+		}
+
+		finished.await();
+		for (int i = 0; i < uploadCount; i++) {
+			assertEquals(i, (int) order.get(i));
+		}
+	}
+
+	/** The uploads submitted before a shutdown still run, but no more may be submitted */
+	@Test(timeout = 30_000)
+	public void shutdownRunsPendingUploads() throws InterruptedException {
+		final int uploadCount = 10;
+		final CountDownLatch finished = new CountDownLatch(uploadCount);
+		for (int i = 0; i < uploadCount; i++) {
+			scheduler.submit(finished::countDown, "topic", Priority.LOW);
+		}
+
+		scheduler.shutdown();
+		try {
+			scheduler.submit(() -> {}, "topic", Priority.HIGH);
+			fail("An upload was submitted after the shutdown");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		assertTrue(scheduler.awaitTermination(20_000));
+		assertEquals(0, finished.getCount());
+	}
+
+	/** An upload that fails doesn't keep the uploads submitted after it from running */
+	@Test(timeout = 30_000)
+	public void failedUploadsDontStopWorkers() throws InterruptedException {
+		// enough to end every worker if the failures weren't caught
+		final int failedCount = 2 * (UploadSchedulerTest.MAX_UPLOADS + 1);
+		final CountDownLatch failed = new CountDownLatch(failedCount);
+		for (int i = 0; i < failedCount; i++) {
+			scheduler.submit(() -> {
+				failed.countDown();
+				throw new IllegalStateException("upload failed");
+			}, "topic-" + i, Priority.LOW);
+		}
+		failed.await();
+
+		final CountDownLatch finished = new CountDownLatch(1);
+		scheduler.submit(finished::countDown, "topic", Priority.LOW);
+		assertTrue(finished.await(10, TimeUnit.SECONDS));
+	}
+}
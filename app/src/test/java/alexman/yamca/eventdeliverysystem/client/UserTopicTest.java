@@ -0,0 +1,211 @@
+package alexman.yamca.eventdeliverysystem.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.BufferPool;
+import alexman.yamca.eventdeliverysystem.datastructures.Packet;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the reassembly of Posts in a {@link UserTopic}.
+ *
+ * @author Alex Mandelias
+ */
+public class UserTopicTest {
+
+	// large enough to be broken into more than one Packet
+	private static final int LARGE_POST_SIZE = 600 * 1024;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	private static List<Long> idsOf(Iterable<Post> posts) {
+		final List<Long> ids = new ArrayList<>();
+		for (final Post post : posts) {
+			ids.add(post.getPostInfo().getId());
+		}
+		return ids;
+	}
+
+	/** A Post streamed Packet by Packet is added only once all of its Packets have been posted */
+	@Test
+	public void streamedPostIsAddedWhenReassembled() {
+		final UserTopic topic = new UserTopic("topic");
+		final Post post = TestFixtures.createPost(1, UserTopicTest.LARGE_POST_SIZE);
+		final Packet[] packets = Packet.fromPost(post);
+		assertTrue(packets.length > 1);
+
+		topic.post(post.getPostInfo());
+		topic.post(packets[0]);
+
+		assertTrue(topic.getAllPosts().isEmpty());
+
+		for (int i = 1; i < packets.length; i++) {
+			topic.post(packets[i]);
+		}
+
+		final List<Post> posts = topic.getAllPosts();
+		assertEquals(1, posts.size());
+		assertTrue(posts.get(0).isLoaded());
+		assertArrayEquals(post.getData(), posts.get(0).getData());
+	}
+
+	/** Posts are added in the order of their PostInfo, even if a later one is reassembled first */
+	@Test
+	public void interleavedPostsAreAddedInOrder() {
+		final UserTopic topic = new UserTopic("topic");
+		final Post first = TestFixtures.createPost(1, UserTopicTest.LARGE_POST_SIZE);
+		final Post second = TestFixtures.createPost(2, 10);
+		final Post third = TestFixtures.createPost(3, 10);
+		final Packet[] firstPackets = Packet.fromPost(first);
+
+		topic.post(first.getPostInfo());
+		topic.post(firstPackets[0]);
+		topic.post(second.getPostInfo());
+		for (final Packet packet : Packet.fromPost(second)) {
+			topic.post(packet);
+		}
+		topic.post(third.getPostInfo(), Packet.fromPost(third));
+
+		assertTrue(topic.getAllPosts().isEmpty());
+
+		for (int i = 1; i < firstPackets.length; i++) {
+			topic.post(firstPackets[i]);
+		}
+
+		final List<Long> expected = new ArrayList<>();
+		expected.add(1L);
+		expected.add(2L);
+		expected.add(3L);
+		assertEquals(expected, UserTopicTest.idsOf(topic));
+		assertEquals(3L, topic.getLastPostId());
+	}
+
+	/** A PostInfo posted without Packets adds a Post without data at once */
+	@Test
+	public void postInfoWithoutPacketsIsAddedWithoutData() {
+		final UserTopic topic = new UserTopic("topic");
+		final Post post = TestFixtures.createPost(1, 10);
+
+		topic.post(post.getPostInfo(), new Packet[0]);
+
+		final List<Post> posts = topic.getAllPosts();
+		assertEquals(1, posts.size());
+		assertEquals(1L, posts.get(0).getPostInfo().getId());
+		assertTrue(!posts.get(0).isLoaded());
+	}
+
+	/** A Post whose stream is restarted is reassembled only from the Packets of the new stream */
+	@Test
+	public void restreamedPostIsReassembledFromTheStart() {
+		final UserTopic topic = new UserTopic("topic");
+		final Post post = TestFixtures.createPost(1, UserTopicTest.LARGE_POST_SIZE);
+
+		topic.post(post.getPostInfo());
+		topic.post(Packet.fromPost(post)[0]);
+
+		topic.post(post.getPostInfo());
+		for (final Packet packet : Packet.fromPost(post)) {
+			topic.post(packet);
+		}
+
+		final List<Post> posts = topic.getAllPosts();
+		assertEquals(1, posts.size());
+		assertArrayEquals(post.getData(), posts.get(0).getData());
+	}
+
+	/** A Packet of a Post whose PostInfo wasn't posted is dropped and released */
+	@Test
+	public void packetOfUnknownPostIsDropped() {
+		final UserTopic topic = new UserTopic("topic");
+		final Post unknown = TestFixtures.createPost(1, 10);
+		final Post known = TestFixtures.createPost(2, 10);
+		final long outstandingBefore = BufferPool.getDefault().getOutstandingCount();
+
+		topic.post(Packet.fromPost(unknown)[0]);
+		topic.post(known.getPostInfo());
+		topic.post(Packet.fromPost(known)[0]);
+
+		assertEquals(outstandingBefore, BufferPool.getDefault().getOutstandingCount());
+		final List<Post> posts = topic.getAllPosts();
+		assertEquals(1, posts.size());
+		assertArrayEquals(known.getData(), posts.get(0).getData());
+	}
+
+	/** Clearing the Topic while a Post is being reassembled doesn't lose that Post */
+	@Test
+	public void clearKeepsPostsBeingReassembled() {
+		final UserTopic topic = new UserTopic("topic");
+		final Post delivered = TestFixtures.createPost(1, 10);
+		final Post streamed = TestFixtures.createPost(2, UserTopicTest.LARGE_POST_SIZE);
+		final Packet[] packets = Packet.fromPost(streamed);
+
+		topic.post(delivered.getPostInfo(), Packet.fromPost(delivered));
+		topic.post(streamed.getPostInfo());
+		topic.post(packets[0]);
+
+		// what a fetch does
+		assertEquals(1, topic.getPostsSince(AbstractTopic.FETCH_ALL_POSTS).size());
+		topic.clear();
+		final long pointer = topic.getLastPostId();
+
+		for (int i = 1; i < packets.length; i++) {
+			topic.post(packets[i]);
+		}
+
+		final List<Post> posts = topic.getPostsSince(pointer);
+		assertEquals(1, posts.size());
+		assertArrayEquals(streamed.getData(), posts.get(0).getData());
+	}
+
+	/** Fetching concurrently with the Posts being streamed returns each Post exactly once */
+	@Test(timeout = 30_000)
+	public void concurrentFetchesReturnEveryPostOnce() throws InterruptedException {
+		final UserTopic topic = new UserTopic("topic");
+		final int postCount = 200;
+
+		final Thread session = new Thread(() -> {
+			for (int id = 0; id < postCount; id++) {
+				final Post post = TestFixtures.createPost(id, (id % 3 == 0) ? 600 * 1024 : 10);
+				topic.post(post.getPostInfo());
+				for (final Packet packet : Packet.fromPost(post)) {
+					topic.post(packet);
+				}
+			}
+		});
+		session.start();
+
+		final List<Long> fetchedIds = new ArrayList<>();
+		long pointer = topic.getLastPostId();
+		while (session.isAlive() || (fetchedIds.size() < postCount)) {
+			synchronized (topic) {
+				fetchedIds.addAll(UserTopicTest.idsOf(topic.getPostsSince(pointer)));
+				topic.clear();
+				pointer = topic.getLastPostId();
+			}
+
+			// fetch periodically, like the application does
+			Thread.sleep(1);
+		}
+
+		final List<Long> expected = new ArrayList<>();
+		for (long id = 0; id < postCount; id++) {
+			expected.add(id);
+		}
+		assertEquals(expected, fetchedIds);
+	}
+}
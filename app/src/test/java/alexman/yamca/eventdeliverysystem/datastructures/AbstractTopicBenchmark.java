@@ -0,0 +1,151 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A contention benchmark for the notifications of an {@link AbstractTopic}. Several threads post
+ * to a hot Topic with a few slow Subscribers, while other threads keep subscribing and
+ * unsubscribing Consumers. The throughput of the Topic is reported along with the latency of
+ * {@code post}, since a poster that delivers the notifications of other posters would show up as
+ * a latency far above the rest.
+ * <p>
+ * Run with {@code java AbstractTopicBenchmark [posters] [postsPerPoster] [churners]}.
+ *
+ * @author Alex Mandelias
+ */
+public final class AbstractTopicBenchmark {
+
+	private static final int SLOW_SUBSCRIBERS = 4;
+
+	// the work of a Subscriber per notification, like writing a Packet to a stream
+	private static final int SUBSCRIBER_WORK_NANOS = 2_000;
+
+	private AbstractTopicBenchmark() {}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the number of posting threads, the number of posts of each and the number of
+	 * 		threads that subscribe and unsubscribe, all optional
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		final int posters = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		final int postsPerPoster = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+		final int churners = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+		// warm up, then measure
+		AbstractTopicBenchmark.run(posters, postsPerPoster / 10, churners);
+		AbstractTopicBenchmark.run(posters, postsPerPoster, churners);
+	}
+
+	private static void run(int posters, int postsPerPoster, int churners)
+			throws InterruptedException {
+		final AbstractTopic topic = new AbstractTopicTest.EmptyTopic();
+		final LongAdder notifications = new LongAdder();
+
+		for (int i = 0; i < AbstractTopicBenchmark.SLOW_SUBSCRIBERS; i++) {
+			topic.subscribe(new CountingSubscriber(notifications, true));
+		}
+
+		final AtomicBoolean posting = new AtomicBoolean(true);
+		final LongAdder churns = new LongAdder();
+		final List<Thread> churnThreads = new ArrayList<>();
+		for (int i = 0; i < churners; i++) {
+			churnThreads.add(new Thread(() -> {
+				while (posting.get()) {
+					final Subscriber consumer = new CountingSubscriber(notifications, false);
+					topic.subscribe(consumer);
+					topic.unsubscribe(consumer);
+					churns.increment();
+				}
+			}, "churner-" + i));
+		}
+
+		final long[][] latencies = new long[posters][postsPerPoster];
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> postThreads = new ArrayList<>();
+		for (int i = 0; i < posters; i++) {
+			final long[] latenciesOfPoster = latencies[i];
+			final String name = "poster-" + i;
+			postThreads.add(new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				for (int id = 0; id < postsPerPoster; id++) {
+					final long postStart = System.nanoTime();
+					topic.post(new PostInfo(name, "txt", id));
+					latenciesOfPoster[id] = System.nanoTime() - postStart;
+				}
+			}, name));
+		}
+
+		churnThreads.forEach(Thread::start);
+		postThreads.forEach(Thread::start);
+
+		final long startNanos = System.nanoTime();
+		start.countDown();
+		for (final Thread thread : postThreads) {
+			thread.join();
+		}
+		final long elapsedNanos = System.nanoTime() - startNanos;
+
+		posting.set(false);
+		for (final Thread thread : churnThreads) {
+			thread.join();
+		}
+
+		final long[] all = new long[posters * postsPerPoster];
+		long maxMeanOfPoster = 0;
+		for (int i = 0; i < posters; i++) {
+			System.arraycopy(latencies[i], 0, all, i * postsPerPoster, postsPerPoster);
+			maxMeanOfPoster = Math.max(maxMeanOfPoster,
+					Arrays.stream(latencies[i]).sum() / postsPerPoster);
+		}
+		Arrays.sort(all);
+
+		System.out.printf("posters=%d, posts=%d, churners=%d: %.0f posts/s, %d churns/s, "
+		                  + "%d notifications%n", posters, all.length, churners,
+				all.length / (elapsedNanos / 1e9), (long) (churns.sum() / (elapsedNanos / 1e9)),
+				notifications.sum());
+		System.out.printf("post latency (us): p50=%d p99=%d max=%d, slowest poster mean=%d%n",
+				all[all.length / 2] / 1000, all[(int) (all.length * 0.99)] / 1000,
+				all[all.length - 1] / 1000, maxMeanOfPoster / 1000);
+	}
+
+	private static final class CountingSubscriber implements Subscriber {
+
+		private final LongAdder notifications;
+		private final boolean slow;
+
+		private CountingSubscriber(LongAdder notifications, boolean slow) {
+			this.notifications = notifications;
+			this.slow = slow;
+		}
+
+		@Override
+		public void notify(PostInfo postInfo, String topicName) {
+			notifications.increment();
+			if (slow) {
+				final long end = System.nanoTime() + AbstractTopicBenchmark.SUBSCRIBER_WORK_NANOS;
+				while (System.nanoTime() < end) {
+					// busy wait, like a Subscriber that does work
+				}
+			}
+		}
+
+		@Override
+		public void notify(Packet packet, String topicName) {
+			notifications.increment();
+		}
+	}
+}
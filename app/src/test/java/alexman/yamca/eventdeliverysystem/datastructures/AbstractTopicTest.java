@@ -0,0 +1,276 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the delivery of the notifications of an {@link AbstractTopic}.
+ *
+ * @author Alex Mandelias
+ */
+public class AbstractTopicTest {
+
+	private static final int POSTERS = 8;
+	private static final int POSTS_PER_POSTER = 2_000;
+
+	/**
+	 * Every notification is delivered by the thread that posted it, one at a time, in the order
+	 * each thread posted, and before its {@code post} returns.
+	 */
+	@Test(timeout = 30_000)
+	public void postersDeliverOnlyTheirOwnNotifications() throws InterruptedException {
+		final AbstractTopic topic = new EmptyTopic();
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger violations = new AtomicInteger();
+		final Map<String, Long> lastIdPerPoster = Collections.synchronizedMap(new HashMap<>());
+
+		topic.subscribe(new SubscriberAdapter() {
+			@Override
+			public void notify(PostInfo postInfo, String topicName) {
+				if (inFlight.incrementAndGet() != 1) {
+					violations.incrementAndGet();
+				}
+
+				final String poster = postInfo.getPosterName();
+				if (!poster.equals(Thread.currentThread().getName())) {
+					violations.incrementAndGet();
+				}
+
+				final Long lastId = lastIdPerPoster.put(poster, postInfo.getId());
+				if ((lastId != null) && (lastId >= postInfo.getId())) {
+					violations.incrementAndGet();
+				}
+
+				inFlight.decrementAndGet();
+			}
+		});
+
+		final List<Thread> posters = new ArrayList<>();
+		for (int i = 0; i < AbstractTopicTest.POSTERS; i++) {
+			final String name = "poster-" + i;
+			posters.add(new Thread(() -> {
+				for (int id = 0; id < AbstractTopicTest.POSTS_PER_POSTER; id++) {
+					topic.post(new PostInfo(name, "txt", id));
+					if (lastIdPerPoster.get(name) != id) {
+						violations.incrementAndGet();
+					}
+				}
+			}, name));
+		}
+
+		posters.forEach(Thread::start);
+		for (final Thread poster : posters) {
+			poster.join();
+		}
+
+		assertEquals(0, violations.get());
+		assertEquals(AbstractTopicTest.POSTERS, lastIdPerPoster.size());
+	}
+
+	/** A thread posting while a slow Subscriber is notified waits instead of returning early */
+	@Test(timeout = 30_000)
+	public void slowSubscriberDelaysLaterPosts() throws InterruptedException {
+		final AbstractTopic topic = new EmptyTopic();
+		final CountDownLatch firstNotified = new CountDownLatch(1);
+		final CountDownLatch releaseFirst = new CountDownLatch(1);
+		final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+		topic.subscribe(new SubscriberAdapter() {
+			@Override
+			public void notify(PostInfo postInfo, String topicName) {
+				delivered.add(postInfo.getPosterName() + '@' + Thread.currentThread().getName());
+				if (postInfo.getId() == 0) {
+					firstNotified.countDown();
+					try {
+						releaseFirst.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		});
+
+		final Thread first = new Thread(() -> topic.post(new PostInfo("a", "txt", 0)), "a");
+		final Thread second = new Thread(() -> topic.post(new PostInfo("b", "txt", 1)), "b");
+
+		first.start();
+		firstNotified.await();
+		second.start();
+
+		second.join(200);
+		assertTrue("The second post returned before its notification", second.isAlive());
+
+		releaseFirst.countDown();
+		first.join();
+		second.join();
+
+		final List<String> expected = new ArrayList<>();
+		expected.add("a@a");
+		expected.add("b@b");
+		assertEquals(expected, delivered);
+	}
+
+	/** An object posted by a Subscriber is delivered after the one it was notified of */
+	@Test(timeout = 10_000)
+	public void subscriberMayPostToTheTopic() {
+		final AbstractTopic topic = new EmptyTopic();
+		final List<Long> delivered = new ArrayList<>();
+
+		topic.subscribe(new SubscriberAdapter() {
+			@Override
+			public void notify(PostInfo postInfo, String topicName) {
+				delivered.add(postInfo.getId());
+				if (postInfo.getId() == 0) {
+					topic.post(new PostInfo("sub", "txt", 1));
+					delivered.add(-2L);
+				}
+			}
+		});
+
+		topic.post(new PostInfo("poster", "txt", 0));
+
+		final List<Long> expected = new ArrayList<>();
+		expected.add(0L);
+		expected.add(-2L);
+		expected.add(1L);
+		assertEquals(expected, delivered);
+	}
+
+	/** A Subscriber that throws doesn't stop later posts or leak the remaining Packets */
+	@Test(timeout = 10_000)
+	public void throwingSubscriberReleasesPackets() {
+		final AbstractTopic topic = new EmptyTopic();
+		final AtomicInteger packetsNotified = new AtomicInteger();
+		topic.subscribe(new SubscriberAdapter() {
+			@Override
+			public void notify(Packet packet, String topicName) {
+				if (packetsNotified.incrementAndGet() == 1) {
+					throw new IllegalStateException("first Packet");
+				}
+			}
+		});
+
+		final long outstandingBefore = BufferPool.getDefault().getOutstandingCount();
+		final Post post = new Post(new byte[1200 * 1024], new PostInfo("poster", "txt", 0));
+		try {
+			topic.post(post.getPostInfo(), Packet.fromPost(post));
+			fail("The exception of the Subscriber was not propagated");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(1, packetsNotified.get());
+		assertEquals(outstandingBefore, BufferPool.getDefault().getOutstandingCount());
+
+		final Packet[] packets = Packet.fromPost(post);
+		topic.post(packets[0]);
+		packets[1].release();
+		packets[2].release();
+		assertEquals(2, packetsNotified.get());
+		assertEquals(outstandingBefore, BufferPool.getDefault().getOutstandingCount());
+	}
+
+	// a Subscriber that ignores its notifications unless they are overridden
+	private static class SubscriberAdapter implements Subscriber {
+
+		@Override
+		public void notify(PostInfo postInfo, String topicName) {}
+
+		@Override
+		public void notify(Packet packet, String topicName) {}
+	}
+
+	// a Topic that keeps nothing, so that only the delivery of notifications is measured
+	/** A Post that the Topic fails to post leaves the caller with the only reference to it */
+	@Test
+	public void failedPostKeepsNoReference() {
+		final long outstandingBefore = BufferPool.getDefault().getOutstandingCount();
+		final AbstractTopic topic = new FailingTopic();
+
+		final Post post = new Post(new byte[1200 * 1024], new PostInfo("poster", "bin", 1L));
+		final Packet[] packets = Packet.fromPost(post);
+		try {
+			topic.post(post.getPostInfo(), packets);
+			fail("The Post was posted");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			topic.post(packets[0]);
+			fail("The Packet was posted");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		Packet.releaseAll(packets);
+		assertEquals(outstandingBefore, BufferPool.getDefault().getOutstandingCount());
+	}
+
+	static final class EmptyTopic extends AbstractTopic {
+
+		EmptyTopic() {
+			super("topic");
+		}
+
+		@Override
+		protected long getLastPostId() {
+			return AbstractTopic.FETCH_ALL_POSTS;
+		}
+
+		@Override
+		protected void postHook(PostInfo postInfo, Packet[] packets) {
+			Packet.releaseAll(packets);
+		}
+
+		@Override
+		protected void postHook(PostInfo postInfo) {}
+
+		@Override
+		protected void postHook(Packet packet) {
+			packet.release();
+		}
+
+		@Override
+		public Iterator<Post> iterator() {
+			return Collections.emptyIterator();
+		}
+	}
+
+	private static final class FailingTopic extends AbstractTopic {
+
+		private FailingTopic() {
+			super("failing");
+		}
+
+		@Override
+		protected long getLastPostId() {
+			return AbstractTopic.FETCH_ALL_POSTS;
+		}
+
+		@Override
+		protected void postHook(PostInfo postInfo) {
+			throw new IllegalStateException("Can't post");
+		}
+
+		@Override
+		protected void postHook(Packet packet) {
+			throw new IllegalStateException("Can't post");
+		}
+
+		@Override
+		public Iterator<Post> iterator() {
+			return Collections.emptyIterator();
+		}
+	}
+}
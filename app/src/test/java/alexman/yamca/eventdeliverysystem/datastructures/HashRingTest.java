@@ -0,0 +1,125 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Tests for the distribution of keys over the nodes of a {@link HashRing} with each
+ * {@link Partitioner}.
+ *
+ * @author Alex Mandelias
+ */
+public class HashRingTest {
+
+	private static final int KEY_COUNT = 20_000;
+
+	// the share of the keys of every node may differ this much from its expected share
+	private static final double TOLERANCE = 0.25;
+
+	private static HashRing<String> createRing(Map<String, Integer> weightPerNode,
+			Partitioner partitioner) {
+		return new HashRing<>(weightPerNode, RoutingTable.DEFAULT_VIRTUAL_NODES_PER_WEIGHT,
+				Function.identity(), partitioner);
+	}
+
+	private static Map<String, Integer> countKeysPerNode(HashRing<String> ring) {
+		final Map<String, Integer> keysPerNode = new HashMap<>();
+		for (int i = 0; i < HashRingTest.KEY_COUNT; i++) {
+			keysPerNode.merge(ring.getNode("topic-" + i), 1, Integer::sum);
+		}
+		return keysPerNode;
+	}
+
+	private static void assertShare(String message, double expected, int actual) {
+		assertTrue(String.format("%s: expected about %.0f keys but got %d", message, expected,
+				actual), Math.abs(actual - expected) <= expected * HashRingTest.TOLERANCE);
+	}
+
+	/** Keys are spread evenly over nodes of the same weight */
+	@Test
+	public void keysAreSpreadEvenly() {
+		final Map<String, Integer> weightPerNode = new HashMap<>();
+		for (int i = 0; i < 8; i++) {
+			weightPerNode.put("10.0.0." + i + ":5000", 1);
+		}
+
+		for (final Partitioner partitioner : Partitioner.values()) {
+			final Map<String, Integer> keysPerNode =
+					HashRingTest.countKeysPerNode(HashRingTest.createRing(weightPerNode,
+							partitioner));
+
+			assertEquals(weightPerNode.keySet(), keysPerNode.keySet());
+			for (final Map.Entry<String, Integer> e : keysPerNode.entrySet()) {
+				HashRingTest.assertShare(partitioner + " " + e.getKey(),
+						(double) HashRingTest.KEY_COUNT / weightPerNode.size(), e.getValue());
+			}
+		}
+	}
+
+	/** Each node is assigned a share of the keys that is proportional to its weight */
+	@Test
+	public void keysAreSpreadByWeight() {
+		final Map<String, Integer> weightPerNode = new HashMap<>();
+		weightPerNode.put("light", 1);
+		weightPerNode.put("medium", 2);
+		weightPerNode.put("heavy", 3);
+
+		for (final Partitioner partitioner : Partitioner.values()) {
+			final Map<String, Integer> keysPerNode =
+					HashRingTest.countKeysPerNode(HashRingTest.createRing(weightPerNode,
+							partitioner));
+
+			for (final Map.Entry<String, Integer> e : weightPerNode.entrySet()) {
+				HashRingTest.assertShare(partitioner + " " + e.getKey(),
+						(double) HashRingTest.KEY_COUNT * e.getValue() / 6,
+						keysPerNode.get(e.getKey()));
+			}
+		}
+	}
+
+	/** Adding a node moves only about its share of the keys, all of them to the new node */
+	@Test
+	public void addingNodeMovesFewKeys() {
+		final Map<String, Integer> weightPerNode = new HashMap<>();
+		for (int i = 0; i < 4; i++) {
+			weightPerNode.put("node-" + i, 1);
+		}
+
+		for (final Partitioner partitioner : Partitioner.values()) {
+			final HashRing<String> before = HashRingTest.createRing(weightPerNode, partitioner);
+			final Map<String, Integer> withNewNode = new HashMap<>(weightPerNode);
+			withNewNode.put("node-new", 1);
+			final HashRing<String> after = HashRingTest.createRing(withNewNode, partitioner);
+
+			int moved = 0;
+			for (int i = 0; i < HashRingTest.KEY_COUNT; i++) {
+				final String key = "topic-" + i;
+				final String node = after.getNode(key);
+				if (!node.equals(before.getNode(key))) {
+					assertEquals(key, "node-new", node);
+					assertEquals(key, before.getNode(key), after.getNodeWithout(key, node));
+					moved++;
+				}
+			}
+
+			HashRingTest.assertShare(partitioner.toString(),
+					(double) HashRingTest.KEY_COUNT / withNewNode.size(), moved);
+		}
+	}
+
+	/** Keys that differ only in their last character are hashed far apart */
+	@Test
+	public void similarKeysAreHashedApart() {
+		for (final Partitioner partitioner : Partitioner.values()) {
+			final long first = partitioner.hash("topic-a");
+			final long second = partitioner.hash("topic-b");
+			assertTrue(partitioner.toString(), Long.bitCount(first ^ second) >= 16);
+		}
+	}
+}
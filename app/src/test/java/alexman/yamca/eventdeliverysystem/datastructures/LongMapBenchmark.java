@@ -0,0 +1,130 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * A memory and lookup benchmark for the {@link LongIntMap} and the {@link LongObjectMap} that
+ * index the Posts of a Topic by their ID, against the {@code HashMap} with boxed keys and values
+ * that they replaced. Each map is filled with as many IDs as a large Topic has Posts, its size is
+ * measured as the growth of the used heap, and then the IDs are looked up in random order.
+ * <p>
+ * Run with {@code java LongMapBenchmark [entries] [rounds]}.
+ *
+ * @author Alex Mandelias
+ */
+public final class LongMapBenchmark {
+
+	// the value of every entry of the object maps, so that only the maps themselves are measured
+	private static final Object VALUE = new Object();
+
+	// keeps the results alive, so that the lookups aren't optimised away
+	private static volatile long sink;
+
+	private LongMapBenchmark() {}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the number of entries of each map and the number of times that every entry is
+	 * 		looked up, all optional
+	 */
+	public static void main(String[] args) {
+		final int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		final long[] keys = new long[entries];
+		for (int i = 0; i < entries; i++) {
+			keys[i] = i + 1;
+		}
+		final long[] lookups = keys.clone();
+		final Random random = new Random(0);
+		for (int i = lookups.length - 1; i > 0; i--) {
+			final int j = random.nextInt(i + 1);
+			final long tmp = lookups[i];
+			lookups[i] = lookups[j];
+			lookups[j] = tmp;
+		}
+
+		// warm up, then measure
+		for (final boolean report : new boolean[] { false, true }) {
+			final int n = report ? entries : entries / 10;
+			final int r = report ? rounds : 2;
+
+			LongMapBenchmark.run("HashMap<Long, Integer>", lookups, n, r, report, size -> {
+				final Map<Long, Integer> map = new HashMap<>();
+				for (int i = 0; i < size; i++) {
+					map.put(keys[i], i);
+				}
+				return map;
+			}, map -> lookup -> map.get(lookup));
+
+			LongMapBenchmark.run("LongIntMap", lookups, n, r, report, size -> {
+				final LongIntMap map = new LongIntMap();
+				for (int i = 0; i < size; i++) {
+					map.put(keys[i], i);
+				}
+				return map;
+			}, map -> lookup -> map.getOrDefault(lookup, -1));
+
+			LongMapBenchmark.run("HashMap<Long, Object>", lookups, n, r, report, size -> {
+				final Map<Long, Object> map = new HashMap<>();
+				for (int i = 0; i < size; i++) {
+					map.put(keys[i], LongMapBenchmark.VALUE);
+				}
+				return map;
+			}, map -> lookup -> map.get(lookup).hashCode());
+
+			LongMapBenchmark.run("LongObjectMap", lookups, n, r, report, size -> {
+				final LongObjectMap<Object> map = new LongObjectMap<>();
+				for (int i = 0; i < size; i++) {
+					map.put(keys[i], LongMapBenchmark.VALUE);
+				}
+				return map;
+			}, map -> lookup -> map.get(lookup).hashCode());
+		}
+	}
+
+	private static <M> void run(String name, long[] lookups, int entries, int rounds,
+			boolean report, IntFunction<M> fill, Function<M, Lookup> lookup) {
+		final long usedBefore = LongMapBenchmark.usedHeap();
+		final M map = fill.apply(entries);
+		final long usedAfter = LongMapBenchmark.usedHeap();
+
+		final Lookup get = lookup.apply(map);
+		long sum = 0;
+		final long startNanos = System.nanoTime();
+		for (int round = 0; round < rounds; round++) {
+			for (final long key : lookups) {
+				// the lookups that are past the entries of a smaller map are skipped
+				if (key <= entries) {
+					sum += get.get(key);
+				}
+			}
+		}
+		final long elapsedNanos = System.nanoTime() - startNanos;
+		LongMapBenchmark.sink = sum;
+
+		if (report) {
+			System.out.printf("%-22s %6.1f bytes/entry, %6.1f M lookups/s%n", name,
+					(double) (usedAfter - usedBefore) / entries,
+					((double) entries * rounds) / (elapsedNanos / 1e3));
+		}
+	}
+
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@FunctionalInterface
+	private interface Lookup {
+		int get(long key);
+	}
+}
@@ -0,0 +1,84 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for the {@link LongObjectMap}.
+ *
+ * @author Alex Mandelias
+ */
+public class LongObjectMapTest {
+
+	/** The map behaves like a HashMap under a random mix of operations */
+	@Test
+	public void behavesLikeHashMap() {
+		final LongObjectMap<String> map = new LongObjectMap<>();
+		final Map<Long, String> expected = new HashMap<>();
+		final Random random = new Random(0);
+
+		for (int i = 0; i < 100_000; i++) {
+			final long key = random.nextInt(1000) - 500;
+			switch (random.nextInt(3)) {
+			case 0:
+				assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+				break;
+			case 1:
+				assertEquals(expected.remove(key), map.remove(key));
+				break;
+			default:
+				assertEquals(expected.get(key), map.get(key));
+				assertEquals(expected.containsKey(key), map.containsKey(key));
+				break;
+			}
+			assertEquals(expected.size(), map.size());
+		}
+	}
+
+	/** The unmodifiable view reads through to the map and can't be modified */
+	@Test
+	public void unmodifiableViewReadsThrough() {
+		final LongObjectMap<String> map = new LongObjectMap<>();
+		final LongObjectMap<String> view = LongObjectMap.unmodifiable(map);
+
+		assertTrue(view.isEmpty());
+		map.put(1, "one");
+		assertEquals("one", view.get(1));
+		assertTrue(view.containsKey(1));
+		assertFalse(view.containsKey(2));
+		assertEquals(1, view.size());
+		assertSame(view, LongObjectMap.unmodifiable(view));
+
+		try {
+			view.put(2, "two");
+			fail("The view was modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			view.remove(1);
+			fail("The view was modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			view.clear();
+			fail("The view was modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		assertNull(map.get(2));
+		assertEquals("one", map.get(1));
+	}
+}
@@ -0,0 +1,143 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+
+/**
+ * A GC pressure benchmark for the pooled payloads of {@link Packet Packets}. Posts are broken into
+ * Packets, which are serialised and then read back like on the push path, first without releasing
+ * any Packet, so that every payload is allocated anew like before the {@link BufferPool} existed,
+ * and then releasing every Packet once it has been written or read, so that the payloads are
+ * reused. The throughput is reported along with the number of collections, the time spent in them
+ * and the bytes allocated.
+ * <p>
+ * Run with {@code java PacketPoolBenchmark [posts] [postSize]}.
+ *
+ * @author Alex Mandelias
+ */
+public final class PacketPoolBenchmark {
+
+	private PacketPoolBenchmark() {}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the number of Posts and the size of each, all optional
+	 *
+	 * @throws IOException if a Packet can't be serialised
+	 * @throws ClassNotFoundException if a Packet can't be read back
+	 */
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		final int posts = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+		final int postSize = args.length > 1 ? Integer.parseInt(args[1]) : 4 * 1024 * 1024;
+
+		// warm up, then measure
+		for (final boolean pooled : new boolean[] { false, true }) {
+			PacketPoolBenchmark.run(posts / 10, postSize, pooled, false);
+		}
+		for (final boolean pooled : new boolean[] { false, true }) {
+			PacketPoolBenchmark.run(posts, postSize, pooled, true);
+		}
+	}
+
+	private static void run(int posts, int postSize, boolean pooled, boolean report)
+			throws IOException, ClassNotFoundException {
+		final Post post = TestFixtures.createPost(1, "mp4", postSize);
+		final Bytes bytes = new Bytes(postSize + (64 * 1024));
+
+		System.gc();
+		final long gcCountBefore = PacketPoolBenchmark.gcCount();
+		final long gcMillisBefore = PacketPoolBenchmark.gcMillis();
+		final long allocatedBefore = PacketPoolBenchmark.allocatedBytes();
+		final long startNanos = System.nanoTime();
+
+		for (int i = 0; i < posts; i++) {
+			final Packet[] packets = Packet.fromPost(post);
+
+			bytes.reset();
+			try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+				for (final Packet packet : packets) {
+					oos.writeObject(packet);
+				}
+			}
+
+			// unreleased Packets are garbage collected, and their payloads aren't reused
+			if (pooled) {
+				Packet.releaseAll(packets);
+			}
+
+			final Packet[] read = new Packet[packets.length];
+			try (ObjectInputStream ois = new ObjectInputStream(bytes.toInputStream())) {
+				for (int j = 0; j < read.length; j++) {
+					read[j] = (Packet) ois.readObject();
+				}
+			}
+
+			if (pooled) {
+				Packet.releaseAll(read);
+			}
+		}
+
+		final long elapsedNanos = System.nanoTime() - startNanos;
+		if (!report) {
+			return;
+		}
+
+		final long allocatedAfter = PacketPoolBenchmark.allocatedBytes();
+		System.out.printf("%s: %.0f posts/s, %d collections, %d ms in GC, %s%n",
+				pooled ? "pooled" : "unpooled", posts / (elapsedNanos / 1e9),
+				PacketPoolBenchmark.gcCount() - gcCountBefore,
+				PacketPoolBenchmark.gcMillis() - gcMillisBefore,
+				(allocatedBefore < 0)
+				        ? "allocated bytes unknown"
+				        : String.format("%d MiB allocated",
+						        (allocatedAfter - allocatedBefore) / (1024 * 1024)));
+	}
+
+	// reads back the bytes without copying them, so that only the Packets allocate payloads
+	private static final class Bytes extends ByteArrayOutputStream {
+
+		Bytes(int size) {
+			super(size);
+		}
+
+		ByteArrayInputStream toInputStream() {
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	// returns -1 if the JVM doesn't count the bytes allocated by each Thread
+	private static long allocatedBytes() {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		return ((com.sun.management.ThreadMXBean) threads)
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
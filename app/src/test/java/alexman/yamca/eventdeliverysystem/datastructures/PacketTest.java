@@ -0,0 +1,257 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+
+/**
+ * Tests that the pooled payloads of {@link Packet Packets} are returned to the {@link BufferPool},
+ * and that the payloads of Packets in files are read from the file of their Post.
+ *
+ * @author Alex Mandelias
+ */
+public class PacketTest {
+
+	// large enough to be broken into more than one Packet
+	private static final int LARGE_POST_SIZE = 1200 * 1024;
+
+	// the directory with the open files of this process, where it exists
+	private static final Path OPEN_FILES = Paths.get("/proc/self/fd");
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private long outstandingBefore;
+
+	@Before
+	public void setUp() {
+		outstandingBefore = BufferPool.getDefault().getOutstandingCount();
+	}
+
+	private long leaked() {
+		return BufferPool.getDefault().getOutstandingCount() - outstandingBefore;
+	}
+
+	private static byte[] serialize(Packet[] packets) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			for (final Packet packet : packets) {
+				oos.writeObject(packet);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	// returns how many times this process has a file open
+	private static int openCount(Path file) throws IOException {
+		final Path realFile = file.toRealPath();
+		int count = 0;
+		try (DirectoryStream<Path> openFiles = Files.newDirectoryStream(PacketTest.OPEN_FILES)) {
+			for (final Path openFile : openFiles) {
+				try {
+					if (Files.readSymbolicLink(openFile).equals(realFile)) {
+						count++;
+					}
+				} catch (final IOException e) {
+					// the file has been closed in the meantime
+				}
+			}
+		}
+		return count;
+	}
+
+	/** Releasing the Packets of a Post returns every payload */
+	@Test
+	public void releasingReturnsEveryPayload() {
+		final Post post = TestFixtures.createPost(1, PacketTest.LARGE_POST_SIZE);
+		final Packet[] packets = Packet.fromPost(post);
+		assertEquals(packets.length, leaked());
+
+		final Post reassembled = Post.fromPackets(packets, post.getPostInfo());
+		Packet.releaseAll(packets);
+
+		assertEquals(0, leaked());
+		assertArrayEquals(post.getData(), reassembled.getData());
+	}
+
+	/** A payload is returned only once every reference has been released */
+	@Test
+	public void payloadIsReturnedAfterLastReference() {
+		final Packet packet = Packet.fromPost(TestFixtures.createPost(1, 10))[0];
+		packet.retain();
+
+		packet.release();
+		assertEquals(1, leaked());
+
+		packet.release();
+		assertEquals(0, leaked());
+
+		try {
+			packet.release();
+			fail("A released Packet was released again");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(0, leaked());
+	}
+
+	/** A released Packet can't be retained, no matter how many times it is tried */
+	@Test
+	public void releasedPacketCantBeRetained() {
+		final Packet packet = Packet.fromPost(TestFixtures.createPost(1, 10))[0];
+		packet.release();
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				packet.retain();
+				fail("A released Packet was retained");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+
+		try {
+			packet.release();
+			fail("A released Packet was released again");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(0, leaked());
+	}
+
+	/** Deserialised Packets are pooled and returned when released */
+	@Test
+	public void deserialisedPacketsAreReturned() throws IOException, ClassNotFoundException {
+		final Post post = TestFixtures.createPost(1, PacketTest.LARGE_POST_SIZE);
+		final Packet[] packets = Packet.fromPost(post);
+		final byte[] bytes = PacketTest.serialize(packets);
+		Packet.releaseAll(packets);
+
+		final Packet[] read = new Packet[packets.length];
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			for (int i = 0; i < read.length; i++) {
+				read[i] = (Packet) ois.readObject();
+			}
+		}
+		assertEquals(read.length, leaked());
+
+		final Post reassembled = Post.fromPackets(read, post.getPostInfo());
+		Packet.releaseAll(read);
+
+		assertEquals(0, leaked());
+		assertArrayEquals(post.getData(), reassembled.getData());
+	}
+
+	/** A Packet whose payload is cut short doesn't keep the payload it leased */
+	@Test
+	public void truncatedPacketReturnsItsPayload() throws IOException, ClassNotFoundException {
+		final Packet[] packets = Packet.fromPost(TestFixtures.createPost(1, 10_000));
+		final byte[] bytes = PacketTest.serialize(packets);
+		Packet.releaseAll(packets);
+
+		final byte[] truncated = Arrays.copyOf(bytes, bytes.length - 5_000);
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(truncated))) {
+			ois.readObject();
+			fail("A truncated Packet was read");
+		} catch (IOException e) {
+			// expected
+		}
+
+		assertEquals(0, leaked());
+	}
+
+	/** A region of a Post is copied across the boundaries of its Packets, and nothing else is */
+	@Test
+	public void regionIsCopiedAcrossPackets() {
+		final Post post = TestFixtures.createPost(1, PacketTest.LARGE_POST_SIZE);
+		final Packet[] packets = Packet.fromPost(post);
+
+		// the region starts in the first Packet and ends in the last one
+		final int offset = 500 * 1024;
+		final int length = 600 * 1024;
+		final Packet[] region = Packet.fromPacketRange(packets, offset, length);
+		Packet.releaseAll(packets);
+
+		assertEquals(2, region.length);
+		assertArrayEquals(Arrays.copyOfRange(post.getData(), offset, offset + length),
+				Post.fromPackets(region, post.getPostInfo()).getData());
+
+		final Packet[] empty = Packet.fromPacketRange(region, length, 0);
+		assertEquals(1, empty.length);
+		assertEquals(0, empty[0].getLength());
+		assertTrue(empty[0].isFinal());
+
+		Packet.releaseAll(region);
+		Packet.releaseAll(empty);
+		assertEquals(0, leaked());
+	}
+
+	/**
+	 * The Packets of a region of a file are serialised from a single channel, which is closed
+	 * after the final one, without leasing any payload, and are read back as that region
+	 */
+	@Test
+	public void fileRegionIsSerialisedFromOneChannel() throws IOException, ClassNotFoundException {
+		assumeTrue(Files.isDirectory(PacketTest.OPEN_FILES));
+
+		final Post post = TestFixtures.createPost(1, PacketTest.LARGE_POST_SIZE);
+		final Path file = folder.newFile("post").toPath();
+		Files.write(file, post.getData());
+
+		final int offset = 1000;
+		final int length = PacketTest.LARGE_POST_SIZE - 2000;
+		final Packet[] packets = Packet.fromFile(file, 1, offset, length);
+		assertEquals(3, packets.length);
+		assertEquals(0, leaked());
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			for (final Packet packet : packets) {
+				assertTrue(packet.isInFile());
+				oos.writeObject(packet);
+				assertEquals(packet.isFinal() ? 0 : 1, PacketTest.openCount(file));
+			}
+		}
+		assertEquals(0, leaked());
+
+		final Packet[] read = new Packet[packets.length];
+		try (ObjectInputStream ois =
+				new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			for (int i = 0; i < read.length; i++) {
+				read[i] = (Packet) ois.readObject();
+			}
+		}
+
+		final byte[] region = Arrays.copyOfRange(post.getData(), offset, offset + length);
+		assertArrayEquals(region, Post.fromPackets(read, post.getPostInfo()).getData());
+		Packet.releaseAll(read);
+
+		// reading a payload into memory also closes the file after the final Packet
+		assertArrayEquals(Arrays.copyOfRange(region, 0, packets[0].getLength()),
+				packets[0].getPayload());
+		assertEquals(1, PacketTest.openCount(file));
+		assertArrayEquals(region, Post.fromPackets(packets, post.getPostInfo()).getData());
+		assertEquals(0, PacketTest.openCount(file));
+		assertEquals(0, leaked());
+	}
+}
@@ -0,0 +1,31 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for the classification of Posts by {@link Priority}.
+ *
+ * @author Alex Mandelias
+ */
+public class PriorityTest {
+
+	/** Plain-text messages are high priority whatever their size */
+	@Test
+	public void plainTextIsHighPriority() {
+		final PostInfo text = new PostInfo("poster", PostInfo.PLAIN_TEXT_EXTENSION, 1,
+				10L * 1024L * 1024L, null);
+		assertEquals(Priority.HIGH, Priority.of(text));
+	}
+
+	/** Other Posts are high priority only if they are known to be small */
+	@Test
+	public void otherPostsAreClassifiedBySize() {
+		assertEquals(Priority.HIGH,
+				Priority.of(new PostInfo("poster", "jpg", 1, 64L * 1024L, null)));
+		assertEquals(Priority.LOW,
+				Priority.of(new PostInfo("poster", "jpg", 1, (64L * 1024L) + 1, null)));
+		assertEquals(Priority.LOW, Priority.of(new PostInfo("poster", "jpg", 1)));
+	}
+}
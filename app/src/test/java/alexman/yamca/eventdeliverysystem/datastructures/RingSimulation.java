@@ -0,0 +1,168 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import alexman.yamca.eventdeliverysystem.util.LG;
+
+/**
+ * Simulates the placement of Topics on Brokers, to compare the consistent-hashing ring with the
+ * placement by the remainder of the hash that was used before it. For each placement, the number
+ * of Topics of each Broker and the number of Topics that change Broker when one more Broker joins
+ * are printed.
+ * <p>
+ * Run with {@code java RingSimulation <brokers> <topics> <virtual_nodes> [<weight>...]}.
+ *
+ * @author Alex Mandelias
+ */
+public final class RingSimulation {
+
+	private static final String LINE_SEP = System.lineSeparator();
+
+	private static final int ARG_BROKERS = 0;
+	private static final int ARG_TOPICS = 1;
+	private static final int ARG_VIRTUAL_NODES = 2;
+	private static final int ARG_FIRST_WEIGHT = 3;
+
+	private static final String USAGE = "Usage:" + LINE_SEP
+	        + "\tjava RingSimulation <brokers> <topics> <virtual_nodes> [<weight>...]"
+	                                    + LINE_SEP
+	        + LINE_SEP
+	        + "Where:" + LINE_SEP
+	        + "\t<brokers>        the number of brokers before one more joins" + LINE_SEP
+	        + "\t<topics>         the number of topics to place" + LINE_SEP
+	        + "\t<virtual_nodes>  the number of virtual nodes per unit of weight" + LINE_SEP
+	        + "\t<weight>         the weight of each broker, in order (default 1)";
+
+	private RingSimulation() {}
+
+	/**
+	 * Runs the simulation.
+	 *
+	 * @param args see {@code RingSimulation#USAGE} for more information or run with no args
+	 */
+	public static void main(String[] args) {
+		LG.setOut(System.out);
+		LG.setErr(System.err);
+		LG.setTabSize(4);
+
+		if (args.length < ARG_FIRST_WEIGHT) {
+			LG.sout(RingSimulation.USAGE);
+			return;
+		}
+
+		final int brokerCount;
+		final int topicCount;
+		final int virtualNodes;
+		final Map<String, Integer> weightPerBroker = new LinkedHashMap<>();
+		try {
+			brokerCount = Integer.parseInt(args[ARG_BROKERS]);
+			topicCount = Integer.parseInt(args[ARG_TOPICS]);
+			virtualNodes = Integer.parseInt(args[ARG_VIRTUAL_NODES]);
+			if ((brokerCount <= 0) || (topicCount <= 0) || (virtualNodes <= 0)) {
+				throw new IllegalArgumentException();
+			}
+
+			for (int i = 0; i < brokerCount; i++) {
+				final int weightIndex = ARG_FIRST_WEIGHT + i;
+				final int weight = weightIndex < args.length
+				                   ? Integer.parseInt(args[weightIndex])
+				                   : 1;
+				if (weight <= 0) {
+					throw new IllegalArgumentException();
+				}
+				weightPerBroker.put(RingSimulation.brokerName(i), weight);
+			}
+		} catch (IllegalArgumentException e) {
+			LG.err("All arguments must be positive integers");
+			return;
+		}
+
+		final List<String> topics = new ArrayList<>(topicCount);
+		for (int i = 0; i < topicCount; i++) {
+			topics.add("topic-" + i);
+		}
+
+		final Map<String, Integer> weightPerBrokerAfterJoin = new LinkedHashMap<>(weightPerBroker);
+		weightPerBrokerAfterJoin.put(RingSimulation.brokerName(brokerCount), 1);
+
+		final HashRing<String> ring = new HashRing<>(weightPerBroker, virtualNodes,
+				Function.identity(), Partitioner.DEFAULT);
+		final HashRing<String> ringAfterJoin = new HashRing<>(weightPerBrokerAfterJoin,
+				virtualNodes, Function.identity(), Partitioner.DEFAULT);
+
+		LG.sout("Consistent-hashing ring with %d virtual nodes per unit of weight", virtualNodes);
+		RingSimulation.report(topics, weightPerBroker, weightPerBrokerAfterJoin, ring::getNode,
+				ringAfterJoin::getNode);
+
+		LG.sout("");
+		LG.sout("Remainder of the hash (weights are ignored)");
+		RingSimulation.report(topics, weightPerBroker, weightPerBrokerAfterJoin,
+				topic -> RingSimulation.byRemainder(topic, brokerCount),
+				topic -> RingSimulation.byRemainder(topic, brokerCount + 1));
+	}
+
+	private static void report(List<String> topics, Map<String, Integer> weightPerBroker,
+			Map<String, Integer> weightPerBrokerAfterJoin, Function<String, String> placement,
+			Function<String, String> placementAfterJoin) {
+
+		final Map<String, Integer> topicsPerBroker = new LinkedHashMap<>();
+		for (final String broker : weightPerBroker.keySet()) {
+			topicsPerBroker.put(broker, 0);
+		}
+
+		int movedTopics = 0;
+		for (final String topic : topics) {
+			final String broker = placement.apply(topic);
+			topicsPerBroker.merge(broker, 1, Integer::sum);
+			if (!broker.equals(placementAfterJoin.apply(topic))) {
+				movedTopics++;
+			}
+		}
+
+		final double totalWeight = RingSimulation.sum(weightPerBroker);
+		double maxLoad = 0;
+		double sumOfSquares = 0;
+
+		LG.in();
+		for (final Map.Entry<String, Integer> e : topicsPerBroker.entrySet()) {
+			final double expected = (topics.size() * weightPerBroker.get(e.getKey())) / totalWeight;
+			final double load = e.getValue() / expected;
+			maxLoad = Math.max(maxLoad, load);
+			sumOfSquares += (load - 1) * (load - 1);
+
+			LG.sout("%-12s topics=%-8d expected=%-10.1f load=%.3f", e.getKey(), e.getValue(),
+					expected, load);
+		}
+
+		final double deviation = Math.sqrt(sumOfSquares / topicsPerBroker.size());
+		final int newWeight = weightPerBrokerAfterJoin.get(
+				RingSimulation.brokerName(weightPerBroker.size()));
+		final double idealChurn = newWeight / RingSimulation.sum(weightPerBrokerAfterJoin);
+
+		LG.sout("max load=%.3f, load deviation=%.3f", maxLoad, deviation);
+		LG.sout("topics moved when a broker joins=%d (%.2f%%, ideal %.2f%%)", movedTopics,
+				(100.0 * movedTopics) / topics.size(), 100 * idealChurn);
+		LG.out();
+	}
+
+	private static String byRemainder(String topic, int brokerCount) {
+		final int hash = AbstractTopic.hashForTopic(topic);
+		return RingSimulation.brokerName(Math.abs(hash % brokerCount));
+	}
+
+	private static String brokerName(int index) {
+		return "broker-" + index;
+	}
+
+	private static double sum(Map<String, Integer> weightPerBroker) {
+		double sum = 0;
+		for (final int weight : weightPerBroker.values()) {
+			sum += weight;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,203 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+
+/**
+ * Tests for the versions of a {@link RoutingTable}, the placement of Topics in batches, the Topics
+ * that a Broker takes over when it joins the server and the RoutingTables and placement changes
+ * that Brokers send.
+ *
+ * @author Alex Mandelias
+ */
+public class RoutingTableTest {
+
+	private static final int TOPIC_COUNT = 300;
+
+	private ConnectionInfo leader;
+	private ConnectionInfo other;
+	private RoutingTable routingTable;
+
+	private static byte[] serialize(Serializable object) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			oos.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static RoutingTable copy(RoutingTable routingTable)
+			throws IOException, ClassNotFoundException {
+		try (ObjectInputStream ois = new ObjectInputStream(
+				new ByteArrayInputStream(RoutingTableTest.serialize(routingTable)))) {
+			return (RoutingTable) ois.readObject();
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		leader = TestFixtures.newConnectionInfo();
+		other = TestFixtures.newConnectionInfo();
+
+		final Map<ConnectionInfo, Integer> weightPerBroker = new LinkedHashMap<>();
+		weightPerBroker.put(leader, 1);
+		weightPerBroker.put(other, 1);
+		routingTable = new RoutingTable(0, weightPerBroker,
+				RoutingTable.DEFAULT_VIRTUAL_NODES_PER_WEIGHT, Partitioner.DEFAULT, 1);
+	}
+
+	// places every Topic on the leader with a single RoutingTable
+	private RoutingTable placeAllOnLeader() {
+		final Map<String, ConnectionInfo> placedTopics = new HashMap<>();
+		for (int i = 0; i < RoutingTableTest.TOPIC_COUNT; i++) {
+			placedTopics.put("topic-" + i, leader);
+		}
+		return routingTable.withPlacedTopics(placedTopics, Collections.emptySet());
+	}
+
+	/**
+	 * A batch of placements produces a single version, which records the Topics it places, and a
+	 * batch that changes nothing produces none
+	 */
+	@Test
+	public void batchOfPlacementsIsOneVersion() {
+		final Map<String, ConnectionInfo> placedTopics = new HashMap<>();
+		placedTopics.put("a", leader);
+		placedTopics.put("b", other);
+
+		final RoutingTable placed =
+				routingTable.withPlacedTopics(placedTopics, Collections.emptySet());
+		assertEquals(1, placed.getVersion());
+		assertEquals(new HashSet<>(Arrays.asList("a", "b")), placed.getPlacementChanges());
+		assertEquals(leader, placed.getBrokerForTopic("a"));
+		assertEquals(other, placed.getBrokerForTopic("b"));
+
+		assertSame(placed, placed.withPlacedTopics(placedTopics, Collections.singleton("c")));
+
+		final RoutingTable unplaced = placed.withPlacedTopics(
+				Collections.singletonMap("c", other), Collections.singleton("a"));
+		assertEquals(2, unplaced.getVersion());
+		assertEquals(new HashSet<>(Arrays.asList("a", "c")), unplaced.getPlacementChanges());
+		assertFalse(unplaced.isPlaced("a"));
+		assertTrue(unplaced.isPlaced("b"));
+		assertTrue(unplaced.isPlaced("c"));
+
+		assertNull(unplaced.withoutBroker(other).getPlacementChanges());
+	}
+
+	/**
+	 * A Broker that joins takes over the placed Topics that the ring assigns to it, and only
+	 * those, and its uploads are sent to their previous Broker until they are handed over
+	 */
+	@Test
+	public void joiningBrokerTakesOverPlacedTopics() throws IOException {
+		final ConnectionInfo joined = TestFixtures.newConnectionInfo();
+		final RoutingTable placed = placeAllOnLeader();
+		final RoutingTable withJoined = placed.withBroker(joined, 1);
+
+		assertEquals(placed.getVersion() + 1, withJoined.getVersion());
+		assertNull(withJoined.getPlacementChanges());
+
+		int movedCount = 0;
+		for (int i = 0; i < RoutingTableTest.TOPIC_COUNT; i++) {
+			final String topicName = "topic-" + i;
+			final ConnectionInfo broker = withJoined.getBrokerForTopic(topicName);
+			if (broker.equals(joined)) {
+				movedCount++;
+				assertEquals(leader, withJoined.getBrokerForTopicWithout(topicName, joined));
+			} else {
+				assertEquals(leader, broker);
+			}
+		}
+
+		// about a third of the Topics move to the Broker that joined
+		assertTrue("Moved " + movedCount + " Topics", movedCount > 50);
+		assertTrue("Moved " + movedCount + " Topics", movedCount < 150);
+
+		// a Topic placed again after it has been deleted has no previous Broker
+		String movedTopic = null;
+		for (final Map.Entry<String, ConnectionInfo> e :
+				withJoined.getBrokerPerPlacedTopic().entrySet()) {
+			if (e.getValue().equals(joined)) {
+				movedTopic = e.getKey();
+			}
+		}
+		final RoutingTable replaced = withJoined
+				.withPlacedTopics(Collections.emptyMap(), Collections.singleton(movedTopic))
+				.withPlacedTopics(Collections.singletonMap(movedTopic, joined),
+						Collections.emptySet());
+		assertNull(replaced.getBrokerForTopicWithout(movedTopic, joined));
+
+		// the weight of a Broker that is already part of the server changes without moving any
+		assertEquals(withJoined.getBrokerPerPlacedTopic(),
+				withJoined.withBroker(leader, 5).getBrokerPerPlacedTopic());
+	}
+
+	/**
+	 * The PlacementDelta of a RoutingTable that only places Topics turns a copy of the previous
+	 * version into that RoutingTable, and is much smaller than it
+	 */
+	@Test
+	public void placementDeltaProducesSameRoutingTable() throws IOException {
+		final RoutingTable previous = placeAllOnLeader();
+		final RoutingTable placed = previous.withPlacedTopics(
+				Collections.singletonMap("topic-0", other), Collections.singleton("topic-1"));
+
+		final RoutingTable.PlacementDelta delta = placed.getPlacementDelta();
+		final RoutingTable updated = previous.withPlacementDelta(delta);
+		assertEquals(placed.getVersion(), updated.getVersion());
+		assertEquals(placed.getBrokerPerPlacedTopic(), updated.getBrokerPerPlacedTopic());
+		assertEquals(placed.getPlacementChanges(), updated.getPlacementChanges());
+
+		// a RoutingTable that isn't the previous version doesn't change
+		assertSame(routingTable, routingTable.withPlacementDelta(delta));
+		assertSame(placed, placed.withPlacementDelta(delta));
+		assertNull(placed.withoutBroker(other).getPlacementDelta());
+
+		final int deltaSize = RoutingTableTest.serialize(delta).length;
+		final int tableSize = RoutingTableTest.serialize(placed).length;
+		assertTrue(deltaSize + " vs " + tableSize + " bytes", (10 * deltaSize) < tableSize);
+	}
+
+	/** A RoutingTable that is sent to another Broker places every Topic on the same Brokers */
+	@Test
+	public void copyPlacesTopicsOnSameBrokers() throws IOException, ClassNotFoundException {
+		final RoutingTable placed = placeAllOnLeader()
+				.withPlacedTopics(Collections.singletonMap("topic-0", other),
+						Collections.singleton("topic-1"));
+		final RoutingTable copy = RoutingTableTest.copy(placed);
+
+		assertEquals(placed.getVersion(), copy.getVersion());
+		assertEquals(placed.getWeightPerBroker(), copy.getWeightPerBroker());
+		assertEquals(placed.getBrokerPerPlacedTopic(), copy.getBrokerPerPlacedTopic());
+		assertEquals(placed.getPlacementChanges(), copy.getPlacementChanges());
+		assertEquals(placed.getLeader(), copy.getLeader());
+
+		for (int i = 0; i < (2 * RoutingTableTest.TOPIC_COUNT); i++) {
+			final String topicName = "topic-" + i;
+			assertEquals(placed.getReplicasForTopic(topicName),
+					copy.getReplicasForTopic(topicName));
+		}
+	}
+}
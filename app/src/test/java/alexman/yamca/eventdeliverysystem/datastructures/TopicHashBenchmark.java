@@ -0,0 +1,154 @@
+package alexman.yamca.eventdeliverysystem.datastructures;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A benchmark for the hashing of Topics. The hash of an {@link AbstractTopic} is computed once,
+ * with the fast {@link Partitioner#FNV_1A}, and it is compared against the MD5 digest that was
+ * folded into a hash on every call to {@code hashCode} before, on a {@code HashSet} of Topics like
+ * the ones that Brokers and Users keep. The hashes of the hash ring are compared for each
+ * {@link Partitioner} as well.
+ * <p>
+ * Run with {@code java TopicHashBenchmark [topics] [rounds]}.
+ *
+ * @author Alex Mandelias
+ */
+public final class TopicHashBenchmark {
+
+	// keeps the results alive, so that the work isn't optimised away
+	private static volatile long sink;
+
+	private TopicHashBenchmark() {}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the number of Topics and the number of times that each is hashed, all optional
+	 */
+	public static void main(String[] args) {
+		final int topics = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		final String[] names = new String[topics];
+		for (int i = 0; i < topics; i++) {
+			names[i] = "topic-" + i;
+		}
+
+		// warm up, then measure
+		for (final boolean report : new boolean[] { false, true }) {
+			final int r = report ? rounds : rounds / 10;
+			for (final boolean hashPerCall : new boolean[] { true, false }) {
+				TopicHashBenchmark.runHashSet(names, r, hashPerCall, report);
+			}
+			for (final Partitioner partitioner : Partitioner.values()) {
+				TopicHashBenchmark.runPartitioner(names, r, partitioner, report);
+			}
+		}
+	}
+
+	private static void runHashSet(String[] names, int rounds, boolean hashPerCall,
+			boolean report) {
+		final BenchmarkTopic[] topics = new BenchmarkTopic[names.length];
+		for (int i = 0; i < names.length; i++) {
+			topics[i] = new BenchmarkTopic(names[i], hashPerCall);
+		}
+
+		long found = 0;
+		final long startNanos = System.nanoTime();
+		for (int round = 0; round < rounds; round++) {
+			final Set<AbstractTopic> set = new HashSet<>();
+			Collections.addAll(set, topics);
+			for (final BenchmarkTopic topic : topics) {
+				if (set.contains(topic)) {
+					found++;
+				}
+			}
+		}
+		final long elapsedNanos = System.nanoTime() - startNanos;
+		TopicHashBenchmark.sink = found;
+
+		if (report) {
+			System.out.printf("HashSet<AbstractTopic>, %-14s %7.1f ns per Topic%n",
+					hashPerCall ? "MD5 per call:" : "cached FNV-1a:",
+					(double) elapsedNanos / ((long) rounds * names.length));
+		}
+	}
+
+	private static void runPartitioner(String[] names, int rounds, Partitioner partitioner,
+			boolean report) {
+		long hashes = 0;
+		final long startNanos = System.nanoTime();
+		for (int round = 0; round < rounds; round++) {
+			for (final String name : names) {
+				hashes ^= partitioner.hash(name);
+			}
+		}
+		final long elapsedNanos = System.nanoTime() - startNanos;
+		TopicHashBenchmark.sink = hashes;
+
+		if (report) {
+			System.out.printf("Partitioner.%-27s %7.1f ns per key%n", partitioner + ":",
+					(double) elapsedNanos / ((long) rounds * names.length));
+		}
+	}
+
+	// the hash of every Topic before it was cached, which was computed on every call
+	private static int md5HashForTopic(String topicName) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("md5")
+					.digest(topicName.getBytes(StandardCharsets.UTF_8));
+
+			final byte[] folded = new byte[4];
+			final int bytesPerFold = digest.length / folded.length;
+			for (int i = 0; i < folded.length; i++) {
+				for (int j = 0; j < bytesPerFold; j++) {
+					folded[i] = (byte) (folded[i] ^ digest[(bytesPerFold * i) + j]);
+				}
+			}
+
+			return new BigInteger(folded).intValueExact();
+		} catch (NoSuchAlgorithmException | ArithmeticException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class BenchmarkTopic extends AbstractTopic {
+
+		private final boolean hashPerCall;
+
+		BenchmarkTopic(String name, boolean hashPerCall) {
+			super(name);
+			this.hashPerCall = hashPerCall;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashPerCall ? TopicHashBenchmark.md5HashForTopic(getName()) : super.hashCode();
+		}
+
+		@Override
+		protected long getLastPostId() {
+			return AbstractTopic.FETCH_ALL_POSTS;
+		}
+
+		@Override
+		protected void postHook(PostInfo postInfo) {}
+
+		@Override
+		protected void postHook(Packet packet) {
+			packet.release();
+		}
+
+		@Override
+		public Iterator<Post> iterator() {
+			return Collections.emptyIterator();
+		}
+	}
+}
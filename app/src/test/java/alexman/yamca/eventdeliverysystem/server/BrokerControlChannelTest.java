@@ -0,0 +1,140 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ControlRequest;
+import alexman.yamca.eventdeliverysystem.datastructures.ControlResponse;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable.PlacementDelta;
+import alexman.yamca.eventdeliverysystem.filesystem.TopicFileSystem;
+import alexman.yamca.eventdeliverysystem.thread.RequestChannel;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the control channels that a {@link Broker} serves, one of whose clients stops reading
+ * the responses, and for the routing tables sent over them.
+ *
+ * @author Alex Mandelias
+ */
+public class BrokerControlChannelTest {
+
+	// enough routing tables to fill the buffers of the connection to the client
+	private static final int WATCHER_COUNT = 20_000;
+	private static final long RESPONSE_TIMEOUT_MILLIS = 10_000L;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Broker broker;
+	private int brokerPort;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		final ServerSocket clientRequestSocket = new ServerSocket();
+		broker = new Broker(new TopicFileSystem(folder.newFolder("broker").toPath()),
+				clientRequestSocket, new ServerSocket());
+		new Thread(broker, "Broker").start();
+		brokerPort = clientRequestSocket.getLocalPort();
+	}
+
+	@After
+	public void tearDown() {
+		broker.close();
+	}
+
+	/**
+	 * A client that watches for the routing table but stops reading holds up neither the changes
+	 * of the routing table nor the responses to the other clients
+	 */
+	@Test(timeout = 60_000)
+	public void stalledClientDoesntHoldUpRoutingTable() throws Exception {
+		try (Socket stalled = new Socket("127.0.0.1", brokerPort);
+		        RequestChannel channel = new RequestChannel(InetAddress.getLoopbackAddress(),
+				        brokerPort, null, BrokerControlChannelTest.RESPONSE_TIMEOUT_MILLIS)) {
+			final ObjectOutputStream oos = new ObjectOutputStream(stalled.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(stalled.getInputStream());
+
+			oos.writeObject(new Message(MessageType.INITIALISE_CONTROL_CHANNEL, null));
+			oos.flush();
+			assertTrue(ois.readBoolean());
+
+			for (int i = 0; i < BrokerControlChannelTest.WATCHER_COUNT; i++) {
+				oos.writeObject(new ControlRequest(i,
+						new Message(MessageType.ROUTING_TABLE_DISCOVERY, 0L)));
+			}
+
+			// the requests are answered in order, so every watcher has been added once the
+			// routing table that is sent at once arrives
+			oos.writeObject(new ControlRequest(BrokerControlChannelTest.WATCHER_COUNT,
+					new Message(MessageType.ROUTING_TABLE_DISCOVERY, RoutingTable.NO_VERSION)));
+			oos.flush();
+			assertEquals((long) BrokerControlChannelTest.WATCHER_COUNT,
+					((ControlResponse) ois.readObject()).getRequestId());
+
+			// each Topic placed changes the routing table
+			for (int i = 0; i < 3; i++) {
+				final ControlResponse created = channel
+						.send(new Message(MessageType.CREATE_TOPIC, "topic-" + i))
+						.get(BrokerControlChannelTest.RESPONSE_TIMEOUT_MILLIS,
+								TimeUnit.MILLISECONDS);
+				assertEquals(Boolean.TRUE, created.getValue());
+			}
+		}
+	}
+
+	/**
+	 * A client that watches for the routing table that follows its own receives only the
+	 * placement of a new Topic, with which it has the same routing table as the Broker
+	 */
+	@Test(timeout = 30_000)
+	public void watcherReceivesOnlyPlacementDelta() throws Exception {
+		try (RequestChannel channel = new RequestChannel(InetAddress.getLoopbackAddress(),
+				brokerPort, null, BrokerControlChannelTest.RESPONSE_TIMEOUT_MILLIS)) {
+			final RoutingTable known = (RoutingTable) get(channel.send(
+					new Message(MessageType.ROUTING_TABLE_DISCOVERY, RoutingTable.NO_VERSION)));
+
+			final CompletableFuture<ControlResponse> watched = channel.send(
+					new Message(MessageType.ROUTING_TABLE_DISCOVERY, known.getVersion()));
+			assertEquals(Boolean.TRUE,
+					get(channel.send(new Message(MessageType.CREATE_TOPIC, "topic"))));
+
+			final PlacementDelta delta = (PlacementDelta) get(watched);
+			final RoutingTable current = (RoutingTable) get(channel.send(
+					new Message(MessageType.ROUTING_TABLE_DISCOVERY, RoutingTable.NO_VERSION)));
+			final RoutingTable updated = known.withPlacementDelta(delta);
+			assertEquals(current.getVersion(), updated.getVersion());
+			assertEquals(current.getBrokerPerPlacedTopic(), updated.getBrokerPerPlacedTopic());
+			assertTrue(updated.isPlaced("topic"));
+		}
+	}
+
+	private static Object get(CompletableFuture<ControlResponse> response) throws Exception {
+		return response.get(BrokerControlChannelTest.RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+				.getValue();
+	}
+}
@@ -0,0 +1,148 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+import alexman.yamca.eventdeliverysystem.thread.RequestChannel;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the discovery requests that every {@link Broker} answers, and not only the leader,
+ * since the leader sends the routing table and the loads to all of them.
+ *
+ * @author Alex Mandelias
+ */
+public class BrokerDiscoveryTest {
+
+	private static final int BROKER_COUNT = 3;
+	private static final int TOPIC_COUNT = 6;
+
+	private static final long JOIN_MILLIS = 1_000L;
+	private static final long RESPONSE_TIMEOUT_MILLIS = 10_000L;
+
+	private final List<Broker> brokers = new ArrayList<>();
+	private final List<Integer> ports = new ArrayList<>();
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException, InterruptedException {
+		final ServerSocket leaderBrokerSocket = new ServerSocket();
+		for (int i = 0; i < BrokerDiscoveryTest.BROKER_COUNT; i++) {
+			final ServerSocket clientRequestSocket = new ServerSocket();
+			brokers.add((i == 0)
+			            ? new Broker(new InMemoryTopicDAO(), clientRequestSocket,
+					            leaderBrokerSocket)
+			            : new Broker(new InMemoryTopicDAO(), clientRequestSocket,
+					            new ServerSocket(), "127.0.0.1",
+					            leaderBrokerSocket.getLocalPort()));
+			ports.add(clientRequestSocket.getLocalPort());
+			new Thread(brokers.get(i), "Broker-" + i).start();
+		}
+		Thread.sleep(BrokerDiscoveryTest.JOIN_MILLIS);
+	}
+
+	@After
+	public void tearDown() {
+		for (final Broker broker : brokers) {
+			broker.close();
+		}
+	}
+
+	// sends a request on a connection of its own and returns the object of the response
+	private static Object ask(int port, MessageType type, Serializable value)
+			throws IOException, ClassNotFoundException {
+		try (Socket socket = new Socket("127.0.0.1", port)) {
+			final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+
+			oos.writeObject(new Message(type, value));
+			oos.flush();
+			return ois.readObject();
+		}
+	}
+
+	/**
+	 * Every Broker sends a Topic to the Broker on which the leader has placed it, including
+	 * Topics created on another Broker, and sends Consumers to one of its replicas
+	 */
+	@Test(timeout = 30_000)
+	public void everyBrokerAnswersDiscovery() throws Exception {
+		// the topics are created on a broker that isn't the leader, which asks it to place them
+		try (RequestChannel channel = new RequestChannel(InetAddress.getLoopbackAddress(),
+				ports.get(1), null, BrokerDiscoveryTest.RESPONSE_TIMEOUT_MILLIS)) {
+			for (int i = 0; i < BrokerDiscoveryTest.TOPIC_COUNT; i++) {
+				assertEquals(Boolean.TRUE, channel
+						.send(new Message(MessageType.CREATE_TOPIC, "topic-" + i))
+						.get(BrokerDiscoveryTest.RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+						.getValue());
+			}
+		}
+
+		final RoutingTable leaderRoutingTable = TestFixtures.getRoutingTable(ports.get(0));
+		for (int i = 0; i < BrokerDiscoveryTest.TOPIC_COUNT; i++) {
+			assertTrue(leaderRoutingTable.isPlaced("topic-" + i));
+		}
+
+		for (final int port : ports) {
+			while (TestFixtures.getRoutingTable(port).getVersion()
+			       < leaderRoutingTable.getVersion()) {
+				Thread.sleep(10);
+			}
+
+			for (int i = 0; i < BrokerDiscoveryTest.TOPIC_COUNT; i++) {
+				final String topicName = "topic-" + i;
+				assertEquals(leaderRoutingTable.getBrokerForTopic(topicName),
+						BrokerDiscoveryTest.ask(port, MessageType.BROKER_DISCOVERY, topicName));
+				assertTrue(leaderRoutingTable.getReplicasForTopic(topicName)
+						.contains(BrokerDiscoveryTest.ask(port, MessageType.CONSUMER_DISCOVERY,
+								topicName)));
+			}
+		}
+	}
+
+	/** Every Broker knows the load of every Broker, which the leader sends with its heartbeats */
+	@Test(timeout = 30_000)
+	public void everyBrokerKnowsEveryLoad() throws Exception {
+		for (final int port : ports) {
+			Map<?, ?> loads = (Map<?, ?>) BrokerDiscoveryTest.ask(port,
+					MessageType.LOAD_DISCOVERY, null);
+			while (loads.size() < BrokerDiscoveryTest.BROKER_COUNT) {
+				Thread.sleep(HeartbeatThread.HEARTBEAT_INTERVAL_MILLIS / 10);
+				loads = (Map<?, ?>) BrokerDiscoveryTest.ask(port, MessageType.LOAD_DISCOVERY,
+						null);
+			}
+
+			for (final ConnectionInfo broker : TestFixtures.getRoutingTable(port)
+					.getWeightPerBroker().keySet()) {
+				assertTrue(loads.containsKey(broker));
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the replacement of a leader {@link Broker} that stops sending heartbeats by the Broker
+ * that follows it in the routing table.
+ *
+ * @author Alex Mandelias
+ */
+public class BrokerFailoverTest {
+
+	private static final long JOIN_MILLIS = 1_000L;
+
+	private final List<Broker> brokers = new ArrayList<>();
+	private final List<ServerSocket> clientSockets = new ArrayList<>();
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException, InterruptedException {
+		final ServerSocket leaderBrokerSocket = new ServerSocket();
+		clientSockets.add(new ServerSocket());
+		brokers.add(new Broker(new InMemoryTopicDAO(), clientSockets.get(0), leaderBrokerSocket));
+		new Thread(brokers.get(0), "Leader").start();
+
+		// each one joins after the previous one, so that the order of the brokers is known
+		for (int i = 1; i < 3; i++) {
+			clientSockets.add(new ServerSocket());
+			brokers.add(new Broker(new InMemoryTopicDAO(), clientSockets.get(i),
+					new ServerSocket(), "127.0.0.1", leaderBrokerSocket.getLocalPort()));
+			new Thread(brokers.get(i), "Broker-" + i).start();
+			Thread.sleep(BrokerFailoverTest.JOIN_MILLIS);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (final Broker broker : brokers) {
+			broker.close();
+		}
+	}
+
+	/**
+	 * The Broker that follows a silent leader takes over and removes it from the routing table,
+	 * and the other Brokers join it and receive the same routing table
+	 */
+	@Test(timeout = 30_000)
+	public void nextBrokerTakesOverFromSilentLeader() throws Exception {
+		final ConnectionInfo oldLeader = ConnectionInfo.forServerSocket(clientSockets.get(0));
+		final ConnectionInfo newLeader = ConnectionInfo.forServerSocket(clientSockets.get(1));
+		final ConnectionInfo other = ConnectionInfo.forServerSocket(clientSockets.get(2));
+
+		brokers.get(0).close();
+
+		final int newLeaderPort = clientSockets.get(1).getLocalPort();
+		RoutingTable routingTable = TestFixtures.getRoutingTable(newLeaderPort);
+		while (routingTable.getWeightPerBroker().containsKey(oldLeader)) {
+			Thread.sleep(100);
+			routingTable = TestFixtures.getRoutingTable(newLeaderPort);
+		}
+		assertEquals(newLeader, routingTable.getLeader());
+
+		// the other broker joins the new leader, which sends it every routing table from now on
+		final int otherPort = clientSockets.get(2).getLocalPort();
+		RoutingTable otherRoutingTable = TestFixtures.getRoutingTable(otherPort);
+		while (otherRoutingTable.getVersion() < routingTable.getVersion()) {
+			Thread.sleep(100);
+			otherRoutingTable = TestFixtures.getRoutingTable(otherPort);
+		}
+		assertFalse(otherRoutingTable.getWeightPerBroker().containsKey(oldLeader));
+		assertEquals(newLeader, otherRoutingTable.getLeader());
+
+		// the other broker isn't dropped once the new leader stops waiting for the brokers
+		Thread.sleep(HeartbeatThread.FAILURE_TIMEOUT_MILLIS + BrokerFailoverTest.JOIN_MILLIS);
+		routingTable = TestFixtures.getRoutingTable(newLeaderPort);
+		assertEquals(routingTable.getVersion(),
+				TestFixtures.getRoutingTable(otherPort).getVersion());
+		assertEquals(Arrays.asList(newLeader, other),
+				new ArrayList<>(routingTable.getWeightPerBroker().keySet()));
+	}
+}
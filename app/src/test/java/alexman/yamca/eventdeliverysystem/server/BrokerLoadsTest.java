@@ -0,0 +1,82 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import alexman.yamca.eventdeliverysystem.datastructures.BrokerLoad;
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the Brokers on which the leader places new Topics according to the {@link BrokerLoads}
+ * of the server.
+ *
+ * @author Alex Mandelias
+ */
+public class BrokerLoadsTest {
+
+	private ConnectionInfo light;
+	private ConnectionInfo heavy;
+	private Map<ConnectionInfo, Integer> weightPerBroker;
+	private BrokerLoads loads;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		light = TestFixtures.newConnectionInfo();
+		heavy = TestFixtures.newConnectionInfo();
+
+		weightPerBroker = new LinkedHashMap<>();
+		weightPerBroker.put(light, 1);
+		weightPerBroker.put(heavy, 3);
+
+		loads = new BrokerLoads(light, new BrokerTopicManager(new InMemoryTopicDAO()),
+				new LongAdder(), new LongAdder());
+	}
+
+	private Map<ConnectionInfo, Integer> assignTopics(int topicCount) {
+		final Map<ConnectionInfo, Integer> topicsPerBroker = new HashMap<>();
+		for (int i = 0; i < topicCount; i++) {
+			topicsPerBroker.merge(loads.assignTopic(weightPerBroker), 1, Integer::sum);
+		}
+		return topicsPerBroker;
+	}
+
+	/** New Topics are spread over the Brokers in proportion to their weight */
+	@Test(timeout = 10_000)
+	public void topicsAreSpreadByWeight() {
+		final Map<ConnectionInfo, Integer> topicsPerBroker = assignTopics(40);
+
+		assertEquals(10, (int) topicsPerBroker.get(light));
+		assertEquals(30, (int) topicsPerBroker.get(heavy));
+	}
+
+	/** A Broker with more traffic per unit of weight than the others is given fewer new Topics */
+	@Test(timeout = 10_000)
+	public void busyBrokerIsGivenFewerTopics() {
+		final long bytesPerSecond = 1_000_000L;
+		loads.report(light, new BrokerLoad(0, 0, 0, 0, 0, 0));
+		loads.report(heavy, new BrokerLoad(0, 0, bytesPerSecond, bytesPerSecond, 0, 0));
+
+		assertEquals(light, loads.assignTopic(weightPerBroker));
+
+		// without any traffic, it would be given 10 of them
+		final int lightTopicCount = assignTopics(40).get(light);
+		assertTrue("Given " + lightTopicCount + " Topics", lightTopicCount > 15);
+	}
+}
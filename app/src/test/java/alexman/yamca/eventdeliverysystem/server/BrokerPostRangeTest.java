@@ -0,0 +1,111 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+import alexman.yamca.eventdeliverysystem.client.User;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.filesystem.ProfileFileSystem;
+import alexman.yamca.eventdeliverysystem.filesystem.TopicFileSystem;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the ranges of stored Posts that a {@link Broker} reads from their files when a User
+ * fetches only part of a Post.
+ *
+ * @author Alex Mandelias
+ */
+public class BrokerPostRangeTest {
+
+	private static final String TOPIC_NAME = "topic";
+	private static final long POST_ID = 1L;
+
+	// large enough to be stored as more than one Packet
+	private static final int POST_SIZE = (3 * 512 * 1024) + 100;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Post post;
+	private Broker broker;
+	private User user;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException, InterruptedException {
+		// the Post is stored before the Broker starts, so the Broker only has it in its file
+		final TopicFileSystem tfs = new TopicFileSystem(folder.newFolder("broker").toPath());
+		tfs.createTopic(BrokerPostRangeTest.TOPIC_NAME);
+		post = TestFixtures.createPost(BrokerPostRangeTest.POST_ID, "bin",
+				BrokerPostRangeTest.POST_SIZE);
+		tfs.writePost(post, BrokerPostRangeTest.TOPIC_NAME);
+
+		final ServerSocket clientRequestSocket = new ServerSocket();
+		broker = new Broker(tfs, clientRequestSocket, new ServerSocket());
+		new Thread(broker, "Broker").start();
+
+		user = User.createNew("127.0.0.1", clientRequestSocket.getLocalPort(),
+				new ProfileFileSystem(folder.newFolder("users").toPath()), "user");
+		user.listenForNewTopic(BrokerPostRangeTest.TOPIC_NAME);
+		TestFixtures.awaitTopic(user, BrokerPostRangeTest.TOPIC_NAME);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try {
+			user.close();
+		} finally {
+			broker.close();
+		}
+	}
+
+	private byte[] fetch(long offset, long length) throws IOException {
+		return user.fetchPostRange(BrokerPostRangeTest.TOPIC_NAME, BrokerPostRangeTest.POST_ID,
+				offset, length);
+	}
+
+	/** A range that spans several Packets contains exactly the bytes of that range */
+	@Test(timeout = 30_000)
+	public void rangeAcrossPacketsIsRead() throws IOException {
+		final int offset = 500 * 1024;
+		final int length = 600 * 1024;
+		assertArrayEquals(Arrays.copyOfRange(post.getData(), offset, offset + length),
+				fetch(offset, length));
+	}
+
+	/** A range that extends past the end of the Post contains the bytes up to the end */
+	@Test(timeout = 30_000)
+	public void rangePastEndIsClipped() throws IOException {
+		final int offset = BrokerPostRangeTest.POST_SIZE - 10;
+		assertArrayEquals(
+				Arrays.copyOfRange(post.getData(), offset, BrokerPostRangeTest.POST_SIZE),
+				fetch(offset, 1024));
+	}
+
+	/** A range that starts past the end of the Post can't be fetched */
+	@Test(timeout = 30_000)
+	public void offsetPastEndFails() {
+		try {
+			fetch(BrokerPostRangeTest.POST_SIZE + 1L, 1);
+			fail("A range past the end of the Post was fetched");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.Packet;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame.Kind;
+import alexman.yamca.eventdeliverysystem.filesystem.TopicFileSystem;
+import alexman.yamca.eventdeliverysystem.thread.SyncMode;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the order in which a {@link BrokerPushThread} streams the Posts of its Topics, and for
+ * the Posts that it streams from their files.
+ *
+ * @author Alex Mandelias
+ */
+public class BrokerPushThreadTest {
+
+	private static final String TOPIC_NAME = "topic";
+
+	// the size of a Post with a few Packets, which is low priority
+	private static final int LARGE_POST_SIZE = 4 * 512 * 1024;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private BrokerTopic topic;
+	private BrokerPushThread pushThread;
+	private ObjectInputStream ois;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		topic = new BrokerTopic(BrokerPushThreadTest.TOPIC_NAME, new InMemoryTopicDAO());
+
+		final PipedInputStream in = new PipedInputStream(16 * 1024 * 1024);
+		final ObjectOutputStream oos = new ObjectOutputStream(new PipedOutputStream(in));
+		oos.flush();
+		ois = new ObjectInputStream(in);
+
+		pushThread = new BrokerPushThread(oos, SyncMode.FULL, "test", new LongAdder());
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		pushThread.interrupt();
+		pushThread.join();
+	}
+
+	// reads the frames streamed until the final Packet of the Post with the given ID
+	static List<SessionFrame> readUntilFinalPacket(ObjectInputStream ois, long postId)
+			throws IOException, ClassNotFoundException {
+		final List<SessionFrame> frames = new ArrayList<>();
+		while (true) {
+			final SessionFrame frame = (SessionFrame) ois.readObject();
+			frames.add(frame);
+
+			final Object value = frame.getValue();
+			if (value instanceof Packet) {
+				final Packet packet = (Packet) value;
+				packet.release();
+				if (packet.isFinal() && (packet.getPostId() == postId)) {
+					return frames;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The PostInfo of every Post is streamed first, in order, and then the Packets of small Posts
+	 * preempt those of a large Post except for one low priority Packet every few high priority
+	 */
+	@Test(timeout = 30_000)
+	public void smallPostsPreemptLargePosts() throws IOException, ClassNotFoundException {
+		final int textPostCount = 12;
+		final Post large = TestFixtures.createPost(0, "jpg",
+				BrokerPushThreadTest.LARGE_POST_SIZE);
+		topic.post(large.getPostInfo(), Packet.fromPost(large));
+		for (int id = 1; id <= textPostCount; id++) {
+			final Post text = TestFixtures.createPost(id,
+					PostInfo.PLAIN_TEXT_EXTENSION, 10);
+			topic.post(text.getPostInfo(), Packet.fromPost(text));
+		}
+
+		pushThread.subscribe(topic, AbstractTopic.FETCH_ALL_POSTS);
+		pushThread.start();
+
+		final List<SessionFrame> frames = BrokerPushThreadTest.readUntilFinalPacket(ois, 0);
+		assertEquals(Kind.SUBSCRIBED, frames.get(0).getKind());
+
+		final List<Long> postInfoIds = new ArrayList<>();
+		final StringBuilder lanes = new StringBuilder();
+		for (final SessionFrame frame : frames.subList(1, frames.size())) {
+			final Object value = frame.getValue();
+			if (value instanceof PostInfo) {
+				assertEquals("PostInfo after a Packet", 0, lanes.length());
+				postInfoIds.add(((PostInfo) value).getId());
+			} else {
+				lanes.append(((Packet) value).getPostId() == 0 ? 'L' : 'H');
+			}
+		}
+
+		final List<Long> expectedIds = new ArrayList<>();
+		for (long id = 0; id <= textPostCount; id++) {
+			expectedIds.add(id);
+		}
+		assertEquals(expectedIds, postInfoIds);
+		assertTrue(lanes.toString(), lanes.toString().startsWith("HHHHHHHHLHHHHL"));
+	}
+
+	/**
+	 * A Post that is still being received when subscribing is streamed whole, with the Packets
+	 * received afterwards streamed after the ones received before, each of them once
+	 */
+	@Test(timeout = 30_000)
+	public void postBeingReceivedIsStreamedWhole() throws IOException, ClassNotFoundException {
+		final Post large = TestFixtures.createPost(0, "jpg",
+				BrokerPushThreadTest.LARGE_POST_SIZE);
+		final Packet[] packets = Packet.fromPost(large);
+		topic.post(large.getPostInfo());
+		topic.post(packets[0]);
+		topic.post(packets[1]);
+
+		pushThread.subscribe(topic, AbstractTopic.FETCH_ALL_POSTS);
+		pushThread.start();
+
+		for (int i = 2; i < packets.length; i++) {
+			topic.post(packets[i]);
+		}
+
+		assertEquals(Kind.SUBSCRIBED, ((SessionFrame) ois.readObject()).getKind());
+		final SessionFrame postInfoFrame = (SessionFrame) ois.readObject();
+		assertEquals(0L, ((PostInfo) postInfoFrame.getValue()).getId());
+
+		final List<Packet> streamed = new ArrayList<>();
+		Packet last;
+		do {
+			last = (Packet) ((SessionFrame) ois.readObject()).getValue();
+			streamed.add(last);
+		} while (!last.isFinal());
+
+		assertEquals(packets.length, streamed.size());
+		final Packet[] streamedPackets = streamed.toArray(new Packet[0]);
+		final Post received = Post.fromPackets(streamedPackets, large.getPostInfo());
+		Packet.releaseAll(streamedPackets);
+		assertArrayEquals(large.getData(), received.getData());
+	}
+
+	/** Finishing streams the end frame even if a Post will never be complete */
+	@Test(timeout = 30_000)
+	public void finishDropsIncompletePosts() throws IOException, ClassNotFoundException {
+		final Post large = TestFixtures.createPost(0, "jpg",
+				BrokerPushThreadTest.LARGE_POST_SIZE);
+		final Packet[] packets = Packet.fromPost(large);
+		topic.post(large.getPostInfo());
+		topic.post(packets[0]);
+		final Post text = TestFixtures.createPost(1, PostInfo.PLAIN_TEXT_EXTENSION, 10);
+		topic.post(text.getPostInfo(), Packet.fromPost(text));
+
+		pushThread.subscribe(topic, AbstractTopic.FETCH_ALL_POSTS);
+		pushThread.finish(BrokerPushThreadTest.TOPIC_NAME,
+				new SessionFrame(Kind.UNSUBSCRIBED, BrokerPushThreadTest.TOPIC_NAME));
+		pushThread.start();
+
+		assertEquals(Kind.SUBSCRIBED, ((SessionFrame) ois.readObject()).getKind());
+
+		final List<Object> streamed = new ArrayList<>();
+		SessionFrame frame;
+		while ((frame = (SessionFrame) ois.readObject()).getKind() == Kind.DATA) {
+			streamed.add(frame.getValue());
+			if (frame.getValue() instanceof Packet) {
+				assertEquals(1L, ((Packet) frame.getValue()).getPostId());
+				((Packet) frame.getValue()).release();
+			}
+		}
+
+		assertEquals(Kind.UNSUBSCRIBED, frame.getKind());
+		assertEquals(2, streamed.size());
+		assertEquals(1L, ((PostInfo) streamed.get(0)).getId());
+		Packet.releaseAll(Arrays.copyOfRange(packets, 1, packets.length));
+	}
+
+	/**
+	 * The Posts of a Topic read from the disk, whose Packets are in their files, are streamed to a
+	 * Consumer that catches up with the Topic
+	 */
+	@Test(timeout = 30_000)
+	public void storedPostsAreStreamedFromFiles() throws IOException, ClassNotFoundException {
+		final TopicFileSystem tfs = new TopicFileSystem(folder.newFolder("topics").toPath());
+		tfs.createTopic(BrokerPushThreadTest.TOPIC_NAME);
+		final Post large = TestFixtures.createPost(1, "jpg",
+				BrokerPushThreadTest.LARGE_POST_SIZE);
+		final Post text = TestFixtures.createPost(2, PostInfo.PLAIN_TEXT_EXTENSION, 10);
+		tfs.writePost(large, BrokerPushThreadTest.TOPIC_NAME);
+		tfs.writePost(text, BrokerPushThreadTest.TOPIC_NAME);
+
+		final BrokerTopic stored =
+				new BrokerTopicManager(tfs).getTopic(BrokerPushThreadTest.TOPIC_NAME);
+		pushThread.subscribe(stored, AbstractTopic.FETCH_ALL_POSTS);
+		pushThread.start();
+
+		assertEquals(Kind.SUBSCRIBED, ((SessionFrame) ois.readObject()).getKind());
+
+		final Map<Long, List<Packet>> packetsPerPost = new HashMap<>();
+		int finalCount = 0;
+		while (finalCount < 2) {
+			final Object value = ((SessionFrame) ois.readObject()).getValue();
+			if (value instanceof Packet) {
+				final Packet packet = (Packet) value;
+				packetsPerPost.computeIfAbsent(packet.getPostId(), id -> new ArrayList<>())
+						.add(packet);
+				if (packet.isFinal()) {
+					finalCount++;
+				}
+			}
+		}
+
+		for (final Post post : Arrays.asList(large, text)) {
+			final Packet[] packets = packetsPerPost.get(post.getPostInfo().getId())
+					.toArray(new Packet[0]);
+			final Post received = Post.fromPackets(packets, post.getPostInfo());
+			Packet.releaseAll(packets);
+			assertArrayEquals(post.getData(), received.getData());
+		}
+	}
+}
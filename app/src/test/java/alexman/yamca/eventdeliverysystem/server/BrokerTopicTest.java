@@ -0,0 +1,228 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
+import alexman.yamca.eventdeliverysystem.datastructures.Packet;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the storage of Posts in a {@link BrokerTopic}.
+ *
+ * @author Alex Mandelias
+ */
+public class BrokerTopicTest {
+
+	private static final String TOPIC_NAME = "topic";
+
+	private InMemoryTopicDAO dao;
+	private BrokerTopic topic;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() {
+		dao = new InMemoryTopicDAO();
+		topic = new BrokerTopic(BrokerTopicTest.TOPIC_NAME, dao);
+	}
+
+	/** A Post that doesn't exist isn't saved, instead of reading outside the list of Posts */
+	@Test
+	public void savingUnknownPostDoesNothing() throws IOException {
+		assertFalse(topic.savePostToTFS(42));
+		assertFalse(topic.savePostToTFS(AbstractTopic.FETCH_ALL_POSTS));
+		assertTrue(dao.getPosts(BrokerTopicTest.TOPIC_NAME).isEmpty());
+	}
+
+	/** A Post whose final Packet hasn't been posted isn't saved */
+	@Test
+	public void savingIncompletePostDoesNothing() throws IOException {
+		final Post post = TestFixtures.createPost(1, 600 * 1024);
+		final Packet[] packets = Packet.fromPost(post);
+
+		topic.post(post.getPostInfo());
+		topic.post(packets[0]);
+
+		assertFalse(topic.savePostToTFS(1));
+		assertTrue(dao.getPosts(BrokerTopicTest.TOPIC_NAME).isEmpty());
+	}
+
+	/** A Post discarded before it is saved isn't saved */
+	@Test
+	public void savingDiscardedPostDoesNothing() throws IOException {
+		final Post post = TestFixtures.createPost(1, 600 * 1024);
+
+		topic.post(post.getPostInfo());
+		topic.post(Packet.fromPost(post)[0]);
+		topic.discardIncompletePosts();
+
+		assertFalse(topic.savePostToTFS(1));
+		assertEquals(-1, topic.indexOf(1));
+	}
+
+	/** A complete Post is saved and its Packets are then read from the DAO */
+	@Test
+	public void completePostIsSaved() throws IOException {
+		final Post post = TestFixtures.createPost(1, 600 * 1024);
+		topic.post(post.getPostInfo(), Packet.fromPost(post));
+
+		assertTrue(topic.savePostToTFS(1));
+
+		final List<Post> saved = dao.getPosts(BrokerTopicTest.TOPIC_NAME);
+		assertEquals(1, saved.size());
+		assertArrayEquals(post.getData(), saved.get(0).getData());
+
+		final List<PostInfo> postInfos = new ArrayList<>();
+		final LongObjectMap<Packet[]> packets = new LongObjectMap<>();
+		topic.getPostsSince(AbstractTopic.FETCH_ALL_POSTS, postInfos, packets);
+
+		assertEquals(1, postInfos.size());
+		final Post read = Post.fromPackets(packets.get(1), postInfos.get(0));
+		Packet.releaseAll(packets.get(1));
+		assertArrayEquals(post.getData(), read.getData());
+	}
+
+	/** Only the complete Posts are returned, while they are all returned along with the others */
+	@Test
+	public void incompletePostsAreReturnedOnlyWhenAsked() {
+		final Post complete = TestFixtures.createPost(1, 10);
+		final Post incomplete = TestFixtures.createPost(2, 600 * 1024);
+		final Packet[] incompletePackets = Packet.fromPost(incomplete);
+		topic.post(complete.getPostInfo(), Packet.fromPost(complete));
+		topic.post(incomplete.getPostInfo());
+		topic.post(incompletePackets[0]);
+		Packet.releaseAll(Arrays.copyOfRange(incompletePackets, 1, incompletePackets.length));
+
+		final List<PostInfo> postInfos = new ArrayList<>();
+		final LongObjectMap<Packet[]> packets = new LongObjectMap<>();
+		topic.getPostsSince(AbstractTopic.FETCH_ALL_POSTS, postInfos, packets);
+
+		assertEquals(1, postInfos.size());
+		assertEquals(1L, postInfos.get(0).getId());
+		assertEquals(1, packets.size());
+		Packet.releaseAll(packets.get(1));
+
+		postInfos.clear();
+		packets.clear();
+		topic.getPostsSinceWithIncomplete(AbstractTopic.FETCH_ALL_POSTS, postInfos, packets);
+
+		assertEquals(2, postInfos.size());
+		assertEquals(2L, postInfos.get(1).getId());
+		assertEquals(1, packets.get(2).length);
+		Packet.releaseAll(packets.get(1));
+		Packet.releaseAll(packets.get(2));
+	}
+
+	/** A PostInfo posted by many threads at once is posted once */
+	@Test(timeout = 30_000)
+	public void concurrentPostIfAbsentPostsOnce() throws InterruptedException {
+		final int threadCount = 8;
+		final int postCount = 500;
+		final AtomicInteger posted = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+
+		final List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < threadCount; i++) {
+			final Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				for (int id = 1; id <= postCount; id++) {
+					if (topic.postIfAbsent(new PostInfo("poster", "txt", id, 0, null))) {
+						posted.incrementAndGet();
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(postCount, posted.get());
+		for (int id = 1; id <= postCount; id++) {
+			assertEquals(id, topic.indexOf(id));
+		}
+	}
+
+	/**
+	 * The last complete Post is read safely while Posts are posted and the incomplete ones are
+	 * discarded, and it is always a Post that has been completed
+	 */
+	@Test(timeout = 30_000)
+	public void lastPostIdIsReadWhilePosting() throws InterruptedException {
+		final int postCount = 2_000;
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final AtomicBoolean posting = new AtomicBoolean(true);
+
+		final Thread reader = new Thread(() -> {
+			try {
+				while (posting.get()) {
+					final long lastPostId = topic.getLastPostId();
+					if ((lastPostId != AbstractTopic.FETCH_ALL_POSTS) && ((lastPostId % 2) != 0)) {
+						throw new AssertionError("Post " + lastPostId + " is incomplete");
+					}
+				}
+			} catch (final Throwable e) {
+				failure.set(e);
+			}
+		}, "Reader");
+		reader.start();
+
+		// the even Posts are complete, while only the first Packet of the odd ones is posted
+		final byte[] largeData = new byte[600 * 1024];
+		for (int id = 1; id <= postCount; id++) {
+			if ((id % 2) == 0) {
+				final Post post = TestFixtures.createPost(id, 10);
+				topic.post(post.getPostInfo(), Packet.fromPost(post));
+			} else {
+				final Post post = new Post(largeData,
+						new PostInfo("poster", "txt", id, largeData.length, null));
+				final Packet[] packets = Packet.fromPost(post);
+				topic.post(post.getPostInfo());
+				topic.post(packets[0]);
+				Packet.releaseAll(Arrays.copyOfRange(packets, 1, packets.length));
+			}
+
+			if ((id % 10) == 0) {
+				topic.discardIncompletePosts();
+			}
+		}
+
+		posting.set(false);
+		reader.join();
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertEquals(postCount, topic.getLastPostId());
+	}
+}
@@ -0,0 +1,107 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the heartbeats that a {@link HeartbeatThread} sends and for the replacement of a
+ * leader that stops sending them.
+ *
+ * @author Alex Mandelias
+ */
+public class HeartbeatThreadTest {
+
+	private ServerSocket serverSocket;
+	private PeerStreams peers;
+	private BrokerLoads loads;
+	private HeartbeatThread heartbeatThread;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		serverSocket = new ServerSocket(0);
+		peers = new PeerStreams(HeartbeatThread.FAILURE_TIMEOUT_MILLIS);
+		loads = new BrokerLoads(TestFixtures.newConnectionInfo(),
+				new BrokerTopicManager(new InMemoryTopicDAO()), new LongAdder(), new LongAdder());
+	}
+
+	@After
+	public void tearDown() throws IOException, InterruptedException {
+		if (heartbeatThread != null) {
+			heartbeatThread.interrupt();
+			heartbeatThread.join();
+		}
+		peers.close();
+		serverSocket.close();
+	}
+
+	// connects the Broker to a fake one and returns the socket of the fake one
+	private Socket connect() throws IOException {
+		final Socket socket = new Socket("127.0.0.1", serverSocket.getLocalPort());
+		final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+		oos.flush();
+		peers.add(socket, oos);
+		return serverSocket.accept();
+	}
+
+	/**
+	 * The heartbeats of the leader carry the version of the routing table and the loads, and
+	 * never the routing table itself
+	 */
+	@Test(timeout = 10_000)
+	public void leaderHeartbeatCarriesOnlyVersion() throws Exception {
+		final long version = 7L;
+		try (Socket other = connect()) {
+			heartbeatThread = new HeartbeatThread(loads, () -> peers.send(version), peers);
+			heartbeatThread.start();
+
+			final ObjectInputStream ois = new ObjectInputStream(other.getInputStream());
+			for (int i = 0; i < 2; i++) {
+				assertEquals(version, ois.readObject());
+				assertTrue(ois.readObject() instanceof Map);
+			}
+		}
+	}
+
+	/** Another Broker replaces the leader once the leader has been silent for too long */
+	@Test(timeout = 20_000)
+	public void silentLeaderIsReplaced() throws Exception {
+		try (Socket leader = connect()) {
+			final CountDownLatch replaced = new CountDownLatch(1);
+			final long start = System.currentTimeMillis();
+			heartbeatThread = new HeartbeatThread(loads, peers, replaced::countDown);
+			heartbeatThread.start();
+
+			assertTrue(replaced.await(2 * HeartbeatThread.FAILURE_TIMEOUT_MILLIS,
+					TimeUnit.MILLISECONDS));
+			final long silentMillis = System.currentTimeMillis() - start;
+			assertTrue("Replaced after " + silentMillis + " ms",
+					silentMillis > HeartbeatThread.FAILURE_TIMEOUT_MILLIS);
+
+			// the leader is replaced only once
+			heartbeatThread.join();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import alexman.yamca.eventdeliverysystem.dao.ITopicDAO;
+import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.Packet;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+
+/**
+ * An ITopicDAO that keeps the Posts of each Topic in memory, for tests.
+ *
+ * @author Alex Mandelias
+ */
+final class InMemoryTopicDAO implements ITopicDAO {
+
+	private final Map<String, List<Post>> postsPerTopic = new HashMap<>();
+
+	// writes wait until it is counted down, like a stalled disk
+	private volatile CountDownLatch writesResumed = new CountDownLatch(0);
+
+	@Override
+	public synchronized void createTopic(String topicName) throws IOException {
+		if (postsPerTopic.putIfAbsent(topicName, new ArrayList<>()) != null) {
+			throw new IOException("Topic " + topicName + " already exists");
+		}
+	}
+
+	@Override
+	public synchronized void deleteTopic(String topicName) {
+		postsPerTopic.remove(topicName);
+	}
+
+	@Override
+	public void writePost(Post post, String topicName) throws IOException {
+		try {
+			writesResumed.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing Post " + post.getPostInfo().getId());
+		}
+
+		synchronized (this) {
+			postsPerTopic.computeIfAbsent(topicName, name -> new ArrayList<>()).add(post);
+		}
+	}
+
+	@Override
+	public synchronized Packet[] readPost(PostInfo postInfo, String topicName, long offset,
+			long length) throws IOException {
+		for (final Post post : postsPerTopic.getOrDefault(topicName, new ArrayList<>())) {
+			if (post.getPostInfo().getId() == postInfo.getId()) {
+				return Packet.fromPost(post);
+			}
+		}
+
+		throw new IOException("Post " + postInfo.getId() + " doesn't exist");
+	}
+
+	@Override
+	public synchronized Collection<AbstractTopic> readAllTopics() {
+		final List<AbstractTopic> topics = new ArrayList<>();
+		postsPerTopic.forEach((name, posts) -> topics.add(AbstractTopic.createSimple(name, posts)));
+		return topics;
+	}
+
+	/** Makes every write wait until {@link #resumeWrites()} is called, like a stalled disk. */
+	void stallWrites() {
+		writesResumed = new CountDownLatch(1);
+	}
+
+	/** Lets the writes that wait, and every write from now on, continue. */
+	void resumeWrites() {
+		writesResumed.countDown();
+	}
+
+	/**
+	 * Returns the Posts written to a Topic.
+	 *
+	 * @param topicName the name of the Topic
+	 *
+	 * @return the Posts, in the order they were written
+	 */
+	synchronized List<Post> getPosts(String topicName) {
+		return new ArrayList<>(postsPerTopic.getOrDefault(topicName, new ArrayList<>()));
+	}
+}
@@ -0,0 +1,107 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for how {@link PeerStreams} sends messages to Brokers that read them and to Brokers that
+ * have stalled.
+ *
+ * @author Alex Mandelias
+ */
+public class PeerStreamsTest {
+
+	private static final long WRITE_TIMEOUT_MILLIS = 200L;
+	private static final int MESSAGE_COUNT = 100;
+	private static final int MESSAGE_SIZE = 100_000;
+
+	private ServerSocket serverSocket;
+	private PeerStreams peers;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		serverSocket = new ServerSocket(0);
+		peers = new PeerStreams(PeerStreamsTest.WRITE_TIMEOUT_MILLIS);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		peers.close();
+		serverSocket.close();
+	}
+
+	// connects a Broker to the fake one and returns the socket of the fake one
+	private Socket connect() throws IOException {
+		final Socket socket = new Socket("127.0.0.1", serverSocket.getLocalPort());
+		final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+		oos.flush();
+		peers.add(socket, oos);
+		return serverSocket.accept();
+	}
+
+	/**
+	 * A Broker that stops reading is dropped and its connection is closed, without holding up the
+	 * messages sent to the other Brokers
+	 */
+	@Test(timeout = 30_000)
+	public void stalledBrokerIsDropped() throws Exception {
+		try (Socket stalled = connect(); Socket reading = connect()) {
+			final AtomicInteger received = new AtomicInteger(0);
+			final Thread reader = new Thread(() -> {
+				try (ObjectInputStream ois = new ObjectInputStream(reading.getInputStream())) {
+					for (int i = 0; i < PeerStreamsTest.MESSAGE_COUNT; i++) {
+						ois.readObject();
+						received.incrementAndGet();
+					}
+				} catch (IOException | ClassNotFoundException e) {
+					// the test fails with fewer messages received
+				}
+			}, "Reader");
+			reader.start();
+
+			final long start = System.currentTimeMillis();
+			for (int i = 0; i < PeerStreamsTest.MESSAGE_COUNT; i++) {
+				peers.send(new byte[PeerStreamsTest.MESSAGE_SIZE]);
+				Thread.sleep(10);
+			}
+			final long sendMillis = System.currentTimeMillis() - start;
+			assertTrue("Sending took " + sendMillis + " ms", sendMillis < 10_000L);
+
+			reader.join();
+			assertEquals(PeerStreamsTest.MESSAGE_COUNT, received.get());
+
+			// the stalled Broker finds its connection closed once it reads what was written
+			final InputStream in = stalled.getInputStream();
+			final byte[] buffer = new byte[PeerStreamsTest.MESSAGE_SIZE];
+			try {
+				while (in.read(buffer) != -1) {
+					// skip what was written before the connection was closed
+				}
+			} catch (final EOFException | SocketException e) {
+				// the connection has been closed
+			}
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import alexman.yamca.eventdeliverysystem.client.User;
+import alexman.yamca.eventdeliverysystem.client.UserAdapter;
+import alexman.yamca.eventdeliverysystem.client.UserEvent;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.filesystem.ProfileFileSystem;
+import alexman.yamca.eventdeliverysystem.filesystem.TopicFileSystem;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * A benchmark for the latency of chat messages while large files are in flight. A Broker streams
+ * the Posts of a chat Topic and of a media Topic to a User over the same session, and the time
+ * from posting each chat message until that User receives it is measured, first while the media
+ * Topic is idle and then while another User keeps posting large files to it. The latency of the
+ * chat messages should stay flat, because the Broker streams them on its high-priority lane.
+ * <p>
+ * Run with {@code java PushLatencyBenchmark [messages] [fileSize]}.
+ *
+ * @author Alex Mandelias
+ */
+public final class PushLatencyBenchmark {
+
+	private static final String CHAT_TOPIC_NAME = "chat";
+	private static final String MEDIA_TOPIC_NAME = "media";
+
+	private static final long EVENT_TIMEOUT_MILLIS = 30_000L;
+
+	// the time between two chat messages, like a user typing
+	private static final long MESSAGE_INTERVAL_MILLIS = 20L;
+
+	private PushLatencyBenchmark() {}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the number of chat messages in each run and the size of each file, all optional
+	 *
+	 * @throws IOException if the Broker or a User could not be started
+	 * @throws InterruptedException if interrupted while waiting for a Post to be received
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		final int fileSize = args.length > 1 ? Integer.parseInt(args[1]) : 8 * 1024 * 1024;
+
+		TestLog.silence();
+
+		// warm up, then measure
+		PushLatencyBenchmark.run(messages / 10, fileSize, false);
+		PushLatencyBenchmark.run(messages, fileSize, true);
+
+		System.exit(0);
+	}
+
+	private static void run(int messages, int fileSize, boolean report)
+			throws IOException, InterruptedException {
+		final Path root = Files.createTempDirectory("push-latency-benchmark");
+		Broker broker = null;
+		final User[] users = new User[3];
+		Thread mediaThread = null;
+		try {
+			final ServerSocket clientRequestSocket = new ServerSocket();
+			broker = new Broker(new TopicFileSystem(Files.createDirectory(root.resolve("broker"))),
+					clientRequestSocket, new ServerSocket());
+			new Thread(broker, "Broker").start();
+
+			final int port = clientRequestSocket.getLocalPort();
+			final ProfileFileSystem profiles =
+					new ProfileFileSystem(Files.createDirectory(root.resolve("users")));
+			final String[] names = { "receiver", "chatter", "uploader" };
+			for (int i = 0; i < users.length; i++) {
+				users[i] = User.createNew("127.0.0.1", port, profiles, names[i]);
+			}
+			final User receiver = users[0];
+			final User chatter = users[1];
+			final User uploader = users[2];
+
+			final BlockingQueue<Long> chatReceivedNanos = new LinkedBlockingQueue<>();
+			receiver.addUserListener(new UserAdapter() {
+				@Override
+				public void onMessageReceived(UserEvent e) {
+					if (e.success && e.topicName.equals(PushLatencyBenchmark.CHAT_TOPIC_NAME)) {
+						chatReceivedNanos.add(System.nanoTime());
+					}
+				}
+			});
+			final BlockingQueue<UserEvent> uploadedEvents = new LinkedBlockingQueue<>();
+			uploader.addUserListener(new UserAdapter() {
+				@Override
+				public void onMessageSent(UserEvent e) {
+					uploadedEvents.add(e);
+				}
+			});
+
+			// the receiver streams both Topics over the same session
+			receiver.createTopic(PushLatencyBenchmark.CHAT_TOPIC_NAME);
+			receiver.createTopic(PushLatencyBenchmark.MEDIA_TOPIC_NAME);
+			TestFixtures.awaitTopic(receiver, PushLatencyBenchmark.CHAT_TOPIC_NAME);
+			TestFixtures.awaitTopic(receiver, PushLatencyBenchmark.MEDIA_TOPIC_NAME);
+			chatter.listenForNewTopic(PushLatencyBenchmark.CHAT_TOPIC_NAME);
+			uploader.listenForNewTopic(PushLatencyBenchmark.MEDIA_TOPIC_NAME);
+			TestFixtures.awaitTopic(chatter, PushLatencyBenchmark.CHAT_TOPIC_NAME);
+			TestFixtures.awaitTopic(uploader, PushLatencyBenchmark.MEDIA_TOPIC_NAME);
+
+			final double[] idle = PushLatencyBenchmark.measure(chatter, chatReceivedNanos,
+					messages);
+
+			final AtomicInteger filesSent = new AtomicInteger();
+			final Path file = root.resolve("file.mp4");
+			Files.write(file, new byte[fileSize]);
+			mediaThread = new Thread(() -> {
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						uploader.post(Post.fromFile(file.toFile(), "uploader"),
+								PushLatencyBenchmark.MEDIA_TOPIC_NAME);
+						final UserEvent sent = uploadedEvents.poll(
+								PushLatencyBenchmark.EVENT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+						if ((sent == null) || !sent.success) {
+							throw new IllegalStateException("A file wasn't sent");
+						}
+						filesSent.incrementAndGet();
+					}
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (final IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}, "Uploader");
+			mediaThread.start();
+
+			final long busyStart = System.nanoTime();
+			final double[] busy = PushLatencyBenchmark.measure(chatter, chatReceivedNanos,
+					messages);
+			final double busySeconds = (System.nanoTime() - busyStart) / 1e9;
+
+			if (report) {
+				PushLatencyBenchmark.print("idle", idle);
+				PushLatencyBenchmark.print("busy", busy);
+				System.out.printf("files sent while busy: %.1f MiB/s%n",
+						(filesSent.get() * (fileSize / (1024.0 * 1024.0))) / busySeconds);
+			}
+		} finally {
+			if (mediaThread != null) {
+				mediaThread.interrupt();
+				mediaThread.join();
+			}
+			for (final User user : users) {
+				if (user != null) {
+					user.close();
+				}
+			}
+			if (broker != null) {
+				broker.close();
+			}
+			PushLatencyBenchmark.delete(root);
+		}
+	}
+
+	// returns the latency of each chat message in milliseconds
+	private static double[] measure(User chatter, BlockingQueue<Long> chatReceivedNanos,
+			int messages) throws InterruptedException {
+		final double[] latencies = new double[messages];
+		for (int i = 0; i < messages; i++) {
+			final long sentNanos = System.nanoTime();
+			chatter.post(Post.fromText("message " + i, "chatter"),
+					PushLatencyBenchmark.CHAT_TOPIC_NAME);
+
+			final Long receivedNanos = chatReceivedNanos.poll(
+					PushLatencyBenchmark.EVENT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			if (receivedNanos == null) {
+				throw new IllegalStateException("A chat message wasn't received");
+			}
+			latencies[i] = (receivedNanos - sentNanos) / 1e6;
+
+			Thread.sleep(PushLatencyBenchmark.MESSAGE_INTERVAL_MILLIS);
+		}
+		return latencies;
+	}
+
+	private static void print(String name, double[] latencies) {
+		final double[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+		System.out.printf("%s: p50 %.1f ms, p99 %.1f ms, max %.1f ms%n", name,
+				sorted[sorted.length / 2], sorted[(int) (sorted.length * 0.99)],
+				sorted[sorted.length - 1]);
+	}
+
+	private static void delete(Path root) throws IOException {
+		try (Stream<Path> paths = Files.walk(root)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+}
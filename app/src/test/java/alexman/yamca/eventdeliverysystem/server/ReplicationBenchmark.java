@@ -0,0 +1,270 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import alexman.yamca.eventdeliverysystem.client.User;
+import alexman.yamca.eventdeliverysystem.client.UserAdapter;
+import alexman.yamca.eventdeliverysystem.client.UserEvent;
+import alexman.yamca.eventdeliverysystem.datastructures.Partitioner;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+import alexman.yamca.eventdeliverysystem.filesystem.ProfileFileSystem;
+import alexman.yamca.eventdeliverysystem.filesystem.TopicFileSystem;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * A benchmark for the replication of Topics to their followers and for the failover of a
+ * {@link Broker}. A server of three Brokers is started for each replication factor, a User
+ * publishes to a number of Topics, and then the process of one of the Brokers that isn't the
+ * leader is killed. The throughput of the publishing is reported along with its overhead over a
+ * server that doesn't replicate, and the failover time is the time until every Topic accepts a
+ * Post again.
+ * <p>
+ * Run with {@code java ReplicationBenchmark [topics] [postsPerTopic]}.
+ *
+ * @author Alex Mandelias
+ */
+public final class ReplicationBenchmark {
+
+	private static final int BROKER_COUNT = 3;
+
+	private static final long JOIN_MILLIS = 1_000L;
+	private static final long EVENT_TIMEOUT_MILLIS = 30_000L;
+
+	// the time after which the Topics that haven't accepted a Post are reported as lost
+	private static final long FAILOVER_TIMEOUT_MILLIS = 30_000L;
+	private static final long RETRY_MILLIS = 100L;
+
+	private ReplicationBenchmark() {}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the number of Topics and the number of Posts published to each, all optional
+	 *
+	 * @throws IOException if a Broker or the User could not be started
+	 * @throws InterruptedException if interrupted while waiting for the Posts to be sent
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final int topics = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		final int postsPerTopic = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		TestLog.silence();
+
+		// warm up, then measure
+		ReplicationBenchmark.run(0, topics, postsPerTopic / 10, false);
+
+		// every Topic has at most one copy on each of the other Brokers
+		final double[] postsPerSecond = new double[ReplicationBenchmark.BROKER_COUNT];
+		for (int rf = 0; rf < ReplicationBenchmark.BROKER_COUNT; rf++) {
+			postsPerSecond[rf] = ReplicationBenchmark.run(rf, topics, postsPerTopic, true);
+			System.out.printf("rf=%d: %.0f posts/s, overhead %.1f%%%n", rf, postsPerSecond[rf],
+					100 * ((postsPerSecond[0] / postsPerSecond[rf]) - 1));
+		}
+
+		System.exit(0);
+	}
+
+	private static double run(int replicationFactor, int topics, int postsPerTopic,
+			boolean failover) throws IOException, InterruptedException {
+		final Path root = Files.createTempDirectory("replication-benchmark");
+		final List<Broker> brokers = new ArrayList<>();
+		Process failing = null;
+		User user = null;
+		try {
+			final ServerSocket clientRequestSocket = new ServerSocket();
+			final ServerSocket brokerRequestSocket = new ServerSocket();
+			brokers.add(new Broker(new TopicFileSystem(Files.createDirectory(root.resolve("b0"))),
+					clientRequestSocket, brokerRequestSocket, RoutingTable.DEFAULT_WEIGHT,
+					RoutingTable.DEFAULT_VIRTUAL_NODES_PER_WEIGHT, Partitioner.DEFAULT,
+					replicationFactor));
+			new Thread(brokers.get(0), "Broker-0").start();
+
+			// the Broker that fails runs in another process, which is killed like a crashed Broker
+			failing = ReplicationBenchmark.startFailingBroker(
+					Files.createDirectory(root.resolve("b1")), brokerRequestSocket.getLocalPort());
+
+			final Broker other = new Broker(
+					new TopicFileSystem(Files.createDirectory(root.resolve("b2"))),
+					new ServerSocket(), new ServerSocket(), "127.0.0.1",
+					brokerRequestSocket.getLocalPort());
+			brokers.add(other);
+			new Thread(other, "Broker-2").start();
+			Thread.sleep(ReplicationBenchmark.JOIN_MILLIS);
+
+			final BlockingQueue<UserEvent> sentEvents = new LinkedBlockingQueue<>();
+			final BlockingQueue<UserEvent> createdEvents = new LinkedBlockingQueue<>();
+			user = User.createNew("127.0.0.1", clientRequestSocket.getLocalPort(),
+					new ProfileFileSystem(Files.createDirectory(root.resolve("users"))), "user");
+			user.addUserListener(new UserAdapter() {
+				@Override
+				public void onMessageSent(UserEvent e) {
+					sentEvents.add(e);
+				}
+
+				@Override
+				public void onTopicCreated(UserEvent e) {
+					createdEvents.add(e);
+				}
+			});
+
+			for (int i = 0; i < topics; i++) {
+				user.createTopic("topic-" + i);
+			}
+			for (int i = 0; i < topics; i++) {
+				final UserEvent created = createdEvents.poll(
+						ReplicationBenchmark.EVENT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				if ((created == null) || !created.success) {
+					throw new IllegalStateException("A Topic couldn't be created");
+				}
+			}
+			for (int i = 0; i < topics; i++) {
+				TestFixtures.awaitTopic(user, "topic-" + i);
+			}
+
+			final int postCount = topics * postsPerTopic;
+			final long startNanos = System.nanoTime();
+			for (int k = 0; k < postsPerTopic; k++) {
+				for (int i = 0; i < topics; i++) {
+					user.post(Post.fromText("post " + k, "user"), "topic-" + i);
+				}
+			}
+
+			int failedCount = 0;
+			for (int k = 0; k < postCount; k++) {
+				final UserEvent sent = sentEvents.poll(ReplicationBenchmark.EVENT_TIMEOUT_MILLIS,
+						TimeUnit.MILLISECONDS);
+				if (sent == null) {
+					throw new IllegalStateException("Not every Post was sent");
+				}
+				if (!sent.success) {
+					failedCount++;
+				}
+			}
+			final long elapsedNanos = System.nanoTime() - startNanos;
+			final double postsPerSecond = postCount / (elapsedNanos / 1e9);
+			System.out.printf("rf=%d, posts=%d: %d failed%n", replicationFactor, postCount,
+					failedCount);
+
+			if (!failover) {
+				return postsPerSecond;
+			}
+
+			final long failStart = System.nanoTime();
+			failing.destroyForcibly().waitFor();
+
+			final Set<String> pending = new HashSet<>();
+			for (int i = 0; i < topics; i++) {
+				pending.add("topic-" + i);
+			}
+			sentEvents.clear();
+			while (!pending.isEmpty()
+			       && (System.nanoTime() - failStart) < TimeUnit.MILLISECONDS
+					       .toNanos(ReplicationBenchmark.FAILOVER_TIMEOUT_MILLIS)) {
+				for (final String topicName : pending) {
+					user.post(Post.fromText("after failure", "user"), topicName);
+				}
+
+				for (int i = pending.size(); i > 0; i--) {
+					final UserEvent sent = sentEvents.poll(
+							ReplicationBenchmark.EVENT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+					if (sent == null) {
+						break;
+					}
+					if (sent.success) {
+						pending.remove(sent.topicName);
+					}
+				}
+
+				if (!pending.isEmpty()) {
+					Thread.sleep(ReplicationBenchmark.RETRY_MILLIS);
+				}
+			}
+
+			System.out.printf("rf=%d: failover took %.0f ms, %d of %d Topics lost%n",
+					replicationFactor, (System.nanoTime() - failStart) / 1e6, pending.size(),
+					topics);
+			return postsPerSecond;
+		} finally {
+			if (user != null) {
+				user.close();
+			}
+			for (final Broker broker : brokers) {
+				broker.close();
+			}
+			if (failing != null) {
+				failing.destroyForcibly().waitFor();
+			}
+			ReplicationBenchmark.delete(root);
+		}
+	}
+
+	// starts a Broker in another process and waits until it has joined the server
+	private static Process startFailingBroker(Path directory, int leaderPort)
+			throws IOException {
+		final Process process = new ProcessBuilder(
+				Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-cp",
+				System.getProperty("java.class.path"), FailingBroker.class.getName(),
+				directory.toString(), String.valueOf(leaderPort))
+				.redirectError(Redirect.INHERIT).start();
+
+		final BufferedReader reader = new BufferedReader(
+				new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+		if (reader.readLine() == null) {
+			throw new IOException("The Broker that fails couldn't be started");
+		}
+		return process;
+	}
+
+	private static void delete(Path root) throws IOException {
+		try (Stream<Path> paths = Files.walk(root)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	/**
+	 * Runs a Broker that joins the server until its process is killed.
+	 *
+	 * @author Alex Mandelias
+	 */
+	public static final class FailingBroker {
+
+		private FailingBroker() {}
+
+		/**
+		 * Starts the Broker, and prints a line once it has joined the server.
+		 *
+		 * @param args the directory of its Topics and the port of the leader for other Brokers
+		 *
+		 * @throws IOException if the Broker could not be started
+		 */
+		public static void main(String[] args) throws IOException {
+			TestLog.silence();
+
+			final Broker broker = new Broker(new TopicFileSystem(Paths.get(args[0])),
+					new ServerSocket(), new ServerSocket(), "127.0.0.1", Integer.parseInt(args[1]));
+			new Thread(broker, "Broker-1").start();
+
+			System.out.println("joined");
+			System.out.flush();
+		}
+	}
+}
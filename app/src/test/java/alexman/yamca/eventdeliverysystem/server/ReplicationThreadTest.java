@@ -0,0 +1,120 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.datastructures.Packet;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame;
+import alexman.yamca.eventdeliverysystem.datastructures.SessionFrame.Kind;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for when a {@link ReplicationThread} counts its follower in sync.
+ *
+ * @author Alex Mandelias
+ */
+public class ReplicationThreadTest {
+
+	private static final String TOPIC_NAME = "topic";
+
+	// the time an upload would wait for a follower that is in sync but never acknowledges it
+	private static final long DEADLINE_MILLIS = 5_000L;
+
+	private BrokerTopicManager btm;
+	private BrokerTopic topic;
+	private ServerSocket followerSocket;
+	private ReplicationThread replicationThread;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		btm = new BrokerTopicManager(new InMemoryTopicDAO());
+		btm.addTopic(ReplicationThreadTest.TOPIC_NAME);
+		topic = btm.getTopic(ReplicationThreadTest.TOPIC_NAME);
+		post(1);
+
+		followerSocket = new ServerSocket(0);
+		replicationThread = new ReplicationThread(ConnectionInfo.forServerSocket(followerSocket),
+				ConnectionInfo.forServerSocket(followerSocket), btm, new LongAdder(),
+				thread -> {});
+		replicationThread.replicate(Collections.singleton(ReplicationThreadTest.TOPIC_NAME));
+		replicationThread.start();
+	}
+
+	@After
+	public void tearDown() throws IOException, InterruptedException {
+		replicationThread.close();
+		followerSocket.close();
+		replicationThread.join();
+		btm.close();
+	}
+
+	private void post(long id) {
+		final Post post = TestFixtures.createPost(id, PostInfo.PLAIN_TEXT_EXTENSION, 10);
+		topic.post(post.getPostInfo(), Packet.fromPost(post));
+	}
+
+	/**
+	 * A follower that says it has every Post when it connects is in sync only once it acknowledges
+	 * them, so that uploads don't wait for it until then, and is told so
+	 */
+	@Test(timeout = 30_000)
+	public void followerIsInSyncOnlyOnceItAcknowledges() throws Exception {
+		try (Socket socket = followerSocket.accept()) {
+			final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+
+			assertEquals(MessageType.REPLICATE_TOPICS, ((Message) ois.readObject()).getType());
+			oos.writeBoolean(true);
+			oos.writeObject(new HashMap<>(
+					Collections.singletonMap(ReplicationThreadTest.TOPIC_NAME, 1L)));
+			oos.flush();
+
+			final SessionFrame subscribed = (SessionFrame) ois.readObject();
+			assertEquals(Kind.SUBSCRIBED, subscribed.getKind());
+
+			post(2);
+			BrokerPushThreadTest.readUntilFinalPacket(ois, 2);
+
+			final long start = System.currentTimeMillis();
+			replicationThread.awaitAcknowledgement(topic, 2,
+					start + ReplicationThreadTest.DEADLINE_MILLIS);
+			final long waitedMillis = System.currentTimeMillis() - start;
+			assertTrue("Waited " + waitedMillis + " ms for a follower that isn't in sync",
+					waitedMillis < (ReplicationThreadTest.DEADLINE_MILLIS / 2));
+
+			oos.writeObject(new SessionFrame(Kind.ACKNOWLEDGED, ReplicationThreadTest.TOPIC_NAME,
+					2L));
+			oos.flush();
+
+			final SessionFrame lag = (SessionFrame) ois.readObject();
+			assertEquals(Kind.REPLICATION_LAG, lag.getKind());
+			assertEquals(0L, lag.getValue());
+		}
+	}
+}
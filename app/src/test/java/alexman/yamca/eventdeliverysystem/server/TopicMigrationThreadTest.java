@@ -0,0 +1,215 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.datastructures.Packet;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the hand-over of the Topics of a Broker to another Broker that joins the server while
+ * Posts are being uploaded to them. The Topics exist before the first Broker starts, so that they
+ * aren't placed on it and the ring decides which of them move to the Broker that joins.
+ *
+ * @author Alex Mandelias
+ */
+public class TopicMigrationThreadTest {
+
+	private static final int TOPIC_COUNT = 16;
+
+	// the size of a Post with a few Packets, so that some of them are uploaded before the join
+	private static final int POST_SIZE = 4 * 512 * 1024;
+
+	private final InMemoryTopicDAO leaderDAO = new InMemoryTopicDAO();
+	private final InMemoryTopicDAO joiningDAO = new InMemoryTopicDAO();
+	private ServerSocket leaderClientSocket;
+	private ServerSocket leaderBrokerSocket;
+	private Broker leader;
+	private Broker joining;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		for (int i = 0; i < TopicMigrationThreadTest.TOPIC_COUNT; i++) {
+			leaderDAO.createTopic(TopicMigrationThreadTest.topicName(i));
+		}
+
+		leaderClientSocket = new ServerSocket();
+		leaderBrokerSocket = new ServerSocket();
+		leader = new Broker(leaderDAO, leaderClientSocket, leaderBrokerSocket);
+		new Thread(leader, "Leader").start();
+	}
+
+	@After
+	public void tearDown() {
+		if (joining != null) {
+			joining.close();
+		}
+		leader.close();
+	}
+
+	private static String topicName(int i) {
+		return "topic-" + i;
+	}
+
+	// an upload to the leader that is paused after some Packets of its only Post
+	private static final class Upload implements AutoCloseable {
+
+		private final Socket socket;
+		private final ObjectOutputStream oos;
+		private final Post post;
+		private final Packet[] packets;
+
+		private Upload(int port, String topicName, long postId) throws IOException {
+			socket = new Socket("127.0.0.1", port);
+			oos = new ObjectOutputStream(socket.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+
+			oos.writeObject(new Message(MessageType.DATA_PACKET_SEND, topicName));
+			oos.flush();
+			assertTrue(ois.readBoolean());
+
+			post = TestFixtures.createPost(postId, "jpg",
+					TopicMigrationThreadTest.POST_SIZE);
+			packets = Packet.fromPost(post);
+
+			oos.writeInt(1);
+			oos.writeObject(post.getPostInfo());
+			oos.writeObject(packets[0]);
+			oos.flush();
+		}
+
+		private void finish() throws IOException {
+			for (int i = 1; i < packets.length; i++) {
+				oos.writeObject(packets[i]);
+			}
+			oos.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			Packet.releaseAll(packets);
+			socket.close();
+		}
+	}
+
+	// returns whether the leader accepts an upload to a Topic, without uploading anything
+	private boolean acceptsUpload(String topicName) throws IOException {
+		try (Socket socket = new Socket("127.0.0.1", leaderClientSocket.getLocalPort())) {
+			final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+
+			oos.writeObject(new Message(MessageType.DATA_PACKET_SEND, topicName));
+			oos.flush();
+			if (!ois.readBoolean()) {
+				return false;
+			}
+
+			oos.writeInt(0);
+			oos.flush();
+			return true;
+		}
+	}
+
+	/**
+	 * A Topic is handed over only once the Posts being uploaded to it have been uploaded, and
+	 * the Broker that takes it over has every one of them
+	 */
+	@Test(timeout = 60_000)
+	public void postsUploadedDuringMigrationAreHandedOver()
+			throws IOException, ClassNotFoundException, InterruptedException {
+		final List<Upload> uploads = new ArrayList<>();
+		try {
+			for (int i = 0; i < TopicMigrationThreadTest.TOPIC_COUNT; i++) {
+				uploads.add(new Upload(leaderClientSocket.getLocalPort(),
+						TopicMigrationThreadTest.topicName(i), i));
+			}
+
+			final ServerSocket joiningClientSocket = new ServerSocket();
+			joining = new Broker(joiningDAO, joiningClientSocket, new ServerSocket(),
+					"127.0.0.1", leaderBrokerSocket.getLocalPort());
+			new Thread(joining, "Joining").start();
+			final ConnectionInfo joiningCI = ConnectionInfo.forServerSocket(joiningClientSocket);
+
+			final int leaderPort = leaderClientSocket.getLocalPort();
+			RoutingTable routingTable = TestFixtures.getRoutingTable(leaderPort);
+			while (!routingTable.getWeightPerBroker().containsKey(joiningCI)) {
+				Thread.sleep(10);
+				routingTable = TestFixtures.getRoutingTable(leaderPort);
+			}
+
+			final List<Integer> movedTopics = new ArrayList<>();
+			for (int i = 0; i < TopicMigrationThreadTest.TOPIC_COUNT; i++) {
+				final String topicName = TopicMigrationThreadTest.topicName(i);
+				if (routingTable.getBrokerForTopic(topicName).equals(joiningCI)) {
+					movedTopics.add(i);
+				}
+			}
+			assertFalse(movedTopics.isEmpty());
+
+			// the hand-over of the Topics that move waits for the uploads in progress
+			for (final int i : movedTopics) {
+				while (acceptsUpload(TopicMigrationThreadTest.topicName(i))) {
+					Thread.sleep(10);
+				}
+			}
+
+			for (final Upload upload : uploads) {
+				upload.finish();
+			}
+
+			for (int i = 0; i < TopicMigrationThreadTest.TOPIC_COUNT; i++) {
+				final String topicName = TopicMigrationThreadTest.topicName(i);
+				final InMemoryTopicDAO dao = movedTopics.contains(i) ? joiningDAO : leaderDAO;
+
+				List<Post> posts = dao.getPosts(topicName);
+				while (posts.isEmpty()) {
+					Thread.sleep(10);
+					posts = dao.getPosts(topicName);
+				}
+
+				assertEquals(topicName, 1, posts.size());
+				assertArrayEquals(topicName, uploads.get(i).post.getData(),
+						posts.get(0).getData());
+			}
+
+			// the Topics that moved are removed from the leader once they have been handed over
+			for (final int i : movedTopics) {
+				while (!leaderDAO.getPosts(TopicMigrationThreadTest.topicName(i)).isEmpty()) {
+					Thread.sleep(10);
+				}
+			}
+		} finally {
+			for (final Upload upload : uploads) {
+				upload.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package alexman.yamca.eventdeliverysystem.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import alexman.yamca.eventdeliverysystem.datastructures.LongObjectMap;
+import alexman.yamca.eventdeliverysystem.datastructures.Packet;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Subscriber;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the {@link TopicWriter} that saves the Posts of a BrokerTopic whose disk is stalled.
+ *
+ * @author Alex Mandelias
+ */
+public class TopicWriterTest {
+
+	private static final String TOPIC_NAME = "topic";
+	private static final int POST_COUNT = 3;
+
+	// large enough to be broken into more than one Packet
+	private static final int POST_SIZE = 600 * 1024;
+
+	private InMemoryTopicDAO dao;
+	private BrokerTopic topic;
+	private ExecutorService executor;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() {
+		dao = new InMemoryTopicDAO();
+		topic = new BrokerTopic(TopicWriterTest.TOPIC_NAME, dao);
+		executor = Executors.newSingleThreadExecutor();
+
+		// saves each Post once it has been received, like the Broker
+		final TopicWriter writer = new TopicWriter(topic, executor, () -> {});
+		topic.subscribe(new Subscriber() {
+			@Override
+			public void notify(PostInfo postInfo, String topicName) {}
+
+			@Override
+			public void notify(Packet packet, String topicName) {
+				if (packet.isFinal()) {
+					writer.save(packet.getPostId());
+				}
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		dao.resumeWrites();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Posting doesn't wait for the Posts to be saved, and the Posts are saved in the order in
+	 * which they were posted once the disk resumes
+	 */
+	@Test(timeout = 10_000)
+	public void postingDoesntWaitForStalledDisk() throws InterruptedException {
+		dao.stallWrites();
+
+		for (int id = 1; id <= TopicWriterTest.POST_COUNT; id++) {
+			final Post post = TestFixtures.createPost(id, TopicWriterTest.POST_SIZE);
+			topic.post(post.getPostInfo(), Packet.fromPost(post));
+		}
+
+		assertEquals(TopicWriterTest.POST_COUNT, topic.getLastPostId());
+		assertTrue(dao.getPosts(TopicWriterTest.TOPIC_NAME).isEmpty());
+
+		dao.resumeWrites();
+		while (dao.getPosts(TopicWriterTest.TOPIC_NAME).size() < TopicWriterTest.POST_COUNT) {
+			Thread.sleep(10);
+		}
+
+		final List<Post> saved = dao.getPosts(TopicWriterTest.TOPIC_NAME);
+		for (int i = 0; i < TopicWriterTest.POST_COUNT; i++) {
+			assertEquals(i + 1, saved.get(i).getPostInfo().getId());
+		}
+	}
+
+	/** A range of a Post that hasn't been saved yet is copied from the Packets in memory */
+	@Test(timeout = 10_000)
+	public void rangeOfUnsavedPostIsCopiedFromMemory() throws IOException {
+		dao.stallWrites();
+
+		final Post post = TestFixtures.createPost(1, TopicWriterTest.POST_SIZE);
+		topic.post(post.getPostInfo(), Packet.fromPost(post));
+
+		// the range spans both Packets of the Post
+		final int offset = 500 * 1024;
+		final int length = 50 * 1024;
+		final List<PostInfo> postInfos = new ArrayList<>();
+		final LongObjectMap<Packet[]> packets = new LongObjectMap<>();
+		assertTrue(topic.getPostRange(1, offset, length, postInfos, packets));
+
+		final Packet[] range = packets.get(1);
+		try {
+			assertArrayEquals(
+					Arrays.copyOfRange(post.getData(), offset, offset + length),
+					Post.fromPackets(range, postInfos.get(0)).getData());
+		} finally {
+			Packet.releaseAll(range);
+		}
+		assertTrue(dao.getPosts(TopicWriterTest.TOPIC_NAME).isEmpty());
+	}
+}
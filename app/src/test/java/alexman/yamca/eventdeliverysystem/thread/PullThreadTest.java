@@ -0,0 +1,149 @@
+package alexman.yamca.eventdeliverysystem.thread;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import alexman.yamca.eventdeliverysystem.datastructures.AbstractTopic;
+import alexman.yamca.eventdeliverysystem.datastructures.BufferPool;
+import alexman.yamca.eventdeliverysystem.datastructures.Packet;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.util.TestFixtures;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests that a {@link PullThread} releases every Packet it reads, whether it reads the whole
+ * stream or not.
+ *
+ * @author Alex Mandelias
+ */
+public class PullThreadTest {
+
+	// large enough to be broken into more than one Packet
+	private static final int LARGE_POST_SIZE = 1200 * 1024;
+
+	private long outstandingBefore;
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() {
+		outstandingBefore = BufferPool.getDefault().getOutstandingCount();
+	}
+
+	private long leaked() {
+		return BufferPool.getDefault().getOutstandingCount() - outstandingBefore;
+	}
+
+	// writes the Posts the way a PushThread does
+	private static byte[] serialize(List<Post> posts) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			oos.writeInt(posts.size());
+			for (final Post post : posts) {
+				oos.writeObject(post.getPostInfo());
+				final Packet[] packets = Packet.fromPost(post);
+				for (final Packet packet : packets) {
+					oos.writeObject(packet);
+				}
+				Packet.releaseAll(packets);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static boolean pull(byte[] bytes, AbstractTopic topic) throws IOException {
+		final boolean[] success = new boolean[1];
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			new PullThread(ois, topic, (callbackSuccess, topicName, cause) -> {
+				success[0] = callbackSuccess && (cause == null);
+			}).run();
+		}
+		return success[0];
+	}
+
+	/** Every Packet of the Posts read is released by the Topic they are posted to */
+	@Test
+	public void completeStreamReleasesEveryPacket() throws IOException {
+		final List<Post> posts = Arrays.asList(TestFixtures.createPost(1, 10),
+				TestFixtures.createPost(2, PullThreadTest.LARGE_POST_SIZE));
+		final byte[] bytes = PullThreadTest.serialize(posts);
+		final CollectingTopic topic = new CollectingTopic();
+
+		assertTrue(PullThreadTest.pull(bytes, topic));
+
+		assertEquals(0, leaked());
+		assertEquals(2, topic.posts.size());
+		assertArrayEquals(posts.get(1).getData(), topic.posts.get(1).getData());
+	}
+
+	/** The Packets of a Post that is cut short are released instead of being posted */
+	@Test
+	public void truncatedStreamReleasesStagedPackets() throws IOException {
+		final List<Post> posts = Arrays.asList(TestFixtures.createPost(1, 10),
+				TestFixtures.createPost(2, PullThreadTest.LARGE_POST_SIZE));
+		final byte[] bytes = PullThreadTest.serialize(posts);
+		final byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1000);
+		final CollectingTopic topic = new CollectingTopic();
+
+		assertFalse(PullThreadTest.pull(truncated, topic));
+
+		assertEquals(0, leaked());
+		assertEquals(1, topic.posts.size());
+	}
+
+	// a Topic that reassembles the Posts posted to it and releases their Packets
+	private static final class CollectingTopic extends AbstractTopic {
+
+		private final List<Post> posts = new ArrayList<>();
+
+		private CollectingTopic() {
+			super("topic");
+		}
+
+		@Override
+		protected long getLastPostId() {
+			return AbstractTopic.FETCH_ALL_POSTS;
+		}
+
+		@Override
+		protected void postHook(PostInfo postInfo, Packet[] packets) {
+			posts.add(Post.fromPackets(packets, postInfo));
+			Packet.releaseAll(packets);
+		}
+
+		@Override
+		protected void postHook(PostInfo postInfo) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected void postHook(Packet packet) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Iterator<Post> iterator() {
+			return posts.iterator();
+		}
+	}
+}
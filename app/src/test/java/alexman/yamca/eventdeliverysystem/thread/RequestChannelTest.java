@@ -0,0 +1,119 @@
+package alexman.yamca.eventdeliverysystem.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.ControlRequest;
+import alexman.yamca.eventdeliverysystem.datastructures.ControlResponse;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.util.TestLog;
+
+/**
+ * Tests for the requests that a Broker forwards over a {@link RequestChannel} to a fake Broker,
+ * which answers every request except for those whose value is {@code "ignore"}.
+ *
+ * @author Alex Mandelias
+ */
+public class RequestChannelTest {
+
+	private static final long TIMEOUT_MILLIS = 500L;
+
+	private ServerSocket serverSocket;
+	private ConnectionInfo forwardingBroker;
+	private RequestChannel channel;
+
+	// the value with which the fake Broker was asked to open the channel
+	private final CompletableFuture<Object> initialisation = new CompletableFuture<>();
+
+	@BeforeClass
+	public static void setUpLogging() {
+		TestLog.silence();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		serverSocket = new ServerSocket(0);
+		final Thread broker = new Thread(this::runBroker, "FakeBroker");
+		broker.setDaemon(true);
+		broker.start();
+
+		// any ConnectionInfo will do, since the fake Broker doesn't connect to it
+		forwardingBroker = ConnectionInfo.forServerSocket(serverSocket);
+		channel = new RequestChannel(InetAddress.getLoopbackAddress(),
+				serverSocket.getLocalPort(), forwardingBroker, RequestChannelTest.TIMEOUT_MILLIS);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		channel.close();
+		serverSocket.close();
+	}
+
+	private void runBroker() {
+		try (Socket socket = serverSocket.accept()) {
+			final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+
+			initialisation.complete(((Message) ois.readObject()).getValue());
+			oos.writeBoolean(true);
+			oos.flush();
+
+			while (true) {
+				final ControlRequest request = (ControlRequest) ois.readObject();
+				final Object value = request.getMessage().getValue();
+				if (!"ignore".equals(value)) {
+					oos.writeObject(new ControlResponse(request.getRequestId(), (String) value));
+					oos.flush();
+				}
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			// the test has finished
+		}
+	}
+
+	/**
+	 * A forwarded request that isn't answered in time fails without holding up the requests after
+	 * it, and the other Broker is told which Broker forwards them
+	 */
+	@Test(timeout = 30_000)
+	public void unansweredForwardedRequestTimesOut() throws Exception {
+		final CompletableFuture<ControlResponse> ignored =
+				channel.send(new Message(MessageType.CREATE_TOPIC, "ignore"));
+		final CompletableFuture<ControlResponse> answered =
+				channel.send(new Message(MessageType.CREATE_TOPIC, "answered"));
+
+		assertEquals("answered", answered.get().getValue());
+		assertEquals(forwardingBroker, initialisation.get());
+
+		final long start = System.currentTimeMillis();
+		try {
+			ignored.get();
+			fail("The request was answered");
+		} catch (final ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+
+		final long waitedMillis = System.currentTimeMillis() - start;
+		assertTrue("Waited " + waitedMillis + " ms", waitedMillis < 5_000L);
+		assertEquals(0, channel.getPendingRequestCount());
+	}
+}
@@ -0,0 +1,109 @@
+package alexman.yamca.eventdeliverysystem.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import alexman.yamca.eventdeliverysystem.client.User;
+import alexman.yamca.eventdeliverysystem.datastructures.ConnectionInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.Message;
+import alexman.yamca.eventdeliverysystem.datastructures.Message.MessageType;
+import alexman.yamca.eventdeliverysystem.datastructures.Post;
+import alexman.yamca.eventdeliverysystem.datastructures.PostInfo;
+import alexman.yamca.eventdeliverysystem.datastructures.RoutingTable;
+
+/**
+ * Creates the objects, and waits for the conditions, that tests of many classes need.
+ *
+ * @author Alex Mandelias
+ */
+public final class TestFixtures {
+
+	private TestFixtures() {}
+
+	/**
+	 * Creates a text Post whose data depends on its ID, so that the data of different Posts can be
+	 * told apart.
+	 *
+	 * @param id the ID of the Post
+	 * @param size the size of its data
+	 *
+	 * @return the Post
+	 */
+	public static Post createPost(long id, int size) {
+		return TestFixtures.createPost(id, "txt", size);
+	}
+
+	/**
+	 * Creates a Post whose data depends on its ID, so that the data of different Posts can be told
+	 * apart.
+	 *
+	 * @param id the ID of the Post
+	 * @param extension the file extension of the Post
+	 * @param size the size of its data
+	 *
+	 * @return the Post
+	 */
+	public static Post createPost(long id, String extension, int size) {
+		final byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) (id + i);
+		}
+
+		return new Post(data, new PostInfo("poster", extension, id, size, null));
+	}
+
+	/**
+	 * Creates the ConnectionInfo of a Broker that doesn't run, whose port is only used to tell it
+	 * apart from other Brokers.
+	 *
+	 * @return the ConnectionInfo
+	 *
+	 * @throws IOException if no port is available
+	 */
+	public static ConnectionInfo newConnectionInfo() throws IOException {
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			return ConnectionInfo.forServerSocket(serverSocket);
+		}
+	}
+
+	/**
+	 * Asks a Broker for its current RoutingTable on a connection of its own.
+	 *
+	 * @param port the port on which the Broker accepts clients
+	 *
+	 * @return the RoutingTable
+	 *
+	 * @throws IOException if the Broker can't be reached
+	 * @throws ClassNotFoundException if the Broker doesn't send a RoutingTable
+	 */
+	public static RoutingTable getRoutingTable(int port)
+			throws IOException, ClassNotFoundException {
+		try (Socket socket = new Socket("127.0.0.1", port)) {
+			final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+			oos.flush();
+			final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+
+			oos.writeObject(new Message(MessageType.ROUTING_TABLE_DISCOVERY, null));
+			oos.flush();
+			return (RoutingTable) ois.readObject();
+		}
+	}
+
+	/**
+	 * Waits until a User has added a Topic, which it does when it listens for it, after which it
+	 * may post to it.
+	 *
+	 * @param user the User
+	 * @param topicName the name of the Topic
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void awaitTopic(User user, String topicName) throws InterruptedException {
+		while (user.getAllTopics().stream().noneMatch(t -> t.getName().equals(topicName))) {
+			Thread.sleep(10);
+		}
+	}
+}
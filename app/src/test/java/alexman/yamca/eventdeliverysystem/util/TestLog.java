@@ -0,0 +1,27 @@
+package alexman.yamca.eventdeliverysystem.util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Sets up the {@link LG} class for tests.
+ *
+ * @author Alex Mandelias
+ */
+public final class TestLog {
+
+	private TestLog() {}
+
+	/** Discards everything logged, since the classes under test can't log without streams. */
+	public static void silence() {
+		final PrintStream discard = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				// discard
+			}
+		});
+
+		LG.setOut(discard);
+		LG.setErr(discard);
+	}
+}